@@ -0,0 +1,185 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery;
+
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.di.job.entries.build.JobEntryBuildModel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the annotation groups of every annotation step that runs under one job. Step copies and parallel
+ * transformations contribute concurrently without locking; each contributor (transformation, step and group) holds
+ * a single slot, so step copies and re-runs replace instead of append.
+ * <p/>
+ * Snapshots list contributors in the order of their first contribution, which is the order sequential
+ * transformations ran in, so a later transformation's annotation on a field is applied last and wins. Annotation
+ * instances shared between contributors are listed once; equal annotations of different groups are separate
+ * instances and are listed, and applied, once per group.
+ * <p/>
+ * A contribution records the steps its annotations are meant for, so each model of a batch only gets the annotations
+ * of its own output step.
+ */
+public class AnnotationAccumulator {
+
+  public static final String KEY_ANNOTATION_ACCUMULATOR = "JobEntryBuildModel.AnnotationAccumulator";
+
+  private final ConcurrentMap<String, Contribution> contributions = new ConcurrentHashMap<String, Contribution>();
+  private final AtomicLong sequence = new AtomicLong();
+
+  /**
+   * The slot of one contributor, ranked by its first contribution
+   */
+  private static class Contribution {
+    private final long sequence;
+    private volatile List<ModelAnnotation> annotations;
+    private volatile Set<String> targetSteps;
+
+    Contribution( long sequence, List<ModelAnnotation> annotations, Set<String> targetSteps ) {
+      this.sequence = sequence;
+      this.annotations = annotations;
+      this.targetSteps = targetSteps;
+    }
+  }
+
+  private static final Comparator<Contribution> BY_SEQUENCE = new Comparator<Contribution>() {
+    @Override
+    public int compare( Contribution c1, Contribution c2 ) {
+      return c1.sequence < c2.sequence ? -1 : ( c1.sequence == c2.sequence ? 0 : 1 );
+    }
+  };
+
+  /**
+   * Gets the accumulator of a job, creating it on first use.
+   */
+  public static AnnotationAccumulator get( Map<String, Object> extensionDataMap ) {
+    synchronized ( extensionDataMap ) {
+      Object accumulator = extensionDataMap.get( KEY_ANNOTATION_ACCUMULATOR );
+      if ( accumulator instanceof AnnotationAccumulator ) {
+        return (AnnotationAccumulator) accumulator;
+      }
+      AnnotationAccumulator created = new AnnotationAccumulator();
+      Object existing = extensionDataMap.get( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS );
+      if ( existing instanceof ModelAnnotationGroup ) {
+        // keep whatever was published before the accumulator existed
+        created.contribute( "", (ModelAnnotationGroup) existing );
+      }
+      extensionDataMap.put( KEY_ANNOTATION_ACCUMULATOR, created );
+      return created;
+    }
+  }
+
+  /**
+   * Gets the accumulator of a job without creating one.
+   */
+  public static AnnotationAccumulator find( Map<String, Object> extensionDataMap ) {
+    synchronized ( extensionDataMap ) {
+      Object accumulator = extensionDataMap.get( KEY_ANNOTATION_ACCUMULATOR );
+      return accumulator instanceof AnnotationAccumulator ? (AnnotationAccumulator) accumulator : null;
+    }
+  }
+
+  public static String getContributorKey( String transName, String stepName, String groupName ) {
+    return String.valueOf( transName ) + '\u0000' + String.valueOf( stepName ) + '\u0000' + String.valueOf( groupName );
+  }
+
+  /**
+   * Replaces the annotations of a contributor whose target steps are not known.
+   */
+  public void contribute( String contributorKey, ModelAnnotationGroup group ) {
+    contribute( contributorKey, Collections.<String>emptySet(), group );
+  }
+
+  /**
+   * Replaces the annotations of a contributor. A contributor keeps the rank of its first contribution.
+   *
+   * @param targetSteps names of the output steps the annotations are meant for
+   */
+  public void contribute( String contributorKey, Collection<String> targetSteps, ModelAnnotationGroup group ) {
+    List<ModelAnnotation> annotations = new ArrayList<ModelAnnotation>( group );
+    Set<String> targets = new HashSet<String>( targetSteps );
+    Contribution contribution = contributions.get( contributorKey );
+    if ( contribution == null ) {
+      contribution = contributions.putIfAbsent( contributorKey,
+          new Contribution( sequence.incrementAndGet(), annotations, targets ) );
+      if ( contribution == null ) {
+        return;
+      }
+    }
+    contribution.targetSteps = targets;
+    contribution.annotations = annotations;
+  }
+
+  /**
+   * @return the annotations of every contributor, for a model built from whatever the job annotated
+   */
+  public ModelAnnotationGroup snapshot() {
+    return snapshot( null );
+  }
+
+  /**
+   * @param outputStep the output step a model is built from, or null for all annotations
+   * @return the annotations meant for an output step, leaving out contributors that did not tell their target
+   */
+  public ModelAnnotationGroup snapshot( String outputStep ) {
+    List<Contribution> ranked = new ArrayList<Contribution>();
+    for ( Contribution contribution : contributions.values() ) {
+      if ( outputStep == null || contribution.targetSteps.contains( outputStep ) ) {
+        ranked.add( contribution );
+      }
+    }
+    Collections.sort( ranked, BY_SEQUENCE );
+    ModelAnnotationGroup merged = new ModelAnnotationGroup();
+    Set<ModelAnnotation> seen = Collections.newSetFromMap( new IdentityHashMap<ModelAnnotation, Boolean>() );
+    for ( Contribution contribution : ranked ) {
+      for ( ModelAnnotation annotation : contribution.annotations ) {
+        if ( seen.add( annotation ) ) {
+          merged.add( annotation );
+        }
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Replaces the group under {@link JobEntryBuildModel#KEY_MODEL_ANNOTATIONS} with a fresh snapshot. Published
+   * groups are never modified afterwards, so readers can iterate them freely.
+   */
+  public void publish( Map<String, Object> extensionDataMap ) {
+    synchronized ( extensionDataMap ) {
+      extensionDataMap.put( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS, snapshot() );
+    }
+  }
+}
@@ -0,0 +1,504 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+package org.pentaho.di.core.refinery;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.metastore.api.IMetaStore;
+import org.pentaho.metastore.api.IMetaStoreAttribute;
+import org.pentaho.metastore.api.IMetaStoreElement;
+import org.pentaho.metastore.api.IMetaStoreElementType;
+import org.pentaho.metastore.api.exceptions.MetaStoreException;
+import org.pentaho.metastore.api.security.IMetaStoreElementOwner;
+import org.pentaho.metastore.api.security.ITwoWayPasswordEncoder;
+import org.pentaho.metastore.api.security.MetaStoreElementOwnerType;
+import org.pentaho.metastore.api.security.MetaStoreOwnerPermissions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Read-through cache in front of an {@link IMetaStore}. Element types and elements are cached by namespace, element
+ * type name and element name (or id), so annotation groups, shared dimensions and the database connections they
+ * reference are deserialized once instead of once per step copy, transformation load and model build.
+ * <p/>
+ * Every wrapper of the same metastore shares one bounded LRU region. Writes go through to the metastore, bump the
+ * change stamp of the element type they touch and then cache the written element, so readers never see an entry
+ * older than the last write made through any wrapper. The steps, job entries and dialogs of this plugin therefore
+ * always read and write through {@link #wrap(IMetaStore)}; writes made around the cache, e.g. by another process,
+ * become visible once an entry reaches its maximum age.
+ * <p/>
+ * Elements and element types are mutable, so the cache keeps copies of its own and hands out a fresh copy on every
+ * read.
+ */
+public class CachingMetaStore implements IMetaStore {
+
+  public static final String CACHE_SIZE_PROPERTY = "KETTLE_DATA_REFINERY_METASTORE_CACHE_SIZE";
+  public static final String CACHE_TTL_PROPERTY = "KETTLE_DATA_REFINERY_METASTORE_CACHE_TTL";
+
+  public static final int DEFAULT_CACHE_SIZE = 512;
+  public static final long DEFAULT_CACHE_TTL = 5000L;
+
+  private static final char SEPARATOR = '\u0000';
+
+  private static final Map<IMetaStore, Region> regions = new WeakHashMap<IMetaStore, Region>();
+
+  private final IMetaStore delegate;
+  private final Region region;
+
+  CachingMetaStore( IMetaStore delegate, int maxEntries, long maxAgeMillis ) {
+    this( delegate, new Region( maxEntries, maxAgeMillis ) );
+  }
+
+  private CachingMetaStore( IMetaStore delegate, Region region ) {
+    this.delegate = delegate;
+    this.region = region;
+  }
+
+  /**
+   * Wraps a metastore with the cache region shared by every wrapper of that metastore.
+   *
+   * @param metaStore may be null
+   * @return the caching metastore, or the argument itself if it is null or already cached
+   */
+  public static IMetaStore wrap( IMetaStore metaStore ) {
+    if ( metaStore == null || metaStore instanceof CachingMetaStore ) {
+      return metaStore;
+    }
+    Region region;
+    synchronized ( regions ) {
+      region = regions.get( metaStore );
+      if ( region == null ) {
+        region = new Region(
+            Const.toInt( System.getProperty( CACHE_SIZE_PROPERTY ), DEFAULT_CACHE_SIZE ),
+            Const.toLong( System.getProperty( CACHE_TTL_PROPERTY ), DEFAULT_CACHE_TTL ) );
+        regions.put( metaStore, region );
+      }
+    }
+    return new CachingMetaStore( metaStore, region );
+  }
+
+  public IMetaStore getDelegate() {
+    return delegate;
+  }
+
+  public long getHitCount() {
+    return region.getHits();
+  }
+
+  public long getMissCount() {
+    return region.getMisses();
+  }
+
+  /**
+   * Drops every cached entry of the wrapped metastore.
+   */
+  public void clearCache() {
+    region.clear();
+  }
+
+  @Override
+  public IMetaStoreElementType getElementTypeByName( String namespace, String elementTypeName )
+    throws MetaStoreException {
+    String scope = namespaceScope( namespace );
+    String key = scope + SEPARATOR + "type" + SEPARATOR + elementTypeName;
+    Entry entry = region.lookup( key );
+    if ( entry != null ) {
+      return copy( namespace, (IMetaStoreElementType) entry.value );
+    }
+    long stamp = region.getStamp( scope );
+    IMetaStoreElementType elementType = delegate.getElementTypeByName( namespace, elementTypeName );
+    region.store( key, scope, stamp, copy( namespace, elementType ) );
+    return elementType;
+  }
+
+  @Override
+  public IMetaStoreElement getElementByName( String namespace, IMetaStoreElementType elementType, String name )
+    throws MetaStoreException {
+    String scope = typeScope( namespace, elementType );
+    String key = nameKey( scope, name );
+    Entry entry = region.lookup( key );
+    if ( entry != null ) {
+      return copy( (IMetaStoreElement) entry.value );
+    }
+    long stamp = region.getStamp( scope );
+    IMetaStoreElement element = delegate.getElementByName( namespace, elementType, name );
+    region.store( key, scope, stamp, copy( element ) );
+    return element;
+  }
+
+  @Override
+  public IMetaStoreElement getElement( String namespace, IMetaStoreElementType elementType, String elementId )
+    throws MetaStoreException {
+    String scope = typeScope( namespace, elementType );
+    String key = idKey( scope, elementId );
+    Entry entry = region.lookup( key );
+    if ( entry != null ) {
+      return copy( (IMetaStoreElement) entry.value );
+    }
+    long stamp = region.getStamp( scope );
+    IMetaStoreElement element = delegate.getElement( namespace, elementType, elementId );
+    region.store( key, scope, stamp, copy( element ) );
+    return element;
+  }
+
+  @Override
+  @SuppressWarnings( "unchecked" )
+  public List<IMetaStoreElement> getElements( String namespace, IMetaStoreElementType elementType )
+    throws MetaStoreException {
+    String scope = typeScope( namespace, elementType );
+    String key = scope + SEPARATOR + "elements";
+    Entry entry = region.lookup( key );
+    if ( entry != null ) {
+      return copy( (List<IMetaStoreElement>) entry.value );
+    }
+    long stamp = region.getStamp( scope );
+    List<IMetaStoreElement> elements = delegate.getElements( namespace, elementType );
+    region.store( key, scope, stamp, copy( elements ) );
+    return elements;
+  }
+
+  @Override
+  public void createElement( String namespace, IMetaStoreElementType elementType, IMetaStoreElement element )
+    throws MetaStoreException {
+    delegate.createElement( namespace, elementType, element );
+    writeThrough( namespace, elementType, element.getId(), element );
+  }
+
+  @Override
+  public void updateElement( String namespace, IMetaStoreElementType elementType, String elementId,
+                             IMetaStoreElement element ) throws MetaStoreException {
+    delegate.updateElement( namespace, elementType, elementId, element );
+    writeThrough( namespace, elementType, elementId, element );
+  }
+
+  @Override
+  public void deleteElement( String namespace, IMetaStoreElementType elementType, String elementId )
+    throws MetaStoreException {
+    try {
+      delegate.deleteElement( namespace, elementType, elementId );
+    } finally {
+      region.bump( typeScope( namespace, elementType ) );
+    }
+  }
+
+  private void writeThrough( String namespace, IMetaStoreElementType elementType, String elementId,
+                             IMetaStoreElement element ) throws MetaStoreException {
+    String scope = typeScope( namespace, elementType );
+    long stamp = region.bump( scope );
+    // the writer keeps its element and may go on changing it
+    IMetaStoreElement written = copy( element );
+    if ( element.getName() != null ) {
+      region.store( nameKey( scope, element.getName() ), scope, stamp, written );
+    }
+    if ( elementId != null ) {
+      region.store( idKey( scope, elementId ), scope, stamp, written );
+    }
+  }
+
+  private IMetaStoreElementType copy( String namespace, IMetaStoreElementType elementType )
+    throws MetaStoreException {
+    if ( elementType == null ) {
+      return null;
+    }
+    IMetaStoreElementType copy = delegate.newElementType( namespace );
+    copy.setNamespace( elementType.getNamespace() );
+    copy.setId( elementType.getId() );
+    copy.setName( elementType.getName() );
+    copy.setDescription( elementType.getDescription() );
+    copy.setMetaStoreName( elementType.getMetaStoreName() );
+    return copy;
+  }
+
+  private List<IMetaStoreElement> copy( List<IMetaStoreElement> elements ) throws MetaStoreException {
+    if ( elements == null ) {
+      return null;
+    }
+    List<IMetaStoreElement> copy = new ArrayList<IMetaStoreElement>( elements.size() );
+    for ( IMetaStoreElement element : elements ) {
+      copy.add( copy( element ) );
+    }
+    return copy;
+  }
+
+  private IMetaStoreElement copy( IMetaStoreElement element ) throws MetaStoreException {
+    if ( element == null ) {
+      return null;
+    }
+    IMetaStoreElement copy = delegate.newElement( element.getElementType(), element.getId(), element.getValue() );
+    copy.setName( element.getName() );
+    copy.setOwner( element.getOwner() );
+    if ( element.getOwnerPermissionsList() != null ) {
+      copy.setOwnerPermissionsList(
+          new ArrayList<MetaStoreOwnerPermissions>( element.getOwnerPermissionsList() ) );
+    }
+    copyChildren( element, copy );
+    return copy;
+  }
+
+  private void copyChildren( IMetaStoreAttribute from, IMetaStoreAttribute to ) throws MetaStoreException {
+    if ( from.getChildren() == null ) {
+      return;
+    }
+    for ( IMetaStoreAttribute child : from.getChildren() ) {
+      IMetaStoreAttribute childCopy = delegate.newAttribute( child.getId(), child.getValue() );
+      copyChildren( child, childCopy );
+      to.addChild( childCopy );
+    }
+  }
+
+  @Override
+  public void createElementType( String namespace, IMetaStoreElementType elementType ) throws MetaStoreException {
+    try {
+      delegate.createElementType( namespace, elementType );
+    } finally {
+      elementTypeChanged( namespace, elementType );
+    }
+  }
+
+  @Override
+  public void updateElementType( String namespace, IMetaStoreElementType elementType ) throws MetaStoreException {
+    try {
+      delegate.updateElementType( namespace, elementType );
+    } finally {
+      elementTypeChanged( namespace, elementType );
+    }
+  }
+
+  @Override
+  public void deleteElementType( String namespace, IMetaStoreElementType elementType ) throws MetaStoreException {
+    try {
+      delegate.deleteElementType( namespace, elementType );
+    } finally {
+      elementTypeChanged( namespace, elementType );
+    }
+  }
+
+  private void elementTypeChanged( String namespace, IMetaStoreElementType elementType ) {
+    region.bump( namespaceScope( namespace ) );
+    region.bump( typeScope( namespace, elementType ) );
+  }
+
+  @Override
+  public void createNamespace( String namespace ) throws MetaStoreException {
+    delegate.createNamespace( namespace );
+  }
+
+  @Override
+  public void deleteNamespace( String namespace ) throws MetaStoreException {
+    try {
+      delegate.deleteNamespace( namespace );
+    } finally {
+      region.clear();
+    }
+  }
+
+  @Override
+  public List<String> getNamespaces() throws MetaStoreException {
+    return delegate.getNamespaces();
+  }
+
+  @Override
+  public boolean namespaceExists( String namespace ) throws MetaStoreException {
+    return delegate.namespaceExists( namespace );
+  }
+
+  @Override
+  public List<IMetaStoreElementType> getElementTypes( String namespace ) throws MetaStoreException {
+    return delegate.getElementTypes( namespace );
+  }
+
+  @Override
+  public List<String> getElementTypeIds( String namespace ) throws MetaStoreException {
+    return delegate.getElementTypeIds( namespace );
+  }
+
+  @Override
+  public IMetaStoreElementType getElementType( String namespace, String elementTypeId ) throws MetaStoreException {
+    return delegate.getElementType( namespace, elementTypeId );
+  }
+
+  @Override
+  public List<String> getElementIds( String namespace, IMetaStoreElementType elementType )
+    throws MetaStoreException {
+    return delegate.getElementIds( namespace, elementType );
+  }
+
+  @Override
+  public IMetaStoreElementType newElementType( String namespace ) throws MetaStoreException {
+    return delegate.newElementType( namespace );
+  }
+
+  @Override
+  public IMetaStoreElement newElement() throws MetaStoreException {
+    return delegate.newElement();
+  }
+
+  @Override
+  public IMetaStoreElement newElement( IMetaStoreElementType elementType, String id, Object value )
+    throws MetaStoreException {
+    return delegate.newElement( elementType, id, value );
+  }
+
+  @Override
+  public IMetaStoreAttribute newAttribute( String id, Object value ) throws MetaStoreException {
+    return delegate.newAttribute( id, value );
+  }
+
+  @Override
+  public IMetaStoreElementOwner newElementOwner( String name, MetaStoreElementOwnerType ownerType )
+    throws MetaStoreException {
+    return delegate.newElementOwner( name, ownerType );
+  }
+
+  @Override
+  public String getName() throws MetaStoreException {
+    return delegate.getName();
+  }
+
+  @Override
+  public String getDescription() throws MetaStoreException {
+    return delegate.getDescription();
+  }
+
+  @Override
+  public void setTwoWayPasswordEncoder( ITwoWayPasswordEncoder encoder ) {
+    delegate.setTwoWayPasswordEncoder( encoder );
+  }
+
+  @Override
+  public ITwoWayPasswordEncoder getTwoWayPasswordEncoder() {
+    return delegate.getTwoWayPasswordEncoder();
+  }
+
+  private static String namespaceScope( String namespace ) {
+    return String.valueOf( namespace );
+  }
+
+  private static String typeScope( String namespace, IMetaStoreElementType elementType ) {
+    return String.valueOf( namespace ) + SEPARATOR + ( elementType == null ? null : elementType.getName() );
+  }
+
+  private static String nameKey( String scope, String name ) {
+    return scope + SEPARATOR + "name" + SEPARATOR + name;
+  }
+
+  private static String idKey( String scope, String id ) {
+    return scope + SEPARATOR + "id" + SEPARATOR + id;
+  }
+
+  private static class Entry {
+    private final String scope;
+    private final long stamp;
+    private final long loaded;
+    private final Object value;
+
+    Entry( String scope, long stamp, long loaded, Object value ) {
+      this.scope = scope;
+      this.stamp = stamp;
+      this.loaded = loaded;
+      this.value = value;
+    }
+  }
+
+  /**
+   * Cached entries of one metastore. An entry is valid while the change stamp of its scope is the one it was loaded
+   * under and it is younger than the maximum age; a maximum age of zero disables caching.
+   */
+  private static class Region {
+    private final int maxEntries;
+    private final long maxAgeMillis;
+    private final Map<String, Long> stamps = new HashMap<String, Long>();
+    private final Map<String, Entry> entries;
+    private long hits;
+    private long misses;
+
+    Region( final int maxEntries, long maxAgeMillis ) {
+      this.maxEntries = maxEntries;
+      this.maxAgeMillis = maxAgeMillis;
+      entries = new LinkedHashMap<String, Entry>( 16, 0.75f, true ) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, Entry> eldest ) {
+          return size() > maxEntries;
+        }
+      };
+    }
+
+    synchronized Entry lookup( String key ) {
+      Entry entry = entries.get( key );
+      if ( entry != null && isValid( entry ) ) {
+        hits++;
+        return entry;
+      }
+      if ( entry != null ) {
+        entries.remove( key );
+      }
+      misses++;
+      return null;
+    }
+
+    synchronized Entry store( String key, String scope, long stamp, Object value ) {
+      Entry entry = new Entry( scope, stamp, System.currentTimeMillis(), value );
+      // a write made while the value was loading makes it stale already
+      if ( maxEntries > 0 && isValid( entry ) ) {
+        entries.put( key, entry );
+      }
+      return entry;
+    }
+
+    synchronized long getStamp( String scope ) {
+      Long stamp = stamps.get( scope );
+      return stamp == null ? 0L : stamp;
+    }
+
+    synchronized long bump( String scope ) {
+      long stamp = getStamp( scope ) + 1;
+      stamps.put( scope, stamp );
+      return stamp;
+    }
+
+    synchronized void clear() {
+      for ( Map.Entry<String, Long> stamp : stamps.entrySet() ) {
+        stamp.setValue( stamp.getValue() + 1 );
+      }
+      entries.clear();
+    }
+
+    synchronized long getHits() {
+      return hits;
+    }
+
+    synchronized long getMisses() {
+      return misses;
+    }
+
+    private boolean isValid( Entry entry ) {
+      return entry.stamp == getStamp( entry.scope )
+          && System.currentTimeMillis() - entry.loaded < maxAgeMillis;
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+package org.pentaho.di.core.refinery;
+
+import org.pentaho.agilebi.modeler.models.annotations.data.ColumnMapping;
+import org.pentaho.agilebi.modeler.models.annotations.data.DataProvider;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.metastore.api.IMetaStore;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * Remembers what was last written for each data provider of a shared dimension, so a transformation that loads the
+ * same table through the same connection again does not rewrite the connection and the group.
+ * <p/>
+ * A fingerprint covers the schema, table and column mappings of a provider together with the connection details.
+ * Fingerprints are kept per metastore for the life of the process.
+ */
+public class DataProviderFingerprints {
+
+  static final int MAX_ENTRIES = 10000;
+
+  private static final Map<IMetaStore, DataProviderFingerprints> registry =
+      new WeakHashMap<IMetaStore, DataProviderFingerprints>();
+
+  private final Map<String, Written> written = new LinkedHashMap<String, Written>( 16, 0.75f, true ) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry( Map.Entry<String, Written> eldest ) {
+      return size() > MAX_ENTRIES;
+    }
+  };
+
+  /**
+   * Gets the fingerprints recorded for a metastore, looking through the caching wrapper.
+   */
+  public static DataProviderFingerprints forMetaStore( IMetaStore metaStore ) {
+    IMetaStore key =
+        metaStore instanceof CachingMetaStore ? ( (CachingMetaStore) metaStore ).getDelegate() : metaStore;
+    synchronized ( registry ) {
+      DataProviderFingerprints fingerprints = registry.get( key );
+      if ( fingerprints == null ) {
+        fingerprints = new DataProviderFingerprints();
+        registry.put( key, fingerprints );
+      }
+      return fingerprints;
+    }
+  }
+
+  /**
+   * @return the connection reference last written for a provider of a group, or null if the provider was not written
+   *         with this fingerprint
+   */
+  public synchronized String getWrittenRef( String groupName, String providerKey, String fingerprint ) {
+    Written entry = written.get( groupName + '\u0000' + providerKey );
+    return entry != null && entry.fingerprint.equals( fingerprint ) ? entry.ref : null;
+  }
+
+  public synchronized void recordWritten( String groupName, String providerKey, String fingerprint, String ref ) {
+    written.put( groupName + '\u0000' + providerKey, new Written( fingerprint, ref ) );
+  }
+
+  /**
+   * Fingerprints the schema, table and column mappings of a data provider and its connection.
+   */
+  public static String fingerprint( DataProvider provider, DatabaseMeta databaseMeta ) {
+    StringBuilder content = new StringBuilder();
+    append( content, provider.getSchemaName() );
+    append( content, provider.getTableName() );
+    append( content, getColumnMappingsContent( provider.getColumnMappings() ) );
+    if ( databaseMeta != null ) {
+      append( content, databaseMeta.getName() );
+      append( content, databaseMeta.getPluginId() );
+      append( content, databaseMeta.getAccessTypeDesc() );
+      append( content, databaseMeta.getHostname() );
+      append( content, databaseMeta.getDatabaseName() );
+      append( content, databaseMeta.getDatabasePortNumberString() );
+      append( content, databaseMeta.getServername() );
+      append( content, databaseMeta.getUsername() );
+      append( content, databaseMeta.getPassword() );
+      Properties attributes = databaseMeta.getAttributes();
+      if ( attributes != null ) {
+        // sorted, attribute order differs between copies of a connection
+        append( content, new TreeMap<Object, Object>( attributes ).toString() );
+      }
+    }
+    return digest( content.toString() );
+  }
+
+  /**
+   * @return true if both providers have the same column mappings, in the same order
+   */
+  public static boolean sameColumnMappings( DataProvider one, DataProvider other ) {
+    return getColumnMappingsContent( one.getColumnMappings() )
+        .equals( getColumnMappingsContent( other.getColumnMappings() ) );
+  }
+
+  private static String getColumnMappingsContent( List<ColumnMapping> columnMappings ) {
+    StringBuilder content = new StringBuilder();
+    if ( columnMappings != null ) {
+      for ( ColumnMapping columnMapping : columnMappings ) {
+        append( content, columnMapping.getName() );
+        append( content, columnMapping.getColumnName() );
+        append( content, columnMapping.getColumnDataType() == null ? null : columnMapping.getColumnDataType().name() );
+      }
+    }
+    return content.toString();
+  }
+
+  private static void append( StringBuilder content, String value ) {
+    // length prefixed, so no value can pass for two
+    if ( value == null ) {
+      content.append( "-1:" );
+    } else {
+      content.append( value.length() ).append( ':' ).append( value );
+    }
+  }
+
+  /**
+   * @return the hex encoded SHA-256 hash of some content
+   */
+  public static String digest( String content ) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+      byte[] hash = digest.digest( content.getBytes( Const.XML_ENCODING ) );
+      StringBuilder hex = new StringBuilder( hash.length * 2 );
+      for ( byte b : hash ) {
+        hex.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+      }
+      return hex.toString();
+    } catch ( NoSuchAlgorithmException e ) {
+      throw new IllegalStateException( e );
+    } catch ( UnsupportedEncodingException e ) {
+      throw new IllegalStateException( e );
+    }
+  }
+
+  private static class Written {
+    private final String fingerprint;
+    private final String ref;
+
+    Written( String fingerprint, String ref ) {
+      this.fingerprint = fingerprint;
+      this.ref = ref;
+    }
+  }
+}
@@ -22,7 +22,6 @@
 
 package org.pentaho.di.core.refinery;
 
-import org.apache.commons.lang.StringUtils;
 import org.pentaho.agilebi.modeler.ModelerException;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationManager;
@@ -41,7 +40,9 @@ import org.pentaho.metastore.api.IMetaStore;
 import org.pentaho.metastore.api.exceptions.MetaStoreException;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -71,23 +72,122 @@ public class DataProviderHelper {
    */
   public void updateDataProvider( ModelAnnotationGroup annotations, StepMetaDataCombi outputCombi )
     throws KettleException, MetaStoreException {
-    DataProvider provider = createDataProvider( outputCombi, mstore );
-    updateOrAdd( annotations.getDataProviders(), provider );
-    getModelAnnotationManager().updateGroup( annotations, mstore );
+    storeDataProviders( annotations, Collections.singletonList( prepareDataProvider( outputCombi ) ) );
   }
 
   /**
-   * Creates DataProvider and stores DatabaseMeta
+   * Reads the connection and column mappings of an output step without touching the metastore, so the step can be
+   * disposed of before the data provider is stored.
    */
-  private DataProvider createDataProvider( StepMetaDataCombi outputCombi, IMetaStore mstore )
-    throws KettleException, MetaStoreException {
+  public PreparedDataProvider prepareDataProvider( StepMetaDataCombi outputCombi ) throws KettleException {
     DataProvider provider = new DataProvider();
     provider.setName( outputCombi.stepname );
     ProvidesDatabaseConnectionInformation connInfo = (ProvidesDatabaseConnectionInformation) outputCombi.meta;
     DatabaseMeta dbMeta = fillConnectionInfo( provider, connInfo, outputCombi.step );
     provider.setColumnMappings( getColumnMappings( outputCombi ) );
-    provider.setDatabaseMetaNameRef( getModelAnnotationManager().storeDatabaseMeta( dbMeta, mstore ) );
-    return provider;
+    return new PreparedDataProvider( provider, dbMeta );
+  }
+
+  /**
+   * Stores the DatabaseMeta of each data provider, updates or adds the providers and saves the group once. Providers
+   * the group already holds exactly as they were last written are skipped, and so is the group if nothing changed.
+   */
+  public void storeDataProviders( ModelAnnotationGroup annotations, List<PreparedDataProvider> providers )
+    throws KettleException, MetaStoreException {
+    DataProviderFingerprints fingerprints = getFingerprints();
+    Map<PreparedDataProvider, String> changed = new LinkedHashMap<PreparedDataProvider, String>();
+    Map<String, DataProvider> providerIndex = indexProviders( annotations.getDataProviders() );
+    for ( PreparedDataProvider prepared : providers ) {
+      DataProvider provider = prepared.getDataProvider();
+      String fingerprint = DataProviderFingerprints.fingerprint( provider, prepared.getDatabaseMeta() );
+      String ref = fingerprints.getWrittenRef( annotations.getName(), prepared.getKey(), fingerprint );
+      if ( ref != null ) {
+        provider.setDatabaseMetaNameRef( ref );
+        if ( isUnchanged( providerIndex, provider ) ) {
+          continue;
+        }
+      }
+      provider.setDatabaseMetaNameRef(
+          getModelAnnotationManager().storeDatabaseMeta( prepared.getDatabaseMeta(), mstore ) );
+      updateOrAdd( annotations.getDataProviders(), providerIndex, provider );
+      changed.put( prepared, fingerprint );
+    }
+    if ( changed.isEmpty() ) {
+      return;
+    }
+    getModelAnnotationManager().updateGroup( annotations, mstore );
+    for ( Map.Entry<PreparedDataProvider, String> entry : changed.entrySet() ) {
+      fingerprints.recordWritten( annotations.getName(), entry.getKey().getKey(), entry.getValue(),
+          entry.getKey().getDataProvider().getDatabaseMetaNameRef() );
+    }
+  }
+
+  protected DataProviderFingerprints getFingerprints() {
+    return DataProviderFingerprints.forMetaStore( mstore );
+  }
+
+  /**
+   * @return true if the group holds the provider with the same column mappings
+   */
+  private static boolean isUnchanged( Map<String, DataProvider> providerIndex, DataProvider provider ) {
+    DataProvider dataProvider = providerIndex.get( getProviderKey( provider ) );
+    return dataProvider != null && DataProviderFingerprints.sameColumnMappings( dataProvider, provider );
+  }
+
+  /**
+   * @return the first provider of a group for each connection reference, schema and table
+   */
+  private static Map<String, DataProvider> indexProviders( List<DataProvider> annotationProviders ) {
+    Map<String, DataProvider> providerIndex = new HashMap<String, DataProvider>();
+    for ( DataProvider dataProvider : annotationProviders ) {
+      String key = getProviderKey( dataProvider );
+      if ( !providerIndex.containsKey( key ) ) {
+        providerIndex.put( key, dataProvider );
+      }
+    }
+    return providerIndex;
+  }
+
+  /**
+   * Providers have the same key when they only differ in their column mappings.
+   */
+  private static String getProviderKey( DataProvider provider ) {
+    StringBuilder key = new StringBuilder();
+    for ( String value : new String[] {
+      provider.getDatabaseMetaNameRef(), provider.getSchemaName(), provider.getTableName() } ) {
+      // length prefixed, so no value can pass for two
+      key.append( value == null ? -1 : value.length() ).append( ':' ).append( value == null ? "" : value );
+    }
+    return key.toString();
+  }
+
+  /**
+   * A data provider read from an output step, with the connection it still has to reference.
+   */
+  public static class PreparedDataProvider {
+    private final DataProvider dataProvider;
+    private final DatabaseMeta databaseMeta;
+
+    public PreparedDataProvider( DataProvider dataProvider, DatabaseMeta databaseMeta ) {
+      this.dataProvider = dataProvider;
+      this.databaseMeta = databaseMeta;
+    }
+
+    public DataProvider getDataProvider() {
+      return dataProvider;
+    }
+
+    public DatabaseMeta getDatabaseMeta() {
+      return databaseMeta;
+    }
+
+    /**
+     * Providers with the same key end up as the same data provider of a group.
+     */
+    public String getKey() {
+      return dataProvider.getSchemaName() + '\u0000' + dataProvider.getTableName() + '\u0000'
+          + ( databaseMeta == null ? null : databaseMeta.getName() );
+    }
   }
 
   private static DatabaseMeta fillConnectionInfo(
@@ -132,23 +232,19 @@ public class DataProviderHelper {
     }
   }
 
-  private static boolean equalsNoColumnMappings( DataProvider one, DataProvider other ) {
-    return StringUtils.equals( one.getDatabaseMetaNameRef(), other.getDatabaseMetaNameRef() )
-        && StringUtils.equals( one.getSchemaName(), other.getSchemaName() )
-        && StringUtils.equals( one.getTableName(), other.getTableName() );
-  }
-
   /**
    * updates column mappings or adds new provider
    */
-  private DataProvider updateOrAdd( List<DataProvider> annotationProviders, DataProvider newProvider ) {
-    for ( DataProvider dataProvider : annotationProviders ) {
-      if ( equalsNoColumnMappings( dataProvider, newProvider ) ) {
-        dataProvider.setColumnMappings( newProvider.getColumnMappings() );
-        return dataProvider;
-      }
+  private DataProvider updateOrAdd( List<DataProvider> annotationProviders, Map<String, DataProvider> providerIndex,
+      DataProvider newProvider ) {
+    String key = getProviderKey( newProvider );
+    DataProvider dataProvider = providerIndex.get( key );
+    if ( dataProvider != null ) {
+      dataProvider.setColumnMappings( newProvider.getColumnMappings() );
+      return dataProvider;
     }
     annotationProviders.add( newProvider );
+    providerIndex.put( key, newProvider );
     return newProvider;
   }
 
@@ -176,6 +272,7 @@ public class DataProviderHelper {
     protected final List<String> fieldDatabase;
     protected final List<String> fieldStream;
     protected final RowMeta insertRowMeta;
+    private FieldIndex databaseFieldIndex;
 
     public OutputStepMappingAdapter( final StepMetaDataCombi stepMetaDataCombi ) throws ModelerException {
       if ( stepMetaDataCombi.meta instanceof ProvidesModelerMeta ) {
@@ -187,5 +284,15 @@ public class DataProviderHelper {
         throw new ModelerException( "Step being Annotated is unsupported" );
       }
     }
+
+    /**
+     * @return index of the database fields the stream fields are written to
+     */
+    protected FieldIndex getDatabaseFieldIndex() {
+      if ( databaseFieldIndex == null ) {
+        databaseFieldIndex = new FieldIndex( fieldDatabase );
+      }
+      return databaseFieldIndex;
+    }
   }
 }
@@ -0,0 +1,125 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery;
+
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Positions of field names, for looking up many fields of a wide row without scanning it for each one. Both lookups
+ * find the first field of a name, as a scan would: {@link #indexOf(String)} compares names like
+ * {@link String#equals(Object)} and {@link #indexOfIgnoreCase(String)} like {@link String#equalsIgnoreCase(String)}.
+ */
+public class FieldIndex {
+
+  private final List<String> names;
+  private final Map<String, Integer> exact;
+  private Map<String, Integer> ignoreCase;
+
+  public FieldIndex( List<String> names ) {
+    this.names = names == null ? Collections.<String>emptyList() : names;
+    exact = new HashMap<String, Integer>( this.names.size() * 2 );
+    for ( int i = 0; i < this.names.size(); i++ ) {
+      String name = this.names.get( i );
+      if ( name != null && !exact.containsKey( name ) ) {
+        exact.put( name, i );
+      }
+    }
+  }
+
+  /**
+   * @return an index of the field names of a row, empty if there is no row
+   */
+  public static FieldIndex of( RowMetaInterface rowMeta ) {
+    List<String> names = new ArrayList<String>();
+    if ( rowMeta != null ) {
+      for ( ValueMetaInterface valueMeta : rowMeta.getValueMetaList() ) {
+        names.add( valueMeta.getName() );
+      }
+    }
+    return new FieldIndex( names );
+  }
+
+  /**
+   * @return position of the first field with this name, -1 if there is none
+   */
+  public int indexOf( String name ) {
+    Integer index = name == null ? null : exact.get( name );
+    return index == null ? -1 : index;
+  }
+
+  /**
+   * @return position of the first field with this name in any case, -1 if there is none
+   */
+  public int indexOfIgnoreCase( String name ) {
+    if ( name == null ) {
+      return -1;
+    }
+    Integer index = getIgnoreCase().get( foldCase( name ) );
+    return index == null ? -1 : index;
+  }
+
+  public boolean contains( String name ) {
+    return indexOf( name ) >= 0;
+  }
+
+  public int size() {
+    return names.size();
+  }
+
+  private synchronized Map<String, Integer> getIgnoreCase() {
+    // most paths only need exact lookups
+    if ( ignoreCase == null ) {
+      Map<String, Integer> folded = new HashMap<String, Integer>( names.size() * 2 );
+      for ( int i = 0; i < names.size(); i++ ) {
+        String name = names.get( i );
+        if ( name != null ) {
+          String key = foldCase( name );
+          if ( !folded.containsKey( key ) ) {
+            folded.put( key, i );
+          }
+        }
+      }
+      ignoreCase = folded;
+    }
+    return ignoreCase;
+  }
+
+  /**
+   * Folds each character the way {@link String#equalsIgnoreCase(String)} compares them, so two names have the same
+   * key exactly when they are equal ignoring case.
+   */
+  static String foldCase( String name ) {
+    char[] chars = new char[ name.length() ];
+    for ( int i = 0; i < chars.length; i++ ) {
+      chars[ i ] = Character.toLowerCase( Character.toUpperCase( name.charAt( i ) ) );
+    }
+    return new String( chars );
+  }
+}
@@ -0,0 +1,241 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+package org.pentaho.di.core.refinery.extension;
+
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.refinery.CachingMetaStore;
+import org.pentaho.di.core.refinery.DataProviderHelper;
+import org.pentaho.di.core.refinery.DataProviderHelper.PreparedDataProvider;
+import org.pentaho.di.job.Job;
+import org.pentaho.di.job.JobListener;
+import org.pentaho.metastore.api.IMetaStore;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores the data providers of shared dimensions in the background, so finishing a transformation does not wait for
+ * metastore writes. Updates of the same group that arrive within the coalescing window are written together with a
+ * single group update.
+ * <p/>
+ * There is one queue per job. It is flushed when the job finishes and before Build Model reads annotations; failed
+ * updates are reported in the job log.
+ */
+public class DataProviderUpdateQueue {
+
+  public static final String KEY_UPDATE_QUEUE = "DataRefinery.DataProviderUpdateQueue";
+
+  public static final long DEFAULT_COALESCE_WINDOW = 500L;
+
+  private static final ScheduledExecutorService executor =
+      Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+        @Override
+        public Thread newThread( Runnable runnable ) {
+          Thread thread = new Thread( runnable, "Data Refinery data provider updates" );
+          thread.setDaemon( true );
+          return thread;
+        }
+      } );
+
+  private final LogChannelInterface log;
+  private final long coalesceWindow;
+
+  private final Map<UpdateKey, PendingUpdate> pending = new LinkedHashMap<UpdateKey, PendingUpdate>();
+  private final Object writeLock = new Object();
+  /* failed writes since the last flush, guarded by writeLock */
+  private int failures;
+
+  public DataProviderUpdateQueue( LogChannelInterface log, long coalesceWindow ) {
+    this.log = log;
+    this.coalesceWindow = coalesceWindow;
+  }
+
+  /**
+   * Gets the queue of a job, creating it and registering its flush at job end on first use.
+   */
+  public static DataProviderUpdateQueue get( Job job ) {
+    Map<String, Object> extensionDataMap = job.getExtensionDataMap();
+    synchronized ( extensionDataMap ) {
+      Object queue = extensionDataMap.get( KEY_UPDATE_QUEUE );
+      if ( queue instanceof DataProviderUpdateQueue ) {
+        return (DataProviderUpdateQueue) queue;
+      }
+      final DataProviderUpdateQueue created =
+          new DataProviderUpdateQueue( job.getLogChannel(), DEFAULT_COALESCE_WINDOW );
+      job.addJobListener( new JobListener() {
+        @Override
+        public void jobFinished( Job job ) throws KettleException {
+          created.flush();
+        }
+
+        @Override
+        public void jobStarted( Job job ) throws KettleException {
+        }
+      } );
+      extensionDataMap.put( KEY_UPDATE_QUEUE, created );
+      return created;
+    }
+  }
+
+  /**
+   * Writes every pending update of a job, if it has any.
+   *
+   * @return the number of updates that failed since the last flush
+   */
+  public static int flush( Map<String, Object> extensionDataMap ) {
+    if ( extensionDataMap == null ) {
+      return 0;
+    }
+    Object queue;
+    synchronized ( extensionDataMap ) {
+      queue = extensionDataMap.get( KEY_UPDATE_QUEUE );
+    }
+    return queue instanceof DataProviderUpdateQueue ? ( (DataProviderUpdateQueue) queue ).flush() : 0;
+  }
+
+  /**
+   * Queues a data provider for a shared dimension. The latest group instance submitted for a group name is the one
+   * that gets written, with every provider queued for it since the last write.
+   */
+  public void submit( IMetaStore metaStore, DataProviderHelper helper, ModelAnnotationGroup group,
+                      PreparedDataProvider provider ) {
+    final UpdateKey key = new UpdateKey( metaStore, group.getName() );
+    boolean schedule = false;
+    synchronized ( pending ) {
+      PendingUpdate update = pending.get( key );
+      if ( update == null ) {
+        update = new PendingUpdate();
+        pending.put( key, update );
+        schedule = true;
+      }
+      update.helper = helper;
+      update.group = group;
+      // a later run of the same output step replaces the earlier one
+      update.providers.remove( provider.getKey() );
+      update.providers.put( provider.getKey(), provider );
+    }
+    if ( schedule ) {
+      executor.schedule( new Runnable() {
+        @Override
+        public void run() {
+          flush( key );
+        }
+      }, coalesceWindow, TimeUnit.MILLISECONDS );
+    }
+  }
+
+  /**
+   * Writes every pending update and waits for writes already in progress.
+   *
+   * @return the number of updates that failed since the last flush, so a failure is reported to one caller only
+   */
+  public int flush() {
+    synchronized ( writeLock ) {
+      List<PendingUpdate> updates = new ArrayList<PendingUpdate>();
+      synchronized ( pending ) {
+        for ( Iterator<PendingUpdate> it = pending.values().iterator(); it.hasNext(); ) {
+          updates.add( it.next() );
+          it.remove();
+        }
+      }
+      for ( PendingUpdate update : updates ) {
+        write( update );
+      }
+      int failed = failures;
+      failures = 0;
+      return failed;
+    }
+  }
+
+  private void flush( UpdateKey key ) {
+    synchronized ( writeLock ) {
+      PendingUpdate update;
+      synchronized ( pending ) {
+        update = pending.remove( key );
+      }
+      if ( update != null ) {
+        write( update );
+      }
+    }
+  }
+
+  private void write( PendingUpdate update ) {
+    try {
+      update.helper.storeDataProviders( update.group,
+          new ArrayList<PreparedDataProvider>( update.providers.values() ) );
+      if ( log.isDebug() ) {
+        log.logDebug( "stored " + update.providers.size() + " data provider(s) for " + update.group.getName() );
+      }
+    } catch ( Exception e ) {
+      failures++;
+      log.logError( "Error storing data providers for " + update.group.getName(), e );
+    }
+  }
+
+  public int getPendingCount() {
+    synchronized ( pending ) {
+      return pending.size();
+    }
+  }
+
+  private static class PendingUpdate {
+    private DataProviderHelper helper;
+    private ModelAnnotationGroup group;
+    private final Map<String, PreparedDataProvider> providers = new LinkedHashMap<String, PreparedDataProvider>();
+  }
+
+  private static class UpdateKey {
+    private final IMetaStore metaStore;
+    private final String groupName;
+
+    UpdateKey( IMetaStore metaStore, String groupName ) {
+      // every transformation gets its own caching wrapper
+      this.metaStore =
+          metaStore instanceof CachingMetaStore ? ( (CachingMetaStore) metaStore ).getDelegate() : metaStore;
+      this.groupName = groupName;
+    }
+
+    @Override
+    public boolean equals( Object o ) {
+      if ( !( o instanceof UpdateKey ) ) {
+        return false;
+      }
+      UpdateKey other = (UpdateKey) o;
+      return metaStore == other.metaStore
+          && ( groupName == null ? other.groupName == null : groupName.equals( other.groupName ) );
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode( metaStore ) * 31 + ( groupName == null ? 0 : groupName.hashCode() );
+    }
+  }
+}
@@ -22,16 +22,26 @@
 
 package org.pentaho.di.core.refinery.extension;
 
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.extension.ExtensionPoint;
 import org.pentaho.di.core.extension.ExtensionPointInterface;
 import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.refinery.CachingMetaStore;
 import org.pentaho.di.core.refinery.DataProviderHelper;
+import org.pentaho.di.core.refinery.model.TableMetadataCache;
+import org.pentaho.di.core.refinery.profile.DataProfile;
+import org.pentaho.di.core.refinery.profile.DataProfileManager;
+import org.pentaho.di.core.refinery.profile.DataProfiler;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.job.Job;
+import org.pentaho.di.job.entries.build.BuildModelBatch;
 import org.pentaho.di.job.entries.build.JobEntryBuildModel;
 import org.pentaho.di.job.entry.JobEntryCopy;
 import org.pentaho.di.trans.Trans;
@@ -52,6 +62,7 @@ public class DataRefineryTransFinishListener implements ExtensionPointInterface
   @Override
   public void callExtensionPoint( LogChannelInterface log, Object object ) throws KettleException {
     Trans trans = (Trans) object;
+    invalidateTableMetadata( trans );
     try {
       if ( trans.getParentJob() != null ) {
         setBuildModelOutputStep( trans.getParentJob(), trans );
@@ -61,14 +72,35 @@ public class DataRefineryTransFinishListener implements ExtensionPointInterface
     } catch ( Exception e ) {
       log.logError( "Error setting output step for Build Model", e );
     }
+    IMetaStore metaStore = CachingMetaStore.wrap( trans.getMetaStore() );
     try {
-      IMetaStore metaStore = trans.getMetaStore();
       updateDataProviders( log, trans, metaStore );
     } catch ( KettleException e ) {
       log.logError( e.getLocalizedMessage() );
     } catch ( Exception e ) {
       log.logError( "Error processing data providers for annotations.", e );
     }
+    try {
+      saveProfiles( log, trans, metaStore );
+    } catch ( Exception e ) {
+      log.logError( "Error storing data profiles for annotations.", e );
+    }
+  }
+
+  /**
+   * Drops cached metadata of the tables the transformation may have created or altered
+   */
+  void invalidateTableMetadata( Trans trans ) {
+    if ( trans.getSteps() == null ) {
+      return;
+    }
+    for ( StepMetaDataCombi combi : trans.getSteps() ) {
+      if ( combi.meta instanceof ProvidesDatabaseConnectionInformation ) {
+        ProvidesDatabaseConnectionInformation info = (ProvidesDatabaseConnectionInformation) combi.meta;
+        TableMetadataCache.getInstance().invalidate(
+            info.getDatabaseMeta(), trans.environmentSubstitute( info.getTableName() ) );
+      }
+    }
   }
 
   /**
@@ -78,6 +110,10 @@ public class DataRefineryTransFinishListener implements ExtensionPointInterface
     for ( JobEntryCopy jeCopy : job.getJobMeta().getJobCopies() ) {
       if ( JobEntryBuildModel.PLUGIN_ID.equals( jeCopy.getEntry().getPluginId() ) ) {
         JobEntryBuildModel jeBuildModel = (JobEntryBuildModel) jeCopy.getEntry();
+        if ( jeBuildModel.isBatch() ) {
+          setBatchOutputSteps( job, trans, jeBuildModel );
+          continue;
+        }
         final String outputStepName =
             StringUtils.trimToNull( job.environmentSubstitute( jeBuildModel.getOutputStep() ) );
         if ( outputStepName == null ) {
@@ -86,20 +122,58 @@ public class DataRefineryTransFinishListener implements ExtensionPointInterface
         for ( StepMetaDataCombi stepMetaData : trans.getSteps() ) {
           String stepName = StringUtils.trimToNull( stepMetaData.stepname );
           if ( outputStepName.equals( stepName ) ) {
-            Map<String, Object> map = job.getExtensionDataMap();
-            String key = JobEntryBuildModel.KEY_OUTPUT_STEP_PREFIX + jeBuildModel.getName();
-            if ( map.containsKey( key ) ) {
-              throw new KettleException(
-                  "Unable to auto-model because more than one step with the same name was found: "
-                      + stepMetaData.stepname );
-            }
-            map.put( key, stepMetaData );
+            putOutputStep( job, JobEntryBuildModel.KEY_OUTPUT_STEP_PREFIX + jeBuildModel.getName(), stepMetaData );
           }
         }
       }
     }
   }
 
+  /**
+   * Registers the steps a batch names, and the output steps its patterns match
+   */
+  private void setBatchOutputSteps( Job job, Trans trans, JobEntryBuildModel jeBuildModel ) throws KettleException {
+    List<BuildModelBatch.Item> items =
+        BuildModelBatch.parse( job.environmentSubstitute( jeBuildModel.getBatchModels() ) );
+    for ( StepMetaDataCombi stepMetaData : trans.getSteps() ) {
+      String stepName = StringUtils.trimToNull( stepMetaData.stepname );
+      if ( !isBatchOutputStep( items, stepName, stepMetaData ) ) {
+        continue;
+      }
+      putOutputStep( job, JobEntryBuildModel.getBatchStepKey( jeBuildModel.getName(), stepName ), stepMetaData );
+    }
+  }
+
+  /**
+   * Registers an output step unless another one already took its key. Parallel transformations of a job finish
+   * concurrently, so the check and the put happen under the lock of the extension data map.
+   */
+  private void putOutputStep( Job job, String key, StepMetaDataCombi stepMetaData ) throws KettleException {
+    Map<String, Object> map = job.getExtensionDataMap();
+    synchronized ( map ) {
+      if ( map.containsKey( key ) ) {
+        throw new KettleException(
+            "Unable to auto-model because more than one step with the same name was found: "
+                + stepMetaData.stepname );
+      }
+      map.put( key, stepMetaData );
+    }
+  }
+
+  /**
+   * A step named by a batch is always its output step, a step matching a pattern only if it outputs to a table
+   */
+  private boolean isBatchOutputStep( List<BuildModelBatch.Item> items, String stepName,
+      StepMetaDataCombi stepMetaData ) {
+    for ( BuildModelBatch.Item item : items ) {
+      if ( item.matches( stepName )
+          && ( !item.isPattern() || stepMetaData.meta instanceof ProvidesDatabaseConnectionInformation ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Updates shared annotation groups with data providers
    */
@@ -124,7 +198,13 @@ public class DataRefineryTransFinishListener implements ExtensionPointInterface
           // so that step will never report STATUS_FINISHED; using status of data instead
           if ( outCombi.data.getStatus() == StepExecutionStatus.STATUS_DISPOSED ) {
             DataProviderHelper dataProviderHelper = getDataProviderHelper( metaStore );
-            dataProviderHelper.updateDataProvider( maData.annotations, outCombi );
+            if ( trans.getParentJob() != null ) {
+              // written in the background, flushed before Build Model runs and when the job ends
+              getUpdateQueue( trans.getParentJob() ).submit( metaStore, dataProviderHelper, maData.annotations,
+                  dataProviderHelper.prepareDataProvider( outCombi ) );
+            } else {
+              dataProviderHelper.updateDataProvider( maData.annotations, outCombi );
+            }
           } else {
             log.logError( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.OutputStepFail",
                 outCombi.stepname,
@@ -138,10 +218,67 @@ public class DataRefineryTransFinishListener implements ExtensionPointInterface
     }
   }
 
+  /**
+   * Merges the profiles of all copies of each profiling annotation step and stores them in the metastore
+   */
+  public void saveProfiles( LogChannelInterface log, Trans trans, IMetaStore metaStore )
+    throws KettleException, MetaStoreException {
+    Map<String, DataProfiler> profilers = new LinkedHashMap<String, DataProfiler>();
+    for ( StepMetaDataCombi combi : trans.getSteps() ) {
+      if ( combi.meta instanceof ModelAnnotationMeta && ( (ModelAnnotationData) combi.data ).profiler != null ) {
+        DataProfiler profiler = ( (ModelAnnotationData) combi.data ).profiler;
+        String name = getProfileName( trans, combi );
+        if ( profilers.containsKey( name ) ) {
+          profilers.get( name ).merge( profiler );
+        } else {
+          profilers.put( name, profiler );
+        }
+      }
+    }
+    if ( profilers.isEmpty() ) {
+      return;
+    }
+    if ( trans.getErrors() > 0 ) {
+      log.logDetailed( "transformation failed, discarding data profiles" );
+      return;
+    }
+    DataProfileManager profileManager = getDataProfileManager();
+    for ( Map.Entry<String, DataProfiler> entry : profilers.entrySet() ) {
+      DataProfile profile = entry.getValue().getProfile( entry.getKey() );
+      log.logDebug( "storing data profile " + profile.getName() );
+      if ( metaStore != null ) {
+        profileManager.saveProfile( profile, metaStore );
+      }
+    }
+  }
+
+  /**
+   * Profiles are named after the annotation group they belong to; shared dimensions add their data provider.
+   */
+  private String getProfileName( Trans trans, StepMetaDataCombi combi ) {
+    ModelAnnotationGroup group = ( (ModelAnnotationData) combi.data ).annotations;
+    if ( group == null || StringUtils.isBlank( group.getName() ) ) {
+      return trans.getName() + " - " + combi.stepname;
+    }
+    if ( group.isSharedDimension() ) {
+      return group.getName() + " - "
+          + trans.environmentSubstitute( ( (ModelAnnotationMeta) combi.meta ).getTargetOutputStep() );
+    }
+    return group.getName();
+  }
+
+  protected DataProfileManager getDataProfileManager() {
+    return new DataProfileManager();
+  }
+
   protected DataProviderHelper getDataProviderHelper( IMetaStore mstore ) {
     return new DataProviderHelper( mstore );
   }
 
+  protected DataProviderUpdateQueue getUpdateQueue( Job job ) {
+    return DataProviderUpdateQueue.get( job );
+  }
+
   private StepMetaDataCombi getOutputStep( StepMetaDataCombi annotationCombi, final Trans trans )
     throws KettleException {
     final String outStepName = getOutputStepName( annotationCombi, trans );
@@ -22,30 +22,21 @@
 
 package org.pentaho.di.core.refinery.model;
 
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
-import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.exception.KettleDatabaseException;
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.refinery.FieldIndex;
+import org.pentaho.di.core.refinery.publish.util.StaxUtils;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.job.entries.build.JobEntryBuildModel;
 import org.pentaho.di.job.entry.JobEntryBase;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-
-import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathException;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
@@ -64,6 +55,8 @@ public class AnalysisModeler {
 
   private static Map<String, List<Integer>> analysisTypeMapping = new HashMap<String, List<Integer>>();
 
+  private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+
   static {
     analysisTypeMapping.put( "String", asList( TYPE_STRING ) );
     analysisTypeMapping.put( "Numeric", asList( TYPE_BIGNUMBER, TYPE_INTEGER, TYPE_NUMBER ) );
@@ -79,82 +72,122 @@ public class AnalysisModeler {
     this.connectionInfo = connectionInfo;
   }
 
+  /**
+   * Renames the tables of the schema to the output table and the schema and cube to the model, validating the schema
+   * in the same pass.
+   */
   public String replaceTableAndSchemaNames( final String schema, final String modelName ) throws KettleException {
+    StringWriter output = new StringWriter();
+    SchemaSummary summary;
     try {
-      validateSDRSchema( schema );
-      return transformSchema( schema, modelName, getTablename() );
-    } catch ( TransformerConfigurationException e ) {
-      throw new KettleException( e );
-    } catch ( TransformerException e ) {
+      summary = rewriteSchema( schema, modelName, getTablename(), output );
+    } catch ( XMLStreamException e ) {
       throw new KettleException( e );
     }
+    validateSDRSchema( summary );
+    return output.toString();
   }
 
-  private String transformSchema( final String schema, final String modelName, final String tableName )
-    throws TransformerException {
-    TransformerFactory factory = TransformerFactory.newInstance();
-    Source xslt = new StreamSource( new StringReader( constructXsltForSwap( modelName, tableName ) ) );
-    Transformer transformer = factory.newTransformer( xslt );
-    Source text = new StreamSource( new StringReader( schema ) );
-    StringWriter writer = new StringWriter();
-    transformer.transform( text, new StreamResult( writer ) );
-    return writer.toString();
-  }
-
-  private String constructXsltForSwap( final String modelName, final String tableName ) {
-    return "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" "
-      + "xmlns:fn=\"http://www.w3.org/2005/xpath-functions\">"
-      + "<xsl:template match=\"@*|node()\">\n"
-      + "<xsl:copy>\n"
-      + "    <xsl:apply-templates select=\"@*|node()\"/>\n"
-      + "  </xsl:copy>"
-      + "</xsl:template>"
-      + "<xsl:template match=\"Table/@name\">"
-      + "    <xsl:attribute name=\"name\">" + tableName + "</xsl:attribute>"
-      + "</xsl:template>"
-      + "<xsl:template match=\"Schema/@name\">"
-      + "    <xsl:attribute name=\"name\">" + modelName + "</xsl:attribute>"
-      + "</xsl:template>"
-      + "<xsl:template match=\"Cube/@name\">"
-      + "    <xsl:attribute name=\"name\">" + modelName + "</xsl:attribute>"
-      + "</xsl:template>"
-      + "</xsl:stylesheet>";
+  /**
+   * Copies the schema to the output with the new names, collecting what validation needs as the elements stream by.
+   */
+  private SchemaSummary rewriteSchema(
+      final String schema, final String modelName, final String tableName, final StringWriter output )
+    throws XMLStreamException {
+    SchemaSummary summary = new SchemaSummary();
+    XMLStreamReader reader = StaxUtils.createReader( new StringReader( schema ) );
+    XMLStreamWriter writer = StaxUtils.createWriter( output );
+    try {
+      int depth = 0;
+      int event = reader.getEventType();
+      while ( true ) {
+        if ( event == XMLStreamConstants.START_ELEMENT ) {
+          StartTag tag = new StartTag( reader );
+          summary.collect( tag );
+          tag.rename( modelName, tableName );
+          // elements without content are written as empty elements
+          event = reader.next();
+          if ( event == XMLStreamConstants.END_ELEMENT ) {
+            tag.write( writer, true );
+            event = reader.next();
+          } else {
+            tag.write( writer, false );
+            depth++;
+          }
+          continue;
+        }
+        switch ( event ) {
+          case XMLStreamConstants.START_DOCUMENT:
+            // written as is, so the declaration does not depend on the StAX implementation
+            output.write( XML_DECLARATION );
+            break;
+          case XMLStreamConstants.END_ELEMENT:
+            writer.writeEndElement();
+            depth--;
+            break;
+          case XMLStreamConstants.CHARACTERS:
+          case XMLStreamConstants.CDATA:
+          case XMLStreamConstants.SPACE:
+            // text outside the root element is not part of the document
+            if ( depth > 0 ) {
+              writer.writeCharacters( reader.getText() );
+            }
+            break;
+          case XMLStreamConstants.COMMENT:
+            writer.writeComment( reader.getText() );
+            break;
+          case XMLStreamConstants.PROCESSING_INSTRUCTION:
+            writer.writeProcessingInstruction( reader.getPITarget(), reader.getPIData() );
+            break;
+          default:
+            break;
+        }
+        if ( event == XMLStreamConstants.END_DOCUMENT || !reader.hasNext() ) {
+          break;
+        }
+        event = reader.next();
+      }
+      writer.writeEndDocument();
+      writer.flush();
+    } finally {
+      reader.close();
+      writer.close();
+    }
+    return summary;
   }
 
-  private void validateSDRSchema( final String schema ) throws KettleException {
-    try {
-      validateSingleTable( schema );
-      validateSingleCube( schema );
-      validateColumns( schema );
-    } catch ( XPathException e ) {
-      throw new KettleException( e );
+  private void validateSDRSchema( final SchemaSummary summary ) throws KettleException {
+    if ( !summary.hasSingleTable() ) {
+      throw new KettleException( getString( PKG, "AnalysisModeler.SelectModelErrorMultipleTables" ) );
+    }
+    if ( summary.cubes != 1 ) {
+      throw new KettleException( getString( PKG, "AnalysisModeler.SelectModelErrorMultipleCubes" ) );
     }
+    validateColumns( summary );
   }
 
-  private void validateColumns( final String schema ) throws XPathExpressionException, KettleException {
+  private void validateColumns( final SchemaSummary summary ) throws KettleException {
     ArrayList<String> notFound = new ArrayList<String>();
     ArrayList<String> incompatibleTypes = new ArrayList<String>();
     List<ValueMetaInterface> fieldsInDatabase = getFieldsInDatabase();
-    NodeList levelColumnAttributes = getNodeList( schema, "//Level | //Measure" );
-    for ( int i = 0; i < levelColumnAttributes.getLength(); i++ ) {
-      Node node = levelColumnAttributes.item( i );
-      Node schemaColumnNode = node.getAttributes().getNamedItem( "column" );
-      String schemaColumn = schemaColumnNode.getTextContent();
-      boolean foundColumn = false;
-      for ( ValueMetaInterface valueMetaInterface : fieldsInDatabase ) {
-        if (  valueMetaInterface.getName().equals( schemaColumn ) ) {
-          foundColumn = true;
-          Node type = node.getAttributes().getNamedItem( "type" );
-          if ( type != null ) {
-            List<Integer> validTypes = analysisTypeMapping.get( type.getTextContent() );
-            if ( !validTypes.contains( valueMetaInterface.getType() ) ) {
-              incompatibleTypes.add( schemaColumnNode.getTextContent() );
-            }
-          }
-        }
+    List<String> fieldNames = new ArrayList<String>( fieldsInDatabase.size() );
+    for ( ValueMetaInterface valueMetaInterface : fieldsInDatabase ) {
+      fieldNames.add( valueMetaInterface.getName() );
+    }
+    FieldIndex fieldIndex = new FieldIndex( fieldNames );
+    for ( int i = 0; i < summary.columns.size(); i++ ) {
+      String schemaColumn = summary.columns.get( i );
+      int index = fieldIndex.indexOf( schemaColumn );
+      if ( index < 0 ) {
+        notFound.add( schemaColumn );
+        continue;
       }
-      if ( !foundColumn ) {
-        notFound.add( schemaColumnNode.getTextContent() );
+      String type = summary.types.get( i );
+      if ( type != null ) {
+        List<Integer> validTypes = analysisTypeMapping.get( type );
+        if ( !validTypes.contains( fieldsInDatabase.get( index ).getType() ) ) {
+          incompatibleTypes.add( schemaColumn );
+        }
       }
     }
     if ( !notFound.isEmpty()  || !incompatibleTypes.isEmpty() ) {
@@ -172,55 +205,137 @@ public class AnalysisModeler {
     return getString( PKG, msgKey, notFound.toString() );
   }
 
-  private void validateSingleTable( final String schema ) throws XPathExpressionException, KettleException {
-    NodeList tableNameAttributes = getNodeList( schema, "//Table/@name" );
-    if ( !modelTablesAreSupported( tableNameAttributes ) ) {
-      throw new KettleException( getString( PKG, "AnalysisModeler.SelectModelErrorMultipleTables" ) );
-    }
-  }
-
-  private void validateSingleCube( final String schema ) throws XPathExpressionException, KettleException {
-    NodeList tableNameAttributes = getNodeList( schema, "//Cube" );
-    if ( tableNameAttributes.getLength() != 1 ) {
-      throw new KettleException( getString( PKG, "AnalysisModeler.SelectModelErrorMultipleCubes" ) );
-    }
-  }
-
   List<ValueMetaInterface> getFieldsInDatabase() throws KettleDatabaseException {
-    Database database = new Database( jobEntry, connectionInfo.getDatabaseMeta() );
-    try {
-      database.connect();
-      RowMetaInterface tableFields = database.getTableFields( getTablename() );
-      return tableFields.getValueMetaList();
-    } finally {
-      database.disconnect();
-    }
+    RowMetaInterface tableFields = TableMetadataCache.getInstance()
+        .getTableFields( jobEntry, connectionInfo.getDatabaseMeta(), null, getTablename() );
+    return tableFields.getValueMetaList();
   }
 
   private String getTablename() {
     return jobEntry.environmentSubstitute( connectionInfo.getTableName() );
   }
 
-  private NodeList getNodeList( final String schema, final String xPathExpression ) throws XPathExpressionException {
-    XPathFactory factory = XPathFactory.newInstance();
-    XPath xpath = factory.newXPath();
-    return (NodeList) xpath.compile( xPathExpression )
-        .evaluate( new InputSource( new StringReader( schema ) ), XPathConstants.NODESET );
-  }
+  /**
+   * The name, namespace declarations and attributes of an element, in document order.
+   */
+  private static class StartTag {
+    private final String prefix;
+    private final String localName;
+    private final String namespaceURI;
+    private final String[][] namespaces;
+    private final String[][] attributes;
+
+    StartTag( final XMLStreamReader reader ) {
+      prefix = Const.NVL( reader.getPrefix(), "" );
+      localName = reader.getLocalName();
+      namespaceURI = Const.NVL( reader.getNamespaceURI(), "" );
+      namespaces = new String[ reader.getNamespaceCount() ][];
+      for ( int i = 0; i < namespaces.length; i++ ) {
+        namespaces[ i ] = new String[] { reader.getNamespacePrefix( i ), reader.getNamespaceURI( i ) };
+      }
+      attributes = new String[ reader.getAttributeCount() ][];
+      for ( int i = 0; i < attributes.length; i++ ) {
+        attributes[ i ] = new String[] {
+          Const.NVL( reader.getAttributePrefix( i ), "" ), Const.NVL( reader.getAttributeNamespace( i ), "" ),
+          reader.getAttributeLocalName( i ), reader.getAttributeValue( i ) };
+      }
+    }
+
+    /**
+     * @return the local name of an element without a namespace, null otherwise
+     */
+    String getElement() {
+      return namespaceURI.isEmpty() ? localName : null;
+    }
+
+    /**
+     * @return the value of an attribute without a namespace, null if there is none
+     */
+    String getAttribute( final String name ) {
+      for ( String[] attribute : attributes ) {
+        if ( attribute[ 1 ].isEmpty() && attribute[ 2 ].equals( name ) ) {
+          return attribute[ 3 ];
+        }
+      }
+      return null;
+    }
+
+    void rename( final String modelName, final String tableName ) {
+      String element = getElement();
+      String name = "Table".equals( element ) ? tableName
+        : "Schema".equals( element ) || "Cube".equals( element ) ? modelName : null;
+      if ( name == null ) {
+        return;
+      }
+      for ( String[] attribute : attributes ) {
+        if ( attribute[ 1 ].isEmpty() && attribute[ 2 ].equals( "name" ) ) {
+          attribute[ 3 ] = name;
+        }
+      }
+    }
 
-  private boolean modelTablesAreSupported( final NodeList tableNameAttributes ) {
-    int length = tableNameAttributes.getLength();
-    String uniqueTableName;
-    if ( length > 0 ) {
-      uniqueTableName = tableNameAttributes.item( 0 ).getTextContent();
-    } else {
-      return false;
+    void write( final XMLStreamWriter writer, final boolean empty ) throws XMLStreamException {
+      if ( prefix.isEmpty() && empty ) {
+        writer.writeEmptyElement( localName );
+      } else if ( prefix.isEmpty() ) {
+        writer.writeStartElement( localName );
+      } else if ( empty ) {
+        writer.writeEmptyElement( prefix, localName, namespaceURI );
+      } else {
+        writer.writeStartElement( prefix, localName, namespaceURI );
+      }
+      for ( String[] namespace : namespaces ) {
+        if ( Const.isEmpty( namespace[ 0 ] ) ) {
+          writer.writeDefaultNamespace( namespace[ 1 ] );
+        } else {
+          writer.writeNamespace( namespace[ 0 ], namespace[ 1 ] );
+        }
+      }
+      for ( String[] attribute : attributes ) {
+        if ( attribute[ 0 ].isEmpty() ) {
+          writer.writeAttribute( attribute[ 2 ], attribute[ 3 ] );
+        } else {
+          writer.writeAttribute( attribute[ 0 ], attribute[ 1 ], attribute[ 2 ], attribute[ 3 ] );
+        }
+      }
     }
-    for ( int i = 1; i < length; i++ ) {
-      if ( !tableNameAttributes.item( i ).getTextContent().equals( uniqueTableName ) ) {
-        return false;
+  }
+
+  /**
+   * What the schema validation needs from the original schema: its table names, cubes and the columns of its levels
+   * and measures.
+   */
+  private static class SchemaSummary {
+    private String tableName;
+    private boolean multipleTables;
+    private int cubes;
+    private final List<String> columns = new ArrayList<String>();
+    private final List<String> types = new ArrayList<String>();
+
+    void collect( final StartTag tag ) {
+      String element = tag.getElement();
+      if ( "Table".equals( element ) ) {
+        String name = tag.getAttribute( "name" );
+        if ( name != null ) {
+          if ( tableName == null ) {
+            tableName = name;
+          } else if ( !tableName.equals( name ) ) {
+            multipleTables = true;
+          }
+        }
+      } else if ( "Cube".equals( element ) ) {
+        cubes++;
+      } else if ( "Level".equals( element ) || "Measure".equals( element ) ) {
+        String column = tag.getAttribute( "column" );
+        if ( column != null ) {
+          columns.add( column );
+          types.add( tag.getAttribute( "type" ) );
+        }
       }
     }
-    return true;
+
+    boolean hasSingleTable() {
+      return tableName != null && !multipleTables;
+    }
   }
 }
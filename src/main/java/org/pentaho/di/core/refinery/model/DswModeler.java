@@ -29,7 +29,6 @@ import org.pentaho.agilebi.modeler.ModelerPerspective;
 import org.pentaho.agilebi.modeler.ModelerWorkspace;
 import org.pentaho.agilebi.modeler.geo.GeoContext;
 import org.pentaho.agilebi.modeler.geo.GeoContextConfigProvider;
-import org.pentaho.agilebi.modeler.geo.GeoContextFactory;
 import org.pentaho.agilebi.modeler.models.annotations.AnnotationType;
 import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
@@ -196,7 +195,7 @@ public class DswModeler {
     try {
       GeoContextConfigProvider config = getGeoContextConfigProvider();
 
-      return GeoContextFactory.create( config );
+      return GeoContextCache.getInstance().get( config );
     } catch ( Throwable e ) {
       log.logDebug( "unable to locate geoRoles properties" );
     }
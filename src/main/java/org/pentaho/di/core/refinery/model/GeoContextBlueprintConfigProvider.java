@@ -61,6 +61,7 @@ public class GeoContextBlueprintConfigProvider implements GeoContextConfigProvid
         props = new Hashtable<>();
       }
     }
+    GeoContextCache.getInstance().configurationLoaded( this );
   }
 
   @Override
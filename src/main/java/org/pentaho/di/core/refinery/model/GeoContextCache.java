@@ -0,0 +1,117 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.pentaho.agilebi.modeler.ModelerException;
+import org.pentaho.agilebi.modeler.geo.GeoContext;
+import org.pentaho.agilebi.modeler.geo.GeoContextConfigProvider;
+import org.pentaho.agilebi.modeler.geo.GeoContextFactory;
+import org.pentaho.di.core.refinery.publish.util.ObjectUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Geo contexts built from geo roles configurations, shared by all modelers. A context is kept under a fingerprint of
+ * the configuration it was built from, so it is only built again when the roles, aliases or requirements change.
+ * A reload of the <code>pentaho.geo.roles</code> configuration with new values drops all of them. The fingerprint of
+ * the loaded configuration is taken when it is loaded, so builds from it only look the context up.
+ * <p/>
+ * A model build adds the roles of its context to the model, where they can be changed, so each caller gets a copy
+ * of the cached context and concurrent builds share nothing.
+ */
+public class GeoContextCache {
+
+  static final int MAX_ENTRIES = 8;
+
+  private static final GeoContextCache instance = new GeoContextCache();
+
+  private final Map<String, GeoContext> contexts = new LinkedHashMap<String, GeoContext>( 16, 0.75f, true ) {
+    @Override
+    protected boolean removeEldestEntry( Map.Entry<String, GeoContext> eldest ) {
+      return size() > MAX_ENTRIES;
+    }
+  };
+  private GeoContextConfigProvider loadedProvider;
+  private String loadedConfiguration;
+
+  GeoContextCache() {
+  }
+
+  public static GeoContextCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * @return a copy of the geo context of a configuration, built if it is not known yet
+   * @throws ModelerException if no geo context can be built from the configuration, which is not remembered
+   */
+  public GeoContext get( GeoContextConfigProvider config ) throws ModelerException {
+    String key;
+    synchronized ( this ) {
+      key = config == loadedProvider ? loadedConfiguration : null;
+    }
+    if ( key == null ) {
+      key = getKey( config );
+    }
+    GeoContext geoContext;
+    synchronized ( this ) {
+      geoContext = contexts.get( key );
+      if ( geoContext == null ) {
+        geoContext = GeoContextFactory.create( config );
+        contexts.put( key, geoContext );
+      }
+    }
+    // the cached context is never changed, so it is copied outside the lock
+    return ObjectUtils.deepClone( geoContext );
+  }
+
+  /**
+   * Tells the cache the geo roles configuration was (re)loaded. Contexts of earlier configurations are dropped if it
+   * changed. The fingerprint is taken here, once per load, and reused while the same provider is asked for.
+   */
+  public void configurationLoaded( GeoContextConfigProvider config ) {
+    String key = getKey( config );
+    synchronized ( this ) {
+      if ( loadedConfiguration != null && !loadedConfiguration.equals( key ) ) {
+        contexts.clear();
+      }
+      loadedProvider = config;
+      loadedConfiguration = key;
+    }
+  }
+
+  public synchronized void invalidateAll() {
+    contexts.clear();
+    loadedProvider = null;
+    loadedConfiguration = null;
+  }
+
+  synchronized int size() {
+    return contexts.size();
+  }
+
+  private String getKey( GeoContextConfigProvider config ) {
+    return new ModelArtifactCache.Key().addGeoConfiguration( config ).build();
+  }
+}
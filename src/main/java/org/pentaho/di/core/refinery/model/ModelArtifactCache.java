@@ -0,0 +1,301 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.io.FileUtils;
+import org.pentaho.agilebi.modeler.ModelerException;
+import org.pentaho.agilebi.modeler.geo.GeoContextConfigProvider;
+import org.pentaho.agilebi.modeler.models.annotations.LinkDimension;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationManager;
+import org.pentaho.agilebi.modeler.models.annotations.data.DataProvider;
+import org.pentaho.agilebi.modeler.models.annotations.util.KeyValueClosure;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.refinery.DataProviderFingerprints;
+import org.pentaho.metastore.api.IMetaStore;
+import org.pentaho.metastore.api.exceptions.MetaStoreException;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * On-disk cache of generated model artifacts (XMI with its Mondrian schema). An artifact is stored under a
+ * fingerprint of everything that goes into it: the physical columns, the annotations and the shared dimensions they
+ * link to, the model name, the connection, the geo configuration and the plugin version. As long as none of these
+ * change a model build can return the stored artifact instead of reading JDBC metadata and auto-modeling again.
+ * <p/>
+ * The cache is off unless {@link #CACHE_ENABLED_VARIABLE} is set to Y, and holds at most
+ * {@link #CACHE_SIZE_VARIABLE} artifacts, dropping the least recently used ones first.
+ */
+public class ModelArtifactCache {
+
+  public static final String CACHE_ENABLED_VARIABLE = "KETTLE_DATA_REFINERY_MODEL_CACHE";
+  public static final String CACHE_DIR_VARIABLE = "KETTLE_DATA_REFINERY_MODEL_CACHE_DIR";
+  public static final String CACHE_SIZE_VARIABLE = "KETTLE_DATA_REFINERY_MODEL_CACHE_SIZE";
+
+  public static final int DEFAULT_CACHE_SIZE = 200;
+
+  static final String ARTIFACT_SUFFIX = ".xmi";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private final File directory;
+  private final int maxEntries;
+
+  public ModelArtifactCache( File directory, int maxEntries ) {
+    this.directory = directory;
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * @return the default cache directory, in the kettle home directory
+   */
+  public static String getDefaultDirectory() {
+    return Const.getKettleDirectory() + Const.FILE_SEPARATOR + "data-refinery" + Const.FILE_SEPARATOR + "model-cache";
+  }
+
+  /**
+   * @return the plugin version together with the build time of its classes, as snapshot builds share a version
+   */
+  public static String getPluginVersion() {
+    Package pkg = ModelArtifactCache.class.getPackage();
+    String version = pkg == null ? null : pkg.getImplementationVersion();
+    long buildTime = 0;
+    try {
+      URL location = ModelArtifactCache.class.getProtectionDomain().getCodeSource().getLocation();
+      buildTime = new File( location.toURI() ).lastModified();
+    } catch ( Exception e ) {
+      // no code source to look at
+    }
+    return version + "@" + buildTime;
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * @param key fingerprint from {@link Key#build()}
+   * @return the stored artifact, or null if there is none or it cannot be read
+   */
+  public String get( String key ) {
+    File file = getFile( key );
+    if ( !file.isFile() ) {
+      return null;
+    }
+    try {
+      String artifact = FileUtils.readFileToString( file, Const.XML_ENCODING );
+      // keeps recently used artifacts from being evicted
+      file.setLastModified( System.currentTimeMillis() );
+      return artifact;
+    } catch ( IOException e ) {
+      return null;
+    }
+  }
+
+  /**
+   * Stores an artifact. The file is written aside and renamed, so a concurrent reader sees either the complete
+   * artifact or none.
+   */
+  public void put( String key, String artifact ) throws IOException {
+    File file = getFile( key );
+    FileUtils.forceMkdir( directory );
+    File temp = File.createTempFile( key, TEMP_SUFFIX, directory );
+    try {
+      FileUtils.writeStringToFile( temp, artifact, Const.XML_ENCODING );
+      if ( !temp.renameTo( file ) ) {
+        // some platforms do not replace on rename
+        FileUtils.deleteQuietly( file );
+        if ( !temp.renameTo( file ) ) {
+          throw new IOException( "Unable to store model artifact " + file );
+        }
+      }
+    } finally {
+      FileUtils.deleteQuietly( temp );
+    }
+    evict();
+  }
+
+  private File getFile( String key ) {
+    return new File( directory, key + ARTIFACT_SUFFIX );
+  }
+
+  private void evict() {
+    File[] artifacts = directory.listFiles( new FileFilter() {
+      @Override
+      public boolean accept( File file ) {
+        return file.isFile() && file.getName().endsWith( ARTIFACT_SUFFIX );
+      }
+    } );
+    if ( artifacts == null || artifacts.length <= maxEntries ) {
+      return;
+    }
+    Arrays.sort( artifacts, new Comparator<File>() {
+      @Override
+      public int compare( File one, File other ) {
+        long diff = one.lastModified() - other.lastModified();
+        return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+      }
+    } );
+    for ( int i = 0; i < artifacts.length - maxEntries; i++ ) {
+      FileUtils.deleteQuietly( artifacts[i] );
+    }
+  }
+
+  /**
+   * Collects the inputs of a model build into a fingerprint.
+   */
+  public static class Key {
+
+    private final StringBuilder content = new StringBuilder();
+
+    public Key add( String name, String value ) {
+      append( name );
+      append( value );
+      return this;
+    }
+
+    public Key addConnection( DatabaseMeta databaseMeta ) {
+      if ( databaseMeta == null ) {
+        return add( "connection", null );
+      }
+      add( "connection", databaseMeta.getName() );
+      add( "type", databaseMeta.getPluginId() );
+      add( "access", databaseMeta.getAccessTypeDesc() );
+      add( "host", databaseMeta.environmentSubstitute( databaseMeta.getHostname() ) );
+      add( "port", databaseMeta.environmentSubstitute( databaseMeta.getDatabasePortNumberString() ) );
+      add( "database", databaseMeta.environmentSubstitute( databaseMeta.getDatabaseName() ) );
+      add( "server", databaseMeta.environmentSubstitute( databaseMeta.getServername() ) );
+      add( "user", databaseMeta.environmentSubstitute( databaseMeta.getUsername() ) );
+      if ( databaseMeta.getAttributes() != null ) {
+        add( "attributes", new TreeMap<Object, Object>( databaseMeta.getAttributes() ).toString() );
+      }
+      return this;
+    }
+
+    /**
+     * Adds the annotations in their order of application. Annotation names are generated and left out.
+     */
+    public Key addAnnotations( ModelAnnotationGroup group ) {
+      add( "annotations", String.valueOf( group.size() ) );
+      add( "sharedDimension", String.valueOf( group.isSharedDimension() ) );
+      for ( ModelAnnotation<?> annotation : group ) {
+        add( "type", annotation.getType() == null ? null : annotation.getType().name() );
+        add( "field", annotation.getField() );
+        final Map<String, String> properties = new TreeMap<String, String>();
+        if ( annotation.getAnnotation() != null ) {
+          annotation.iterateProperties( new KeyValueClosure() {
+            @Override
+            public void execute( String key, Serializable value ) {
+              properties.put( key, value == null ? null : value.toString() );
+            }
+          } );
+        }
+        add( "properties", properties.toString() );
+      }
+      if ( group.getDataProviders() != null ) {
+        for ( DataProvider dataProvider : group.getDataProviders() ) {
+          add( "dataProvider", DataProviderFingerprints.fingerprint( dataProvider, null ) );
+          add( "connectionRef", dataProvider.getDatabaseMetaNameRef() );
+        }
+      }
+      return this;
+    }
+
+    /**
+     * Adds the shared dimensions linked by a group, as they are stored now.
+     */
+    public Key addLinkedDimensions( ModelAnnotationGroup group, IMetaStore metaStore ) throws MetaStoreException {
+      ModelAnnotationManager manager = new ModelAnnotationManager( true );
+      for ( ModelAnnotation<?> annotation : group ) {
+        if ( annotation.getAnnotation() instanceof LinkDimension ) {
+          String sharedDimension = ( (LinkDimension) annotation.getAnnotation() ).getSharedDimension();
+          add( "linkedDimension", sharedDimension );
+          ModelAnnotationGroup linked =
+              metaStore == null || sharedDimension == null ? null : manager.readGroup( sharedDimension, metaStore );
+          if ( linked != null ) {
+            addAnnotations( linked );
+          }
+        }
+      }
+      return this;
+    }
+
+    /**
+     * Adds the geo roles configuration the modeler will build its geo context from.
+     */
+    public Key addGeoConfiguration( GeoContextConfigProvider config ) {
+      if ( config == null ) {
+        return add( "geo", null );
+      }
+      try {
+        add( "geoDimension", config.getDimensionName() );
+        String roles = config.getRoles();
+        add( "geoRoles", roles );
+        if ( roles != null ) {
+          for ( String role : roles.split( "," ) ) {
+            String roleName = role.trim();
+            add( "aliases", getRoleAliases( config, roleName ) );
+            add( "requirements", config.getRoleRequirements( roleName ) );
+          }
+        }
+      } catch ( Exception e ) {
+        // the modeler goes on without a geo context in this case too
+        add( "geo", e.getClass().getName() );
+      }
+      return this;
+    }
+
+    private String getRoleAliases( GeoContextConfigProvider config, String roleName ) {
+      try {
+        return config.getRoleAliases( roleName );
+      } catch ( ModelerException e ) {
+        return null;
+      }
+    }
+
+    /**
+     * @return the fingerprint, usable as a file name
+     */
+    public String build() {
+      return DataProviderFingerprints.digest( content.toString() );
+    }
+
+    private void append( String value ) {
+      // length prefixed, so no value can pass for two
+      if ( value == null ) {
+        content.append( "-1:" );
+      } else {
+        content.append( value.length() ).append( ':' ).append( value );
+      }
+    }
+  }
+}
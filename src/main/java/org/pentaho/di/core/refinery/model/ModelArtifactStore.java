@@ -0,0 +1,231 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.job.Job;
+import org.pentaho.di.job.JobListener;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps large model artifacts (XMI, Mondrian schemas) in files while they travel from the build model entry to the
+ * publish entry. The job variable then holds a short handle instead of the artifact, so it is not copied into every
+ * child variable space or written to the log, and the publish entry streams the file into its upload.
+ * <p/>
+ * Each job stores its files in a directory of its own, created in the temporary directory with access for the owner
+ * only, and deleted with the files when the job finishes. Handles name the directory, and are only resolved while
+ * their store is in use.
+ */
+public class ModelArtifactStore {
+
+  public static final String KEY_ARTIFACT_STORE = "KEY_MODEL_ARTIFACT_STORE";
+  public static final String HANDLE_PREFIX = "data-refinery-artifact:";
+  public static final String SPILL_SIZE_VARIABLE = "KETTLE_DATA_REFINERY_ARTIFACT_SPILL_SIZE";
+
+  /**
+   * Artifacts of up to this many characters stay in the variable
+   */
+  public static final int DEFAULT_SPILL_SIZE = 1024 * 1024;
+
+  private static final String ENCODING = Const.XML_ENCODING;
+  private static final String SUFFIX = ".artifact";
+  private static final String DIRECTORY_PREFIX = "data-refinery-artifacts";
+
+  /**
+   * Stores holding artifacts, by the name of their directory
+   */
+  private static final Map<String, ModelArtifactStore> stores = new HashMap<String, ModelArtifactStore>();
+
+  private File directory;
+  private final boolean privateDirectory;
+  private final List<File> files = new ArrayList<File>();
+
+  /**
+   * Creates a store in a private directory of its own, made on first use.
+   */
+  public ModelArtifactStore() {
+    this.privateDirectory = true;
+  }
+
+  public ModelArtifactStore( File directory ) {
+    this.directory = directory;
+    this.privateDirectory = false;
+  }
+
+  /**
+   * Gets the store of a job, creating it and registering its cleanup at job end on first use.
+   */
+  public static ModelArtifactStore get( Job job ) {
+    Map<String, Object> extensionDataMap = job.getExtensionDataMap();
+    synchronized ( extensionDataMap ) {
+      Object store = extensionDataMap.get( KEY_ARTIFACT_STORE );
+      if ( store instanceof ModelArtifactStore ) {
+        return (ModelArtifactStore) store;
+      }
+      final ModelArtifactStore created = new ModelArtifactStore();
+      job.addJobListener( new JobListener() {
+        @Override
+        public void jobFinished( Job job ) throws KettleException {
+          created.clear();
+        }
+
+        @Override
+        public void jobStarted( Job job ) throws KettleException {
+        }
+      } );
+      extensionDataMap.put( KEY_ARTIFACT_STORE, created );
+      return created;
+    }
+  }
+
+  /**
+   * @return true if a variable value is a handle to a stored artifact rather than the artifact itself
+   */
+  public static boolean isHandle( String value ) {
+    return value != null && value.startsWith( HANDLE_PREFIX );
+  }
+
+  /**
+   * Opens a variable value for upload: the stored artifact for a handle, or else the value itself.
+   */
+  public static InputStream openStream( String value, String encoding ) throws IOException {
+    if ( isHandle( value ) ) {
+      String path = value.substring( HANDLE_PREFIX.length() );
+      int separator = path.indexOf( '/' );
+      ModelArtifactStore store;
+      synchronized ( stores ) {
+        store = separator < 0 ? null : stores.get( path.substring( 0, separator ) );
+      }
+      if ( store == null ) {
+        throw new FileNotFoundException( value );
+      }
+      return store.open( value );
+    }
+    return IOUtils.toInputStream( value, encoding );
+  }
+
+  /**
+   * Writes an artifact to a file, without encoding it into one large byte array.
+   *
+   * @return the handle to put in the job variable
+   */
+  public String store( String artifact ) throws IOException {
+    File file;
+    synchronized ( files ) {
+      file = new File( getDirectory(), UUID.randomUUID().toString() + SUFFIX );
+      files.add( file );
+      synchronized ( stores ) {
+        stores.put( directory.getName(), this );
+      }
+    }
+    Writer writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), ENCODING ) );
+    try {
+      writer.write( artifact );
+    } finally {
+      writer.close();
+    }
+    return HANDLE_PREFIX + file.getParentFile().getName() + "/" + file.getName();
+  }
+
+  private File getDirectory() throws IOException {
+    if ( directory == null ) {
+      directory = createPrivateDirectory();
+    } else {
+      FileUtils.forceMkdir( directory );
+    }
+    return directory;
+  }
+
+  private static File createPrivateDirectory() throws IOException {
+    if ( FileSystems.getDefault().supportedFileAttributeViews().contains( "posix" ) ) {
+      return Files.createTempDirectory( DIRECTORY_PREFIX,
+          PosixFilePermissions.asFileAttribute( PosixFilePermissions.fromString( "rwx------" ) ) ).toFile();
+    }
+    // elsewhere the temporary directory belongs to the user already
+    return Files.createTempDirectory( DIRECTORY_PREFIX ).toFile();
+  }
+
+  /**
+   * @return the content of a stored artifact, encoded in UTF-8
+   */
+  public InputStream open( String handle ) throws IOException {
+    String path = handle.substring( HANDLE_PREFIX.length() );
+    File directory;
+    synchronized ( files ) {
+      directory = this.directory;
+    }
+    if ( directory == null || !path.startsWith( directory.getName() + "/" ) ) {
+      throw new FileNotFoundException( handle );
+    }
+    String name = path.substring( directory.getName().length() + 1 );
+    // handles only ever name files in the store
+    if ( !name.endsWith( SUFFIX ) || name.contains( "/" ) || name.contains( "\\" ) ) {
+      throw new FileNotFoundException( handle );
+    }
+    return new BufferedInputStream( new FileInputStream( new File( directory, name ) ) );
+  }
+
+  /**
+   * Deletes every artifact stored through this store, and its directory if it is a private one.
+   */
+  public void clear() {
+    synchronized ( files ) {
+      for ( File file : files ) {
+        FileUtils.deleteQuietly( file );
+      }
+      files.clear();
+      if ( directory != null ) {
+        synchronized ( stores ) {
+          if ( stores.get( directory.getName() ) == this ) {
+            stores.remove( directory.getName() );
+          }
+        }
+        if ( privateDirectory ) {
+          FileUtils.deleteQuietly( directory );
+          directory = null;
+        }
+      }
+    }
+  }
+}
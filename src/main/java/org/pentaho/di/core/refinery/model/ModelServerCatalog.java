@@ -0,0 +1,217 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.refinery.DataProviderFingerprints;
+import org.pentaho.di.core.refinery.model.ModelServerFetcher.AuthorizationException;
+import org.pentaho.di.core.refinery.model.ModelServerFetcher.ServerException;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Data source IDs of BA servers, shared by everything that needs to know whether a model exists. The analysis and
+ * DSW lists are downloaded together, in parallel, and kept per server URL and user for a limited time. Publishing
+ * to a server should {@link #invalidate(String) invalidate} its lists.
+ */
+public class ModelServerCatalog {
+
+  public static final String CACHE_TTL_PROPERTY = "KETTLE_DATA_REFINERY_CATALOG_CACHE_TTL";
+  public static final long DEFAULT_CACHE_TTL = 60000L;
+
+  private static final ModelServerCatalog instance =
+      new ModelServerCatalog( Const.toLong( System.getProperty( CACHE_TTL_PROPERTY ), DEFAULT_CACHE_TTL ) );
+
+  private static final ExecutorService executor = Executors.newCachedThreadPool( new ThreadFactory() {
+    @Override
+    public Thread newThread( Runnable runnable ) {
+      Thread thread = new Thread( runnable, "Data Refinery model catalog" );
+      thread.setDaemon( true );
+      return thread;
+    }
+  } );
+
+  private final long maxAge;
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+  ModelServerCatalog( long maxAge ) {
+    this.maxAge = maxAge;
+  }
+
+  public static ModelServerCatalog getInstance() {
+    return instance;
+  }
+
+  /**
+   * Gets the data source IDs visible through a fetcher's connection, downloading them if they are not known or too
+   * old.
+   */
+  public Catalog getCatalog( ModelServerFetcher fetcher ) throws AuthorizationException, ServerException {
+    BiServerConnection connection = fetcher.getBiServerConnection();
+    if ( connection == null || maxAge <= 0 ) {
+      return fetch( fetcher );
+    }
+    String key = getKey( connection );
+    Entry entry = entries.get( key );
+    if ( entry == null ) {
+      Entry created = new Entry( connection.getUrl() );
+      entry = entries.putIfAbsent( key, created );
+      if ( entry == null ) {
+        entry = created;
+      }
+    }
+    // one download per server and user at a time, others wait for its result
+    synchronized ( entry ) {
+      if ( entry.catalog == null || System.currentTimeMillis() - entry.fetched > maxAge ) {
+        entry.catalog = fetch( fetcher );
+        entry.fetched = System.currentTimeMillis();
+      }
+      return entry.catalog;
+    }
+  }
+
+  /**
+   * Whether a data source exists on the fetcher's server. With caching, the catalog answers; without it, the lists are
+   * read only until the ID shows up and are not kept.
+   */
+  public boolean exists( ModelServerFetcher fetcher, String id ) throws AuthorizationException, ServerException {
+    if ( fetcher.getBiServerConnection() == null || maxAge <= 0 ) {
+      return fetcher.dataSourceExists( id );
+    }
+    return getCatalog( fetcher ).contains( id );
+  }
+
+  /**
+   * Forgets the lists of every user of a server, after data sources were published to or removed from it.
+   */
+  public void invalidate( String url ) {
+    for ( Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+      Entry entry = iterator.next();
+      if ( entry.url == null ? url == null : entry.url.equals( url ) ) {
+        iterator.remove();
+      }
+    }
+  }
+
+  public void invalidateAll() {
+    entries.clear();
+  }
+
+  private Catalog fetch( final ModelServerFetcher fetcher ) throws AuthorizationException, ServerException {
+    Future<List<String>> analysisIds = executor.submit( new Callable<List<String>>() {
+      @Override
+      public List<String> call() throws Exception {
+        return fetcher.fetchAnalysisList();
+      }
+    } );
+    List<String> dswIds;
+    try {
+      dswIds = fetcher.fetchDswList();
+    } catch ( AuthorizationException | ServerException | RuntimeException e ) {
+      analysisIds.cancel( true );
+      throw e;
+    }
+    try {
+      return new Catalog( dswIds, analysisIds.get() );
+    } catch ( InterruptedException e ) {
+      analysisIds.cancel( true );
+      Thread.currentThread().interrupt();
+      throw new ServerException();
+    } catch ( ExecutionException e ) {
+      Throwable cause = e.getCause();
+      if ( cause instanceof AuthorizationException ) {
+        throw (AuthorizationException) cause;
+      } else if ( cause instanceof RuntimeException ) {
+        throw (RuntimeException) cause;
+      }
+      throw new ServerException();
+    }
+  }
+
+  private static String getKey( BiServerConnection connection ) {
+    // the password only tells apart sessions, it is not kept
+    return connection.getUrl() + '\u0000' + connection.getUserId() + '\u0000'
+        + DataProviderFingerprints.digest( Const.NVL( connection.getPassword(), "" ) );
+  }
+
+  /**
+   * Data source IDs of a server as seen by one user.
+   */
+  public static class Catalog {
+    private final List<String> dswIds;
+    private final List<String> analysisIds;
+    private final Set<String> allIds;
+
+    public Catalog( List<String> dswIds, List<String> analysisIds ) {
+      this.dswIds = Collections.unmodifiableList( new ArrayList<String>( dswIds ) );
+      this.analysisIds = Collections.unmodifiableList( new ArrayList<String>( analysisIds ) );
+      allIds = new HashSet<String>( dswIds );
+      allIds.addAll( analysisIds );
+    }
+
+    public List<String> getDswIds() {
+      return dswIds;
+    }
+
+    public List<String> getAnalysisIds() {
+      return analysisIds;
+    }
+
+    /**
+     * @return a new list of the DSW IDs followed by the analysis IDs
+     */
+    public List<String> getDataSourceIds() {
+      List<String> ids = new ArrayList<String>( dswIds );
+      ids.addAll( analysisIds );
+      return ids;
+    }
+
+    public boolean contains( String id ) {
+      return allIds.contains( id );
+    }
+  }
+
+  private static class Entry {
+    private final String url;
+    private Catalog catalog;
+    private long fetched;
+
+    Entry( String url ) {
+      this.url = url;
+    }
+  }
+}
@@ -31,16 +31,15 @@ import org.apache.commons.lang.StringUtils;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.core.refinery.publish.agilebi.ModelServerAction;
+import org.pentaho.di.core.refinery.publish.util.StaxUtils;
 import org.pentaho.metadata.model.Domain;
 import org.pentaho.metadata.util.XmiParser;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
 
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -73,6 +72,10 @@ public class ModelServerFetcher extends ModelServerAction {
     }
   }
 
+  private static final int HTTP_NOT_MODIFIED = 304;
+
+  private TemplateCache templateCache;
+
   public ModelServerFetcher() {
     super();
   }
@@ -102,69 +105,95 @@ public class ModelServerFetcher extends ModelServerAction {
     return fetchDatasourceIds( DataSourceType.ANALYSIS.getListPath() );
   }
 
+  /**
+   * Checks the DSW list and then the analysis list for a data source, reading each only until the ID shows up.
+   *
+   * @return whether a DSW or analysis data source has this ID
+   */
+  public boolean dataSourceExists( final String id ) throws AuthorizationException, ServerException {
+    StaxUtils.ItemVisitor matcher = new StaxUtils.ItemVisitor() {
+      @Override
+      public boolean visit( String item ) {
+        return !item.equals( id );
+      }
+    };
+    return !visitDatasourceIds( DataSourceType.DSW.getListPath(), matcher )
+        || !visitDatasourceIds( DataSourceType.ANALYSIS.getListPath(), matcher );
+  }
+
   protected List<String> fetchDatasourceIds( String path ) throws AuthorizationException, ServerException {
+    final List<String> ids = new ArrayList<String>();
+    visitDatasourceIds( path, new StaxUtils.ItemVisitor() {
+      @Override
+      public boolean visit( String item ) {
+        ids.add( item );
+        return true;
+      }
+    } );
+    return ids;
+  }
+
+  /**
+   * Streams the IDs of a data source list to a visitor, without holding the list.
+   *
+   * @return false if the visitor stopped the reading
+   */
+  protected boolean visitDatasourceIds( String path, StaxUtils.ItemVisitor visitor )
+    throws AuthorizationException, ServerException {
     WebResource listGet = getResource( path );
     ClientResponse response = httpGet( listGet.type( MediaType.APPLICATION_XML ) );
-    if ( isSuccess( response ) ) {
-      InputStream input = null;
-      try {
-        input = response.getEntity( InputStream.class );
-        InputSource source = new InputSource( input );
-        // <List>
-        //   <Item ... xsi:type="xs:string">Model.xmi</Item>
-        // </List>
-
-        // Weird Mac OS issue.  Without it, XPathFactory.newInstance() could intermittently fail
-        if ( Thread.currentThread().getContextClassLoader() == null ) {
-          Thread.currentThread().setContextClassLoader( getClass().getClassLoader() );
+    try {
+      if ( isSuccess( response ) ) {
+        InputStream input = null;
+        try {
+          input = response.getEntity( InputStream.class );
+          // <List>
+          //   <Item ... xsi:type="xs:string">Model.xmi</Item>
+          // </List>
+          return StaxUtils.visitItems( input, "List", "Item", visitor );
+        } catch ( XMLStreamException e ) {
+          // not a list the server should have sent
+          throw new ServerException();
+        } finally {
+          IOUtils.closeQuietly( input );
         }
-        XPath xpath = XPathFactory.newInstance().newXPath();
-        NodeList items = (NodeList) xpath.evaluate( "/List/Item/text()", source, XPathConstants.NODESET );
-        ArrayList<String> result = new ArrayList<String>( items.getLength() );
-        for ( int i = 0; i < items.getLength(); i++ ) {
-          result.add( items.item( i ).getNodeValue() );
+      } else {
+        switch ( response.getStatus() ) {
+          case 401:
+            throw new AuthorizationException();
+          case 500:
+          default:
+            throw new ServerException();
         }
-        return result;
-      } catch ( XPathExpressionException e ) {
-        // shouldn't really happen
-        throw new RuntimeException( e );
-      } finally {
-        IOUtils.closeQuietly( input );
-      }
-    } else {
-      switch ( response.getStatus() ) {
-        case 401:
-          throw new AuthorizationException();
-        case 500:
-        default:
-          throw new ServerException();
       }
+    } finally {
+      close( response );
     }
   }
 
+  /**
+   * Keeps downloaded templates in a local cache, revalidating them with the server on use. Without a cache every
+   * template is downloaded in full.
+   */
+  public void setTemplateCache( TemplateCache templateCache ) {
+    this.templateCache = templateCache;
+  }
+
   public String downloadAnalysisFile( String analysisId )
     throws KettleException, AuthorizationException, ServerException, URIException {
     String encodedId = URIUtil.encodePath( analysisId );
-    ClientResponse response =
-        getResource( DataSourceType.ANALYSIS.getDownloadPath( encodedId ) ).get( ClientResponse.class );
-    if ( isSuccess( response ) ) {
-      if ( response.getType().toString().equals( "application/zip" ) ) {
-        try ( ZipInputStream zipInputStream = extractFromZip( "schema.xml", response ) ) {
+    String path = DataSourceType.ANALYSIS.getDownloadPath( encodedId );
+    TemplateCache.Template template = downloadTemplate( path, getTemplateKey( path ) );
+    try {
+      if ( "application/zip".equals( template.getContentType() ) ) {
+        try ( ZipInputStream zipInputStream = extractFromZip( "schema.xml", template ) ) {
           return IOUtils.toString( zipInputStream );
-        } catch ( IOException e ) {
-          throw new KettleException( e );
         }
       } else {
-        return response.getEntity( String.class );
-      }
-    } else {
-      switch ( response.getStatus() ) {
-        case 401:
-          throw new AuthorizationException();
-        case 500:
-        default:
-          throw new ServerException();
+        return new String( template.getContent(), getCharset( template ) );
       }
+    } catch ( IOException e ) {
+      throw new KettleException( e );
     }
   }
 
@@ -178,28 +207,115 @@ public class ModelServerFetcher extends ModelServerAction {
   public Domain downloadDswFile( String dswId )
     throws KettleException, AuthorizationException, ServerException, URIException {
     String encodedId = URIUtil.encodePath( dswId );
-    ClientResponse response = getResource( DataSourceType.DSW.getDownloadPath( encodedId ) ).get( ClientResponse.class );
-    if ( isSuccess( response ) ) {
-      try ( ZipInputStream zipInputStream = extractFromZip( dswId, response ) ) {
-        XmiParser parser = new XmiParser();
-        return parser.parseXmi( zipInputStream );
-      } catch ( Exception e ) {
-        throw new KettleException( e );
+    String path = DataSourceType.DSW.getDownloadPath( encodedId );
+    TemplateCache.Template template = downloadTemplate( path, getTemplateKey( path ) );
+    // callers update the model they get, so it is parsed from the downloaded bytes each time
+    return parseDsw( dswId, template );
+  }
+
+  private Domain parseDsw( String dswId, TemplateCache.Template template ) throws KettleException {
+    try ( ZipInputStream zipInputStream = extractFromZip( dswId, template ) ) {
+      XmiParser parser = new XmiParser();
+      return parser.parseXmi( zipInputStream );
+    } catch ( Exception e ) {
+      throw new KettleException( e );
+    }
+  }
+
+  private String getTemplateKey( String path ) {
+    return templateCache == null ? null : TemplateCache.getKey( biServerConnection, path );
+  }
+
+  /**
+   * Gets a template from the cache when the server says it is unchanged, or when the server gave no way to tell and
+   * the cached copy is recent enough. Downloads it otherwise.
+   */
+  private TemplateCache.Template downloadTemplate( String path, String key )
+    throws KettleException, AuthorizationException, ServerException {
+    TemplateCache.Template cached = templateCache == null ? null : templateCache.get( key );
+    ClientResponse response;
+    if ( cached == null ) {
+      response = getResource( path ).get( ClientResponse.class );
+    } else if ( !cached.hasValidators() ) {
+      if ( templateCache.isFresh( cached ) ) {
+        return cached;
       }
+      response = getResource( path ).get( ClientResponse.class );
     } else {
-      switch ( response.getStatus() ) {
-        case 401:
-          throw new AuthorizationException();
-        case 500:
-        default:
-          throw new ServerException();
+      WebResource.Builder request = getResource( path ).getRequestBuilder();
+      if ( cached.getEtag() != null ) {
+        request = request.header( HttpHeaders.IF_NONE_MATCH, cached.getEtag() );
+      }
+      if ( cached.getLastModified() != null ) {
+        request = request.header( HttpHeaders.IF_MODIFIED_SINCE, cached.getLastModified() );
+      }
+      response = request.get( ClientResponse.class );
+      if ( response.getStatus() == HTTP_NOT_MODIFIED ) {
+        response.close();
+        TemplateCache.Template revalidated = cached.revalidated();
+        storeTemplate( key, revalidated );
+        return revalidated;
+      }
+    }
+    try {
+      if ( isSuccess( response ) ) {
+        InputStream input = null;
+        byte[] content;
+        try {
+          input = response.getEntity( InputStream.class );
+          content = IOUtils.toByteArray( input );
+        } catch ( IOException e ) {
+          throw new KettleException( e );
+        } finally {
+          IOUtils.closeQuietly( input );
+        }
+        TemplateCache.Template template = new TemplateCache.Template( content,
+            response.getType() == null ? null : response.getType().toString(),
+            getHeader( response, HttpHeaders.ETAG ), getHeader( response, HttpHeaders.LAST_MODIFIED ),
+            System.currentTimeMillis() );
+        storeTemplate( key, template );
+        return template;
+      } else {
+        switch ( response.getStatus() ) {
+          case 401:
+            throw new AuthorizationException();
+          case 500:
+          default:
+            throw new ServerException();
+        }
+      }
+    } finally {
+      close( response );
+    }
+  }
+
+  private void storeTemplate( String key, TemplateCache.Template template ) {
+    if ( templateCache != null ) {
+      try {
+        templateCache.put( key, template );
+      } catch ( IOException e ) {
+        // the template is still good for this download
       }
     }
   }
 
-  private ZipInputStream extractFromZip( final String fileName, final ClientResponse response ) throws KettleException {
+  private static String getHeader( ClientResponse response, String name ) {
+    MultivaluedMap<String, String> headers = response.getHeaders();
+    return headers == null ? null : headers.getFirst( name );
+  }
+
+  private static String getCharset( TemplateCache.Template template ) {
+    String charset = null;
+    if ( template.getContentType() != null ) {
+      charset = MediaType.valueOf( template.getContentType() ).getParameters().get( "charset" );
+    }
+    return charset == null ? "UTF-8" : charset;
+  }
+
+  private ZipInputStream extractFromZip( final String fileName, final TemplateCache.Template template )
+    throws KettleException {
     try {
-      InputStream input = response.getEntity( InputStream.class );
+      InputStream input = new ByteArrayInputStream( template.getContent() );
       ZipInputStream zipin = new ZipInputStream( input );
       // fileName=Model.xmi -> Model.zip[ Model.xmi, Model.mondrian.xml ]
       for ( ZipEntry entry = zipin.getNextEntry(); entry != null; entry = zipin.getNextEntry() ) {
@@ -42,11 +42,9 @@ public class RefineryValueMetaStrategy extends DataProviderHelper.OutputStepMapp
 
   @Override
   public String displayName( final ValueMetaInterface valueMeta ) {
-    for ( int i = 0; i < fieldDatabase.size(); i++ ) {
-      final String fieldName = fieldDatabase.get( i );
-      if ( fieldName.equalsIgnoreCase( valueMeta.getName() ) ) {
-        return fieldStream.get( i );
-      }
+    int index = getDatabaseFieldIndex().indexOfIgnoreCase( valueMeta.getName() );
+    if ( index >= 0 ) {
+      return fieldStream.get( index );
     }
     ValueMetaInterface insertValueMeta = insertRowMeta.searchValueMeta( valueMeta.getName() );
     if ( insertValueMeta != null ) {
@@ -0,0 +1,150 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.logging.LoggingObjectInterface;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fields of database tables, per connection, schema and table, so building and validating models of the same table
+ * reads its metadata from the database once. Entries expire after a while and are dropped when a transformation
+ * writes to their table; callers get their own copy of the fields.
+ * <p/>
+ * Reads go through {@link Database}, so connections configured for pooling come from their pool.
+ */
+public class TableMetadataCache {
+
+  public static final String CACHE_TTL_PROPERTY = "KETTLE_DATA_REFINERY_TABLE_METADATA_CACHE_TTL";
+  public static final long DEFAULT_CACHE_TTL = 60000L;
+  static final int MAX_ENTRIES = 64;
+
+  private static final TableMetadataCache instance =
+      new TableMetadataCache( Const.toLong( System.getProperty( CACHE_TTL_PROPERTY ), DEFAULT_CACHE_TTL ) );
+
+  private final long maxAge;
+  private final Map<String, Entry> tables = new LinkedHashMap<String, Entry>( 16, 0.75f, true ) {
+    @Override
+    protected boolean removeEldestEntry( Map.Entry<String, Entry> eldest ) {
+      return size() > MAX_ENTRIES;
+    }
+  };
+
+  TableMetadataCache( long maxAge ) {
+    this.maxAge = maxAge;
+  }
+
+  public static TableMetadataCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * @param schema the schema of the table, blank to leave the table unqualified
+   * @return the fields of the table, read from the database if they are not known or too old
+   */
+  public RowMetaInterface getTableFields( LoggingObjectInterface parent, DatabaseMeta databaseMeta, String schema,
+      String table ) throws KettleDatabaseException {
+    String connection = getConnectionKey( databaseMeta );
+    String key = connection + "\0" + Const.NVL( schema, "" ) + "\0" + table;
+    Entry entry = get( key );
+    if ( entry != null ) {
+      return entry.fields.clone();
+    }
+    RowMetaInterface fields = readTableFields( parent, databaseMeta, schema, table );
+    if ( maxAge > 0 && fields != null ) {
+      synchronized ( this ) {
+        tables.put( key, new Entry( connection, table, fields.clone() ) );
+      }
+    }
+    return fields;
+  }
+
+  /**
+   * Drops the fields of a table in any schema of the connection.
+   */
+  public synchronized void invalidate( DatabaseMeta databaseMeta, String table ) {
+    if ( databaseMeta == null || table == null ) {
+      return;
+    }
+    String connection = getConnectionKey( databaseMeta );
+    for ( Iterator<Entry> iterator = tables.values().iterator(); iterator.hasNext(); ) {
+      Entry entry = iterator.next();
+      if ( entry.connection.equals( connection ) && entry.table.equalsIgnoreCase( table ) ) {
+        iterator.remove();
+      }
+    }
+  }
+
+  public synchronized void invalidateAll() {
+    tables.clear();
+  }
+
+  synchronized int size() {
+    return tables.size();
+  }
+
+  RowMetaInterface readTableFields( LoggingObjectInterface parent, DatabaseMeta databaseMeta, String schema,
+      String table ) throws KettleDatabaseException {
+    Database database = new Database( parent, databaseMeta );
+    try {
+      database.connect();
+      return database.getTableFields(
+          Const.isEmpty( schema ) ? table : databaseMeta.getQuotedSchemaTableCombination( schema, table ) );
+    } finally {
+      database.disconnect();
+    }
+  }
+
+  private synchronized Entry get( String key ) {
+    Entry entry = tables.get( key );
+    if ( entry != null && System.currentTimeMillis() - entry.time > maxAge ) {
+      tables.remove( key );
+      return null;
+    }
+    return entry;
+  }
+
+  private String getConnectionKey( DatabaseMeta databaseMeta ) {
+    return new ModelArtifactCache.Key().addConnection( databaseMeta ).build();
+  }
+
+  private static class Entry {
+    private final String connection;
+    private final String table;
+    private final RowMetaInterface fields;
+    private final long time = System.currentTimeMillis();
+
+    Entry( String connection, String table, RowMetaInterface fields ) {
+      this.connection = connection;
+      this.table = table;
+      this.fields = fields;
+    }
+  }
+}
@@ -0,0 +1,210 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Local copies of the template models downloaded from a BA server for "use existing model", per server, user and
+ * download path. A copy the server gave an ETag or Last-Modified date for is revalidated with a conditional request
+ * on each use; other copies are used until they are {@link #CACHE_TTL_VARIABLE} milliseconds old.
+ * <p/>
+ * Only the downloaded bytes are kept, callers parse them on each use so they get a model of their own. The cache is
+ * off unless {@link #CACHE_ENABLED_VARIABLE} is set to Y.
+ */
+public class TemplateCache {
+
+  public static final String CACHE_ENABLED_VARIABLE = "KETTLE_DATA_REFINERY_TEMPLATE_CACHE";
+  public static final String CACHE_DIR_VARIABLE = "KETTLE_DATA_REFINERY_TEMPLATE_CACHE_DIR";
+  public static final String CACHE_TTL_VARIABLE = "KETTLE_DATA_REFINERY_TEMPLATE_CACHE_TTL";
+
+  public static final long DEFAULT_CACHE_TTL = 300000L;
+
+  private static final String TEMPLATE_SUFFIX = ".template";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private final File directory;
+  private final long maxAge;
+
+  public TemplateCache( File directory, long maxAge ) {
+    this.directory = directory;
+    this.maxAge = maxAge;
+  }
+
+  /**
+   * @return the default cache directory, in the kettle home directory
+   */
+  public static String getDefaultDirectory() {
+    return Const.getKettleDirectory() + Const.FILE_SEPARATOR + "data-refinery" + Const.FILE_SEPARATOR
+        + "template-cache";
+  }
+
+  /**
+   * @return the key of a download, usable as a file name
+   */
+  public static String getKey( BiServerConnection connection, String path ) {
+    return new ModelArtifactCache.Key()
+        .add( "url", connection == null ? null : connection.getUrl() )
+        .add( "user", connection == null ? null : connection.getUserId() )
+        .add( "path", path )
+        .build();
+  }
+
+  /**
+   * @return the stored copy, or null if there is none or it cannot be read
+   */
+  public Template get( String key ) {
+    File file = getFile( key );
+    if ( !file.isFile() ) {
+      return null;
+    }
+    DataInputStream input = null;
+    try {
+      input = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+      String contentType = input.readUTF();
+      String etag = input.readUTF();
+      String lastModified = input.readUTF();
+      long fetched = input.readLong();
+      byte[] content = new byte[ input.readInt() ];
+      input.readFully( content );
+      return new Template( content, emptyToNull( contentType ), emptyToNull( etag ), emptyToNull( lastModified ),
+          fetched );
+    } catch ( IOException e ) {
+      return null;
+    } finally {
+      IOUtils.closeQuietly( input );
+    }
+  }
+
+  /**
+   * Stores a copy. The file is written aside and renamed, so a concurrent reader sees either the complete copy or
+   * none.
+   */
+  public void put( String key, Template template ) throws IOException {
+    File file = getFile( key );
+    FileUtils.forceMkdir( directory );
+    File temp = File.createTempFile( key, TEMP_SUFFIX, directory );
+    try {
+      DataOutputStream output = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ) ) );
+      try {
+        output.writeUTF( Const.NVL( template.getContentType(), "" ) );
+        output.writeUTF( Const.NVL( template.getEtag(), "" ) );
+        output.writeUTF( Const.NVL( template.getLastModified(), "" ) );
+        output.writeLong( template.getFetched() );
+        output.writeInt( template.getContent().length );
+        output.write( template.getContent() );
+      } finally {
+        output.close();
+      }
+      if ( !temp.renameTo( file ) ) {
+        // some platforms do not replace on rename
+        FileUtils.deleteQuietly( file );
+        if ( !temp.renameTo( file ) ) {
+          throw new IOException( "Unable to store template " + file );
+        }
+      }
+    } finally {
+      FileUtils.deleteQuietly( temp );
+    }
+  }
+
+  /**
+   * @return whether a copy without validators is recent enough to use without asking the server
+   */
+  public boolean isFresh( Template template ) {
+    return System.currentTimeMillis() - template.getFetched() <= maxAge;
+  }
+
+  private File getFile( String key ) {
+    return new File( directory, key + TEMPLATE_SUFFIX );
+  }
+
+  private static String emptyToNull( String value ) {
+    return Const.isEmpty( value ) ? null : value;
+  }
+
+  /**
+   * A downloaded template with the validators the server sent for it.
+   */
+  public static class Template {
+    private final byte[] content;
+    private final String contentType;
+    private final String etag;
+    private final String lastModified;
+    private final long fetched;
+
+    public Template( byte[] content, String contentType, String etag, String lastModified, long fetched ) {
+      this.content = content;
+      this.contentType = contentType;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.fetched = fetched;
+    }
+
+    public byte[] getContent() {
+      return content;
+    }
+
+    public String getContentType() {
+      return contentType;
+    }
+
+    public String getEtag() {
+      return etag;
+    }
+
+    public String getLastModified() {
+      return lastModified;
+    }
+
+    public long getFetched() {
+      return fetched;
+    }
+
+    /**
+     * @return whether the server can tell if this copy is still current
+     */
+    public boolean hasValidators() {
+      return etag != null || lastModified != null;
+    }
+
+    /**
+     * @return the same content, fetched or revalidated now
+     */
+    Template revalidated() {
+      return new Template( content, contentType, etag, lastModified, System.currentTimeMillis() );
+    }
+  }
+}
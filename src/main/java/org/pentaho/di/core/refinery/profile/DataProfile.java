@@ -0,0 +1,78 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+import org.pentaho.metastore.persist.MetaStoreAttribute;
+import org.pentaho.metastore.persist.MetaStoreElementType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Row and field statistics collected by an annotation step in profiling mode.
+ */
+@MetaStoreElementType( name = "Data Profile", description = "Field statistics collected while annotating a stream" )
+public class DataProfile {
+
+  @MetaStoreAttribute
+  private String name;
+
+  @MetaStoreAttribute
+  private long rowCount;
+
+  @MetaStoreAttribute
+  private List<FieldProfile> fields = new ArrayList<FieldProfile>();
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName( String name ) {
+    this.name = name;
+  }
+
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  public void setRowCount( long rowCount ) {
+    this.rowCount = rowCount;
+  }
+
+  public List<FieldProfile> getFields() {
+    return fields;
+  }
+
+  public void setFields( List<FieldProfile> fields ) {
+    this.fields = fields;
+  }
+
+  public FieldProfile getField( String fieldName ) {
+    for ( FieldProfile field : fields ) {
+      if ( field.getName() != null && field.getName().equals( fieldName ) ) {
+        return field;
+      }
+    }
+    return null;
+  }
+}
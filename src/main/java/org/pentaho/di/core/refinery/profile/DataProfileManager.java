@@ -0,0 +1,58 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+import org.pentaho.metastore.api.IMetaStore;
+import org.pentaho.metastore.api.exceptions.MetaStoreException;
+import org.pentaho.metastore.persist.MetaStoreFactory;
+import org.pentaho.metastore.util.PentahoDefaults;
+
+/**
+ * Stores data profiles in the metastore, next to the annotation groups they were collected for. The build does not
+ * read them; the sketches are kept for tools that work from the metastore, and can be restored with
+ * {@link HyperLogLog#HyperLogLog(byte[])} to merge the distinct counts of several runs.
+ */
+public class DataProfileManager {
+
+  public void saveProfile( DataProfile profile, IMetaStore metaStore ) throws MetaStoreException {
+    if ( !metaStore.namespaceExists( PentahoDefaults.NAMESPACE ) ) {
+      metaStore.createNamespace( PentahoDefaults.NAMESPACE );
+    }
+    MetaStoreFactory<DataProfile> factory = getFactory( metaStore );
+    if ( factory.loadElement( profile.getName() ) != null ) {
+      factory.deleteElement( profile.getName() );
+    }
+    factory.saveElement( profile );
+  }
+
+  public DataProfile loadProfile( String name, IMetaStore metaStore ) throws MetaStoreException {
+    if ( !metaStore.namespaceExists( PentahoDefaults.NAMESPACE ) ) {
+      return null;
+    }
+    return getFactory( metaStore ).loadElement( name );
+  }
+
+  protected MetaStoreFactory<DataProfile> getFactory( IMetaStore metaStore ) {
+    return new MetaStoreFactory<DataProfile>( DataProfile.class, metaStore, PentahoDefaults.NAMESPACE );
+  }
+}
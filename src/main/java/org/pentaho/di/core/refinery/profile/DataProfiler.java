@@ -0,0 +1,76 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * Profiles the rows of a stream, one {@link FieldProfiler} per field.
+ */
+public class DataProfiler {
+
+  private final FieldProfiler[] fields;
+  private long rowCount;
+
+  public DataProfiler( RowMetaInterface rowMeta ) {
+    fields = new FieldProfiler[ rowMeta.size() ];
+    for ( int i = 0; i < fields.length; i++ ) {
+      fields[ i ] = new FieldProfiler( rowMeta.getValueMeta( i ) );
+    }
+  }
+
+  public void addRow( Object[] row ) throws KettleValueException {
+    rowCount++;
+    for ( int i = 0; i < fields.length; i++ ) {
+      fields[ i ].add( row[ i ] );
+    }
+  }
+
+  /**
+   * Folds in a profiler built from the same row layout, e.g. another copy of the step.
+   */
+  public void merge( DataProfiler other ) throws KettleValueException {
+    if ( other.fields.length != fields.length ) {
+      throw new IllegalArgumentException( "row layouts differ" );
+    }
+    rowCount += other.rowCount;
+    for ( int i = 0; i < fields.length; i++ ) {
+      fields[ i ].merge( other.fields[ i ] );
+    }
+  }
+
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  public DataProfile getProfile( String name ) throws KettleValueException {
+    DataProfile profile = new DataProfile();
+    profile.setName( name );
+    profile.setRowCount( rowCount );
+    for ( FieldProfiler field : fields ) {
+      profile.getFields().add( field.getProfile() );
+    }
+    return profile;
+  }
+}
@@ -0,0 +1,111 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+import org.pentaho.metastore.persist.MetaStoreAttribute;
+
+/**
+ * Statistics for a single field, as stored in the metastore.
+ */
+public class FieldProfile {
+
+  @MetaStoreAttribute
+  private String name;
+
+  @MetaStoreAttribute
+  private String type;
+
+  @MetaStoreAttribute
+  private long nullCount;
+
+  @MetaStoreAttribute
+  private long distinctCount;
+
+  @MetaStoreAttribute
+  private String minimum;
+
+  @MetaStoreAttribute
+  private String maximum;
+
+  /**
+   * base64 encoded HyperLogLog registers, kept so profiles can be merged later
+   */
+  @MetaStoreAttribute
+  private String sketch;
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName( String name ) {
+    this.name = name;
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public void setType( String type ) {
+    this.type = type;
+  }
+
+  public long getNullCount() {
+    return nullCount;
+  }
+
+  public void setNullCount( long nullCount ) {
+    this.nullCount = nullCount;
+  }
+
+  public long getDistinctCount() {
+    return distinctCount;
+  }
+
+  public void setDistinctCount( long distinctCount ) {
+    this.distinctCount = distinctCount;
+  }
+
+  public String getMinimum() {
+    return minimum;
+  }
+
+  public void setMinimum( String minimum ) {
+    this.minimum = minimum;
+  }
+
+  public String getMaximum() {
+    return maximum;
+  }
+
+  public void setMaximum( String maximum ) {
+    this.maximum = maximum;
+  }
+
+  public String getSketch() {
+    return sketch;
+  }
+
+  public void setSketch( String sketch ) {
+    this.sketch = sketch;
+  }
+}
@@ -0,0 +1,192 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+import javax.xml.bind.DatatypeConverter;
+import java.util.Date;
+
+/**
+ * Accumulates statistics for one field. Integer, number and date fields in normal storage are tracked with
+ * primitives so {@link #add(Object)} does not allocate.
+ */
+public class FieldProfiler {
+
+  private static final int KIND_INTEGER = 0;
+  private static final int KIND_NUMBER = 1;
+  private static final int KIND_DATE = 2;
+  private static final int KIND_OTHER = 3;
+
+  private final ValueMetaInterface valueMeta;
+  private final int kind;
+  private final HyperLogLog sketch = new HyperLogLog();
+
+  private long nullCount;
+  private long valueCount;
+  private long minLong = Long.MAX_VALUE;
+  private long maxLong = Long.MIN_VALUE;
+  private double minDouble = Double.POSITIVE_INFINITY;
+  private double maxDouble = Double.NEGATIVE_INFINITY;
+  private Object minObject;
+  private Object maxObject;
+
+  public FieldProfiler( ValueMetaInterface valueMeta ) {
+    this.valueMeta = valueMeta;
+    this.kind = getKind( valueMeta );
+  }
+
+  private static int getKind( ValueMetaInterface valueMeta ) {
+    if ( valueMeta.getStorageType() != ValueMetaInterface.STORAGE_TYPE_NORMAL ) {
+      return KIND_OTHER;
+    }
+    switch ( valueMeta.getType() ) {
+      case ValueMetaInterface.TYPE_INTEGER:
+        return KIND_INTEGER;
+      case ValueMetaInterface.TYPE_NUMBER:
+        return KIND_NUMBER;
+      case ValueMetaInterface.TYPE_DATE:
+        return KIND_DATE;
+      default:
+        return KIND_OTHER;
+    }
+  }
+
+  public void add( Object value ) throws KettleValueException {
+    if ( value == null || ( kind == KIND_OTHER && valueMeta.isNull( value ) ) ) {
+      nullCount++;
+      return;
+    }
+    valueCount++;
+    switch ( kind ) {
+      case KIND_INTEGER:
+        addLong( (Long) value );
+        break;
+      case KIND_NUMBER:
+        double number = (Double) value;
+        sketch.offer( HyperLogLog.mix( Double.doubleToLongBits( number ) ) );
+        minDouble = Math.min( minDouble, number );
+        maxDouble = Math.max( maxDouble, number );
+        break;
+      case KIND_DATE:
+        addLong( ( (Date) value ).getTime() );
+        break;
+      default:
+        addObject( value );
+    }
+  }
+
+  private void addLong( long value ) {
+    sketch.offer( HyperLogLog.mix( value ) );
+    minLong = Math.min( minLong, value );
+    maxLong = Math.max( maxLong, value );
+  }
+
+  private void addObject( Object value ) throws KettleValueException {
+    if ( value instanceof CharSequence ) {
+      sketch.offer( HyperLogLog.hash( (CharSequence) value ) );
+    } else if ( value instanceof byte[] ) {
+      sketch.offer( HyperLogLog.hash( (byte[]) value ) );
+    } else {
+      sketch.offer( HyperLogLog.mix( value.hashCode() ) );
+    }
+    updateMinMax( value );
+  }
+
+  private void updateMinMax( Object value ) throws KettleValueException {
+    if ( minObject == null || valueMeta.compare( value, minObject ) < 0 ) {
+      minObject = value;
+    }
+    if ( maxObject == null || valueMeta.compare( value, maxObject ) > 0 ) {
+      maxObject = value;
+    }
+  }
+
+  /**
+   * Folds in the statistics of another copy of the same field.
+   */
+  public void merge( FieldProfiler other ) throws KettleValueException {
+    nullCount += other.nullCount;
+    valueCount += other.valueCount;
+    sketch.merge( other.sketch );
+    minLong = Math.min( minLong, other.minLong );
+    maxLong = Math.max( maxLong, other.maxLong );
+    minDouble = Math.min( minDouble, other.minDouble );
+    maxDouble = Math.max( maxDouble, other.maxDouble );
+    if ( other.minObject != null ) {
+      updateMinMax( other.minObject );
+    }
+    if ( other.maxObject != null ) {
+      updateMinMax( other.maxObject );
+    }
+  }
+
+  public long getNullCount() {
+    return nullCount;
+  }
+
+  public long getDistinctCount() {
+    return valueCount == 0 ? 0 : Math.min( valueCount, sketch.cardinality() );
+  }
+
+  public FieldProfile getProfile() throws KettleValueException {
+    FieldProfile profile = new FieldProfile();
+    profile.setName( valueMeta.getName() );
+    profile.setType( valueMeta.getTypeDesc() );
+    profile.setNullCount( nullCount );
+    profile.setDistinctCount( getDistinctCount() );
+    if ( valueCount > 0 ) {
+      profile.setMinimum( valueMeta.getString( getMinimum() ) );
+      profile.setMaximum( valueMeta.getString( getMaximum() ) );
+    }
+    profile.setSketch( DatatypeConverter.printBase64Binary( sketch.getRegisters() ) );
+    return profile;
+  }
+
+  private Object getMinimum() {
+    switch ( kind ) {
+      case KIND_INTEGER:
+        return minLong;
+      case KIND_NUMBER:
+        return minDouble;
+      case KIND_DATE:
+        return new Date( minLong );
+      default:
+        return minObject;
+    }
+  }
+
+  private Object getMaximum() {
+    switch ( kind ) {
+      case KIND_INTEGER:
+        return maxLong;
+      case KIND_NUMBER:
+        return maxDouble;
+      case KIND_DATE:
+        return new Date( maxLong );
+      default:
+        return maxObject;
+    }
+  }
+}
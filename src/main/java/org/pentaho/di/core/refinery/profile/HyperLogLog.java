@@ -0,0 +1,128 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size HyperLogLog sketch for approximate distinct counts. Callers hash their values into 64 bits, so offering
+ * a value never allocates.
+ */
+public class HyperLogLog {
+
+  public static final int PRECISION = 11;
+  private static final int REGISTER_COUNT = 1 << PRECISION;
+  private static final double ALPHA_MM = ( 0.7213 / ( 1 + 1.079 / REGISTER_COUNT ) ) * REGISTER_COUNT * REGISTER_COUNT;
+
+  private final byte[] registers;
+
+  public HyperLogLog() {
+    registers = new byte[ REGISTER_COUNT ];
+  }
+
+  public HyperLogLog( byte[] registers ) {
+    if ( registers == null || registers.length != REGISTER_COUNT ) {
+      throw new IllegalArgumentException( "expected " + REGISTER_COUNT + " registers" );
+    }
+    this.registers = registers.clone();
+  }
+
+  public void offer( long hash ) {
+    int index = (int) ( hash >>> ( Long.SIZE - PRECISION ) );
+    // guard bit keeps the run length within the remaining bits
+    byte rank = (byte) ( Long.numberOfLeadingZeros( ( hash << PRECISION ) | ( 1L << ( PRECISION - 1 ) ) ) + 1 );
+    if ( rank > registers[ index ] ) {
+      registers[ index ] = rank;
+    }
+  }
+
+  public void merge( HyperLogLog other ) {
+    for ( int i = 0; i < REGISTER_COUNT; i++ ) {
+      if ( other.registers[ i ] > registers[ i ] ) {
+        registers[ i ] = other.registers[ i ];
+      }
+    }
+  }
+
+  public long cardinality() {
+    double sum = 0;
+    int zeros = 0;
+    for ( byte register : registers ) {
+      sum += 1.0 / ( 1L << register );
+      if ( register == 0 ) {
+        zeros++;
+      }
+    }
+    double estimate = ALPHA_MM / sum;
+    if ( estimate <= 2.5 * REGISTER_COUNT && zeros > 0 ) {
+      // linear counting is more accurate for small sets
+      estimate = REGISTER_COUNT * Math.log( (double) REGISTER_COUNT / zeros );
+    }
+    return Math.round( estimate );
+  }
+
+  public byte[] getRegisters() {
+    return registers.clone();
+  }
+
+  /**
+   * Finalization step of MurmurHash3; spreads the bits of an already hashed or raw value.
+   */
+  public static long mix( long value ) {
+    long h = value;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  public static long hash( CharSequence chars ) {
+    long h = 0xcbf29ce484222325L;
+    for ( int i = 0; i < chars.length(); i++ ) {
+      h ^= chars.charAt( i );
+      h *= 0x100000001b3L;
+    }
+    return mix( h );
+  }
+
+  public static long hash( byte[] bytes ) {
+    long h = 0xcbf29ce484222325L;
+    for ( byte b : bytes ) {
+      h ^= b & 0xff;
+      h *= 0x100000001b3L;
+    }
+    return mix( h );
+  }
+
+  @Override
+  public boolean equals( Object o ) {
+    return o instanceof HyperLogLog && Arrays.equals( registers, ( (HyperLogLog) o ).registers );
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode( registers );
+  }
+}
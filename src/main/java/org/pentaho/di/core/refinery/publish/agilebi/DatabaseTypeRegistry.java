@@ -0,0 +1,105 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.agilebi;
+
+import org.pentaho.database.IDatabaseDialect;
+import org.pentaho.database.model.IDatabaseType;
+import org.pentaho.database.service.DatabaseDialectService;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The database types of the dialects the BA server knows, by short name, which is the plugin id of a Kettle
+ * database. Scanning the dialects instantiates every one of them, so it is done once, on first use, and the types
+ * are shared by all publish calls of this plugin.
+ */
+public class DatabaseTypeRegistry {
+
+  private static final DatabaseTypeRegistry instance = new DatabaseTypeRegistry();
+
+  private volatile Map<String, IDatabaseType> types;
+
+  DatabaseTypeRegistry() {
+  }
+
+  public static DatabaseTypeRegistry getInstance() {
+    return instance;
+  }
+
+  /**
+   * @return the database type with this short name, null if there is none or the dialects cannot be loaded
+   */
+  public IDatabaseType getDatabaseType( String shortName ) {
+    if ( shortName == null ) {
+      return null;
+    }
+    try {
+      return getTypes().get( shortName );
+    } catch ( RuntimeException e ) {
+      // not remembered, the next call scans again
+      return null;
+    }
+  }
+
+  private Map<String, IDatabaseType> getTypes() {
+    Map<String, IDatabaseType> loaded = types;
+    if ( loaded == null ) {
+      synchronized ( this ) {
+        loaded = types;
+        if ( loaded == null ) {
+          loaded = Collections.unmodifiableMap( index( loadDatabaseTypes() ) );
+          types = loaded;
+        }
+      }
+    }
+    return loaded;
+  }
+
+  List<IDatabaseType> loadDatabaseTypes() {
+    ClassLoader orig = Thread.currentThread().getContextClassLoader();
+    try {
+      Thread.currentThread().setContextClassLoader( IDatabaseDialect.class.getClassLoader() );
+      return new DatabaseDialectService( false ).getDatabaseTypes();
+    } finally {
+      Thread.currentThread().setContextClassLoader( orig );
+    }
+  }
+
+  /**
+   * Keeps the first type of each short name, as a scan of the list would find it.
+   */
+  private static Map<String, IDatabaseType> index( List<IDatabaseType> databaseTypes ) {
+    Map<String, IDatabaseType> index = new HashMap<String, IDatabaseType>();
+    if ( databaseTypes != null ) {
+      for ( IDatabaseType databaseType : databaseTypes ) {
+        if ( databaseType.getShortName() != null && !index.containsKey( databaseType.getShortName() ) ) {
+          index.put( databaseType.getShortName(), databaseType );
+        }
+      }
+    }
+    return index;
+  }
+}
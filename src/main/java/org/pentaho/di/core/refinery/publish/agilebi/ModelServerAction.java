@@ -22,27 +22,24 @@
 
 package org.pentaho.di.core.refinery.publish.agilebi;
 
-import org.pentaho.database.IDatabaseDialect;
 import org.pentaho.database.model.IDatabaseType;
-import org.pentaho.database.service.DatabaseDialectService;
-import org.pentaho.database.util.DatabaseTypeHelper;
 import org.pentaho.di.core.database.DatabaseInterface;
 import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.refinery.publish.util.HttpDeadline;
+import org.pentaho.di.core.refinery.publish.util.HttpTransport;
 
 import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 import com.sun.jersey.api.client.WebResource.Builder;
-import com.sun.jersey.api.client.config.ClientConfig;
-import com.sun.jersey.api.client.config.DefaultClientConfig;
-import com.sun.jersey.api.client.filter.HTTPBasicAuthFilter;
-import com.sun.jersey.api.json.JSONConfiguration;
 
 public class ModelServerAction {
 
   protected BiServerConnection biServerConnection;
   private Client _client = null;
   protected DatabaseMeta databaseMeta;
+  protected HttpDeadline httpDeadline;
 
   public ModelServerAction() {
     super();
@@ -56,27 +53,21 @@ public class ModelServerAction {
 
     // initialize
     if ( this._client == null ) {
-      ClientConfig clientConfig = new DefaultClientConfig();
-      clientConfig.getFeatures().put( JSONConfiguration.FEATURE_POJO_MAPPING, Boolean.TRUE );
-      this._client = Client.create( clientConfig );
+      this._client = HttpTransport.getInstance().getClient( biServerConnection, null, getChunkSize() );
     }
 
     return this._client;
   }
 
+  /**
+   * Size of the chunks request entities are streamed in, or null to send them whole
+   */
+  protected Integer getChunkSize() {
+    return null;
+  }
+
   protected IDatabaseType getDatabaseType( DatabaseInterface databaseInterface ) {
-    ClassLoader orig = Thread.currentThread().getContextClassLoader();
-    IDatabaseType dbType = null;
-    try {
-      Thread.currentThread().setContextClassLoader( IDatabaseDialect.class.getClassLoader() );
-
-      DatabaseDialectService dds = new DatabaseDialectService( false );
-      DatabaseTypeHelper dth = new DatabaseTypeHelper( dds.getDatabaseTypes() );
-      dbType = dth.getDatabaseTypeByShortName( databaseInterface.getPluginId() );
-    } finally {
-      Thread.currentThread().setContextClassLoader( orig );
-      return dbType;
-    }
+    return DatabaseTypeRegistry.getInstance().getDatabaseType( databaseInterface.getPluginId() );
   }
 
   protected ClientResponse httpPut( final Builder builder ) {
@@ -100,7 +91,18 @@ public class ModelServerAction {
   }
 
   protected WebResource getResource( final String path ) {
-    return getClient().resource( getUrl( path ) );
+    return getUrlResource( getUrl( path ) );
+  }
+
+  /**
+   * @return a resource on the server, whose calls keep to the deadline if there is one
+   */
+  protected WebResource getUrlResource( final String url ) {
+    WebResource resource = getClient().resource( url );
+    if ( httpDeadline != null ) {
+      httpDeadline.apply( resource );
+    }
+    return resource;
   }
 
   /**
@@ -110,8 +112,18 @@ public class ModelServerAction {
    */
   public void setBiServerConnection( BiServerConnection biServerConnection ) {
     this.biServerConnection = biServerConnection;
-    getClient()
-        .addFilter( new HTTPBasicAuthFilter( biServerConnection.getUserId(), biServerConnection.getPassword() ) );
+    this._client = null;
+  }
+
+  /**
+   * Sets the limits the calls to the server keep to, null for none
+   */
+  public void setHttpDeadline( HttpDeadline httpDeadline ) {
+    this.httpDeadline = httpDeadline;
+  }
+
+  public BiServerConnection getBiServerConnection() {
+    return biServerConnection;
   }
 
   public DatabaseMeta getDatabaseMeta() {
@@ -122,6 +134,20 @@ public class ModelServerAction {
     this.databaseMeta = databaseMeta;
   }
 
+  /**
+   * Hands the connection of a response back to the pool, whether or not its entity was read. Without this a response
+   * holds its pooled connection until the pool gives up waiting for it.
+   */
+  protected static void close( ClientResponse response ) {
+    if ( response != null ) {
+      try {
+        response.close();
+      } catch ( ClientHandlerException e ) {
+        // the connection is dropped instead of reused
+      }
+    }
+  }
+
   /**
    * 2xx
    */
@@ -58,10 +58,20 @@ public class ModelServerPublish extends ModelServerAction {
   private static final String PLUGIN_DATA_ACCESS_API_CONNECTION_UPDATE = "plugin/data-access/api/connection/update";
   private static final String PLUGIN_DATA_ACCESS_API_CONNECTION_DELETE = "plugin/data-access/api/connection/deletebyname";
   private static final String DATA_ACCESS_API_CONNECTION_GET = "plugin/data-access/api/connection/getresponse";
+  private static final int UPLOAD_CHUNK_SIZE = 64 * 1024;
   private static Logger logger = Logger.getLogger( ModelServerPublish.class.getName() );
   private boolean forceOverwrite;
   private DataSourceAclModel aclModel;
 
+  /**
+   * Uploads are sent in chunks, so a model file is streamed to the server instead of being buffered whole to compute
+   * its length.
+   */
+  @Override
+  protected Integer getChunkSize() {
+    return UPLOAD_CHUNK_SIZE;
+  }
+
   /**
    * Publishes a datasource to the current BI server
    *
@@ -102,24 +112,27 @@ public class ModelServerPublish extends ModelServerAction {
    */
   protected boolean updateConnection( DatabaseConnection connection, boolean update ) {
     String storeDomainUrl;
+    ClientResponse resp = null;
     try {
       if ( update ) {
         storeDomainUrl = biServerConnection.getUrl() + PLUGIN_DATA_ACCESS_API_CONNECTION_UPDATE;
       } else {
         storeDomainUrl = biServerConnection.getUrl() + PLUGIN_DATA_ACCESS_API_CONNECTION_ADD;
       }
-      WebResource resource = getClient().resource( storeDomainUrl );
+      WebResource resource = getUrlResource( storeDomainUrl );
       Builder builder = resource
           .type( MediaType.APPLICATION_JSON )
           .entity( connection );
 
-      ClientResponse resp = httpPost( builder );
+      resp = httpPost( builder );
       if ( resp == null || resp.getStatus() != 200 ) {
         return false;
       }
     } catch ( Exception ex ) {
       Log.error( ex.getMessage() );
       return false;
+    } finally {
+      close( resp );
     }
     return true;
   }
@@ -157,18 +170,21 @@ public class ModelServerPublish extends ModelServerAction {
   }
 
   protected boolean deleteEntity( String url ) {
+    ClientResponse resp = null;
     try {
-      WebResource resource = getClient().resource( url );
+      WebResource resource = getUrlResource( url );
       Builder builder = resource
           .type( MediaType.APPLICATION_JSON );
 
-      ClientResponse resp = httpDelete( builder );
+      resp = httpDelete( builder );
       if ( resp == null || resp.getStatus() != 200 ) {
         return false;
       }
     } catch ( Exception ex ) {
       Log.error( ex.getMessage() );
       return false;
+    } finally {
+      close( resp );
     }
     return true;
   }
@@ -185,7 +201,7 @@ public class ModelServerPublish extends ModelServerAction {
   public int publishMondrianSchema( InputStream mondrianFile, String catalogName, String datasourceInfo,
       boolean overwriteInRepos ) throws Exception {
     String storeDomainUrl = biServerConnection.getUrl() + MONDRIAN_POST_ANALYSIS_URL;
-    WebResource resource = getClient().resource( storeDomainUrl );
+    WebResource resource = getUrlResource( storeDomainUrl );
     String parms = "Datasource=" + datasourceInfo + ";retainInlineAnnotations=true";
     int response = PUBLISH_FAILED;
     FormDataMultiPart part = new FormDataMultiPart();
@@ -200,9 +216,10 @@ public class ModelServerPublish extends ModelServerAction {
     // If the import service needs the file name do the following.
     part.getField( "uploadAnalysis" ).setContentDisposition(
         FormDataContentDisposition.name( "uploadAnalysis" ).fileName( catalogName ).build() );
+    ClientResponse resp = null;
     try {
       Builder builder = resourceBuilder( resource, part );
-      ClientResponse resp = httpPost( builder );
+      resp = httpPost( builder );
       String entity = null;
       if ( resp != null && resp.getStatus() == 200 ) {
         entity = resp.getEntity( String.class );
@@ -216,6 +233,8 @@ public class ModelServerPublish extends ModelServerAction {
       }
     } catch ( Exception ex ) {
       Log.error( ex.getMessage() );
+    } finally {
+      close( resp );
     }
     return response;
   }
@@ -235,7 +254,7 @@ public class ModelServerPublish extends ModelServerAction {
    */
   public int publishMetaDataFile( InputStream metadataFile, String domainId ) throws Exception {
     String storeDomainUrl = biServerConnection.getUrl() + "plugin/data-access/api/metadata/import";
-    WebResource resource = getClient().resource( storeDomainUrl );
+    WebResource resource = getUrlResource( storeDomainUrl );
 
     int response = PUBLISH_FAILED;
     FormDataMultiPart part = new FormDataMultiPart();
@@ -251,9 +270,10 @@ public class ModelServerPublish extends ModelServerAction {
     part.getField( "metadataFile" ).setContentDisposition(
         FormDataContentDisposition.name( "metadataFile" )
             .fileName( domainId ).build() );
+    ClientResponse resp = null;
     try {
       Builder builder = resourceBuilder( resource, part );
-      ClientResponse resp = httpPut( builder );
+      resp = httpPut( builder );
       if ( resp != null && resp.getStatus() == 200 ) {
         if ( resp.getEntity( String.class ).equals( PUBLISH_SUCCESS + "" ) ) {
           response = PUBLISH_SUCCESS;
@@ -261,6 +281,8 @@ public class ModelServerPublish extends ModelServerAction {
       }
     } catch ( Exception ex ) {
       Log.error( ex.getMessage() );
+    } finally {
+      close( resp );
     }
     return response;
   }
@@ -271,7 +293,7 @@ public class ModelServerPublish extends ModelServerAction {
     }
 
     final String publishDswUrl = biServerConnection.getUrl() + "plugin/data-access/api/datasource/dsw/import";
-    WebResource resource = getClient().resource( publishDswUrl );
+    WebResource resource = getUrlResource( publishDswUrl );
 
     FormDataMultiPart part = new FormDataMultiPart();
     part.field( "domainId", domainId, MediaType.MULTIPART_FORM_DATA_TYPE )
@@ -285,9 +307,10 @@ public class ModelServerPublish extends ModelServerAction {
     // TODO do we want this?
     part.field( "checkConnection", Boolean.TRUE.toString(), MediaType.MULTIPART_FORM_DATA_TYPE );
 
+    ClientResponse resp = null;
     try {
       Builder builder = resourceBuilder( resource, part );
-      ClientResponse resp = httpPut( builder );
+      resp = httpPut( builder );
       if ( resp != null ) {
         // TODO: we can get more info from the response;
         switch ( ClientResponse.Status.fromStatusCode( resp.getStatus() ) ) {
@@ -300,6 +323,8 @@ public class ModelServerPublish extends ModelServerAction {
       }
     } catch ( Exception ex ) {
       Log.error( ex.getMessage() );
+    } finally {
+      close( resp );
     }
     return PUBLISH_FAILED;
   }
@@ -327,15 +352,16 @@ public class ModelServerPublish extends ModelServerAction {
       return null;
     }
 
+    ClientResponse response = null;
     try {
       String storeDomainUrl =
           biServerConnection.getUrl() + DATA_ACCESS_API_CONNECTION_GET + REST_NAME_PARM + connectionName;
       storeDomainUrl = URIUtil.encodeQuery( storeDomainUrl );
-      WebResource resource = getClient().resource( storeDomainUrl );
+      WebResource resource = getUrlResource( storeDomainUrl );
       Builder builder = resource
           .type( MediaType.APPLICATION_JSON )
           .type( MediaType.APPLICATION_XML );
-      ClientResponse response = httpGet( builder );
+      response = httpGet( builder );
       if ( response != null && response.getStatus() == 200 ) {
 
         String payload = response.getEntity( String.class );
@@ -345,6 +371,8 @@ public class ModelServerPublish extends ModelServerAction {
       }
     } catch ( Exception ex ) {
       Log.error( ex.getMessage() );
+    } finally {
+      close( response );
     }
 
     return null;
@@ -25,10 +25,6 @@ package org.pentaho.di.core.refinery.publish.util;
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
-import com.sun.jersey.api.client.config.ClientConfig;
-import com.sun.jersey.api.client.config.DefaultClientConfig;
-import com.sun.jersey.api.client.filter.HTTPBasicAuthFilter;
-import com.sun.jersey.api.json.JSONConfiguration;
 import com.sun.jersey.core.header.FormDataContentDisposition;
 import com.sun.jersey.multipart.FormDataMultiPart;
 import org.apache.commons.httpclient.HttpClient;
@@ -49,18 +45,23 @@ import java.net.URLEncoder;
  */
 public abstract class BaseRestUtil {
 
+  private static final int READ_TIMEOUT = 2000; // 2 sec. timeout
+
+  private HttpDeadline httpDeadline;
+
+  /**
+   * Sets the limits the calls to the server keep to, besides the read timeout, null for none
+   */
+  public void setHttpDeadline( HttpDeadline httpDeadline ) {
+    this.httpDeadline = httpDeadline;
+  }
+
   protected Client getAnonymousClient() {
-    ClientConfig clientConfig = new DefaultClientConfig();
-    clientConfig.getFeatures().put( JSONConfiguration.FEATURE_POJO_MAPPING, Boolean.TRUE );
-    clientConfig.getProperties().put(
-        ClientConfig.PROPERTY_READ_TIMEOUT, 2000 ); // 2 sec. timeout
-    return Client.create( clientConfig );
+    return HttpTransport.getInstance().getClient( null, READ_TIMEOUT, null );
   }
 
   protected Client getAuthenticatedClient( final BiServerConnection connection ) {
-    Client client = getAnonymousClient();
-    client.addFilter( new HTTPBasicAuthFilter( connection.getUserId(), connection.getPassword() ) );
-    return client;
+    return HttpTransport.getInstance().getClient( connection, READ_TIMEOUT, null );
   }
 
   protected WebResource getWebResource( final BiServerConnection connection, final String restUrl,
@@ -69,7 +70,11 @@ public abstract class BaseRestUtil {
         connection.getUrl().endsWith( "/" ) ? ( connection.getUrl() + restUrl )
             : ( connection.getUrl() + "/" + restUrl );
 
-    return client.resource( url );
+    WebResource resource = client.resource( url );
+    if ( httpDeadline != null ) {
+      httpDeadline.apply( resource );
+    }
+    return resource;
   }
 
   protected ClientResponse httpGet( final BiServerConnection connection, final String restUrl, boolean authenticate ) {
@@ -115,7 +120,7 @@ public abstract class BaseRestUtil {
 
   protected HttpClient getSimpleHttpClient( final BiServerConnection connection, boolean authenticate ) {
 
-    HttpClient client = new HttpClient();
+    HttpClient client = HttpTransport.getInstance().getHttpClient();
     if ( authenticate ) {
       client.getState().setCredentials(
           new AuthScope( AuthScope.ANY_HOST, AuthScope.ANY_PORT ),
@@ -146,7 +151,11 @@ public abstract class BaseRestUtil {
 
     try {
       // execute the GET
-      client.executeMethod( get );
+      if ( httpDeadline != null ) {
+        httpDeadline.execute( client, get );
+      } else {
+        client.executeMethod( get );
+      }
 
       responseStatus.setStatus( get.getStatusCode() );
       responseStatus.setMessage( get.getResponseBodyAsString() );
@@ -0,0 +1,107 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.refinery.DataProviderFingerprints;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * BA server connections that recently passed validation, per server URL and user, so job entries running against
+ * the same server do not repeat the same checks. Only successes are kept; a call that fails on the server should
+ * {@link #invalidate(BiServerConnection) invalidate} its connection.
+ */
+public class ConnectionValidationCache {
+
+  public static final String CACHE_TTL_PROPERTY = "KETTLE_DATA_REFINERY_VALIDATION_CACHE_TTL";
+  public static final long DEFAULT_CACHE_TTL = 30000L;
+
+  private static final ConnectionValidationCache instance =
+      new ConnectionValidationCache( Const.toLong( System.getProperty( CACHE_TTL_PROPERTY ), DEFAULT_CACHE_TTL ) );
+
+  private final long maxAge;
+  private final ConcurrentMap<String, Long> validated = new ConcurrentHashMap<String, Long>();
+
+  ConnectionValidationCache( long maxAge ) {
+    this.maxAge = maxAge;
+  }
+
+  public static ConnectionValidationCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Whether the connection passed validation recently enough to skip it.
+   */
+  public boolean isValid( BiServerConnection connection ) {
+    if ( connection == null || maxAge <= 0 ) {
+      return false;
+    }
+    String key = getKey( connection );
+    Long time = validated.get( key );
+    if ( time == null ) {
+      return false;
+    }
+    if ( System.currentTimeMillis() - time > maxAge ) {
+      validated.remove( key, time );
+      return false;
+    }
+    return true;
+  }
+
+  public void setValid( BiServerConnection connection ) {
+    if ( connection != null && maxAge > 0 ) {
+      validated.put( getKey( connection ), System.currentTimeMillis() );
+      purge();
+    }
+  }
+
+  public void invalidate( BiServerConnection connection ) {
+    if ( connection != null ) {
+      validated.remove( getKey( connection ) );
+    }
+  }
+
+  public void invalidateAll() {
+    validated.clear();
+  }
+
+  private void purge() {
+    long now = System.currentTimeMillis();
+    for ( Iterator<Map.Entry<String, Long>> iterator = validated.entrySet().iterator(); iterator.hasNext(); ) {
+      if ( now - iterator.next().getValue() > maxAge ) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private String getKey( BiServerConnection connection ) {
+    return Const.NVL( connection.getUrl(), "" ) + "\0" + Const.NVL( connection.getUserId(), "" ) + "\0"
+        + DataProviderFingerprints.digest( Const.NVL( connection.getPassword(), "" ) );
+  }
+}
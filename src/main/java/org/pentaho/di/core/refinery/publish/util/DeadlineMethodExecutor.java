@@ -0,0 +1,73 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.client.apache.DefaultApacheHttpMethodExecutor;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+
+import java.io.IOException;
+
+/**
+ * Executes the requests of the {@link HttpTransport} clients, within the {@link HttpDeadline} a request carries.
+ */
+class DeadlineMethodExecutor extends DefaultApacheHttpMethodExecutor {
+
+  DeadlineMethodExecutor( HttpClient httpClient ) {
+    super( httpClient );
+  }
+
+  @Override
+  public void executeMethod( HttpMethod method, ClientRequest request ) {
+    Object property = request.getProperties().get( HttpDeadline.PROPERTY );
+    if ( !( property instanceof HttpDeadline ) ) {
+      super.executeMethod( method, request );
+      return;
+    }
+    HttpDeadline deadline = (HttpDeadline) property;
+    Object readTimeout = request.getProperties().get( ClientConfig.PROPERTY_READ_TIMEOUT );
+    int timeout = deadline.getReadTimeout( readTimeout instanceof Integer ? (Integer) readTimeout : 0 );
+    if ( timeout > 0 ) {
+      request.getProperties().put( ClientConfig.PROPERTY_READ_TIMEOUT, timeout );
+    }
+
+    HttpDeadline.Call call;
+    try {
+      call = deadline.start( method, HttpDeadline.getEndpoint( request.getURI() ) );
+    } catch ( IOException e ) {
+      throw new ClientHandlerException( e.getMessage(), e );
+    }
+    request.getProperties().put( HttpDeadline.CALL_PROPERTY, call );
+    try {
+      super.executeMethod( method, request );
+    } catch ( ClientHandlerException e ) {
+      String reason = call.failed( e );
+      throw reason == null ? e : new ClientHandlerException( reason, e );
+    } finally {
+      call.executed();
+    }
+  }
+}
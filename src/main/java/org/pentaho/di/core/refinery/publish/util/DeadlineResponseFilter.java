@@ -0,0 +1,100 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+import com.sun.jersey.core.header.InBoundHeaders;
+
+import javax.ws.rs.core.Response;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Tells the {@link HttpDeadline} of a call when its caller took the response, by reading its status or closing it.
+ */
+class DeadlineResponseFilter extends ClientFilter {
+
+  private final Client client;
+
+  DeadlineResponseFilter( Client client ) {
+    this.client = client;
+  }
+
+  @Override
+  public ClientResponse handle( ClientRequest request ) throws ClientHandlerException {
+    ClientResponse response = getNext().handle( request );
+    Object call = request.getProperties().get( HttpDeadline.CALL_PROPERTY );
+    if ( !( call instanceof HttpDeadline.Call ) ) {
+      return response;
+    }
+    return new WatchedResponse( response, (HttpDeadline.Call) call );
+  }
+
+  private class WatchedResponse extends ClientResponse {
+    private final HttpDeadline.Call call;
+
+    WatchedResponse( ClientResponse response, final HttpDeadline.Call call ) {
+      super( response.getStatus(), copy( response ), new FilterInputStream( response.getEntityInputStream() ) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            call.responseTaken();
+          }
+        }
+      }, client.getMessageBodyWorkers() );
+      getProperties().putAll( response.getProperties() );
+      this.call = call;
+    }
+
+    @Override
+    public int getStatus() {
+      call.responseTaken();
+      return super.getStatus();
+    }
+
+    @Override
+    public Status getClientResponseStatus() {
+      call.responseTaken();
+      return super.getClientResponseStatus();
+    }
+
+    @Override
+    public Response.Status getResponseStatus() {
+      call.responseTaken();
+      return super.getResponseStatus();
+    }
+  }
+
+  private static InBoundHeaders copy( ClientResponse response ) {
+    InBoundHeaders headers = new InBoundHeaders();
+    headers.putAll( response.getHeaders() );
+    return headers;
+  }
+}
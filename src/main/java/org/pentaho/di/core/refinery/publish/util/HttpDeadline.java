@@ -0,0 +1,356 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import com.sun.jersey.api.client.WebResource;
+import org.apache.commons.httpclient.ConnectTimeoutException;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.job.Job;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits on the BA server calls of a job entry run: how long connecting and each read may take, how long a whole call
+ * may take, and whether the job was stopped. A call through an {@link HttpTransport} client, on a resource the
+ * deadline was applied to, is aborted once a limit is hit and fails with the endpoint it was calling.
+ * <p/>
+ * A call is watched until its caller reads the status of the response or closes it, or else until the response was
+ * read, so a call that hangs is ended by the total deadline or a stop of the job. The reason of the last abort is
+ * kept, see {@link #getFailure()}.
+ */
+public class HttpDeadline {
+
+  public static final String CONNECT_TIMEOUT_VARIABLE = "KETTLE_DATA_REFINERY_HTTP_CONNECT_TIMEOUT";
+  public static final String READ_TIMEOUT_VARIABLE = "KETTLE_DATA_REFINERY_HTTP_READ_TIMEOUT";
+  public static final String TOTAL_TIMEOUT_VARIABLE = "KETTLE_DATA_REFINERY_HTTP_TOTAL_TIMEOUT";
+  public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+  public static final int DEFAULT_READ_TIMEOUT = 60000;
+  public static final long DEFAULT_TOTAL_TIMEOUT = 600000L;
+
+  /**
+   * Request property the deadline of a call is passed in
+   */
+  public static final String PROPERTY = HttpDeadline.class.getName();
+
+  /**
+   * Request property the watched call of a request is passed in, to the response it gets
+   */
+  static final String CALL_PROPERTY = Call.class.getName();
+
+  static final long CHECK_INTERVAL = 200L;
+
+  private static final Set<Call> calls = Collections.newSetFromMap( new ConcurrentHashMap<Call, Boolean>() );
+  private static final ThreadLocal<Call> executing = new ThreadLocal<Call>();
+  private static ScheduledExecutorService watchdog;
+
+  /**
+   * Tells whether the calls should stop, e.g. because the job was stopped
+   */
+  public interface Cancellation {
+    boolean isCancelled();
+  }
+
+  private final int connectTimeout;
+  private final int readTimeout;
+  private final long totalTimeout;
+  private final Cancellation cancellation;
+  private volatile String failure;
+
+  /**
+   * @param connectTimeout  milliseconds to open a connection, 0 for no limit
+   * @param readTimeout     milliseconds to wait for data, 0 for no limit
+   * @param totalTimeout    milliseconds a call may take in all, 0 for no limit
+   * @param cancellation    aborts calls when cancelled, may be null
+   */
+  public HttpDeadline( int connectTimeout, int readTimeout, long totalTimeout, Cancellation cancellation ) {
+    this.connectTimeout = Math.max( 0, connectTimeout );
+    this.readTimeout = Math.max( 0, readTimeout );
+    this.totalTimeout = Math.max( 0L, totalTimeout );
+    this.cancellation = cancellation;
+  }
+
+  /**
+   * @return the limits set in the variables, cancelled when the job is stopped
+   */
+  public static HttpDeadline forJob( final Job job, VariableSpace variables ) {
+    return new HttpDeadline(
+        Const.toInt( variables.getVariable( CONNECT_TIMEOUT_VARIABLE ), DEFAULT_CONNECT_TIMEOUT ),
+        Const.toInt( variables.getVariable( READ_TIMEOUT_VARIABLE ), DEFAULT_READ_TIMEOUT ),
+        Const.toLong( variables.getVariable( TOTAL_TIMEOUT_VARIABLE ), DEFAULT_TOTAL_TIMEOUT ),
+        new Cancellation() {
+          @Override
+          public boolean isCancelled() {
+            return job != null && job.isStopped();
+          }
+        } );
+  }
+
+  /**
+   * @return the same limits, without aborting calls when cancelled
+   */
+  public HttpDeadline uncancellable() {
+    return new HttpDeadline( connectTimeout, readTimeout, totalTimeout, null );
+  }
+
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  public int getReadTimeout() {
+    return readTimeout;
+  }
+
+  public long getTotalTimeout() {
+    return totalTimeout;
+  }
+
+  public boolean isCancelled() {
+    return cancellation != null && cancellation.isCancelled();
+  }
+
+  /**
+   * @return why a call was last aborted, naming its endpoint, or null if none was
+   */
+  public String getFailure() {
+    return failure;
+  }
+
+  /**
+   * Makes the calls on a resource keep to this deadline.
+   */
+  public void apply( WebResource resource ) {
+    resource.setProperty( PROPERTY, this );
+  }
+
+  /**
+   * Executes a method of a plain HttpClient within this deadline.
+   *
+   * @return the status code
+   */
+  public int execute( HttpClient client, HttpMethod method ) throws IOException {
+    method.getParams().setSoTimeout( getReadTimeout( method.getParams().getSoTimeout() ) );
+    Call call = start( method, getEndpoint( URI.create( method.getURI().toString() ) ) );
+    try {
+      return client.executeMethod( method );
+    } catch ( IOException e ) {
+      String reason = call.failed( e );
+      if ( reason == null ) {
+        throw e;
+      }
+      throw new IOException( reason, e );
+    } finally {
+      call.executed();
+    }
+  }
+
+  /**
+   * @return the read timeout of a call, the smaller of this deadline's and the one it already has (0 for none)
+   */
+  int getReadTimeout( int current ) {
+    if ( current <= 0 ) {
+      return readTimeout;
+    }
+    return readTimeout <= 0 ? current : Math.min( current, readTimeout );
+  }
+
+  /**
+   * Starts watching a call, made on this thread until {@link Call#executed()}.
+   *
+   * @throws IOException if the calls were cancelled already
+   */
+  Call start( HttpMethod method, String endpoint ) throws IOException {
+    if ( isCancelled() ) {
+      throw new IOException( fail( getCancelledMessage( endpoint ) ) );
+    }
+    Call call = new Call( method, endpoint );
+    executing.set( call );
+    calls.add( call );
+    startWatchdog();
+    return call;
+  }
+
+  /**
+   * @return the connect timeout of the call this thread is making, or null if it is not within a deadline
+   */
+  static Integer getExecutingConnectTimeout() {
+    Call call = executing.get();
+    return call == null ? null : call.getDeadline().connectTimeout;
+  }
+
+  /**
+   * Aborts the watched calls that were cancelled or are past their deadline, and stops watching finished ones.
+   */
+  static void checkCalls( long now ) {
+    for ( Call call : calls ) {
+      if ( !call.check( now ) ) {
+        calls.remove( call );
+      }
+    }
+  }
+
+  static int getWatchedCalls() {
+    return calls.size();
+  }
+
+  /**
+   * @return scheme, host, port and path of a URI, without credentials or query
+   */
+  static String getEndpoint( URI uri ) {
+    return uri.getScheme() + "://" + uri.getHost() + ( uri.getPort() < 0 ? "" : ":" + uri.getPort() )
+        + Const.NVL( uri.getRawPath(), "" );
+  }
+
+  private String fail( String reason ) {
+    failure = reason;
+    return reason;
+  }
+
+  private String getCancelledMessage( String endpoint ) {
+    return "Call to " + endpoint + " cancelled, the job was stopped";
+  }
+
+  private static synchronized void startWatchdog() {
+    if ( watchdog == null ) {
+      watchdog = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+        @Override
+        public Thread newThread( Runnable runnable ) {
+          Thread thread = new Thread( runnable, "Data Refinery HTTP deadlines" );
+          thread.setDaemon( true );
+          return thread;
+        }
+      } );
+      watchdog.scheduleWithFixedDelay( new Runnable() {
+        @Override
+        public void run() {
+          checkCalls( System.currentTimeMillis() );
+        }
+      }, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS );
+    }
+  }
+
+  /**
+   * A call being made, or whose response is being read.
+   */
+  class Call {
+    private final HttpMethod method;
+    private final String endpoint;
+    private final long started = System.currentTimeMillis();
+    private volatile boolean inProgress = true;
+    private volatile boolean finished;
+    private volatile String abortReason;
+
+    Call( HttpMethod method, String endpoint ) {
+      this.method = method;
+      this.endpoint = endpoint;
+    }
+
+    HttpDeadline getDeadline() {
+      return HttpDeadline.this;
+    }
+
+    /**
+     * @return false if the call no longer needs watching
+     */
+    boolean check( long now ) {
+      if ( finished || ( !inProgress && isResponseRead() ) ) {
+        return false;
+      }
+      String reason = null;
+      if ( isCancelled() ) {
+        reason = getCancelledMessage( endpoint );
+      } else if ( totalTimeout > 0 && now - started > totalTimeout ) {
+        reason = "Call to " + endpoint + " did not finish within " + totalTimeout + " ms";
+      }
+      if ( reason == null ) {
+        return true;
+      }
+      abortReason = fail( reason );
+      finished = true;
+      method.abort();
+      return false;
+    }
+
+    /**
+     * Ends the execution of the call on its thread. The response is watched until it was read if there is a total
+     * deadline.
+     */
+    void executed() {
+      executing.remove();
+      inProgress = false;
+      if ( finished || totalTimeout <= 0 ) {
+        finished = true;
+        calls.remove( this );
+      }
+    }
+
+    /**
+     * Stops watching the call once its caller took the response, by reading its status or closing it. A response
+     * left unread is not aborted later on, which would be reported as a failure of the call.
+     */
+    void responseTaken() {
+      finished = true;
+      calls.remove( this );
+    }
+
+    /**
+     * @return why the call failed, naming its endpoint, or null if it was not because of the deadline
+     */
+    String failed( Throwable error ) {
+      finished = true;
+      calls.remove( this );
+      if ( abortReason != null ) {
+        return abortReason;
+      }
+      for ( Throwable cause = error; cause != null; cause = cause.getCause() ) {
+        if ( cause instanceof ConnectTimeoutException ) {
+          return fail( "Connecting to " + endpoint + " timed out after " + connectTimeout + " ms" );
+        }
+        if ( cause instanceof SocketTimeoutException ) {
+          return fail( "Reading from " + endpoint + " timed out after "
+              + getReadTimeout( method.getParams().getSoTimeout() ) + " ms" );
+        }
+      }
+      return null;
+    }
+
+    private boolean isResponseRead() {
+      try {
+        return method.getResponseBodyAsStream() == null;
+      } catch ( IOException e ) {
+        return true;
+      }
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.api.client.filter.HTTPBasicAuthFilter;
+import com.sun.jersey.api.json.JSONConfiguration;
+import com.sun.jersey.client.apache.ApacheHttpClient;
+import com.sun.jersey.client.apache.ApacheHttpClientHandler;
+import com.sun.jersey.client.apache.config.DefaultApacheHttpClientConfig;
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.refinery.DataProviderFingerprints;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * HTTP transport shared by every call to a BA server. Connections are pooled per host and kept alive between
+ * requests, idle ones are closed after a while. Clients are reused per user and settings, so their filters must not
+ * be changed by callers. A call keeps to the {@link HttpDeadline} applied to its resource.
+ */
+public class HttpTransport {
+
+  public static final String MAX_CONNECTIONS_PER_HOST_PROPERTY = "KETTLE_DATA_REFINERY_HTTP_MAX_CONNECTIONS_PER_HOST";
+  public static final String MAX_CONNECTIONS_PROPERTY = "KETTLE_DATA_REFINERY_HTTP_MAX_CONNECTIONS";
+  public static final String IDLE_TIMEOUT_PROPERTY = "KETTLE_DATA_REFINERY_HTTP_IDLE_TIMEOUT";
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 10;
+  public static final int DEFAULT_MAX_CONNECTIONS = 50;
+  public static final long DEFAULT_IDLE_TIMEOUT = 30000L;
+
+  /**
+   * How long a request waits for a pooled connection before failing
+   */
+  private static final long POOL_TIMEOUT = 60000L;
+  private static final int MAX_CLIENTS = 32;
+
+  private static final HttpTransport instance = new HttpTransport(
+      Const.toInt( System.getProperty( MAX_CONNECTIONS_PER_HOST_PROPERTY ), DEFAULT_MAX_CONNECTIONS_PER_HOST ),
+      Const.toInt( System.getProperty( MAX_CONNECTIONS_PROPERTY ), DEFAULT_MAX_CONNECTIONS ),
+      Const.toLong( System.getProperty( IDLE_TIMEOUT_PROPERTY ), DEFAULT_IDLE_TIMEOUT ) );
+
+  private final MultiThreadedHttpConnectionManager connectionManager;
+  private final IdleConnectionTimeoutThread idleConnectionThread;
+  private final Map<String, Client> clients = new LinkedHashMap<String, Client>( 16, 0.75f, true ) {
+    @Override
+    protected boolean removeEldestEntry( Map.Entry<String, Client> eldest ) {
+      return size() > MAX_CLIENTS;
+    }
+  };
+
+  HttpTransport( int maxConnectionsPerHost, int maxConnections, long idleTimeout ) {
+    connectionManager = new DeadlineConnectionManager();
+    HttpConnectionManagerParams params = connectionManager.getParams();
+    params.setDefaultMaxConnectionsPerHost( maxConnectionsPerHost );
+    params.setMaxTotalConnections( Math.max( maxConnections, maxConnectionsPerHost ) );
+    params.setStaleCheckingEnabled( true );
+
+    idleConnectionThread = new IdleConnectionTimeoutThread();
+    idleConnectionThread.setName( "Data Refinery idle HTTP connections" );
+    idleConnectionThread.setDaemon( true );
+    idleConnectionThread.addConnectionManager( connectionManager );
+    idleConnectionThread.setConnectionTimeout( idleTimeout );
+    idleConnectionThread.setTimeoutInterval( Math.max( 1000L, idleTimeout / 2 ) );
+    idleConnectionThread.start();
+  }
+
+  public static HttpTransport getInstance() {
+    return instance;
+  }
+
+  public MultiThreadedHttpConnectionManager getConnectionManager() {
+    return connectionManager;
+  }
+
+  /**
+   * Creates an HttpClient on the shared pool. Each one has its own state, so credentials set on it stay with its
+   * caller.
+   */
+  public HttpClient getHttpClient() {
+    HttpClient httpClient = new HttpClient( connectionManager );
+    httpClient.getParams().setConnectionManagerTimeout( POOL_TIMEOUT );
+    return httpClient;
+  }
+
+  /**
+   * Gets a client for a user of a BA server, or an anonymous one if there is no connection.
+   *
+   * @param connection   the server connection whose credentials are sent, may be null
+   * @param readTimeout  read timeout in milliseconds, null for none
+   * @param chunkSize    size of the chunks request entities are streamed in, null to send them whole
+   */
+  public Client getClient( BiServerConnection connection, Integer readTimeout, Integer chunkSize ) {
+    String key = getKey( connection, readTimeout, chunkSize );
+    synchronized ( clients ) {
+      Client client = clients.get( key );
+      if ( client == null ) {
+        client = createClient( connection, readTimeout, chunkSize );
+        clients.put( key, client );
+      }
+      return client;
+    }
+  }
+
+  /**
+   * Closes the pooled connections and stops evicting idle ones.
+   */
+  public void shutdown() {
+    synchronized ( clients ) {
+      clients.clear();
+    }
+    idleConnectionThread.shutdown();
+    connectionManager.shutdown();
+  }
+
+  private Client createClient( BiServerConnection connection, Integer readTimeout, Integer chunkSize ) {
+    DefaultApacheHttpClientConfig clientConfig = new DefaultApacheHttpClientConfig();
+    clientConfig.getFeatures().put( JSONConfiguration.FEATURE_POJO_MAPPING, Boolean.TRUE );
+    if ( readTimeout != null ) {
+      clientConfig.getProperties().put( ClientConfig.PROPERTY_READ_TIMEOUT, readTimeout );
+    }
+    if ( chunkSize != null ) {
+      clientConfig.getProperties().put( ClientConfig.PROPERTY_CHUNKED_ENCODING_SIZE, chunkSize );
+    }
+    HttpClient httpClient = getHttpClient();
+    Client client = new ApacheHttpClient(
+        new ApacheHttpClientHandler( httpClient, clientConfig, new DeadlineMethodExecutor( httpClient ) ), clientConfig,
+        null );
+    client.addFilter( new DeadlineResponseFilter( client ) );
+    if ( connection != null ) {
+      client.addFilter( new HTTPBasicAuthFilter( connection.getUserId(), connection.getPassword() ) );
+    }
+    return client;
+  }
+
+  private String getKey( BiServerConnection connection, Integer readTimeout, Integer chunkSize ) {
+    String credentials = connection == null ? ""
+        : Const.NVL( connection.getUserId(), "" ) + "\0"
+        + DataProviderFingerprints.digest( Const.NVL( connection.getPassword(), "" ) );
+    return credentials + "\0" + readTimeout + "\0" + chunkSize;
+  }
+
+  /**
+   * Opens connections with the connect timeout of the deadline of the call being made, if it has one.
+   */
+  private static class DeadlineConnectionManager extends MultiThreadedHttpConnectionManager {
+    @Override
+    public HttpConnection getConnectionWithTimeout( HostConfiguration hostConfiguration, long timeout )
+      throws ConnectionPoolTimeoutException {
+      HttpConnection connection = super.getConnectionWithTimeout( hostConfiguration, timeout );
+      Integer connectTimeout = HttpDeadline.getExecutingConnectTimeout();
+      connection.getParams().setConnectionTimeout(
+          connectTimeout == null ? getParams().getConnectionTimeout() : connectTimeout );
+      return connection;
+    }
+  }
+}
@@ -28,20 +28,26 @@ import com.sun.jersey.api.json.JSONUnmarshaller;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author Rowell Belen
  */
 public class JAXBUtils {
 
+  // contexts are thread safe and expensive to create; marshallers are cheap and are not
+  private static final ConcurrentMap<Class<?>, JAXBContext> contexts =
+      new ConcurrentHashMap<Class<?>, JAXBContext>();
+
   public static String marshallToXml( Object source ) throws Exception {
-    JAXBContext jaxbContext = JAXBContext.newInstance( source.getClass() );
-    Marshaller marshaller = jaxbContext.createMarshaller();
+    Marshaller marshaller = getContext( source.getClass() ).createMarshaller();
     marshaller.setProperty( Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE );
     StringWriter writer = new StringWriter();
     marshaller.marshal( source, writer );
@@ -50,14 +56,13 @@ public class JAXBUtils {
 
   @SuppressWarnings( "unchecked" )
   public static <T> T unmarshalFromXml( final String xml, Class<T> destinationClass ) throws Exception {
-    JAXBContext jaxbContext = JAXBContext.newInstance( destinationClass );
-    Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
+    Unmarshaller unmarshaller = getContext( destinationClass ).createUnmarshaller();
     StringReader reader = new StringReader( xml );
     return (T) unmarshaller.unmarshal( reader );
   }
 
   public static String marshallToJson( Object source ) throws Exception {
-    JAXBContext jaxbContext = JAXBContext.newInstance( source.getClass() );
+    JAXBContext jaxbContext = getContext( source.getClass() );
     Marshaller marshaller = jaxbContext.createMarshaller();
     marshaller.setProperty( Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE );
     JSONMarshaller jsonMarshaller = JSONJAXBContext.getJSONMarshaller( marshaller, jaxbContext );
@@ -67,7 +72,7 @@ public class JAXBUtils {
   }
 
   public static <T> T unmarshalFromJson( final String json, Class<T> destinationClass ) throws Exception {
-    JAXBContext jaxbContext = JAXBContext.newInstance( destinationClass );
+    JAXBContext jaxbContext = getContext( destinationClass );
     Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
     JSONUnmarshaller jsonUnmarshaller = JSONJAXBContext.getJSONUnmarshaller( unmarshaller, jaxbContext );
     StringReader reader = new StringReader( json );
@@ -75,4 +80,19 @@ public class JAXBUtils {
     return element.getValue();
   }
 
+  /**
+   * @return the JAXB context of a class, created on first use
+   */
+  static JAXBContext getContext( Class<?> type ) throws JAXBException {
+    JAXBContext jaxbContext = contexts.get( type );
+    if ( jaxbContext == null ) {
+      jaxbContext = JAXBContext.newInstance( type );
+      JAXBContext existing = contexts.putIfAbsent( type, jaxbContext );
+      if ( existing != null ) {
+        jaxbContext = existing;
+      }
+    }
+    return jaxbContext;
+  }
+
 }
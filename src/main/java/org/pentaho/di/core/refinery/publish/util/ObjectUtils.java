@@ -46,7 +46,12 @@ public class ObjectUtils {
       return null;
     }
 
-    return (T) xStream.fromXML( xStream.toXML( object ) );
+    try {
+      return StructuralCloner.deepClone( object );
+    } catch ( StructuralCloner.UnsupportedTypeException e ) {
+      // a round trip through XML copies what the cloner cannot
+      return (T) xStream.fromXML( xStream.toXML( object ) );
+    }
 
   }
 
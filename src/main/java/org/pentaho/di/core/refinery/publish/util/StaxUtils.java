@@ -0,0 +1,183 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming XML reading and writing on shared factories, so reading a small document does not pay for a factory
+ * lookup and a DOM. Readers do not load DTDs or external entities.
+ */
+public class StaxUtils {
+
+  // configured once and only used to create readers and writers
+  private static final XMLInputFactory inputFactory;
+  private static final XMLOutputFactory outputFactory;
+
+  static {
+    // without a context class loader the factory lookup can intermittently fail on Mac OS
+    Thread thread = Thread.currentThread();
+    ClassLoader contextClassLoader = thread.getContextClassLoader();
+    if ( contextClassLoader == null ) {
+      thread.setContextClassLoader( StaxUtils.class.getClassLoader() );
+    }
+    try {
+      inputFactory = XMLInputFactory.newInstance();
+      inputFactory.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+      inputFactory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+      inputFactory.setProperty( XMLInputFactory.IS_COALESCING, true );
+      outputFactory = XMLOutputFactory.newInstance();
+    } finally {
+      thread.setContextClassLoader( contextClassLoader );
+    }
+  }
+
+  private StaxUtils() {
+  }
+
+  public static XMLStreamReader createReader( Reader reader ) throws XMLStreamException {
+    return inputFactory.createXMLStreamReader( reader );
+  }
+
+  public static XMLStreamReader createReader( InputStream input ) throws XMLStreamException {
+    return inputFactory.createXMLStreamReader( input );
+  }
+
+  public static XMLStreamWriter createWriter( Writer writer ) throws XMLStreamException {
+    return outputFactory.createXMLStreamWriter( writer );
+  }
+
+  /**
+   * Reads the text of the <code>item</code> elements right under a <code>root</code> element, skipping empty ones.
+   * <pre>
+   * &lt;List&gt;
+   *   &lt;Item&gt;One.xmi&lt;/Item&gt;
+   * &lt;/List&gt;
+   * </pre>
+   *
+   * @return the texts in document order, empty if the document element has another name
+   */
+  public static List<String> readItems( InputStream input, String root, String item ) throws XMLStreamException {
+    final List<String> items = new ArrayList<String>();
+    visitItems( input, root, item, new ItemVisitor() {
+      @Override
+      public boolean visit( String text ) {
+        items.add( text );
+        return true;
+      }
+    } );
+    return items;
+  }
+
+  /**
+   * Hands the text of the <code>item</code> elements right under a <code>root</code> element to a visitor as they are
+   * read, skipping empty ones. Reading stops when the visitor asks to.
+   *
+   * @return false if the visitor stopped the reading
+   */
+  public static boolean visitItems( InputStream input, String root, String item, ItemVisitor visitor )
+    throws XMLStreamException {
+    XMLStreamReader reader = createReader( input );
+    try {
+      if ( reader.nextTag() != XMLStreamConstants.START_ELEMENT || !root.equals( reader.getLocalName() ) ) {
+        return true;
+      }
+      while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+        String text = readText( reader );
+        if ( item.equals( reader.getLocalName() ) && text.length() > 0 && !visitor.visit( text ) ) {
+          return false;
+        }
+      }
+      return true;
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * @return the text of the first element of this name right under the document element, null if there is none
+   */
+  public static String readChildText( String xml, String child ) throws XMLStreamException {
+    XMLStreamReader reader = createReader( new StringReader( xml ) );
+    try {
+      reader.nextTag();
+      while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+        String name = reader.getLocalName();
+        String text = readText( reader );
+        if ( child.equals( name ) ) {
+          return text;
+        }
+      }
+      return null;
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Reads all text within the current element, leaving the reader on its end tag.
+   */
+  private static String readText( XMLStreamReader reader ) throws XMLStreamException {
+    StringBuilder text = new StringBuilder();
+    int depth = 1;
+    while ( depth > 0 ) {
+      switch ( reader.next() ) {
+        case XMLStreamConstants.START_ELEMENT:
+          depth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          depth--;
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+          text.append( reader.getText() );
+          break;
+        default:
+          break;
+      }
+    }
+    return text.toString();
+  }
+
+  /**
+   * Receives the items of a list one at a time.
+   */
+  public interface ItemVisitor {
+    /**
+     * @return true to go on reading, false to stop
+     */
+    boolean visit( String item );
+  }
+}
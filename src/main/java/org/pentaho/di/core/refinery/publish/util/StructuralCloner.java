@@ -0,0 +1,238 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Deep copies object graphs field by field, keeping shared references and cycles. Objects are created with their
+ * no-argument constructor, so transient fields get the values a new instance has; the other fields are copied.
+ * Collections and maps of the JDK are copied into a new instance of their class.
+ * <p/>
+ * Anything else from the JDK, and classes without a no-argument constructor, cannot be copied this way and make
+ * {@link #deepClone(Object)} throw {@link UnsupportedTypeException}. The fields and constructor of each class are
+ * looked up once; copying keeps no other state, so concurrent callers need no locking.
+ */
+class StructuralCloner {
+
+  private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<Class<?>>( Arrays.<Class<?>>asList(
+      String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class,
+      Double.class, BigDecimal.class, BigInteger.class, Class.class, Locale.class, UUID.class, URI.class, URL.class ) );
+
+  private static final ConcurrentMap<Class<?>, Field[]> fields = new ConcurrentHashMap<Class<?>, Field[]>();
+  private static final ConcurrentMap<Class<?>, Constructor<?>> constructors =
+      new ConcurrentHashMap<Class<?>, Constructor<?>>();
+
+  private final Map<Object, Object> copies = new IdentityHashMap<Object, Object>();
+
+  private StructuralCloner() {
+  }
+
+  /**
+   * @throws UnsupportedTypeException if the graph holds an object that cannot be copied field by field
+   */
+  @SuppressWarnings( "unchecked" )
+  static <T> T deepClone( T object ) throws UnsupportedTypeException {
+    return (T) new StructuralCloner().copy( object );
+  }
+
+  private Object copy( Object object ) throws UnsupportedTypeException {
+    if ( object == null ) {
+      return null;
+    }
+    Class<?> type = object.getClass();
+    if ( IMMUTABLE_TYPES.contains( type ) || object instanceof Enum ) {
+      return object;
+    }
+    Object copy = copies.get( object );
+    if ( copy != null ) {
+      return copy;
+    }
+    if ( type.isArray() ) {
+      return copyArray( object, type );
+    }
+    if ( object instanceof Date ) {
+      copy = ( (Date) object ).clone();
+      copies.put( object, copy );
+      return copy;
+    }
+    copy = newInstance( type );
+    copies.put( object, copy );
+    Class<?> current = type;
+    while ( !isJdkType( current ) ) {
+      copyFields( object, copy, current );
+      current = current.getSuperclass();
+    }
+    if ( current == Object.class ) {
+      return copy;
+    }
+    if ( object instanceof Collection && !( object instanceof SortedSet ) ) {
+      copyElements( (Collection<?>) object, (Collection<?>) copy );
+    } else if ( object instanceof Map && !( object instanceof SortedMap ) && !( object instanceof Properties ) ) {
+      copyEntries( (Map<?, ?>) object, (Map<?, ?>) copy );
+    } else {
+      // sorted collections may carry a comparator, properties their defaults, other JDK types private state
+      throw new UnsupportedTypeException( type );
+    }
+    return copy;
+  }
+
+  private Object copyArray( Object array, Class<?> type ) throws UnsupportedTypeException {
+    int length = Array.getLength( array );
+    Object copy = Array.newInstance( type.getComponentType(), length );
+    copies.put( array, copy );
+    if ( type.getComponentType().isPrimitive() ) {
+      System.arraycopy( array, 0, copy, 0, length );
+    } else {
+      Object[] elements = (Object[]) array;
+      Object[] elementCopies = (Object[]) copy;
+      for ( int i = 0; i < length; i++ ) {
+        elementCopies[ i ] = copy( elements[ i ] );
+      }
+    }
+    return copy;
+  }
+
+  private void copyFields( Object object, Object copy, Class<?> type ) throws UnsupportedTypeException {
+    try {
+      for ( Field field : getFields( type ) ) {
+        Class<?> fieldType = field.getType();
+        if ( !fieldType.isPrimitive() ) {
+          field.set( copy, copy( field.get( object ) ) );
+        } else if ( fieldType == int.class ) {
+          field.setInt( copy, field.getInt( object ) );
+        } else if ( fieldType == long.class ) {
+          field.setLong( copy, field.getLong( object ) );
+        } else if ( fieldType == boolean.class ) {
+          field.setBoolean( copy, field.getBoolean( object ) );
+        } else if ( fieldType == double.class ) {
+          field.setDouble( copy, field.getDouble( object ) );
+        } else if ( fieldType == float.class ) {
+          field.setFloat( copy, field.getFloat( object ) );
+        } else if ( fieldType == short.class ) {
+          field.setShort( copy, field.getShort( object ) );
+        } else if ( fieldType == byte.class ) {
+          field.setByte( copy, field.getByte( object ) );
+        } else {
+          field.setChar( copy, field.getChar( object ) );
+        }
+      }
+    } catch ( IllegalAccessException e ) {
+      throw new UnsupportedTypeException( type );
+    }
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private void copyElements( Collection<?> collection, Collection<?> copy ) throws UnsupportedTypeException {
+    // a copy of a subclass may have been filled by its constructor
+    copy.clear();
+    for ( Object element : collection ) {
+      ( (Collection<Object>) copy ).add( copy( element ) );
+    }
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private void copyEntries( Map<?, ?> map, Map<?, ?> copy ) throws UnsupportedTypeException {
+    copy.clear();
+    for ( Map.Entry<?, ?> entry : map.entrySet() ) {
+      ( (Map<Object, Object>) copy ).put( copy( entry.getKey() ), copy( entry.getValue() ) );
+    }
+  }
+
+  private static boolean isJdkType( Class<?> type ) {
+    String name = type.getName();
+    return name.startsWith( "java." ) || name.startsWith( "javax." ) || name.startsWith( "sun." );
+  }
+
+  private static Object newInstance( Class<?> type ) throws UnsupportedTypeException {
+    try {
+      return getConstructor( type ).newInstance();
+    } catch ( Exception e ) {
+      throw new UnsupportedTypeException( type );
+    }
+  }
+
+  private static Constructor<?> getConstructor( Class<?> type ) throws NoSuchMethodException {
+    Constructor<?> constructor = constructors.get( type );
+    if ( constructor == null ) {
+      constructor = type.getDeclaredConstructor();
+      constructor.setAccessible( true );
+      constructors.putIfAbsent( type, constructor );
+    }
+    return constructor;
+  }
+
+  /**
+   * @return the instance fields a class declares, other than transient ones
+   */
+  private static Field[] getFields( Class<?> type ) {
+    Field[] declared = fields.get( type );
+    if ( declared == null ) {
+      List<Field> copied = new ArrayList<Field>();
+      for ( Field field : type.getDeclaredFields() ) {
+        int modifiers = field.getModifiers();
+        if ( !Modifier.isStatic( modifiers ) && !Modifier.isTransient( modifiers ) ) {
+          field.setAccessible( true );
+          copied.add( field );
+        }
+      }
+      declared = copied.toArray( new Field[ copied.size() ] );
+      fields.putIfAbsent( type, declared );
+    }
+    return declared;
+  }
+
+  /**
+   * An object in the graph cannot be copied field by field.
+   */
+  static class UnsupportedTypeException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    UnsupportedTypeException( Class<?> type ) {
+      super( type.getName() );
+    }
+  }
+}
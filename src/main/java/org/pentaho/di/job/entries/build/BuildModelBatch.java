@@ -0,0 +1,276 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.job.entries.build;
+
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.Result;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBoolean;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Batch mode of the Build Model and Publish entries. A batch is a list of <code>outputStep=modelName</code> pairs
+ * separated by semicolons or new lines. The output step may be a pattern with <code>*</code> and <code>?</code>
+ * wildcards, in which case {@value #STEP_PLACEHOLDER} in the model name stands for each matching step, which is also
+ * the model name if none is given.
+ * <p/>
+ * Each model of a batch is reported as a result row, so a following Publish entry knows which models to publish.
+ */
+public class BuildModelBatch {
+
+  public static final String BATCH_THREADS_PROPERTY = "KETTLE_DATA_REFINERY_BATCH_THREADS";
+  public static final String STEP_PLACEHOLDER = "{step}";
+
+  public static final String FIELD_MODEL_NAME = "model_name";
+  public static final String FIELD_OUTPUT_STEP = "output_step";
+  public static final String FIELD_SUCCESS = "success";
+  public static final String FIELD_MESSAGE = "message";
+
+  private static final int DEFAULT_BATCH_THREADS = 4;
+
+  private static final ExecutorService executor;
+
+  static {
+    int threads = Math.max( 1, Const.toInt( System.getProperty( BATCH_THREADS_PROPERTY ), DEFAULT_BATCH_THREADS ) );
+    ThreadPoolExecutor pool = new ThreadPoolExecutor( threads, threads, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread( Runnable runnable ) {
+            Thread thread = new Thread( runnable, "Data Refinery model batch" );
+            thread.setDaemon( true );
+            return thread;
+          }
+        } );
+    pool.allowCoreThreadTimeOut( true );
+    executor = pool;
+  }
+
+  private BuildModelBatch() {
+  }
+
+  /**
+   * Bounded pool the models of a batch are built and published on
+   */
+  public static ExecutorService getExecutor() {
+    return executor;
+  }
+
+  /**
+   * One model of a batch, or a pattern of them.
+   */
+  public static class Item {
+    private final String outputStep;
+    private final String modelName;
+
+    public Item( String outputStep, String modelName ) {
+      this.outputStep = outputStep;
+      this.modelName = modelName;
+    }
+
+    public String getOutputStep() {
+      return outputStep;
+    }
+
+    public String getModelName() {
+      return modelName;
+    }
+
+    public boolean isPattern() {
+      return StringUtils.containsAny( outputStep, "*?" );
+    }
+
+    public boolean matches( String stepName ) {
+      if ( stepName == null ) {
+        return false;
+      }
+      if ( !isPattern() ) {
+        return outputStep.equals( stepName );
+      }
+      StringBuilder regex = new StringBuilder();
+      int start = 0;
+      for ( int i = 0; i < outputStep.length(); i++ ) {
+        char c = outputStep.charAt( i );
+        if ( c == '*' || c == '?' ) {
+          if ( i > start ) {
+            regex.append( Pattern.quote( outputStep.substring( start, i ) ) );
+          }
+          regex.append( c == '*' ? ".*" : "." );
+          start = i + 1;
+        }
+      }
+      if ( start < outputStep.length() ) {
+        regex.append( Pattern.quote( outputStep.substring( start ) ) );
+      }
+      return Pattern.matches( regex.toString(), stepName );
+    }
+
+    /**
+     * @return the model of a matching step
+     */
+    Item forStep( String stepName ) {
+      return new Item( stepName, modelName.replace( STEP_PLACEHOLDER, stepName ) );
+    }
+  }
+
+  /**
+   * @return the items of a batch specification, empty if there is none
+   */
+  public static List<Item> parse( String spec ) {
+    List<Item> items = new ArrayList<Item>();
+    if ( StringUtils.isBlank( spec ) ) {
+      return items;
+    }
+    for ( String entry : spec.split( "[;\\r\\n]" ) ) {
+      String outputStep = StringUtils.trimToNull( StringUtils.substringBefore( entry, "=" ) );
+      if ( outputStep == null ) {
+        continue;
+      }
+      String modelName = entry.contains( "=" ) ? StringUtils.trimToNull( StringUtils.substringAfter( entry, "=" ) )
+          : null;
+      items.add( new Item( outputStep, modelName == null ? STEP_PLACEHOLDER : modelName ) );
+    }
+    return items;
+  }
+
+  /**
+   * Expands patterns over the steps found at run time. A step picked by name is not picked again by a pattern, and a
+   * model name is only built once.
+   *
+   * @param items     batch items
+   * @param stepNames output steps available to the batch
+   * @return one item per model, in batch order
+   */
+  public static List<Item> resolve( List<Item> items, Collection<String> stepNames ) {
+    Map<String, Item> models = new LinkedHashMap<String, Item>();
+    List<String> namedSteps = new ArrayList<String>();
+    for ( Item item : items ) {
+      if ( !item.isPattern() ) {
+        namedSteps.add( item.getOutputStep() );
+      }
+    }
+    for ( Item item : items ) {
+      if ( item.isPattern() ) {
+        for ( String stepName : stepNames ) {
+          if ( item.matches( stepName ) && !namedSteps.contains( stepName ) ) {
+            addModel( models, item.forStep( stepName ) );
+          }
+        }
+      } else {
+        addModel( models, item.forStep( item.getOutputStep() ) );
+      }
+    }
+    return new ArrayList<Item>( models.values() );
+  }
+
+  private static void addModel( Map<String, Item> models, Item item ) {
+    if ( !models.containsKey( item.getModelName() ) ) {
+      models.put( item.getModelName(), item );
+    }
+  }
+
+  public static RowMetaInterface getResultRowMeta() {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( FIELD_MODEL_NAME ) );
+    rowMeta.addValueMeta( new ValueMetaString( FIELD_OUTPUT_STEP ) );
+    rowMeta.addValueMeta( new ValueMetaBoolean( FIELD_SUCCESS ) );
+    rowMeta.addValueMeta( new ValueMetaString( FIELD_MESSAGE ) );
+    return rowMeta;
+  }
+
+  /**
+   * Reports how one model of a batch went.
+   */
+  public static void addResult( Result result, Item item, boolean success, String message ) {
+    result.getRows().add( new RowMetaAndData( getResultRowMeta(), item.getModelName(), item.getOutputStep(),
+        success, message ) );
+  }
+
+  /**
+   * @return whether the result has rows reported by a batch
+   */
+  public static boolean isBatchResult( Result result ) {
+    if ( result == null || result.getRows() == null ) {
+      return false;
+    }
+    for ( RowMetaAndData row : result.getRows() ) {
+      if ( isBatchRow( row ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isBatchRow( RowMetaAndData row ) {
+    RowMetaInterface rowMeta = row.getRowMeta();
+    return rowMeta != null && rowMeta.indexOfValue( FIELD_MODEL_NAME ) >= 0
+        && rowMeta.indexOfValue( FIELD_SUCCESS ) >= 0;
+  }
+
+  /**
+   * @return the models a Build Model batch reported as built, empty if the result is not from a batch
+   */
+  public static List<Item> getBuiltModels( Result result ) throws KettleValueException {
+    List<Item> items = new ArrayList<Item>();
+    if ( !isBatchResult( result ) ) {
+      return items;
+    }
+    for ( RowMetaAndData row : result.getRows() ) {
+      if ( isBatchRow( row ) && row.getBoolean( FIELD_SUCCESS, false ) ) {
+        items.add( new Item( row.getString( FIELD_OUTPUT_STEP, null ), row.getString( FIELD_MODEL_NAME, null ) ) );
+      }
+    }
+    return items;
+  }
+
+  /**
+   * @return the rows of the models a Build Model batch failed to build, empty if the result is not from a batch
+   */
+  public static List<RowMetaAndData> getFailedBuilds( Result result ) throws KettleValueException {
+    List<RowMetaAndData> rows = new ArrayList<RowMetaAndData>();
+    if ( !isBatchResult( result ) ) {
+      return rows;
+    }
+    for ( RowMetaAndData row : result.getRows() ) {
+      if ( isBatchRow( row ) && !row.getBoolean( FIELD_SUCCESS, false ) ) {
+        rows.add( row );
+      }
+    }
+    return rows;
+  }
+}
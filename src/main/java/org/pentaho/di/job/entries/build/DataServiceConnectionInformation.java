@@ -26,13 +26,11 @@ import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.LogChannelInterface;
-import org.pentaho.di.core.xml.XMLHandler;
+import org.pentaho.di.core.refinery.publish.util.StaxUtils;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.repository.Repository;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
+import javax.xml.stream.XMLStreamException;
 import java.net.URI;
 import java.net.URISyntaxException;
 
@@ -85,13 +83,14 @@ public class DataServiceConnectionInformation implements ProvidesDatabaseConnect
 
   private String getRepositoryProperty( final String nodeName ) throws KettleException {
     final String xml = repository.getRepositoryMeta().getXML();
-    final Document doc = XMLHandler.loadXMLString( xml );
-    final NodeList childNodes = doc.getDocumentElement().getChildNodes();
-    for ( int i = 0; i < childNodes.getLength(); i++ ) {
-      final Node item = childNodes.item( i );
-      if ( nodeName.equals( item.getNodeName() ) ) {
-        return item.getTextContent();
-      }
+    final String value;
+    try {
+      value = StaxUtils.readChildText( xml, nodeName );
+    } catch ( XMLStreamException e ) {
+      throw new KettleException( e );
+    }
+    if ( value != null ) {
+      return value;
     }
     throw new KettleException( BaseMessages.getString( PKG, "BuildModelJob.Info.ElementNotFound", nodeName ) );
   }
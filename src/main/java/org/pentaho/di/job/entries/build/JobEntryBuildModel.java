@@ -31,20 +31,35 @@ import org.pentaho.di.cluster.SlaveServer;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
 import org.pentaho.di.core.Result;
+import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.encryption.Encr;
+import org.pentaho.di.core.exception.KettleDatabaseException;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleXMLException;
 import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.refinery.AnnotationAccumulator;
+import org.pentaho.di.core.refinery.CachingMetaStore;
+import org.pentaho.di.core.refinery.extension.DataProviderUpdateQueue;
 import org.pentaho.di.core.refinery.model.AnalysisModeler;
 import org.pentaho.di.core.refinery.model.DswModeler;
 import org.pentaho.di.core.refinery.model.DswModeler.ColumnMismatchException;
 import org.pentaho.di.core.refinery.model.DswModeler.UnsupportedModelException;
+import org.pentaho.di.core.refinery.model.ModelArtifactCache;
+import org.pentaho.di.core.refinery.model.ModelArtifactStore;
+import org.pentaho.di.core.refinery.model.ModelServerCatalog;
 import org.pentaho.di.core.refinery.model.ModelServerFetcher;
 import org.pentaho.di.core.refinery.model.ModelServerFetcher.AuthorizationException;
 import org.pentaho.di.core.refinery.model.ModelServerFetcher.ServerException;
 import org.pentaho.di.core.refinery.model.RefineryValueMetaStrategy;
+import org.pentaho.di.core.refinery.model.TableMetadataCache;
+import org.pentaho.di.core.refinery.model.TemplateCache;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.refinery.publish.util.ConnectionValidationCache;
+import org.pentaho.di.core.refinery.publish.util.HttpDeadline;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.variables.Variables;
 import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.job.Job;
@@ -68,9 +83,18 @@ import org.pentaho.metastore.api.IMetaStore;
 import org.pentaho.metastore.api.exceptions.MetaStoreException;
 import org.w3c.dom.Node;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.pentaho.di.core.Const.nullToEmpty;
 import static org.pentaho.platform.util.StringUtil.isEmpty;
@@ -84,6 +108,8 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
   public static final String PLUGIN_ID = "DataRefineryBuildModel";
   public static final String KEY_MODEL_ANNOTATIONS = "KEY_MODEL_ANNOTATIONS";
   public static final String KEY_OUTPUT_STEP_PREFIX = "JobEntryBuildModel.OutputStep.";
+  private static final String BATCH_STEP_SEPARATOR = "/";
+  private static final long BATCH_STOP_CHECK_MILLIS = 500L;
   private static Class<?> PKG = JobEntryBuildModel.class; // for i18n purposes, needed by Translator2!!
 
   private DswModeler modeler;
@@ -97,8 +123,13 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
   private boolean createOnPublish;
   private String selectedModel;
   private BiServerConnection biServerConnection;
+  private String batchModels;
   private DataServiceContext dataServiceContext;
 
+  /* one model of a batch, its output step is registered under a key of its own */
+  private boolean batchItem;
+  private HttpDeadline httpDeadline;
+
   public boolean useExistingModel() {
     return useExistingModel;
   }
@@ -134,6 +165,7 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     public static final String BASERVER_PASSWORD = "ba_server_password";
     public static final String SELECTED_MODEL = "selected_model";
     public static final String CREATE_ON_PUBLISH = "create_on_publish";
+    public static final String BATCH_MODELS = "batchModels";
   }
 
   public JobEntryBuildModel() {
@@ -228,9 +260,7 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
         if ( !modelExists( existingModelId, fetcher ) ) {
           if ( isCreateOnPublish() ) {
             logBasic( getMsg( "BuildModelJob.Info.ModelNotFound", existingModelId ) );
-            modeledDomain =
-                getDswModeler()
-                    .createModel( modelName, source, dbMeta, importStrategy, modelAnnotations, getMetaStore() );
+            return createXmi( modelName, source, dbMeta, importStrategy, modelAnnotations );
           } else {
             if ( Const.isEmpty( existingModelId ) ) {
               throw new KettleException( getMsg( "BuildModelJob.Error.ModelNullNotFound", getName() ) );
@@ -243,16 +273,16 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
           modeledDomain = getDswModeler().updateModel( modelName, templateModel, dbMeta, schemaName, tableName );
         }
       } else {
-        modeledDomain =
-            getDswModeler()
-                .createModel( modelName, source, dbMeta, importStrategy, modelAnnotations, getMetaStore() );
+        return createXmi( modelName, source, dbMeta, importStrategy, modelAnnotations );
       }
       XmiParser parser = new XmiParser();
       String localXmi = parser.generateXmi( modeledDomain );
       return localXmi;
     } catch ( AuthorizationException e ) {
+      invalidateBIServerConnection();
       throw new KettleException( getMsg( "BuildModelJob.Error.Authorization" ) );
     } catch ( ServerException e ) {
+      invalidateBIServerConnection();
       throw new KettleException( getMsg( "BuildModelJob.Error.ErrorFetchingModel" ) );
     } catch ( ColumnMismatchException e ) {
       throw new KettleException( getMsg( "BuildModelJob.Error.CannotUpdateModel", getMsg(
@@ -265,8 +295,117 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     }
   }
 
+  /**
+   * Auto-models a new XMI, or takes it from the model artifact cache when nothing that goes into it has changed.
+   */
+  private String createXmi( String modelName, TableModelerSource source, DatabaseMeta dbMeta,
+      PhysicalTableImporter.ImportStrategy importStrategy, ModelAnnotationGroup modelAnnotations ) throws Exception {
+    IMetaStore metaStore = CachingMetaStore.wrap( getMetaStore() );
+    ModelArtifactCache cache = getModelArtifactCache();
+    String key = null;
+    if ( cache != null ) {
+      key = getModelArtifactKey( modelName, source, dbMeta, importStrategy, modelAnnotations, metaStore );
+    }
+    if ( key != null ) {
+      String cachedXmi = cache.get( key );
+      if ( cachedXmi != null ) {
+        setVarAndLogBasic( "JobEntryBuildModel.XMI.Cache." + modelName, "hit" );
+        return cachedXmi;
+      }
+    }
+    Domain modeledDomain =
+        getDswModeler().createModel( modelName, source, dbMeta, importStrategy, modelAnnotations, metaStore );
+    String localXmi = new XmiParser().generateXmi( modeledDomain );
+    if ( key != null ) {
+      setVarAndLogBasic( "JobEntryBuildModel.XMI.Cache." + modelName, "miss" );
+      try {
+        cache.put( key, localXmi );
+      } catch ( IOException e ) {
+        // the model was built, only the next build misses out
+        log.logBasic( getMsg( "BuildModelJob.Info.ModelCacheWrite", cache.getDirectory().getPath(), e.getMessage() ) );
+      }
+    }
+    return localXmi;
+  }
+
+  /**
+   * @return the fingerprint of a model build, or null if it cannot be taken
+   */
+  private String getModelArtifactKey( String modelName, TableModelerSource source, DatabaseMeta dbMeta,
+      PhysicalTableImporter.ImportStrategy importStrategy, ModelAnnotationGroup modelAnnotations,
+      IMetaStore metaStore ) {
+    try {
+      return new ModelArtifactCache.Key()
+          .add( "plugin", ModelArtifactCache.getPluginVersion() )
+          .add( "model", modelName )
+          .addConnection( dbMeta )
+          .add( "schema", source.getSchemaName() )
+          .add( "table", source.getTableName() )
+          .add( "columns", getColumnSignature( source, dbMeta, importStrategy ) )
+          .addAnnotations( modelAnnotations )
+          .addLinkedDimensions( modelAnnotations, metaStore )
+          .addGeoConfiguration( getDswModeler().getGeoContextConfigProvider() )
+          .build();
+    } catch ( MetaStoreException e ) {
+      log.logDebug( getMsg( "BuildModelJob.Debug.NoModelCacheKey", modelName ), e );
+      return null;
+    } catch ( KettleDatabaseException e ) {
+      log.logDebug( getMsg( "BuildModelJob.Debug.NoModelCacheKey", modelName ), e );
+      return null;
+    }
+  }
+
+  /**
+   * Describes the columns of the table as the database reports them, with the name the model shows each one under.
+   * These are the columns the modeler imports, so a table altered behind the transformation's back changes the
+   * fingerprint.
+   */
+  private String getColumnSignature( TableModelerSource source, DatabaseMeta dbMeta,
+      PhysicalTableImporter.ImportStrategy importStrategy ) throws KettleDatabaseException {
+    RowMetaInterface tableFields = TableMetadataCache.getInstance()
+        .getTableFields( this, dbMeta, source.getSchemaName(), source.getTableName() );
+    if ( tableFields == null ) {
+      throw new KettleDatabaseException( "no metadata for table " + source.getTableName() );
+    }
+    StringBuilder signature = new StringBuilder();
+    for ( ValueMetaInterface column : tableFields.getValueMetaList() ) {
+      if ( importStrategy.shouldInclude( column ) ) {
+        signature.append( column.getName() ).append( '\u0000' ).append( column.getTypeDesc() )
+            .append( '(' ).append( column.getLength() ).append( ',' ).append( column.getPrecision() )
+            .append( ")=" ).append( importStrategy.displayName( column ) ).append( '\n' );
+      }
+    }
+    return signature.toString();
+  }
+
+  /**
+   * @return the model artifact cache, or null if it is not enabled
+   */
+  protected ModelArtifactCache getModelArtifactCache() {
+    if ( !"Y".equalsIgnoreCase( getVariable( ModelArtifactCache.CACHE_ENABLED_VARIABLE ) ) ) {
+      return null;
+    }
+    String directory =
+        Const.NVL( getVariable( ModelArtifactCache.CACHE_DIR_VARIABLE ), ModelArtifactCache.getDefaultDirectory() );
+    return new ModelArtifactCache( new File( directory ),
+        Const.toInt( getVariable( ModelArtifactCache.CACHE_SIZE_VARIABLE ), ModelArtifactCache.DEFAULT_CACHE_SIZE ) );
+  }
+
   private ModelAnnotationGroup getModelAnnotations() {
-    Object modelAnnotationGroup = this.getParentJob().getExtensionDataMap().get( KEY_MODEL_ANNOTATIONS );
+    Map<String, Object> extensionDataMap = this.getParentJob().getExtensionDataMap();
+    AnnotationAccumulator accumulator = AnnotationAccumulator.find( extensionDataMap );
+    if ( batchItem ) {
+      // each model of a batch gets the annotations made for its own output step
+      return accumulator == null
+          ? new ModelAnnotationGroup() : accumulator.snapshot( environmentSubstitute( getOutputStep() ) );
+    }
+    if ( accumulator != null ) {
+      return accumulator.snapshot();
+    }
+    Object modelAnnotationGroup;
+    synchronized ( extensionDataMap ) {
+      modelAnnotationGroup = extensionDataMap.get( KEY_MODEL_ANNOTATIONS );
+    }
     if ( modelAnnotationGroup != null && modelAnnotationGroup instanceof ModelAnnotationGroup ) {
       return (ModelAnnotationGroup) modelAnnotationGroup;
     }
@@ -282,7 +421,18 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
   }
 
   StepMetaDataCombi getStepMetaDataCombi() {
-    return (StepMetaDataCombi) this.getParentJob().getExtensionDataMap().get( KEY_OUTPUT_STEP_PREFIX + getName() );
+    String key = batchItem ? getBatchStepKey( getName(), getOutputStep() ) : KEY_OUTPUT_STEP_PREFIX + getName();
+    Map<String, Object> extensionDataMap = this.getParentJob().getExtensionDataMap();
+    synchronized ( extensionDataMap ) {
+      return (StepMetaDataCombi) extensionDataMap.get( key );
+    }
+  }
+
+  /**
+   * @return the extension data key an output step of a batch is kept under
+   */
+  public static String getBatchStepKey( String jobEntryName, String stepName ) {
+    return KEY_OUTPUT_STEP_PREFIX + jobEntryName + BATCH_STEP_SEPARATOR + stepName;
   }
 
   private List<TransMeta> findAllTransInJob() throws KettleException {
@@ -340,6 +490,7 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     // Fail early if invalid Pentaho BA Server, Unauthenticated user, Missing permissions, etc.
     // Prevent Spoon from displaying user/password prompt.
     ConnectionValidator validator = getConnectionValidator( connection );
+    validator.setHttpDeadline( getHttpDeadline() );
     validator.validateConnectionInRuntime(); // throw exception if not valid connection
     return connection;
   }
@@ -350,12 +501,16 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     return validator;
   }
 
+  /**
+   * Makes the next use of the BA server connection validate it again, after a call to the server failed.
+   */
+  private void invalidateBIServerConnection() {
+    ConnectionValidationCache.getInstance().invalidate( environmentSubstitute( getBiServerConnection() ) );
+  }
+
   protected boolean modelExists( String modelId, ModelServerFetcher fetcher ) throws KettleException,
     AuthorizationException, ServerException {
-    HashSet<String> allIds = new HashSet<String>();
-    allIds.addAll( fetcher.fetchAnalysisList() );
-    allIds.addAll( fetcher.fetchDswList() );
-    return allIds.contains( modelId );
+    return ModelServerCatalog.getInstance().exists( fetcher, modelId );
   }
 
   public BiServerConnection environmentSubstitute( BiServerConnection conn ) {
@@ -379,39 +534,220 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
 
     String outputStep = environmentSubstitute( getOutputStep() );
     String modelName = environmentSubstitute( getModelName() );
+    // the models of a batch share the limits of its run
+    httpDeadline = HttpDeadline.forJob( getParentJob(), this );
+
+    if ( getParentJob() != null ) {
+      // data providers of shared dimensions have to be stored before they can be linked
+      int failedUpdates = DataProviderUpdateQueue.flush( getParentJob().getExtensionDataMap() );
+      if ( failedUpdates > 0 ) {
+        log.logError( getMsg( "BuildModelJob.Error.DataProviders", String.valueOf( failedUpdates ) ) );
+        result.setResult( false );
+        result.setNrErrors( failedUpdates );
+        return result;
+      }
+    }
+
+    if ( isBatch() ) {
+      return executeBatch( result );
+    }
 
     try {
+      buildModel( outputStep, modelName );
+      result.setResult( true );
+    } catch ( Exception e ) {
+      log.logError( e.getMessage(), e );
+      logServerCallFailure( e );
+      result.setResult( false );
+      result.setNrErrors( 1 );
+    }
+
+    return result;
+  }
 
-      setVarAndLogBasic( "JobEntryBuildModel.DatabaseConnection." + modelName, getConnectionInfo().getDatabaseMeta()
+  /**
+   * Logs which call to the BA server was aborted, when the error does not tell.
+   */
+  private void logServerCallFailure( Exception e ) {
+    String failure = getHttpDeadline().getFailure();
+    if ( failure != null && !String.valueOf( e.getMessage() ).contains( failure ) ) {
+      log.logError( getMsg( "BuildModelJob.Error.ServerCall", failure ) );
+    }
+  }
+
+  private void buildModel( String outputStep, String modelName ) throws Exception {
+    setVarAndLogBasic( "JobEntryBuildModel.DatabaseConnection." + modelName, getConnectionInfo().getDatabaseMeta()
+        .getName() );
+
+    if ( isPublishAnalysis() ) {
+      setVarAndLogDebug( "JobEntryBuildModel.Mondrian.Schema." + modelName,
+          storeArtifact( buildAnalysis( modelName ) ) );
+      setVarAndLogBasic( "JobEntryBuildModel.Mondrian.Datasource." + modelName, getConnectionInfo().getDatabaseMeta()
           .getName() );
+    } else {
+      setVarAndLogDebug( "JobEntryBuildModel.XMI." + modelName,
+          storeArtifact( buildXmi( getParentJob().getJobMeta(), outputStep, modelName ) ) );
+      setVarAndLogBasic( "JobEntryBuildModel.XMI.DSW." + modelName, "true" );
+    }
+  }
 
-      if ( isPublishAnalysis() ) {
-        setVarAndLogDebug( "JobEntryBuildModel.Mondrian.Schema." + modelName, buildAnalysis( modelName ) );
-        setVarAndLogBasic( "JobEntryBuildModel.Mondrian.Datasource." + modelName, getConnectionInfo().getDatabaseMeta()
-            .getName() );
-      } else {
-        setVarAndLogDebug( "JobEntryBuildModel.XMI." + modelName, buildXmi( getParentJob().getJobMeta(), outputStep,
-            modelName ) );
-        setVarAndLogBasic( "JobEntryBuildModel.XMI.DSW." + modelName, "true" );
-      }
+  public boolean isBatch() {
+    return !batchItem && !StringUtils.isBlank( getBatchModels() );
+  }
 
-      result.setResult( true );
-    } catch ( Exception e ) {
-      log.logError( e.getMessage(), e );
+  /**
+   * Builds every model of the batch on the shared batch pool, reporting each one as a result row.
+   */
+  private Result executeBatch( Result result ) {
+    List<BuildModelBatch.Item> items =
+        BuildModelBatch.resolve( BuildModelBatch.parse( environmentSubstitute( getBatchModels() ) ),
+            getBatchStepNames() );
+    if ( items.isEmpty() ) {
+      log.logError( getMsg( "BuildModelJob.Error.EmptyBatch", getName() ) );
       result.setResult( false );
       result.setNrErrors( 1 );
+      return result;
+    }
+    log.logBasic( getMsg( "BuildModelJob.Info.Batch", String.valueOf( items.size() ) ) );
+
+    List<Future<String>> builds = new ArrayList<>();
+    for ( final BuildModelBatch.Item item : items ) {
+      builds.add( BuildModelBatch.getExecutor().submit( new Callable<String>() {
+        @Override
+        public String call() {
+          try {
+            createBatchEntry( item.getOutputStep(), item.getModelName() )
+                .buildModel( item.getOutputStep(), item.getModelName() );
+            return null;
+          } catch ( Exception e ) {
+            log.logError( getMsg( "BuildModelJob.Error.BatchModel", item.getModelName(), e.getMessage() ), e );
+            return Const.NVL( e.getMessage(), e.toString() );
+          }
+        }
+      } ) );
     }
 
+    int errors = 0;
+    result.setRows( new ArrayList<RowMetaAndData>() );
+    for ( int i = 0; i < items.size(); i++ ) {
+      String error = waitForBuild( builds, i, items.get( i ) );
+      BuildModelBatch.addResult( result, items.get( i ), error == null, error );
+      if ( error != null ) {
+        errors++;
+      }
+    }
+    result.setResult( errors == 0 );
+    result.setNrErrors( errors );
     return result;
   }
 
+  /**
+   * Waits for one build of a batch, cancelling the builds not done yet when the job is stopped.
+   *
+   * @return the error of the build, null if the model was built
+   */
+  private String waitForBuild( List<Future<String>> builds, int index, BuildModelBatch.Item item ) {
+    Future<String> build = builds.get( index );
+    while ( true ) {
+      if ( getParentJob() != null && getParentJob().isStopped() ) {
+        cancelBuilds( builds );
+      }
+      try {
+        return build.get( BATCH_STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS );
+      } catch ( TimeoutException e ) {
+        // check for a stop again
+      } catch ( CancellationException e ) {
+        return getMsg( "BuildModelJob.Error.BatchStopped", item.getModelName() );
+      } catch ( InterruptedException e ) {
+        cancelBuilds( builds );
+        Thread.currentThread().interrupt();
+        return e.toString();
+      } catch ( ExecutionException e ) {
+        return e.getCause().toString();
+      }
+    }
+  }
+
+  private static void cancelBuilds( List<Future<String>> builds ) {
+    for ( Future<String> build : builds ) {
+      build.cancel( true );
+    }
+  }
+
+  /**
+   * @return a copy of this entry that builds one model of its batch, sharing nothing a build changes
+   */
+  public JobEntryBuildModel createBatchEntry( String outputStep, String modelName ) {
+    JobEntryBuildModel entry = (JobEntryBuildModel) clone();
+    Variables variables = new Variables();
+    variables.setParentVariableSpace( getParentVariableSpace() );
+    variables.copyVariablesFrom( this );
+    entry.shareVariablesWith( variables );
+    if ( modeler != null ) {
+      DswModeler batchModeler = new DswModeler( log );
+      batchModeler.setGeoContextConfigProvider( modeler.getGeoContextConfigProvider() );
+      entry.modeler = batchModeler;
+    }
+    if ( biServerConnection != null ) {
+      entry.biServerConnection = copy( biServerConnection );
+    }
+    entry.setOutputStep( outputStep );
+    entry.setModelName( modelName );
+    entry.batchItem = true;
+    return entry;
+  }
+
+  private static BiServerConnection copy( BiServerConnection connection ) {
+    BiServerConnection copy = new BiServerConnection();
+    copy.setName( connection.getName() );
+    copy.setUrl( connection.getUrl() );
+    copy.setUserId( connection.getUserId() );
+    copy.setPassword( connection.getPassword() );
+    copy.setDefaultFolder( connection.getDefaultFolder() );
+    copy.setDefaultDatasourcePublish( connection.getDefaultDatasourcePublish() );
+    return copy;
+  }
+
+  /**
+   * @return names of the output steps the finished transformations registered for this entry's batch
+   */
+  List<String> getBatchStepNames() {
+    String prefix = getBatchStepKey( getName(), "" );
+    List<String> stepNames = new ArrayList<>();
+    Map<String, Object> extensionDataMap = getParentJob().getExtensionDataMap();
+    synchronized ( extensionDataMap ) {
+      for ( String key : extensionDataMap.keySet() ) {
+        if ( key.startsWith( prefix ) ) {
+          stepNames.add( key.substring( prefix.length() ) );
+        }
+      }
+    }
+    Collections.sort( stepNames );
+    return stepNames;
+  }
+
+  /**
+   * Moves a large artifact out of the job variables, into a file of the job's artifact store.
+   *
+   * @return the artifact itself if it is small, or else the handle of the stored artifact
+   */
+  String storeArtifact( String artifact ) throws IOException {
+    int spillSize =
+        Const.toInt( getVariable( ModelArtifactStore.SPILL_SIZE_VARIABLE ), ModelArtifactStore.DEFAULT_SPILL_SIZE );
+    if ( artifact == null || artifact.length() <= spillSize ) {
+      return artifact;
+    }
+    return ModelArtifactStore.get( getParentJob() ).store( artifact );
+  }
+
   String buildAnalysis( final String modelName ) throws KettleException {
     String analysisFile;
     String selectedModelName = environmentSubstitute( getSelectedModel() );
 
     try {
-      if ( modelExists( selectedModelName, getModelServerFetcher() ) ) {
-        analysisFile = getModelServerFetcher().downloadAnalysisFile( selectedModelName );
+      ModelServerFetcher fetcher = getModelServerFetcher();
+      if ( modelExists( selectedModelName, fetcher ) ) {
+        analysisFile = fetcher.downloadAnalysisFile( selectedModelName );
       } else {
         if ( Const.isEmpty( selectedModelName ) ) {
           throw new KettleException( getMsg( "BuildModelJob.Error.ModelNullNotFound", getName() ) );
@@ -419,6 +755,9 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
           throw new KettleException( getMsg( "BuildModelJob.Error.ModelNotFound", selectedModelName ) );
         }
       }
+    } catch ( AuthorizationException | ServerException e ) {
+      invalidateBIServerConnection();
+      throw new KettleException( e );
     } catch ( Exception e ) {
       throw new KettleException( e );
     }
@@ -431,7 +770,33 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
   }
 
   ModelServerFetcher getModelServerFetcher() throws KettleException {
-    return new ModelServerFetcher( validBIServerConnection() );
+    ModelServerFetcher fetcher = new ModelServerFetcher( validBIServerConnection() );
+    fetcher.setTemplateCache( getTemplateCache() );
+    fetcher.setHttpDeadline( getHttpDeadline() );
+    return fetcher;
+  }
+
+  /**
+   * @return the limits of the calls to the BA server in this run, aborting them when the job is stopped
+   */
+  protected HttpDeadline getHttpDeadline() {
+    if ( httpDeadline == null ) {
+      httpDeadline = HttpDeadline.forJob( getParentJob(), this );
+    }
+    return httpDeadline;
+  }
+
+  /**
+   * @return the cache of models downloaded for "use existing model", or null if it is not enabled
+   */
+  protected TemplateCache getTemplateCache() {
+    if ( !"Y".equalsIgnoreCase( getVariable( TemplateCache.CACHE_ENABLED_VARIABLE ) ) ) {
+      return null;
+    }
+    String directory =
+        Const.NVL( getVariable( TemplateCache.CACHE_DIR_VARIABLE ), TemplateCache.getDefaultDirectory() );
+    return new TemplateCache( new File( directory ),
+        Const.toLong( getVariable( TemplateCache.CACHE_TTL_VARIABLE ), TemplateCache.DEFAULT_CACHE_TTL ) );
   }
 
   protected void setVarAndLogDebug( final String varName, final String value ) {
@@ -483,6 +848,7 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     }
     retval.append( "      " ).append( XMLHandler.addTagValue( Fields.SELECTED_MODEL, getSelectedModel() ) );
     retval.append( "      " ).append( XMLHandler.addTagValue( Fields.CREATE_ON_PUBLISH, isCreateOnPublish() ) );
+    retval.append( "      " ).append( XMLHandler.addTagValue( Fields.BATCH_MODELS, getBatchModels() ) );
     return retval.toString();
   }
 
@@ -506,6 +872,7 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
 
     setSelectedModel( XMLHandler.getTagValue( entrynode, Fields.SELECTED_MODEL ) );
     setCreateOnPublish( BooleanUtils.toBoolean( XMLHandler.getTagValue( entrynode, Fields.CREATE_ON_PUBLISH ) ) );
+    setBatchModels( XMLHandler.getTagValue( entrynode, Fields.BATCH_MODELS ) );
   }
 
   @Override
@@ -531,6 +898,7 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     setSelectedModel( rep.getJobEntryAttributeString( id_jobentry, Fields.SELECTED_MODEL ) );
     setCreateOnPublish( BooleanUtils
         .toBoolean( rep.getJobEntryAttributeString( id_jobentry, Fields.CREATE_ON_PUBLISH ) ) );
+    setBatchModels( rep.getJobEntryAttributeString( id_jobentry, Fields.BATCH_MODELS ) );
   }
 
   public void saveRep( Repository rep, IMetaStore metaStore, ObjectId id_job ) throws KettleException {
@@ -550,6 +918,7 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     }
     rep.saveJobEntryAttribute( id_job, getObjectId(), Fields.SELECTED_MODEL, getSelectedModel() );
     rep.saveJobEntryAttribute( id_job, getObjectId(), Fields.CREATE_ON_PUBLISH, isCreateOnPublish() );
+    rep.saveJobEntryAttribute( id_job, getObjectId(), Fields.BATCH_MODELS, getBatchModels() );
   }
 
   public String getModelName() {
@@ -560,6 +929,18 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     this.modelName = modelName;
   }
 
+  /**
+   * @return <code>outputStep=modelName</code> pairs or patterns built instead of the single model, see
+   *         {@link BuildModelBatch}
+   */
+  public String getBatchModels() {
+    return batchModels;
+  }
+
+  public void setBatchModels( String batchModels ) {
+    this.batchModels = batchModels;
+  }
+
   public BiServerConnection getBiServerConnection() {
     return biServerConnection;
   }
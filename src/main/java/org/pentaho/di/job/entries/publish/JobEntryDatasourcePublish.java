@@ -30,20 +30,26 @@ import org.pentaho.database.model.DatabaseConnection;
 import org.pentaho.di.cluster.SlaveServer;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.Result;
+import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.encryption.Encr;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleXMLException;
+import org.pentaho.di.core.refinery.model.ModelArtifactStore;
+import org.pentaho.di.core.refinery.model.ModelServerCatalog;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.core.refinery.publish.agilebi.ModelServerPublish;
 import org.pentaho.di.core.refinery.publish.model.DataSourceAclModel;
 import org.pentaho.di.core.refinery.publish.model.DataSourcePublishModel;
+import org.pentaho.di.core.refinery.publish.util.ConnectionValidationCache;
+import org.pentaho.di.core.refinery.publish.util.HttpDeadline;
 import org.pentaho.di.core.refinery.publish.util.PublishRestUtil;
 import org.pentaho.di.core.variables.VariableSpace;
 import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.job.JobHopMeta;
 import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.job.entries.build.BuildModelBatch;
 import org.pentaho.di.job.entries.build.DataServiceConnectionInformation;
 import org.pentaho.di.job.entries.build.JobEntryBuildModel;
 import org.pentaho.di.job.entry.JobEntryBase;
@@ -54,9 +60,22 @@ import org.pentaho.di.ui.job.entries.common.ConnectionValidator;
 import org.pentaho.metastore.api.IMetaStore;
 import org.w3c.dom.Node;
 
-import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static org.pentaho.di.core.Const.nullToEmpty;
 
@@ -75,7 +94,31 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
   private static final String METADATA_EXTENSION = ".xmi";
   private static final String ENCODING = "UTF-8";
 
+  public static final String PUBLISH_THREADS_PROPERTY = "KETTLE_DATA_REFINERY_PUBLISH_THREADS";
+  private static final int DEFAULT_PUBLISH_THREADS = 4;
+
+  /**
+   * Runs the uploads that do not depend on each other, shared by all publish entries
+   */
+  private static final ExecutorService executor;
+
+  static {
+    int threads = Math.max( 1, Const.toInt( System.getProperty( PUBLISH_THREADS_PROPERTY ), DEFAULT_PUBLISH_THREADS ) );
+    ThreadPoolExecutor pool = new ThreadPoolExecutor( threads, threads, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread( Runnable runnable ) {
+            Thread thread = new Thread( runnable, "Data Refinery publish" );
+            thread.setDaemon( true );
+            return thread;
+          }
+        } );
+    pool.allowCoreThreadTimeOut( true );
+    executor = pool;
+  }
+
   private DataSourcePublishModel dataSourcePublishModel;
+  private HttpDeadline httpDeadline;
 
   public final class Fields {
     public static final String LOGICAL_MODEL = "logical_model";
@@ -98,59 +141,32 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
 
   @Override
   public Result execute( Result result, int i ) throws KettleException {
+    httpDeadline = HttpDeadline.forJob( getParentJob(), this );
+    if ( StringUtils.isBlank( dataSourcePublishModel.getModelName() ) && BuildModelBatch.isBatchResult( result ) ) {
+      return executeBatch( result, BuildModelBatch.getBuiltModels( result ),
+          BuildModelBatch.getFailedBuilds( result ) );
+    }
+
     boolean dsPublished, metaPublished;
     dsPublished = metaPublished =false;
     DatabaseMeta databaseMeta = null;
     ModelServerPublish modelServerPublish = null;
     String dswFlag = null;
     String modelName = null;
+    String serverUrl = null;
+    BiServerConnection validatedConnection = null;
     try {
-      BiServerConnection biServerModel = dataSourcePublishModel.getBiServerConnection();
-
-      // Resolve parametized values before execution
-      biServerModel.setName( environmentSubstitute( biServerModel.getName() ) );
-      biServerModel.setUserId( environmentSubstitute( biServerModel.getUserId() ) );
-      biServerModel.setPassword( environmentSubstitute( biServerModel.getPassword() ) );
-      String url = environmentSubstitute( biServerModel.getUrl() );
-      if ( url != null && url.endsWith( "//" ) ) {
-        url = url.substring( 0, url.length() - 1 );
-      }
-      biServerModel.setUrl( url );
-      // Fail early if invalid Pentaho BA Server or Unauthenticated user.
-      // Prevent Spoon from displaying user/password prompt.
-      ConnectionValidator validator = getConnectionValidator( biServerModel );
-      validator.validateConnectionInRuntime();
-
-      BiServerConnection connection = new BiServerConnection();
-      connection.setName( biServerModel.getName() );
-      connection.setUrl( biServerModel.getUrl() );
-      connection.setPassword( biServerModel.getPassword() );
-      connection.setUserId( biServerModel.getUserId() );
-      log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.BAServer", biServerModel.getUrl() ) );
+      BiServerConnection connection = connectBiServer();
+      serverUrl = connection.getUrl();
+      validatedConnection = connection;
 
       modelServerPublish = getModelServerPublish();
       modelServerPublish.setBiServerConnection( connection );
+      modelServerPublish.setHttpDeadline( getHttpDeadline() );
 
       boolean forceOverride = dataSourcePublishModel.isOverride();
 
-      DataSourceAclModel datasourceAcl = new DataSourceAclModel();
-      String accessType =
-          Const.isEmpty( dataSourcePublishModel.getAccessType() ) ? DataSourcePublishModel.ACCESS_TYPE_EVERYONE
-              : environmentSubstitute( dataSourcePublishModel.getAccessType() ).toLowerCase();
-      String userOrRole = environmentSubstitute( dataSourcePublishModel.getUserOrRole() );
-      if ( DataSourcePublishModel.ACCESS_TYPE_ROLE.equals( accessType ) ) {
-        if ( StringUtils.isBlank( userOrRole ) ) {
-          throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.MissingRoleMsg" ) );
-        }
-        datasourceAcl.addRole( userOrRole );
-      } else if ( DataSourcePublishModel.ACCESS_TYPE_USER.equals( accessType ) ) {
-        if ( StringUtils.isBlank( userOrRole ) ) {
-          throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.MissingUserMsg" ) );
-        }
-        datasourceAcl.addUser( userOrRole );
-      } else if ( !DataSourcePublishModel.ACCESS_TYPE_EVERYONE.equals( accessType ) ) {
-        throw new KettleException( "Access Type '" + accessType + "' not recognized" );
-      }
+      DataSourceAclModel datasourceAcl = getAclModel();
       modelServerPublish.setAclModel( datasourceAcl );
 
       modelName = getModelName();
@@ -162,36 +178,52 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
 
       // Publish Database Meta
       databaseMeta = discoverDatabaseMeta( getParentJob().getJobMeta() );
-      if ( databaseMeta != null ) {
+      checkDatabaseMeta( databaseMeta );
 
-        // Cannot publish JNDI data sources at this time, we don't know if BIServer has access to it
-        if ( DatabaseAccessType.values()[databaseMeta.getAccessType()] == DatabaseAccessType.JNDI ) {
-          throw new KettleException(
-              this.getMsg( "JobEntryDatasourcePublish.Error.JNDIDatasource", databaseMeta.getName() ) );
-        }
+      // check overwrite condition
+      DatabaseConnection dbConnection = findConnection( modelServerPublish, databaseMeta );
 
-        // check overwrite condition
-        DatabaseConnection dbConnection = modelServerPublish.connectionNameExists( databaseMeta.getName() );
-        if ( dbConnection != null && !dataSourcePublishModel.isOverride() ) {
-          throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.DBConnectionExists" ) );
+      dswFlag = getDswFlag( modelName );
+      boolean dsw = dswFlag != null && dswFlag.equalsIgnoreCase( "true" );
+
+      // A new metadata XMI does not need the connection on the server, so it is uploaded by its own publisher while
+      // the connection is published. An overwrite cannot be rolled back, so it waits for the connection like a DSW,
+      // which is checked against it. Mondrian goes last so a failure can be rolled back.
+      Future<?> metadataUpload = null;
+      if ( !dsw && !forceOverride ) {
+        metadataUpload = publishMetadataXmiAsync( modelName, getModelServerPublish( connection, datasourceAcl ),
+            forceOverride );
+      }
+      KettleException failure = null;
+      try {
+        publishDatabaseMeta( modelServerPublish, databaseMeta, forceOverride, dbConnection );
+        dsPublished = true;
+      } catch ( KettleException e ) {
+        failure = e;
+      }
+      if ( metadataUpload != null ) {
+        try {
+          waitFor( metadataUpload );
+          metaPublished = true;
+        } catch ( KettleException e ) {
+          failure = failure == null ? e : failure;
         }
+      }
+      if ( failure != null ) {
+        throw failure;
+      }
 
-        publishDatabaseMeta( modelServerPublish, databaseMeta, forceOverride );
-      } else {
-        throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.UnableToFindDBConnection" ) );
+      // Publish overwriting metadata XMI
+      if ( !dsw && forceOverride ) {
+        publishMetadataXmi( modelName, modelServerPublish, forceOverride );
+        metaPublished = true;
       }
-      dsPublished = true;
 
-      // Publish Metadata XMI
-      dswFlag = getParentJob().getVariable( "JobEntryBuildModel.XMI.DSW." + modelName );
-      log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.XMI.DSW."
-          + modelName, dswFlag ) );
-      if ( dswFlag != null && dswFlag.equalsIgnoreCase( "true" ) ) {
+      // Publish DSW XMI
+      if ( dsw ) {
         publishDswXmi( modelName, modelServerPublish, forceOverride );
-      } else {
-        publishMetadataXmi( modelName, modelServerPublish, forceOverride );
+        metaPublished = true;
       }
-      metaPublished = true;
 
       // Publish Mondrian Schema
       publishMondrianSchema( modelName, modelServerPublish, forceOverride );
@@ -199,21 +231,319 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
       result.setResult( true );
 
     } catch ( KettleException e ) {
+      // the server may have changed since it was validated, check it again next time
+      ConnectionValidationCache.getInstance().invalidate( validatedConnection );
       logBasic( this.getMsg( "JobEntryDatasourcePublish.Rollback" ) );
+      if ( modelServerPublish != null ) {
+        // roll back even if the job was stopped
+        modelServerPublish.setHttpDeadline( getHttpDeadline().uncancellable() );
+      }
       if ( dsPublished && databaseMeta != null ) {
         deleteDatabaseMeta( modelServerPublish, databaseMeta );
       }
       if ( metaPublished && modelName != null ) {
         deleteXMI( modelServerPublish, modelName, dswFlag );
       }
+      logError( e.getMessage(), e );
+      logServerCallFailure( e );
+      result.setResult( false );
+      result.setNrErrors( 1 );
+    } finally {
+      if ( dsPublished || metaPublished ) {
+        // data sources were added, replaced or rolled back
+        ModelServerCatalog.getInstance().invalidate( serverUrl );
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Publishes the models a Build Model batch reported as built, replacing the result rows with one row per model. The
+   * rows of the models that failed to build are carried through. A database connection is published once for all the
+   * models using it, then the models are published on the batch pool. A model is rolled back on its own, a
+   * connection only if none of its models was published.
+   */
+  private Result executeBatch( Result result, final List<BuildModelBatch.Item> items,
+      List<RowMetaAndData> failedBuilds ) {
+    result.setRows( new ArrayList<RowMetaAndData>() );
+    result.getRows().addAll( failedBuilds );
+    if ( items.isEmpty() ) {
+      logError( getMsg( "JobEntryDatasourcePublish.Error.EmptyBatch" ) );
+      result.setResult( false );
+      result.setNrErrors( 1 );
+      return result;
+    }
+
+    final BiServerConnection connection;
+    final DataSourceAclModel datasourceAcl;
+    try {
+      connection = connectBiServer();
+      datasourceAcl = getAclModel();
+    } catch ( KettleException e ) {
       logError( e.getMessage(), e );
       result.setResult( false );
       result.setNrErrors( 1 );
+      return result;
+    }
+    final boolean forceOverride = dataSourcePublishModel.isOverride();
+    log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.Batch", String.valueOf( items.size() ) ) );
+
+    String[] errors = new String[ items.size() ];
+    DatabaseMeta[] databaseMetas = new DatabaseMeta[ items.size() ];
+    Map<String, DatabaseMeta> databases = new LinkedHashMap<>();
+    for ( int i = 0; i < items.size(); i++ ) {
+      BuildModelBatch.Item item = items.get( i );
+      try {
+        databaseMetas[ i ] = discoverDatabaseMeta( getParentJob().getJobMeta(), item.getOutputStep(),
+            item.getModelName() );
+        checkDatabaseMeta( databaseMetas[ i ] );
+        databases.put( databaseMetas[ i ].getName(), databaseMetas[ i ] );
+      } catch ( KettleException e ) {
+        errors[ i ] = getBatchError( item, e );
+      }
     }
 
+    // each connection once
+    Map<String, Future<String>> connectionPublishes = new LinkedHashMap<>();
+    for ( final DatabaseMeta databaseMeta : databases.values() ) {
+      connectionPublishes.put( databaseMeta.getName(), BuildModelBatch.getExecutor().submit( new Callable<String>() {
+        @Override
+        public String call() {
+          try {
+            ModelServerPublish modelServerPublish = getModelServerPublish( connection, datasourceAcl );
+            publishDatabaseMeta( modelServerPublish, databaseMeta, forceOverride,
+                findConnection( modelServerPublish, databaseMeta ) );
+            return null;
+          } catch ( KettleException e ) {
+            logError( e.getMessage(), e );
+            return Const.NVL( e.getMessage(), e.toString() );
+          }
+        }
+      } ) );
+    }
+    Map<String, String> connectionErrors = new HashMap<>();
+    for ( Map.Entry<String, Future<String>> connectionPublish : connectionPublishes.entrySet() ) {
+      String error = getBatchResult( connectionPublish.getValue() );
+      if ( error != null ) {
+        connectionErrors.put( connectionPublish.getKey(), error );
+      }
+    }
+
+    // then the models using them
+    List<Future<String>> modelPublishes = new ArrayList<>();
+    for ( int i = 0; i < items.size(); i++ ) {
+      final BuildModelBatch.Item item = items.get( i );
+      if ( errors[ i ] == null && connectionErrors.containsKey( databaseMetas[ i ].getName() ) ) {
+        errors[ i ] = getBatchError( item, connectionErrors.get( databaseMetas[ i ].getName() ) );
+      }
+      if ( errors[ i ] != null ) {
+        modelPublishes.add( null );
+        continue;
+      }
+      modelPublishes.add( BuildModelBatch.getExecutor().submit( new Callable<String>() {
+        @Override
+        public String call() {
+          try {
+            publishModelArtifacts( item.getModelName(), getModelServerPublish( connection, datasourceAcl ),
+                forceOverride );
+            return null;
+          } catch ( KettleException e ) {
+            return getBatchError( item, e );
+          }
+        }
+      } ) );
+    }
+
+    Set<String> usedConnections = new HashSet<>();
+    int nrErrors = 0;
+    for ( int i = 0; i < items.size(); i++ ) {
+      if ( modelPublishes.get( i ) != null ) {
+        errors[ i ] = getBatchResult( modelPublishes.get( i ) );
+      }
+      if ( errors[ i ] == null ) {
+        usedConnections.add( databaseMetas[ i ].getName() );
+      } else {
+        nrErrors++;
+      }
+      BuildModelBatch.addResult( result, items.get( i ), errors[ i ] == null, errors[ i ] );
+    }
+
+    for ( DatabaseMeta databaseMeta : databases.values() ) {
+      if ( !usedConnections.contains( databaseMeta.getName() )
+          && !connectionErrors.containsKey( databaseMeta.getName() ) ) {
+        try {
+          logBasic( this.getMsg( "JobEntryDatasourcePublish.Rollback" ) );
+          // roll back even if the job was stopped
+          ModelServerPublish modelServerPublish = getModelServerPublish( connection, datasourceAcl );
+          modelServerPublish.setHttpDeadline( getHttpDeadline().uncancellable() );
+          deleteDatabaseMeta( modelServerPublish, databaseMeta );
+        } catch ( KettleException e ) {
+          logError( e.getMessage(), e );
+        }
+      }
+    }
+    if ( nrErrors > 0 ) {
+      // the server may have changed since it was validated, check it again next time
+      ConnectionValidationCache.getInstance().invalidate( connection );
+    }
+    if ( !databases.isEmpty() ) {
+      ModelServerCatalog.getInstance().invalidate( connection.getUrl() );
+    }
+
+    result.setResult( nrErrors == 0 );
+    result.setNrErrors( nrErrors );
     return result;
   }
 
+  /**
+   * Publishes the metadata or DSW of a model, then its Mondrian schema, once its connection is on the server.
+   */
+  private void publishModelArtifacts( String modelName, ModelServerPublish modelServerPublish,
+      boolean forceOverride ) throws KettleException {
+    log.logBasic( this.getMsg( "JobEntryDatasourcePublish.Publish.Model", modelName ) );
+    String dswFlag = getDswFlag( modelName );
+    boolean metaPublished = false;
+    try {
+      if ( dswFlag != null && dswFlag.equalsIgnoreCase( "true" ) ) {
+        publishDswXmi( modelName, modelServerPublish, forceOverride );
+      } else {
+        publishMetadataXmi( modelName, modelServerPublish, forceOverride );
+      }
+      metaPublished = true;
+      publishMondrianSchema( modelName, modelServerPublish, forceOverride );
+    } catch ( KettleException e ) {
+      logBasic( this.getMsg( "JobEntryDatasourcePublish.Rollback" ) );
+      if ( metaPublished ) {
+        // roll back even if the job was stopped
+        modelServerPublish.setHttpDeadline( getHttpDeadline().uncancellable() );
+        deleteXMI( modelServerPublish, modelName, dswFlag );
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * A publisher of its own, a ModelServerPublish keeps the state of its last call and is not shared across threads.
+   */
+  private ModelServerPublish getModelServerPublish( BiServerConnection connection,
+      DataSourceAclModel datasourceAcl ) {
+    ModelServerPublish modelServerPublish = getModelServerPublish();
+    modelServerPublish.setBiServerConnection( connection );
+    modelServerPublish.setAclModel( datasourceAcl );
+    modelServerPublish.setHttpDeadline( getHttpDeadline() );
+    return modelServerPublish;
+  }
+
+  private String getBatchError( BuildModelBatch.Item item, KettleException e ) {
+    logError( e.getMessage(), e );
+    return getBatchError( item, Const.NVL( e.getMessage(), e.toString() ).trim() );
+  }
+
+  private String getBatchError( BuildModelBatch.Item item, String message ) {
+    return getMsg( "JobEntryDatasourcePublish.Error.BatchModel", item.getModelName(), message );
+  }
+
+  /**
+   * @return the error a batch task reported, null if it succeeded
+   */
+  private String getBatchResult( Future<String> future ) {
+    try {
+      return future.get();
+    } catch ( InterruptedException e ) {
+      future.cancel( true );
+      Thread.currentThread().interrupt();
+      return e.toString();
+    } catch ( ExecutionException e ) {
+      return e.getCause().toString();
+    }
+  }
+
+  /**
+   * Resolves parameterized server values and validates the server.
+   *
+   * @return a copy of the validated server connection
+   */
+  private BiServerConnection connectBiServer() throws KettleException {
+    BiServerConnection biServerModel = dataSourcePublishModel.getBiServerConnection();
+
+    // Resolve parametized values before execution
+    biServerModel.setName( environmentSubstitute( biServerModel.getName() ) );
+    biServerModel.setUserId( environmentSubstitute( biServerModel.getUserId() ) );
+    biServerModel.setPassword( environmentSubstitute( biServerModel.getPassword() ) );
+    String url = environmentSubstitute( biServerModel.getUrl() );
+    if ( url != null && url.endsWith( "//" ) ) {
+      url = url.substring( 0, url.length() - 1 );
+    }
+    biServerModel.setUrl( url );
+    // Fail early if invalid Pentaho BA Server or Unauthenticated user.
+    // Prevent Spoon from displaying user/password prompt.
+    ConnectionValidator validator = getConnectionValidator( biServerModel );
+    validator.setHttpDeadline( getHttpDeadline() );
+    validator.validateConnectionInRuntime();
+
+    BiServerConnection connection = new BiServerConnection();
+    connection.setName( biServerModel.getName() );
+    connection.setUrl( biServerModel.getUrl() );
+    connection.setPassword( biServerModel.getPassword() );
+    connection.setUserId( biServerModel.getUserId() );
+    log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.BAServer", biServerModel.getUrl() ) );
+    return connection;
+  }
+
+  private DataSourceAclModel getAclModel() throws KettleException {
+    DataSourceAclModel datasourceAcl = new DataSourceAclModel();
+    String accessType =
+        Const.isEmpty( dataSourcePublishModel.getAccessType() ) ? DataSourcePublishModel.ACCESS_TYPE_EVERYONE
+            : environmentSubstitute( dataSourcePublishModel.getAccessType() ).toLowerCase();
+    String userOrRole = environmentSubstitute( dataSourcePublishModel.getUserOrRole() );
+    if ( DataSourcePublishModel.ACCESS_TYPE_ROLE.equals( accessType ) ) {
+      if ( StringUtils.isBlank( userOrRole ) ) {
+        throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.MissingRoleMsg" ) );
+      }
+      datasourceAcl.addRole( userOrRole );
+    } else if ( DataSourcePublishModel.ACCESS_TYPE_USER.equals( accessType ) ) {
+      if ( StringUtils.isBlank( userOrRole ) ) {
+        throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.MissingUserMsg" ) );
+      }
+      datasourceAcl.addUser( userOrRole );
+    } else if ( !DataSourcePublishModel.ACCESS_TYPE_EVERYONE.equals( accessType ) ) {
+      throw new KettleException( "Access Type '" + accessType + "' not recognized" );
+    }
+    return datasourceAcl;
+  }
+
+  private void checkDatabaseMeta( DatabaseMeta databaseMeta ) throws KettleException {
+    if ( databaseMeta == null ) {
+      throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.UnableToFindDBConnection" ) );
+    }
+
+    // Cannot publish JNDI data sources at this time, we don't know if BIServer has access to it
+    if ( DatabaseAccessType.values()[databaseMeta.getAccessType()] == DatabaseAccessType.JNDI ) {
+      throw new KettleException(
+          this.getMsg( "JobEntryDatasourcePublish.Error.JNDIDatasource", databaseMeta.getName() ) );
+    }
+  }
+
+  /**
+   * @return the connection of the same name on the server, if it may be overwritten
+   */
+  private DatabaseConnection findConnection( ModelServerPublish modelServerPublish, DatabaseMeta databaseMeta )
+      throws KettleException {
+    DatabaseConnection dbConnection = modelServerPublish.connectionNameExists( databaseMeta.getName() );
+    if ( dbConnection != null && !dataSourcePublishModel.isOverride() ) {
+      throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Error.DBConnectionExists" ) );
+    }
+    return dbConnection;
+  }
+
+  private String getDswFlag( String modelName ) {
+    String dswFlag = getParentJob().getVariable( "JobEntryBuildModel.XMI.DSW." + modelName );
+    log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.XMI.DSW."
+        + modelName, dswFlag ) );
+    return dswFlag;
+  }
+
   protected String checkDswId( String modelName ) {
     if ( !modelName.endsWith( METADATA_EXTENSION ) ) {
       if ( StringUtils.endsWithIgnoreCase( modelName, METADATA_EXTENSION ) ) {
@@ -336,6 +666,26 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
     return new ModelServerPublish();
   }
 
+  /**
+   * @return the limits of the calls to the BA server in this run, aborting them when the job is stopped
+   */
+  protected HttpDeadline getHttpDeadline() {
+    if ( httpDeadline == null ) {
+      httpDeadline = HttpDeadline.forJob( getParentJob(), this );
+    }
+    return httpDeadline;
+  }
+
+  /**
+   * Logs which call to the BA server was aborted, when the error does not tell.
+   */
+  private void logServerCallFailure( Exception e ) {
+    String failure = getHttpDeadline().getFailure();
+    if ( failure != null && !String.valueOf( e.getMessage() ).contains( failure ) ) {
+      logError( getMsg( "JobEntryDatasourcePublish.Error.ServerCall", failure ) );
+    }
+  }
+
   // Allows dependency injection/mocks
   protected PublishRestUtil getPublishRestUtil() {
     return new PublishRestUtil();
@@ -354,10 +704,21 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
     if ( isKettleThinLocal( databaseMeta ) ) {
       throw new KettleException( getMsg( "JobEntryDatasourcePublish.Publish.LocalPentahoDataService" ) );
     }
-    modelServerPublish.setDatabaseMeta( databaseMeta ); // provide database info
-
     // TODO Simple Check - Need to make this smarter and inspect the database connection
     DatabaseConnection connection = modelServerPublish.connectionNameExists( databaseMeta.getName() );
+    publishDatabaseMeta( modelServerPublish, databaseMeta, forceOverride, connection );
+  }
+
+  /**
+   * Publishes the connection, given what {@link ModelServerPublish#connectionNameExists(String)} found on the server.
+   */
+  protected void publishDatabaseMeta( final ModelServerPublish modelServerPublish, final DatabaseMeta databaseMeta,
+      final boolean forceOverride, final DatabaseConnection connection ) throws KettleException {
+
+    if ( isKettleThinLocal( databaseMeta ) ) {
+      throw new KettleException( getMsg( "JobEntryDatasourcePublish.Publish.LocalPentahoDataService" ) );
+    }
+    modelServerPublish.setDatabaseMeta( databaseMeta ); // provide database info
 
     try {
       boolean success;
@@ -457,7 +818,7 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
     // Publish Mondrian Schema
     InputStream mondrianInputStream = null;
     try {
-      mondrianInputStream = new ByteArrayInputStream( mondrianSchema.getBytes( ENCODING ) );
+      mondrianInputStream = ModelArtifactStore.openStream( mondrianSchema, ENCODING );
       modelServerPublish.setForceOverwrite( forceOverride );
       int status =
           modelServerPublish.publishMondrianSchema( mondrianInputStream, modelName, mondrianDatasource, forceOverride );
@@ -485,7 +846,7 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
     // Publish XMI
     InputStream xmiInputStream = null;
     try {
-      xmiInputStream = new ByteArrayInputStream( xmiString.getBytes( ENCODING ) );
+      xmiInputStream = ModelArtifactStore.openStream( xmiString, ENCODING );
       modelServerPublish.setForceOverwrite( forceOverride );
       int status = modelServerPublish.publishMetaDataFile( xmiInputStream, modelName );
       if ( status != ModelServerPublish.PUBLISH_SUCCESS ) {
@@ -499,6 +860,36 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
     logBasic( this.getMsg( "JobEntryDatasourcePublish.Publish.Metadata.Success", modelName ) );
   }
 
+  /**
+   * Starts publishing the metadata XMI on the shared publish executor. The publisher must not be used by another
+   * thread until the upload is done.
+   */
+  protected Future<?> publishMetadataXmiAsync( final String modelName, final ModelServerPublish modelServerPublish,
+      final boolean forceOverride ) {
+    return executor.submit( new Callable<Void>() {
+      @Override
+      public Void call() throws KettleException {
+        publishMetadataXmi( modelName, modelServerPublish, forceOverride );
+        return null;
+      }
+    } );
+  }
+
+  private void waitFor( Future<?> future ) throws KettleException {
+    try {
+      future.get();
+    } catch ( InterruptedException e ) {
+      future.cancel( true );
+      Thread.currentThread().interrupt();
+      throw new KettleException( e );
+    } catch ( ExecutionException e ) {
+      if ( e.getCause() instanceof KettleException ) {
+        throw (KettleException) e.getCause();
+      }
+      throw new KettleException( e.getCause() );
+    }
+  }
+
   protected void publishDswXmi( final String modelName, final ModelServerPublish modelServerPublish,
       final boolean forceOverride ) throws KettleException {
 
@@ -512,7 +903,7 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
     // Publish XMI
     InputStream xmiInputStream = null;
     try {
-      xmiInputStream = IOUtils.toInputStream( xmiString, ENCODING );
+      xmiInputStream = ModelArtifactStore.openStream( xmiString, ENCODING );
       modelServerPublish.setForceOverwrite( forceOverride );
       int status = modelServerPublish.publishDsw( xmiInputStream, checkDswId( modelName ) );
       if ( status != ModelServerPublish.PUBLISH_SUCCESS ) {
@@ -556,7 +947,22 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
     // When the build model job entry is used during execution time, it will be cloned
     // and initalized with runtime properties.  We need to do the same when using
     // it to get the runtime DatabaseMeta
-    JobEntryBuildModel cloneJei = (JobEntryBuildModel) jobEntryBuildModel.clone();
+    return getDatabaseMeta( (JobEntryBuildModel) jobEntryBuildModel.clone() );
+  }
+
+  /**
+   * @return the database of one model built by the preceding build model batch
+   */
+  public DatabaseMeta discoverDatabaseMeta( final JobMeta jobMeta, final String outputStep, final String modelName )
+    throws KettleException {
+    JobEntryBuildModel jobEntryBuildModel = findPrecedingBuildModelJobEntry( jobMeta, this );
+    if ( jobEntryBuildModel == null ) {
+      return null;
+    }
+    return getDatabaseMeta( jobEntryBuildModel.createBatchEntry( outputStep, modelName ) );
+  }
+
+  private DatabaseMeta getDatabaseMeta( JobEntryBuildModel cloneJei ) throws KettleException {
     ( (VariableSpace) cloneJei ).copyVariablesFrom( this );
     cloneJei.setRepository( rep );
     if ( rep != null ) {
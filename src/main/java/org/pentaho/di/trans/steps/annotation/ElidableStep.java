@@ -0,0 +1,99 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.trans.steps.annotation;
+
+import org.pentaho.di.core.RowSet;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.TransMeta.TransformationType;
+import org.pentaho.di.trans.step.BaseStep;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.errorhandling.StreamInterface;
+
+import java.util.List;
+
+/**
+ * A step whose rows pass through unchanged, and that can therefore leave the row pipeline before the step threads
+ * start.
+ */
+public abstract class ElidableStep extends BaseStep implements StepInterface {
+
+  public ElidableStep( StepMeta stepMeta,
+      StepDataInterface stepDataInterface, int copyNr,
+      TransMeta transMeta, Trans trans ) {
+    super( stepMeta, stepDataInterface, copyNr, transMeta, trans );
+  }
+
+  /**
+   * Takes this step out of the row pipeline by handing the rowset of the previous step directly to the next step.
+   * Only done for a plain one-in, one-out hop; anything that looks up rowsets by step name is left alone. Must be
+   * called from {@link #initBeforeStart()}, which runs one step after the other before any step thread starts.
+   *
+   * @return true if the step no longer sits between its neighbours
+   */
+  protected boolean elideFromRowPipeline() {
+    if ( getTrans().isPreview() || getStepMeta().isPartitioned() || getStepMeta().isDoingErrorHandling()
+        || getTransMeta().getTransformationType() != TransformationType.Normal ) {
+      return false;
+    }
+    List<RowSet> inputRowSets = getInputRowSets();
+    List<RowSet> outputRowSets = getOutputRowSets();
+    if ( inputRowSets.size() != 1 || outputRowSets.size() != 1 ) {
+      return false;
+    }
+    RowSet input = inputRowSets.get( 0 );
+    RowSet output = outputRowSets.get( 0 );
+    StepMeta previousMeta = getTransMeta().findStep( input.getOriginStepName() );
+    StepMeta nextMeta = getTransMeta().findStep( output.getDestinationStepName() );
+    StepInterface next = getTrans().findStepInterface( output.getDestinationStepName(),
+        output.getDestinationStepCopy() );
+    if ( previousMeta == null || nextMeta == null || next == null
+        || previousMeta.isDoingErrorHandling()
+        || !previousMeta.getStepMetaInterface().getStepIOMeta().getTargetStreams().isEmpty()
+        || isInfoSource( nextMeta ) ) {
+      return false;
+    }
+    List<RowSet> nextInputRowSets = next.getInputRowSets();
+    int index = nextInputRowSets.indexOf( output );
+    if ( index < 0 ) {
+      return false;
+    }
+    input.setThreadNameFromToCopy( input.getOriginStepName(), input.getOriginStepCopy(),
+        output.getDestinationStepName(), output.getDestinationStepCopy() );
+    nextInputRowSets.set( index, input );
+    inputRowSets.clear();
+    outputRowSets.clear();
+    return true;
+  }
+
+  private boolean isInfoSource( final StepMeta nextMeta ) {
+    for ( StreamInterface stream : nextMeta.getStepMetaInterface().getStepIOMeta().getInfoStreams() ) {
+      if ( getStepname().equals( stream.getStepname() ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -23,6 +23,7 @@
 package org.pentaho.di.trans.steps.annotation;
 
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.di.core.refinery.profile.DataProfiler;
 import org.pentaho.di.trans.step.BaseStepData;
 import org.pentaho.di.trans.step.StepDataInterface;
 
@@ -31,4 +32,6 @@ import org.pentaho.di.trans.step.StepDataInterface;
  */
 public class ModelAnnotationData extends BaseStepData implements StepDataInterface {
   public ModelAnnotationGroup annotations;
+  public boolean elided;
+  public DataProfiler profiler;
 }
@@ -32,11 +32,12 @@ import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroupXmlWri
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationManager;
 import org.pentaho.agilebi.modeler.models.annotations.data.ColumnMapping;
 import org.pentaho.agilebi.modeler.models.annotations.data.DataProvider;
-import org.pentaho.agilebi.modeler.models.annotations.util.KeyValueClosure;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.annotations.Step;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleXMLException;
+import org.pentaho.di.core.refinery.CachingMetaStore;
 import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.repository.ObjectId;
@@ -48,12 +49,15 @@ import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaChangeListenerInterface;
+import org.pentaho.di.trans.step.StepMetaInjectionInterface;
 import org.pentaho.di.trans.step.StepMetaInterface;
 import org.pentaho.metadata.model.concept.types.DataType;
 import org.pentaho.metastore.api.IMetaStore;
 import org.w3c.dom.Node;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -72,6 +76,13 @@ public class ModelAnnotationMeta extends BaseStepMeta implements StepMetaInterfa
 
   private static Class<?> PKG = ModelAnnotationMeta.class; // for i18n purposes, needed by Translator2!!
 
+  /**
+   * Version of the single-attribute repository format; steps without it use one attribute per property.
+   */
+  static final long REP_FORMAT_VERSION = 1;
+
+  private static final String REP_GROUP_TAG = "annotation-group";
+
   private boolean sharedDimension; // need to know this before loading from the MetaStore
 
   private ModelAnnotationGroup modelAnnotations;
@@ -80,6 +91,10 @@ public class ModelAnnotationMeta extends BaseStepMeta implements StepMetaInterfa
 
   private String targetOutputStep;
 
+  private boolean metadataOnly;
+
+  private boolean profiling;
+
   public ModelAnnotationGroup getModelAnnotations() {
     return modelAnnotations;
   }
@@ -104,6 +119,31 @@ public class ModelAnnotationMeta extends BaseStepMeta implements StepMetaInterfa
     this.targetOutputStep = targetOutputStep;
   }
 
+  /**
+   * When set, annotations are processed once at initialization and the step takes itself out of the row pipeline
+   * whenever it sits on a plain hop, so rows go straight from the previous step to the next one. Row listeners on
+   * this step will not see any rows in that case.
+   */
+  public boolean isMetadataOnly() {
+    return metadataOnly;
+  }
+
+  public void setMetadataOnly( boolean metadataOnly ) {
+    this.metadataOnly = metadataOnly;
+  }
+
+  /**
+   * When set, the step collects per-field statistics from the rows passing through. Profiling needs the rows, so it
+   * keeps the step in the row pipeline even in metadata only mode.
+   */
+  public boolean isProfiling() {
+    return profiling;
+  }
+
+  public void setProfiling( boolean profiling ) {
+    this.profiling = profiling;
+  }
+
   public void setSharedDimension( boolean sharedDimension ) {
     this.sharedDimension = sharedDimension;
   }
@@ -124,6 +164,11 @@ public class ModelAnnotationMeta extends BaseStepMeta implements StepMetaInterfa
     return new ModelAnnotationStep( stepMeta, stepDataInterface, copyNr, transMeta, trans );
   }
 
+  @Override
+  public StepMetaInjectionInterface getStepMetaInjectionInterface() {
+    return new ModelAnnotationMetaInjection( this );
+  }
+
   @Override
   public StepDataInterface getStepData() {
 
@@ -141,6 +186,12 @@ public class ModelAnnotationMeta extends BaseStepMeta implements StepMetaInterfa
 
     xml.append( "    " ).append( XMLHandler.addTagValue( "category", getModelAnnotationCategory() ) );
     xml.append( "    " ).append( XMLHandler.addTagValue( "targetOutputStep", getTargetOutputStep() ) );
+    if ( isMetadataOnly() ) {
+      xml.append( "    " ).append( XMLHandler.addTagValue( "metadataOnly", true ) );
+    }
+    if ( isProfiling() ) {
+      xml.append( "    " ).append( XMLHandler.addTagValue( "profiling", true ) );
+    }
 
     // Use common writer
     ModelAnnotationGroupXmlWriter xmlWriter = new ModelAnnotationGroupXmlWriter( getModelAnnotations() );
@@ -174,6 +225,8 @@ public class ModelAnnotationMeta extends BaseStepMeta implements StepMetaInterfa
 
     setModelAnnotationCategory( XMLHandler.getTagValue( step, "category" ) );
     setTargetOutputStep( XMLHandler.getTagValue( step, "targetOutputStep" ) );
+    setMetadataOnly( "Y".equalsIgnoreCase( XMLHandler.getTagValue( step, "metadataOnly" ) ) );
+    setProfiling( "Y".equalsIgnoreCase( XMLHandler.getTagValue( step, "profiling" ) ) );
     ModelAnnotationGroupXmlReader mar = new ModelAnnotationGroupXmlReader();
     ModelAnnotationGroup modelAnnotationGroup = mar.readModelAnnotationGroup( step );
     sharedDimension = modelAnnotationGroup.isSharedDimension();
@@ -190,91 +243,24 @@ public class ModelAnnotationMeta extends BaseStepMeta implements StepMetaInterfa
 
       rep.saveStepAttribute( id_transformation, id_step, "CATEGORY_NAME", getModelAnnotationCategory() );
       rep.saveStepAttribute( id_transformation, id_step, "TARGET_OUTPUT_STEP", getTargetOutputStep() );
+      if ( isMetadataOnly() ) {
+        rep.saveStepAttribute( id_transformation, id_step, "METADATA_ONLY", true );
+      }
+      if ( isProfiling() ) {
+        rep.saveStepAttribute( id_transformation, id_step, "PROFILING", true );
+      }
 
       // Save model annotations
       if ( getModelAnnotations() != null ) {
-
-        for ( int i = 0; i < getModelAnnotations().size(); i++ ) {
-
-          final ModelAnnotation<?> modelAnnotation =
-              getModelAnnotations().get( i );
-
+        for ( ModelAnnotation<?> modelAnnotation : getModelAnnotations() ) {
           // Add default name
           if ( StringUtils.isBlank( modelAnnotation.getName() ) ) {
             modelAnnotation.setName( UUID.randomUUID().toString() ); // backwards compatibility
           }
-
-          rep.saveStepAttribute( id_transformation, id_step, i, "ANNOTATION_NAME",
-              modelAnnotation.getName() );
-          rep.saveStepAttribute( id_transformation, id_step, i, "ANNOTATION_FIELD_NAME",
-              modelAnnotation.getAnnotation().getField() );
-
-          if ( modelAnnotation.getType() != null ) {
-            rep.saveStepAttribute( id_transformation, id_step, i, "ANNOTATION_TYPE",
-                modelAnnotation.getType().toString() );
-
-            final int INDEX = i; // trap index so we can use in inner class
-            modelAnnotation.iterateProperties( new KeyValueClosure() {
-              @Override
-              public void execute( String key, Serializable serializable ) {
-                try {
-                  if ( serializable != null && StringUtils.isNotBlank( serializable.toString() ) ) {
-                    rep.saveStepAttribute( id_transformation, id_step, INDEX, "PROPERTY_VALUE_" + key,
-                        serializable.toString() );
-                  }
-                } catch ( KettleException e ) {
-                  logError( e.getMessage() );
-                }
-              }
-            } );
-          }
-        }
-
-        rep.saveStepAttribute( id_transformation, id_step, "SHARED_DIMENSION",
-            getModelAnnotations().isSharedDimension() );
-        rep.saveStepAttribute( id_transformation, id_step, "DESCRIPTION",
-            getModelAnnotations().getDescription() );
-
-        List<DataProvider> dataProviders = getModelAnnotations().getDataProviders();
-        if ( dataProviders != null && !dataProviders.isEmpty() ) {
-          for ( int dIdx = 0; dIdx < dataProviders.size(); dIdx++ ) {
-
-            DataProvider dataProvider = dataProviders.get( dIdx );
-
-            // Save Data Provider properties
-            rep.saveStepAttribute( id_transformation, id_step, dIdx, "DP_NAME",
-                dataProvider.getName() );
-            rep.saveStepAttribute( id_transformation, id_step, dIdx, "DP_SCHEMA_NAME",
-                dataProvider.getSchemaName() );
-            rep.saveStepAttribute( id_transformation, id_step, dIdx, "DP_TABLE_NAME",
-                dataProvider.getTableName() );
-            rep.saveStepAttribute( id_transformation, id_step, dIdx, "DP_DATABASE_META_NAME_REF",
-                dataProvider.getDatabaseMetaNameRef() );
-
-            List<ColumnMapping> columnMappings = dataProvider.getColumnMappings();
-            if ( columnMappings != null && !columnMappings.isEmpty() ) {
-
-              // Save count for loading
-              rep.saveStepAttribute( id_transformation, id_step, "CM_COUNT_" + dIdx, columnMappings.size() );
-
-              for ( int cIdx = 0; cIdx < columnMappings.size(); cIdx++ ) {
-
-                ColumnMapping columnMapping = columnMappings.get( cIdx );
-
-                // Save ColumnMapping properties
-                rep.saveStepAttribute( id_transformation, id_step, dIdx, "CM_NAME_" + cIdx,
-                    columnMapping.getName() );
-                rep.saveStepAttribute( id_transformation, id_step, dIdx, "CM_COLUMN_NAME_" + cIdx,
-                    columnMapping.getColumnName() );
-
-                if ( columnMapping.getColumnDataType() != null ) {
-                  rep.saveStepAttribute( id_transformation, id_step, dIdx, "CM_DATA_TYPE_" + cIdx,
-                      columnMapping.getColumnDataType().name() );
-                }
-              }
-            }
-          }
         }
+        rep.saveStepAttribute( id_transformation, id_step, "ANNOTATION_GROUP_VERSION", REP_FORMAT_VERSION );
+        rep.saveStepAttribute( id_transformation, id_step, "ANNOTATION_GROUP",
+            encodeModelAnnotationGroup( getModelAnnotations() ) );
       }
 
     } catch ( Exception e ) {
@@ -288,95 +274,134 @@ public class ModelAnnotationMeta extends BaseStepMeta implements StepMetaInterfa
   public void readRep( Repository rep, IMetaStore metaStore, ObjectId id_step, List<DatabaseMeta> databases )
     throws KettleException {
 
-    ModelAnnotationGroup modelAnnotationGroup = new ModelAnnotationGroup();
+    ModelAnnotationGroup modelAnnotationGroup;
     try {
 
       setModelAnnotationCategory( rep.getStepAttributeString( id_step, "CATEGORY_NAME" ) );
       setTargetOutputStep( rep.getStepAttributeString( id_step, "TARGET_OUTPUT_STEP" ) );
+      setMetadataOnly( rep.getStepAttributeBoolean( id_step, "METADATA_ONLY" ) );
+      setProfiling( rep.getStepAttributeBoolean( id_step, "PROFILING" ) );
+
+      String encodedGroup = rep.getStepAttributeString( id_step, "ANNOTATION_GROUP" );
+      if ( StringUtils.isNotBlank( encodedGroup ) ) {
+        long version = rep.getStepAttributeInteger( id_step, "ANNOTATION_GROUP_VERSION" );
+        if ( version > REP_FORMAT_VERSION ) {
+          throw new KettleException( BaseMessages.getString(
+              PKG, "ModelAnnotationMeta.Exception.UnsupportedRepositoryFormat", version ) );
+        }
+        modelAnnotationGroup = decodeModelAnnotationGroup( encodedGroup );
+      } else {
+        modelAnnotationGroup = readLegacyRep( rep, id_step );
+      }
+      sharedDimension = modelAnnotationGroup.isSharedDimension();
 
-      int nrAnnotations = rep.countNrStepAttributes( id_step, "ANNOTATION_FIELD_NAME" );
+    } catch ( Exception e ) {
+      throw new KettleException( BaseMessages.getString(
+          PKG, "ModelAnnotationMeta.Exception.UnexpectedErrorReadingStepInfoFromRepository" ), e );
+    }
 
-      // Read annotations
-      for ( int i = 0; i < nrAnnotations; i++ ) {
-        String annotationName = rep.getStepAttributeString( id_step, i, "ANNOTATION_NAME" );
-        String annotationFieldName = rep.getStepAttributeString( id_step, i, "ANNOTATION_FIELD_NAME" );
-        String annotationType = rep.getStepAttributeString( id_step, i, "ANNOTATION_TYPE" );
+    setModelAnnotations( modelAnnotationGroup );
 
-        // Create model annotation
-        ModelAnnotation<?> modelAnnotation = ModelAnnotationGroupXmlReader.create( annotationType, annotationFieldName );
-        if ( StringUtils.isNotBlank( annotationName ) ) {
-          modelAnnotation.setName( annotationName );
-        }
+    // This may override the loaded model annotation group
+    if ( StringUtils.isNotBlank( getModelAnnotationCategory() ) ) {
+      readDataFromMetaStore( metaStore );
+    }
+  }
 
-        if ( StringUtils.isNotBlank( annotationType ) ) {
-          // Populate annotation properties
-          Map<String, Serializable> map = new HashMap<String, Serializable>();
-          for ( String key : modelAnnotation.getAnnotation().getModelPropertyIds() ) {
-            try {
-              String value = rep.getStepAttributeString( id_step, i, "PROPERTY_VALUE_" + key );
-              if ( StringUtils.isNotBlank( value ) ) {
-                map.put( key, value );
-              }
-            } catch ( KettleException ke ) {
-              // Ignore - not found
+  /**
+   * Reads the one-attribute-per-property layout written before the annotation group was stored as a single blob.
+   */
+  private ModelAnnotationGroup readLegacyRep( Repository rep, ObjectId id_step ) throws Exception {
+    ModelAnnotationGroup modelAnnotationGroup = new ModelAnnotationGroup();
+    int nrAnnotations = rep.countNrStepAttributes( id_step, "ANNOTATION_FIELD_NAME" );
+
+    // Read annotations
+    for ( int i = 0; i < nrAnnotations; i++ ) {
+      String annotationName = rep.getStepAttributeString( id_step, i, "ANNOTATION_NAME" );
+      String annotationFieldName = rep.getStepAttributeString( id_step, i, "ANNOTATION_FIELD_NAME" );
+      String annotationType = rep.getStepAttributeString( id_step, i, "ANNOTATION_TYPE" );
+
+      // Create model annotation
+      ModelAnnotation<?> modelAnnotation = ModelAnnotationGroupXmlReader.create( annotationType, annotationFieldName );
+      if ( StringUtils.isNotBlank( annotationName ) ) {
+        modelAnnotation.setName( annotationName );
+      }
+
+      if ( StringUtils.isNotBlank( annotationType ) ) {
+        // Populate annotation properties
+        Map<String, Serializable> map = new HashMap<String, Serializable>();
+        for ( String key : modelAnnotation.getAnnotation().getModelPropertyIds() ) {
+          try {
+            String value = rep.getStepAttributeString( id_step, i, "PROPERTY_VALUE_" + key );
+            if ( StringUtils.isNotBlank( value ) ) {
+              map.put( key, value );
             }
+          } catch ( KettleException ke ) {
+            // Ignore - not found
           }
-          modelAnnotation.populateAnnotation( map );
         }
-
-        // Add to group
-        modelAnnotationGroup.add( modelAnnotation );
+        modelAnnotation.populateAnnotation( map );
       }
 
-      modelAnnotationGroup
-          .setSharedDimension( BooleanUtils.toBoolean( rep.getStepAttributeString( id_step, "SHARED_DIMENSION" ) ) );
-      sharedDimension = modelAnnotationGroup.isSharedDimension();
-      modelAnnotationGroup.setDescription( rep.getStepAttributeString( id_step, "DESCRIPTION" ) );
+      // Add to group
+      modelAnnotationGroup.add( modelAnnotation );
+    }
 
-      List<DataProvider> dataProviders = new ArrayList<DataProvider>();
-      int nrDataProviders = rep.countNrStepAttributes( id_step, "DP_NAME" );
-      for ( int i = 0; i < nrDataProviders; i++ ) {
+    modelAnnotationGroup
+        .setSharedDimension( BooleanUtils.toBoolean( rep.getStepAttributeString( id_step, "SHARED_DIMENSION" ) ) );
+    modelAnnotationGroup.setDescription( rep.getStepAttributeString( id_step, "DESCRIPTION" ) );
 
-        DataProvider dataProvider = new DataProvider();
+    List<DataProvider> dataProviders = new ArrayList<DataProvider>();
+    int nrDataProviders = rep.countNrStepAttributes( id_step, "DP_NAME" );
+    for ( int i = 0; i < nrDataProviders; i++ ) {
 
-        dataProvider.setName( rep.getStepAttributeString( id_step, i, "DP_NAME" ) );
-        dataProvider.setSchemaName( rep.getStepAttributeString( id_step, i, "DP_SCHEMA_NAME" ) );
-        dataProvider.setTableName( rep.getStepAttributeString( id_step, i, "DP_TABLE_NAME" ) );
-        dataProvider.setDatabaseMetaNameRef( rep.getStepAttributeString( id_step, i, "DP_DATABASE_META_NAME_REF" ) );
+      DataProvider dataProvider = new DataProvider();
 
-        List<ColumnMapping> columnMappings = new ArrayList<ColumnMapping>();
-        long nrColumnMappings = rep.getStepAttributeString( id_step, "CM_COUNT_" + i ) != null
-            ? Long.valueOf( rep.getStepAttributeString( id_step, "CM_COUNT_" + i ) )
-            : 0;
-        for ( int j = 0; j < nrColumnMappings; j++ ) {
+      dataProvider.setName( rep.getStepAttributeString( id_step, i, "DP_NAME" ) );
+      dataProvider.setSchemaName( rep.getStepAttributeString( id_step, i, "DP_SCHEMA_NAME" ) );
+      dataProvider.setTableName( rep.getStepAttributeString( id_step, i, "DP_TABLE_NAME" ) );
+      dataProvider.setDatabaseMetaNameRef( rep.getStepAttributeString( id_step, i, "DP_DATABASE_META_NAME_REF" ) );
 
-          ColumnMapping columnMapping = new ColumnMapping();
+      List<ColumnMapping> columnMappings = new ArrayList<ColumnMapping>();
+      long nrColumnMappings = rep.getStepAttributeString( id_step, "CM_COUNT_" + i ) != null
+          ? Long.valueOf( rep.getStepAttributeString( id_step, "CM_COUNT_" + i ) )
+          : 0;
+      for ( int j = 0; j < nrColumnMappings; j++ ) {
 
-          columnMapping.setName( rep.getStepAttributeString( id_step, i, "CM_NAME_" + j ) );
-          columnMapping.setColumnName( rep.getStepAttributeString( id_step, i, "CM_COLUMN_NAME_" + j ) );
-          String dataType = rep.getStepAttributeString( id_step, i, "CM_DATA_TYPE_" + j );
-          if ( StringUtils.isNotBlank( dataType ) ) {
-            columnMapping.setColumnDataType( DataType.valueOf( dataType ) );
-          }
+        ColumnMapping columnMapping = new ColumnMapping();
 
-          columnMappings.add( columnMapping );
+        columnMapping.setName( rep.getStepAttributeString( id_step, i, "CM_NAME_" + j ) );
+        columnMapping.setColumnName( rep.getStepAttributeString( id_step, i, "CM_COLUMN_NAME_" + j ) );
+        String dataType = rep.getStepAttributeString( id_step, i, "CM_DATA_TYPE_" + j );
+        if ( StringUtils.isNotBlank( dataType ) ) {
+          columnMapping.setColumnDataType( DataType.valueOf( dataType ) );
         }
 
-        dataProvider.setColumnMappings( columnMappings );
-        dataProviders.add( dataProvider );
+        columnMappings.add( columnMapping );
       }
-      modelAnnotationGroup.setDataProviders( dataProviders );
 
-    } catch ( Exception e ) {
-      throw new KettleException( BaseMessages.getString(
-          PKG, "ModelAnnotationMeta.Exception.UnexpectedErrorReadingStepInfoFromRepository" ), e );
+      dataProvider.setColumnMappings( columnMappings );
+      dataProviders.add( dataProvider );
     }
+    modelAnnotationGroup.setDataProviders( dataProviders );
 
-    setModelAnnotations( modelAnnotationGroup );
+    return modelAnnotationGroup;
+  }
 
-    // This may override the loaded model annotation group
-    if ( StringUtils.isNotBlank( getModelAnnotationCategory() ) ) {
-      readDataFromMetaStore( metaStore );
+  static String encodeModelAnnotationGroup( ModelAnnotationGroup modelAnnotationGroup ) throws IOException {
+    String xml = XMLHandler.openTag( REP_GROUP_TAG )
+        + new ModelAnnotationGroupXmlWriter( modelAnnotationGroup ).getXML()
+        + XMLHandler.closeTag( REP_GROUP_TAG );
+    return XMLHandler.encodeBinaryData( xml.getBytes( Const.XML_ENCODING ) );
+  }
+
+  static ModelAnnotationGroup decodeModelAnnotationGroup( String encodedGroup ) throws KettleException {
+    try {
+      String xml = new String( XMLHandler.stringToBinary( encodedGroup ), Const.XML_ENCODING );
+      Node groupNode = XMLHandler.getSubNode( XMLHandler.loadXMLString( xml ), REP_GROUP_TAG );
+      return new ModelAnnotationGroupXmlReader().readModelAnnotationGroup( groupNode );
+    } catch ( UnsupportedEncodingException e ) {
+      throw new KettleException( e );
     }
   }
 
@@ -387,9 +412,10 @@ public class ModelAnnotationMeta extends BaseStepMeta implements StepMetaInterfa
         return;
       }
 
+      IMetaStore cachedMetaStore = CachingMetaStore.wrap( metaStore );
       ModelAnnotationManager manager = getModelAnnotationManager( getModelAnnotations() );
-      if ( manager.containsGroup( getModelAnnotationCategory(), metaStore ) ) {
-        setModelAnnotations( manager.readGroup( getModelAnnotationCategory(), metaStore ) );
+      if ( manager.containsGroup( getModelAnnotationCategory(), cachedMetaStore ) ) {
+        setModelAnnotations( manager.readGroup( getModelAnnotationCategory(), cachedMetaStore ) );
       }
     } catch ( Exception e ) {
       logError( e.getMessage() );
@@ -410,7 +436,7 @@ public class ModelAnnotationMeta extends BaseStepMeta implements StepMetaInterfa
       modelAnnotations.setName( this.getName() );
     }
     checkValidName( modelAnnotations.getName() );
-    manager.createGroup( modelAnnotations, metaStore );
+    manager.createGroup( modelAnnotations, CachingMetaStore.wrap( metaStore ) );
   }
 
   public void checkValidName( final String name ) throws KettleException {
@@ -19,28 +19,302 @@
  * limitations under the License.
  *
  ********************************************************************************/
-
 package org.pentaho.di.trans.steps.annotation;
 
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroupXmlReader;
+import org.pentaho.agilebi.modeler.models.annotations.util.KeyValueClosure;
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.trans.step.StepInjectionMetaEntry;
 import org.pentaho.di.trans.step.StepMetaInjectionInterface;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
+ * Metadata injection for the annotation step: the category, the target output step, the step options and the list
+ * of annotations with their properties. Annotation properties are injected as one PROPERTY_&lt;id&gt; entry per
+ * property id known to any annotation type.
+ *
  * @author Rowell Belen
  */
 public class ModelAnnotationMetaInjection implements StepMetaInjectionInterface {
-  @Override public List<StepInjectionMetaEntry> getStepInjectionMetadataEntries() throws KettleException {
-    return null;
+
+  public static final String PROPERTY_PREFIX = "PROPERTY_";
+
+  private static List<String> propertyIds;
+
+  public enum Entry {
+
+    CATEGORY( ValueMetaInterface.TYPE_STRING, "The annotation group to read from the metastore" ),
+    TARGET_OUTPUT_STEP( ValueMetaInterface.TYPE_STRING, "The output step a shared dimension is linked to" ),
+    METADATA_ONLY( ValueMetaInterface.TYPE_STRING, "Leave the row pipeline? (Y/N)" ),
+    PROFILING( ValueMetaInterface.TYPE_STRING, "Profile the annotated fields? (Y/N)" ),
+    DESCRIPTION( ValueMetaInterface.TYPE_STRING, "The description of the annotation group" ),
+
+    ANNOTATIONS( ValueMetaInterface.TYPE_NONE, "The annotations" ),
+    ANNOTATION( ValueMetaInterface.TYPE_NONE, "One annotation" ),
+
+    ANNOTATION_NAME( ValueMetaInterface.TYPE_STRING, "The unique name of the annotation" ),
+    FIELD_NAME( ValueMetaInterface.TYPE_STRING, "The annotated field" ),
+    ANNOTATION_TYPE( ValueMetaInterface.TYPE_STRING,
+        "The annotation type (CREATE_ATTRIBUTE, CREATE_MEASURE, CREATE_DIMENSION_KEY, LINK_DIMENSION, ...)" );
+
+    private int valueType;
+    private String description;
+
+    private Entry( int valueType, String description ) {
+      this.valueType = valueType;
+      this.description = description;
+    }
+
+    /**
+     * @return the valueType
+     */
+    public int getValueType() {
+      return valueType;
+    }
+
+    /**
+     * @return the description
+     */
+    public String getDescription() {
+      return description;
+    }
+
+    public static Entry findEntry( String key ) {
+      try {
+        return Entry.valueOf( key );
+      } catch ( Exception e ) {
+        return null;
+      }
+    }
+  }
+
+  private ModelAnnotationMeta meta;
+
+  public ModelAnnotationMetaInjection( ModelAnnotationMeta meta ) {
+    this.meta = meta;
+  }
+
+  @Override
+  public List<StepInjectionMetaEntry> getStepInjectionMetadataEntries() throws KettleException {
+    List<StepInjectionMetaEntry> all = new ArrayList<StepInjectionMetaEntry>();
+
+    Entry[] topEntries =
+        new Entry[] { Entry.CATEGORY, Entry.TARGET_OUTPUT_STEP, Entry.METADATA_ONLY, Entry.PROFILING,
+          Entry.DESCRIPTION, };
+    for ( Entry topEntry : topEntries ) {
+      all.add( new StepInjectionMetaEntry( topEntry.name(), topEntry.getValueType(), topEntry.getDescription() ) );
+    }
+
+    // The annotations
+    StepInjectionMetaEntry annotationsEntry =
+        new StepInjectionMetaEntry( Entry.ANNOTATIONS.name(), ValueMetaInterface.TYPE_NONE,
+            Entry.ANNOTATIONS.getDescription() );
+    all.add( annotationsEntry );
+    StepInjectionMetaEntry annotationEntry =
+        new StepInjectionMetaEntry( Entry.ANNOTATION.name(), ValueMetaInterface.TYPE_NONE,
+            Entry.ANNOTATION.getDescription() );
+    annotationsEntry.getDetails().add( annotationEntry );
+
+    Entry[] annotationEntries = new Entry[] { Entry.ANNOTATION_NAME, Entry.FIELD_NAME, Entry.ANNOTATION_TYPE, };
+    for ( Entry entry : annotationEntries ) {
+      annotationEntry.getDetails().add(
+          new StepInjectionMetaEntry( entry.name(), entry.getValueType(), entry.getDescription() ) );
+    }
+    for ( String propertyId : getPropertyIds() ) {
+      annotationEntry.getDetails().add( new StepInjectionMetaEntry( PROPERTY_PREFIX + propertyId,
+          ValueMetaInterface.TYPE_STRING, "Annotation property " + propertyId ) );
+    }
+
+    return all;
+  }
+
+  @Override
+  public void injectStepMetadataEntries( List<StepInjectionMetaEntry> all ) throws KettleException {
+    List<ModelAnnotation<?>> annotations = null;
+    boolean describe = false;
+    String description = null;
+
+    // Parse the metadata
+    for ( StepInjectionMetaEntry lookFields : all ) {
+      Entry fieldsEntry = Entry.findEntry( lookFields.getKey() );
+      if ( fieldsEntry == null ) {
+        continue;
+      }
+
+      String lookValue = (String) lookFields.getValue();
+      switch ( fieldsEntry ) {
+        case ANNOTATIONS:
+          annotations = new ArrayList<ModelAnnotation<?>>();
+          for ( StepInjectionMetaEntry lookField : lookFields.getDetails() ) {
+            if ( Entry.findEntry( lookField.getKey() ) == Entry.ANNOTATION ) {
+              annotations.add( createAnnotation( lookField.getDetails() ) );
+            }
+          }
+          break;
+        case CATEGORY:
+          meta.setModelAnnotationCategory( lookValue );
+          break;
+        case TARGET_OUTPUT_STEP:
+          meta.setTargetOutputStep( lookValue );
+          break;
+        case METADATA_ONLY:
+          meta.setMetadataOnly( "Y".equalsIgnoreCase( lookValue ) );
+          break;
+        case PROFILING:
+          meta.setProfiling( "Y".equalsIgnoreCase( lookValue ) );
+          break;
+        case DESCRIPTION:
+          describe = true;
+          description = lookValue;
+          break;
+        default:
+          break;
+      }
+    }
+
+    if ( annotations != null || describe ) {
+      // the template group is shared with the other copies of the step meta
+      ModelAnnotationGroup template = meta.getModelAnnotations();
+      ModelAnnotationGroup group = copyGroup( template );
+      if ( describe ) {
+        group.setDescription( description );
+      }
+      if ( annotations != null ) {
+        group.addAll( annotations );
+      } else if ( template != null ) {
+        group.addAll( template );
+      }
+      meta.setModelAnnotations( group );
+    }
   }
 
-  @Override public void injectStepMetadataEntries( List<StepInjectionMetaEntry> metadata ) throws KettleException {
+  private ModelAnnotation<?> createAnnotation( List<StepInjectionMetaEntry> details ) throws KettleException {
+    String annotationName = null;
+    String fieldName = null;
+    String annotationType = null;
+    Map<String, Serializable> properties = new HashMap<String, Serializable>();
+
+    for ( StepInjectionMetaEntry entry : details ) {
+      String value = (String) entry.getValue();
+      Entry metaEntry = Entry.findEntry( entry.getKey() );
+      if ( metaEntry != null ) {
+        switch ( metaEntry ) {
+          case ANNOTATION_NAME:
+            annotationName = value;
+            break;
+          case FIELD_NAME:
+            fieldName = value;
+            break;
+          case ANNOTATION_TYPE:
+            annotationType = value;
+            break;
+          default:
+            break;
+        }
+      } else if ( entry.getKey().startsWith( PROPERTY_PREFIX ) && StringUtils.isNotBlank( value ) ) {
+        properties.put( entry.getKey().substring( PROPERTY_PREFIX.length() ), value );
+      }
+    }
+
+    ModelAnnotation<?> modelAnnotation;
+    try {
+      modelAnnotation = ModelAnnotationGroupXmlReader.create( annotationType, fieldName );
+    } catch ( Exception e ) {
+      throw new KettleException( "Unable to create an annotation of type " + annotationType, e );
+    }
+    if ( StringUtils.isNotBlank( annotationName ) ) {
+      modelAnnotation.setName( annotationName );
+    }
+    if ( StringUtils.isNotBlank( annotationType ) ) {
+      modelAnnotation.populateAnnotation( properties );
+    }
+    return modelAnnotation;
+  }
+
+  private static ModelAnnotationGroup copyGroup( ModelAnnotationGroup group ) {
+    ModelAnnotationGroup copy = new ModelAnnotationGroup();
+    if ( group != null ) {
+      copy.setName( group.getName() );
+      copy.setDescription( group.getDescription() );
+      copy.setSharedDimension( group.isSharedDimension() );
+      copy.setDataProviders( group.getDataProviders() );
+    }
+    return copy;
+  }
+
+  @Override
+  public List<StepInjectionMetaEntry> extractStepMetadataEntries() throws KettleException {
+    List<StepInjectionMetaEntry> list = new ArrayList<StepInjectionMetaEntry>();
+
+    list.add( getEntry( Entry.CATEGORY, meta.getModelAnnotationCategory() ) );
+    list.add( getEntry( Entry.TARGET_OUTPUT_STEP, meta.getTargetOutputStep() ) );
+    list.add( getEntry( Entry.METADATA_ONLY, meta.isMetadataOnly() ? "Y" : "N" ) );
+    list.add( getEntry( Entry.PROFILING, meta.isProfiling() ? "Y" : "N" ) );
+    ModelAnnotationGroup group = meta.getModelAnnotations();
+    list.add( getEntry( Entry.DESCRIPTION, group == null ? null : group.getDescription() ) );
+
+    StepInjectionMetaEntry annotationsEntry = getEntry( Entry.ANNOTATIONS, null );
+    list.add( annotationsEntry );
+    if ( group != null ) {
+      for ( ModelAnnotation<?> modelAnnotation : group ) {
+        final StepInjectionMetaEntry annotationEntry = getEntry( Entry.ANNOTATION, null );
+        annotationsEntry.getDetails().add( annotationEntry );
+
+        annotationEntry.getDetails().add( getEntry( Entry.ANNOTATION_NAME, modelAnnotation.getName() ) );
+        annotationEntry.getDetails().add(
+            getEntry( Entry.FIELD_NAME, modelAnnotation.getAnnotation().getField() ) );
+        if ( modelAnnotation.getType() != null ) {
+          annotationEntry.getDetails().add( getEntry( Entry.ANNOTATION_TYPE, modelAnnotation.getType().toString() ) );
+          modelAnnotation.iterateProperties( new KeyValueClosure() {
+            @Override
+            public void execute( String key, Serializable serializable ) {
+              if ( serializable != null && StringUtils.isNotBlank( serializable.toString() ) ) {
+                annotationEntry.getDetails().add( new StepInjectionMetaEntry( PROPERTY_PREFIX + key,
+                    serializable.toString(), ValueMetaInterface.TYPE_STRING, "Annotation property " + key ) );
+              }
+            }
+          } );
+        }
+      }
+    }
+
+    return list;
+  }
 
+  private StepInjectionMetaEntry getEntry( Entry entry, Object value ) {
+    return new StepInjectionMetaEntry( entry.name(), value, entry.getValueType(), entry.getDescription() );
   }
 
-  @Override public List<StepInjectionMetaEntry> extractStepMetadataEntries() throws KettleException {
-    return null;
+  /**
+   * @return the property ids of every annotation type, in a stable order
+   */
+  static synchronized List<String> getPropertyIds() {
+    if ( propertyIds == null ) {
+      Set<String> ids = new LinkedHashSet<String>();
+      for ( ModelAnnotation.Type type : ModelAnnotation.Type.values() ) {
+        try {
+          ModelAnnotation<?> modelAnnotation = ModelAnnotationGroupXmlReader.create( type.name(), null );
+          for ( String id : modelAnnotation.getAnnotation().getModelPropertyIds() ) {
+            ids.add( id );
+          }
+        } catch ( Exception e ) {
+          // not an annotation type that can be created on its own
+        }
+      }
+      propertyIds = Collections.unmodifiableList( new ArrayList<String>( ids ) );
+    }
+    return propertyIds;
   }
 }
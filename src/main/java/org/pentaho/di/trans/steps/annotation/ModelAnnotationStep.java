@@ -29,24 +29,33 @@ import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationManager;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.exception.KettleException;
-import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.refinery.AnnotationAccumulator;
+import org.pentaho.di.core.refinery.CachingMetaStore;
+import org.pentaho.di.core.refinery.FieldIndex;
+import org.pentaho.di.core.refinery.profile.DataProfiler;
+import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.i18n.BaseMessages;
-import static org.pentaho.di.job.entries.build.JobEntryBuildModel.KEY_MODEL_ANNOTATIONS;
 import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransAdapter;
 import org.pentaho.di.trans.TransMeta;
-import org.pentaho.di.trans.step.BaseStep;
 import org.pentaho.di.trans.step.StepDataInterface;
-import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaDataCombi;
 import org.pentaho.di.trans.step.StepMetaInterface;
 import org.pentaho.metadata.model.concept.types.AggregationType;
 import org.pentaho.metastore.api.exceptions.MetaStoreException;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * @author Rowell Belen
  */
-public class ModelAnnotationStep extends BaseStep implements StepInterface {
+public class ModelAnnotationStep extends ElidableStep {
 
   private static final Class<?> PKG = ModelAnnotationMeta.class;
 
@@ -66,37 +75,102 @@ public class ModelAnnotationStep extends BaseStep implements StepInterface {
     super( stepMeta, stepDataInterface, copyNr, transMeta, trans );
   }
 
+  @Override
+  public boolean init( final StepMetaInterface smi, final StepDataInterface sdi ) {
+    if ( !super.init( smi, sdi ) ) {
+      return false;
+    }
+    ModelAnnotationMeta modelAnnotationMeta = (ModelAnnotationMeta) smi;
+    ModelAnnotationData modelAnnotationData = (ModelAnnotationData) sdi;
+    // step copies and transformations of the same job read the same groups
+    setMetaStore( CachingMetaStore.wrap( getMetaStore() ) );
+    if ( modelAnnotationMeta.isMetadataOnly() ) {
+      try {
+        prepareAnnotations( modelAnnotationMeta, modelAnnotationData,
+            getTransMeta().getPrevStepFields( getStepMeta() ) );
+        first = false;
+      } catch ( KettleException e ) {
+        logError( e.getMessage(), e );
+        return false;
+      }
+      // the group reaches the job only if the transformation succeeds
+      final ModelAnnotationGroup group = modelAnnotationData.annotations;
+      getTrans().addTransListener( new TransAdapter() {
+        @Override
+        public void transFinished( Trans trans ) {
+          if ( trans.getErrors() == 0 ) {
+            publishAnnotations( group );
+          }
+        }
+      } );
+    }
+    return true;
+  }
+
+  /**
+   * Takes a metadata only step out of the row pipeline. Runs once all steps were initialized, one step after the
+   * other and before any step thread starts, so the rowsets of the neighbours can be changed safely.
+   */
+  @Override
+  public void initBeforeStart() throws KettleStepException {
+    super.initBeforeStart();
+    ModelAnnotationMeta modelAnnotationMeta = (ModelAnnotationMeta) getStepMeta().getStepMetaInterface();
+    ModelAnnotationData modelAnnotationData = (ModelAnnotationData) getStepDataInterface();
+    if ( modelAnnotationMeta.isMetadataOnly() && !modelAnnotationMeta.isProfiling() && elideFromRowPipeline() ) {
+      modelAnnotationData.elided = true;
+      logDetailed( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.Elided" ) );
+    }
+  }
+
   @Override
   public boolean processRow( final StepMetaInterface smi, final StepDataInterface sdi )
     throws KettleException {
 
+    ModelAnnotationData modelAnnotationData = (ModelAnnotationData) sdi;
+    if ( modelAnnotationData.elided ) {
+      // rows travel straight from the previous step to the next one
+      return false;
+    }
 
+    ModelAnnotationMeta modelAnnotationMeta = (ModelAnnotationMeta) smi;
     Object[] row = getRow();
     if ( first ) {
       first = false;
-      ModelAnnotationMeta modelAnnotationMeta = (ModelAnnotationMeta) smi;
-      ModelAnnotationData modelAnnotationData = (ModelAnnotationData) sdi;
-      if ( modelAnnotationMeta.isSharedDimension()
-          && !isOutputStepFound( modelAnnotationMeta.getTargetOutputStep() ) ) {
-        throw new KettleException( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.MissingDataProvider" ) );
-      }
-      modelAnnotationData.annotations = processAnnotations( modelAnnotationMeta );
+      prepareAnnotations( modelAnnotationMeta, modelAnnotationData, getInputRowMeta() );
+      publishAnnotations( modelAnnotationData.annotations );
     }
     if ( row == null ) { // no more input to be expected...
       setOutputDone();
       return false;
     }
+    if ( modelAnnotationMeta.isProfiling() ) {
+      if ( modelAnnotationData.profiler == null ) {
+        modelAnnotationData.profiler = new DataProfiler( getInputRowMeta() );
+      }
+      modelAnnotationData.profiler.addRow( row );
+    }
     putRow( getInputRowMeta(), row );
     return true;
   }
 
+  private void prepareAnnotations( final ModelAnnotationMeta modelAnnotationMeta,
+      final ModelAnnotationData modelAnnotationData, final RowMetaInterface rowMeta ) throws KettleException {
+    if ( modelAnnotationMeta.isSharedDimension()
+        && !isOutputStepFound( modelAnnotationMeta.getTargetOutputStep() ) ) {
+      throw new KettleException( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.MissingDataProvider" ) );
+    }
+    modelAnnotationData.annotations = processAnnotations( modelAnnotationMeta, rowMeta );
+  }
+
   /**
-   * exposes an annotation group to build model
+   * reads and validates the annotation group of the step
    *
    * @param modelAnnotationMeta
+   * @param rowMeta fields coming into the step
    * @throws KettleException
    */
-  private ModelAnnotationGroup processAnnotations( ModelAnnotationMeta modelAnnotationMeta ) throws KettleException {
+  private ModelAnnotationGroup processAnnotations( ModelAnnotationMeta modelAnnotationMeta, RowMetaInterface rowMeta )
+    throws KettleException {
 
     ModelAnnotationGroup currentGroup;
     if ( isGroupLinked( modelAnnotationMeta ) ) {
@@ -107,16 +181,43 @@ public class ModelAnnotationStep extends BaseStep implements StepInterface {
       // use locally defined annotations
       currentGroup = modelAnnotationMeta.getModelAnnotations();
     }
-    validateMeasuresNumeric( currentGroup );
+    validateMeasuresNumeric( currentGroup, rowMeta );
+    return currentGroup;
+  }
 
+  /**
+   * exposes an annotation group to build model
+   */
+  private void publishAnnotations( ModelAnnotationGroup currentGroup ) {
     if ( getTrans().getParentJob() != null ) {
-      ModelAnnotationGroup allAnnotations = getExistingAnnotations();
+      Map<String, Object> extensionDataMap = getTrans().getParentJob().getExtensionDataMap();
+      AnnotationAccumulator accumulator = AnnotationAccumulator.get( extensionDataMap );
       if ( !currentGroup.isSharedDimension() ) {
-        allAnnotations.addAll( currentGroup );
+        // all copies of this step share one slot
+        accumulator.contribute(
+            AnnotationAccumulator.getContributorKey( getTrans().getName(), getStepname(), currentGroup.getName() ),
+            getTargetSteps(), currentGroup );
       }
-      getTrans().getParentJob().getExtensionDataMap().put( KEY_MODEL_ANNOTATIONS, allAnnotations );
+      accumulator.publish( extensionDataMap );
     }
-    return currentGroup;
+  }
+
+  /**
+   * @return this step and every step the rows of this step can reach, the output steps a model can be built from
+   */
+  Set<String> getTargetSteps() {
+    Set<String> targetSteps = new LinkedHashSet<String>();
+    targetSteps.add( getStepname() );
+    Deque<StepMeta> pending = new ArrayDeque<StepMeta>();
+    pending.add( getStepMeta() );
+    while ( !pending.isEmpty() ) {
+      for ( StepMeta next : getTransMeta().findNextSteps( pending.remove() ) ) {
+        if ( targetSteps.add( next.getName() ) ) {
+          pending.add( next );
+        }
+      }
+    }
+    return targetSteps;
   }
 
   private boolean isGroupLinked( ModelAnnotationMeta meta ) {
@@ -152,19 +253,19 @@ public class ModelAnnotationStep extends BaseStep implements StepInterface {
     return new ModelAnnotationManager();
   }
 
-  private void validateMeasuresNumeric( ModelAnnotationGroup annotations )
+  private void validateMeasuresNumeric( ModelAnnotationGroup annotations, RowMetaInterface rowMeta )
     throws KettleException {
-    if ( getInputRowMeta() != null ) {
+    if ( rowMeta != null ) {
+      FieldIndex fields = FieldIndex.of( rowMeta );
       for ( ModelAnnotation<?> annotation : annotations ) {
         if ( annotation.getType() != null && annotation.getType().equals( ModelAnnotation.Type.CREATE_MEASURE ) ) {
-          for ( ValueMetaInterface valueMeta : getInputRowMeta().getValueMetaList() ) {
-            if ( !valueMeta.isNumeric() && valueMeta.getName().equals( annotation.getAnnotation().getField() ) ) {
-              CreateMeasure createMeasure = (CreateMeasure) annotation.getAnnotation();
-              if ( !createMeasure.getAggregateType().equals( AggregationType.COUNT )
-                  && !createMeasure.getAggregateType().equals( AggregationType.COUNT_DISTINCT ) ) {
-                throw new KettleException( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.NonNumericMeasure",
-                    createMeasure.getAggregateType().name() ) );
-              }
+          int index = fields.indexOf( annotation.getAnnotation().getField() );
+          if ( index >= 0 && !rowMeta.getValueMeta( index ).isNumeric() ) {
+            CreateMeasure createMeasure = (CreateMeasure) annotation.getAnnotation();
+            if ( !createMeasure.getAggregateType().equals( AggregationType.COUNT )
+                && !createMeasure.getAggregateType().equals( AggregationType.COUNT_DISTINCT ) ) {
+              throw new KettleException( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.NonNumericMeasure",
+                  createMeasure.getAggregateType().name() ) );
             }
           }
         }
@@ -172,17 +273,6 @@ public class ModelAnnotationStep extends BaseStep implements StepInterface {
     }
   }
 
-  private ModelAnnotationGroup getExistingAnnotations() {
-    Object o = ( getTrans().getParentJob() == null )
-        ? null
-        : getTrans().getParentJob().getExtensionDataMap().get( KEY_MODEL_ANNOTATIONS );
-    if ( o == null ) {
-      return new ModelAnnotationGroup();
-    } else {
-      return (ModelAnnotationGroup) o;
-    }
-  }
-
   private boolean isOutputStepFound( final String outputStep ) throws KettleException {
     if ( !Const.isEmpty( outputStep ) ) {
       for ( StepMetaDataCombi outCombi : getTrans().getSteps() ) {
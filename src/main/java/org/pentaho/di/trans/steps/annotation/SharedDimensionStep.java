@@ -23,28 +23,46 @@
 package org.pentaho.di.trans.steps.annotation;
 
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
-import org.pentaho.di.trans.step.BaseStep;
 import org.pentaho.di.trans.step.StepDataInterface;
-import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaInterface;
 
-public class SharedDimensionStep extends BaseStep implements StepInterface {
+public class SharedDimensionStep extends ElidableStep {
 
   private static Class<?> PKG = SharedDimensionStep.class; // for i18n purposes, needed by Translator2!!
 
+  private boolean elided;
+
   public SharedDimensionStep( StepMeta stepMeta,
       StepDataInterface stepDataInterface, int copyNr,
       TransMeta transMeta, Trans trans ) {
     super( stepMeta, stepDataInterface, copyNr, transMeta, trans );
   }
 
+  /**
+   * Rows pass through unchanged, so the step leaves the row pipeline whenever its hops allow it.
+   */
+  @Override
+  public void initBeforeStart() throws KettleStepException {
+    super.initBeforeStart();
+    if ( elideFromRowPipeline() ) {
+      elided = true;
+      logDetailed( BaseMessages.getString( PKG, "SharedDimension.Runtime.Elided" ) );
+    }
+  }
+
   @Override
   public boolean processRow( final StepMetaInterface smi, final StepDataInterface sdi )
     throws KettleException {
 
+    if ( elided ) {
+      // rows travel straight from the previous step to the next one
+      return false;
+    }
     // Pass thru
     Object[] row = getRow();
     if ( row == null ) { // no more input to be expected...
@@ -46,7 +46,9 @@ import static org.pentaho.di.core.refinery.UIBuilder.DEFAULT_LABEL_INPUT_MARGIN;
 import static org.pentaho.di.core.refinery.UIBuilder.DEFAULT_TEXT_SIZE_REGULAR;
 import static org.pentaho.di.core.refinery.UIBuilder.SHELL_MIN_WIDTH;
 import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.job.entries.JobEntryDialogBoilerplate;
+import org.pentaho.di.job.entries.build.BuildModelBatch;
 import org.pentaho.di.job.entries.build.JobEntryBuildModel;
 import org.pentaho.di.job.entry.JobEntryDialogInterface;
 import org.pentaho.di.job.entry.JobEntryInterface;
@@ -62,6 +64,8 @@ public class JobEntryBuildModelDialog extends JobEntryDialogBoilerplate<JobEntry
   private Label wlOutputStep;
   private TextVar wModelName;
   private Label wlModelName;
+  private TextVar wBatchModels;
+  private Label wlBatchModels;
   private Button wUseAutoModel;
   private Button wUseExistingModel;
   private Group gModelGroup;
@@ -126,6 +130,15 @@ public class JobEntryBuildModelDialog extends JobEntryDialogBoilerplate<JobEntry
     widgetAbove = addLabelInputPairBelow( wlModelName, wModelName, widgetAbove,
         DEFAULT_TEXT_SIZE_REGULAR + VAR_EXTRA_WIDTH );
 
+    // Batch of models, instead of the source and model name
+    wBatchModels = new TextVar( jobMeta, main, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wBatchModels.setToolTipText(
+        BaseMessages.getString( PKG, "BuildModelJob.BatchModels.Description", BuildModelBatch.STEP_PLACEHOLDER ) );
+    wlBatchModels = new Label( main, SWT.RIGHT );
+    wlBatchModels.setText( getMsg( "BuildModelJob.BatchModels.Label" ) );
+    widgetAbove = addLabelInputPairBelow( wlBatchModels, wBatchModels, widgetAbove,
+        DEFAULT_TEXT_SIZE_REGULAR + VAR_EXTRA_WIDTH );
+
     addModelGroup( main, widgetAbove );
 
     // set a decent minimum
@@ -269,6 +282,9 @@ public class JobEntryBuildModelDialog extends JobEntryDialogBoilerplate<JobEntry
     if ( jobEntry.getModelName() != null ) {
       wModelName.setText( jobEntry.getModelName() );
     }
+    if ( jobEntry.getBatchModels() != null ) {
+      wBatchModels.setText( jobEntry.getBatchModels() );
+    }
     wUseExistingModel.setSelection( jobEntry.useExistingModel() );
     wUseAutoModel.setSelection( !jobEntry.useExistingModel() );
     wExistingModel.setEnabled( jobEntry.useExistingModel() );
@@ -280,6 +296,7 @@ public class JobEntryBuildModelDialog extends JobEntryDialogBoilerplate<JobEntry
     super.saveData( jobEntry );
     jobEntry.setOutputStep( wOutputStep.getText() );
     jobEntry.setModelName( wModelName.getText() );
+    jobEntry.setBatchModels( wBatchModels.getText() );
     jobEntry.setUseExistingModel( wUseExistingModel.getSelection() );
     jobEntry.setExistingModel( wExistingModelName.getText() );
   }
@@ -41,6 +41,7 @@ import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Shell;
 import org.pentaho.di.core.Const;
+import org.pentaho.di.core.refinery.model.ModelServerCatalog;
 import org.pentaho.di.core.refinery.model.ModelServerFetcher;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.job.JobMeta;
@@ -98,8 +99,7 @@ public class SelectModelDialog extends JobEntryDialogBoilerplate<JobEntryBuildMo
 
         ModelServerFetcher fetcher = new ModelServerFetcher( biServerConnection );
         try {
-          List<String> datasourceList = fetcher.fetchDswList();
-          datasourceList.addAll( fetcher.fetchAnalysisList() );
+          List<String> datasourceList = ModelServerCatalog.getInstance().getCatalog( fetcher ).getDataSourceIds();
           Collections.sort( datasourceList );
           String prevSelection = wChooseModel.getText();
           wChooseModel.removeAll();
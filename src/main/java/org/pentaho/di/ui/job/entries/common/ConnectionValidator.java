@@ -27,6 +27,8 @@ import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.gui.SpoonFactory;
 import org.pentaho.di.core.gui.SpoonInterface;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.refinery.publish.util.ConnectionValidationCache;
+import org.pentaho.di.core.refinery.publish.util.HttpDeadline;
 import org.pentaho.di.core.refinery.publish.util.PublishRestUtil;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.job.entries.publish.JobEntryDatasourcePublish;
@@ -44,12 +46,20 @@ public class ConnectionValidator {
   private boolean suppressSuccessMessage;
   private PublishRestUtil publishRestUtil;
   private BiServerConnection connection;
+  private ConnectionValidationCache validationCache = ConnectionValidationCache.getInstance();
 
   public ConnectionValidator() {
     this.publishRestUtil = new PublishRestUtil(); // default
   }
 
+  /**
+   * Checks the server, login and permissions, unless the same connection passed recently.
+   */
   public void validateConnectionInRuntime() throws KettleException {
+    if ( validationCache != null && validationCache.isValid( this.connection ) ) {
+      return;
+    }
+
     // check server
     if ( !this.isPentahoServer() ) {
       throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Test.InvalidPentahoServerMsgRuntime" ) );
@@ -66,13 +76,17 @@ public class ConnectionValidator {
     }
 
     // test permissions
-    if ( !this.canConnect() ) {
+    if ( !this.hasPublishPermissions() ) {
       if ( publishRestUtil.getLastHTTPStatus() == 404 ) {
         throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Test.BadURLMsg" ) );
       } else {
         throw new KettleException( this.getMsg( "JobEntryDatasourcePublish.Test.PermissionsErrorMsg" ) );
       }
     }
+
+    if ( validationCache != null ) {
+      validationCache.setValid( this.connection );
+    }
   }
 
   public boolean validateConnectionInDesignTime() {
@@ -105,7 +119,7 @@ public class ConnectionValidator {
     }
 
     // test permissions
-    if ( this.canConnect() ) {
+    if ( this.hasPublishPermissions() ) {
       if ( !this.suppressSuccessMessage ) {
         this.showInfo(
             getMsg( "JobEntryDatasourcePublish.Test.Passed" ),
@@ -147,11 +161,13 @@ public class ConnectionValidator {
   }
 
   public boolean canConnect() {
+    return isPentahoServer() && hasPublishPermissions();
+  }
 
-    if ( !isPentahoServer() ) {
-      return false;
-    }
-
+  /**
+   * Checks the user may publish, without checking the server again
+   */
+  protected boolean hasPublishPermissions() {
     boolean canPublish = publishRestUtil.canPublish( this.connection );
     if ( !canPublish ) {
       return false;
@@ -187,6 +203,20 @@ public class ConnectionValidator {
     this.publishRestUtil = publishRestUtil;
   }
 
+  /**
+   * Sets the limits the validation calls keep to, null for none
+   */
+  public void setHttpDeadline( HttpDeadline httpDeadline ) {
+    this.publishRestUtil.setHttpDeadline( httpDeadline );
+  }
+
+  /**
+   * Sets where runtime validation results are kept, or null to always validate
+   */
+  public void setValidationCache( ConnectionValidationCache validationCache ) {
+    this.validationCache = validationCache;
+  }
+
   protected SpoonInterface getSpoon() {
     return SpoonFactory.getInstance();
   }
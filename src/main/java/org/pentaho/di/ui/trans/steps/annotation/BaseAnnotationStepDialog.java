@@ -51,6 +51,7 @@ import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.gui.SpoonFactory;
 import org.pentaho.di.core.gui.SpoonInterface;
 import org.pentaho.di.core.plugins.PluginInterface;
+import org.pentaho.di.core.refinery.CachingMetaStore;
 import org.pentaho.di.core.refinery.publish.util.ObjectUtils;
 import org.pentaho.di.core.util.StringUtil;
 import org.pentaho.di.i18n.BaseMessages;
@@ -65,6 +66,7 @@ import org.pentaho.di.ui.core.widget.ComboVar;
 import org.pentaho.di.ui.trans.step.BaseStepDialog;
 import org.pentaho.di.ui.trans.steps.common.ModelAnnotationEvent;
 import org.pentaho.di.ui.trans.steps.common.ModelAnnotationsTableComposite;
+import org.pentaho.metastore.api.IMetaStore;
 import org.pentaho.metastore.api.exceptions.MetaStoreException;
 
 import java.io.Serializable;
@@ -892,6 +894,15 @@ public abstract class BaseAnnotationStepDialog extends BaseStepDialog implements
     wApply.setEnabled( true );
   }
 
+  /**
+   * Reads and writes of annotation groups go through the shared metastore cache, so running steps and jobs see what
+   * the dialog saved or deleted right away.
+   */
+  @Override
+  public IMetaStore getMetaStore() {
+    return CachingMetaStore.wrap( super.getMetaStore() );
+  }
+
   protected abstract String getDialogTitle();
 
   protected abstract String getStepName();
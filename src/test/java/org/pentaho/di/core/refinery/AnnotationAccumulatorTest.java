@@ -0,0 +1,155 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery;
+
+import org.junit.Test;
+import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.di.job.entries.build.JobEntryBuildModel;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class AnnotationAccumulatorTest {
+
+  private ModelAnnotation<CreateAttribute> attribute( String field ) {
+    CreateAttribute createAttribute = new CreateAttribute();
+    createAttribute.setField( field );
+    return new ModelAnnotation<CreateAttribute>( createAttribute );
+  }
+
+  @Test
+  public void testSnapshotIsInContributionOrder() throws Exception {
+    AnnotationAccumulator accumulator = new AnnotationAccumulator();
+    ModelAnnotation<CreateAttribute> a = attribute( "a" );
+    ModelAnnotation<CreateAttribute> b = attribute( "b" );
+    ModelAnnotation<CreateAttribute> c = attribute( "c" );
+    accumulator.contribute( AnnotationAccumulator.getContributorKey( "Z_load", "s", null ),
+        new ModelAnnotationGroup( c, a ) );
+    accumulator.contribute( AnnotationAccumulator.getContributorKey( "A_fix", "s", null ),
+        new ModelAnnotationGroup( a, b ) );
+
+    // the transformation that ran later comes later, whatever its name
+    ModelAnnotationGroup snapshot = accumulator.snapshot();
+    assertEquals( 3, snapshot.size() );
+    assertSame( c, snapshot.get( 0 ) );
+    assertSame( a, snapshot.get( 1 ) );
+    assertSame( b, snapshot.get( 2 ) );
+
+    // a contributor replacing its annotations keeps its place
+    ModelAnnotation<CreateAttribute> d = attribute( "d" );
+    accumulator.contribute( AnnotationAccumulator.getContributorKey( "Z_load", "s", null ),
+        new ModelAnnotationGroup( d ) );
+    snapshot = accumulator.snapshot();
+    assertEquals( 3, snapshot.size() );
+    assertSame( d, snapshot.get( 0 ) );
+    assertSame( a, snapshot.get( 1 ) );
+    assertSame( b, snapshot.get( 2 ) );
+  }
+
+  @Test
+  public void testEqualAnnotationsOfGroupsAreKept() throws Exception {
+    AnnotationAccumulator accumulator = new AnnotationAccumulator();
+    accumulator.contribute( "t1", new ModelAnnotationGroup( attribute( "a" ) ) );
+    accumulator.contribute( "t2", new ModelAnnotationGroup( attribute( "a" ) ) );
+    assertEquals( 2, accumulator.snapshot().size() );
+  }
+
+  @Test
+  public void testSnapshotOfOutputStep() throws Exception {
+    AnnotationAccumulator accumulator = new AnnotationAccumulator();
+    ModelAnnotation<CreateAttribute> sales = attribute( "sales" );
+    ModelAnnotation<CreateAttribute> stores = attribute( "stores" );
+    ModelAnnotation<CreateAttribute> unknown = attribute( "unknown" );
+    accumulator.contribute( "t1", Arrays.asList( "annotate sales", "Sales Fact" ), new ModelAnnotationGroup( sales ) );
+    accumulator.contribute( "t2", Arrays.asList( "annotate stores", "Stores" ), new ModelAnnotationGroup( stores ) );
+    accumulator.contribute( "t3", new ModelAnnotationGroup( unknown ) );
+
+    ModelAnnotationGroup snapshot = accumulator.snapshot( "Sales Fact" );
+    assertEquals( 1, snapshot.size() );
+    assertSame( sales, snapshot.get( 0 ) );
+    snapshot = accumulator.snapshot( "Stores" );
+    assertEquals( 1, snapshot.size() );
+    assertSame( stores, snapshot.get( 0 ) );
+    assertEquals( 0, accumulator.snapshot( "Other" ).size() );
+    assertEquals( 3, accumulator.snapshot().size() );
+
+    // a contributor replacing its annotations can change its targets
+    accumulator.contribute( "t1", Arrays.asList( "Stores" ), new ModelAnnotationGroup( sales ) );
+    assertEquals( 0, accumulator.snapshot( "Sales Fact" ).size() );
+    assertEquals( 2, accumulator.snapshot( "Stores" ).size() );
+  }
+
+  @Test
+  public void testContributorReplacesItsSlot() throws Exception {
+    AnnotationAccumulator accumulator = new AnnotationAccumulator();
+    String key = AnnotationAccumulator.getContributorKey( "t", "s", "g" );
+    accumulator.contribute( key, new ModelAnnotationGroup( attribute( "a" ) ) );
+    ModelAnnotation<CreateAttribute> b = attribute( "b" );
+    accumulator.contribute( key, new ModelAnnotationGroup( b ) );
+
+    ModelAnnotationGroup snapshot = accumulator.snapshot();
+    assertEquals( 1, snapshot.size() );
+    assertSame( b, snapshot.get( 0 ) );
+  }
+
+  @Test
+  public void testContributionIsCopied() throws Exception {
+    AnnotationAccumulator accumulator = new AnnotationAccumulator();
+    ModelAnnotationGroup group = new ModelAnnotationGroup( attribute( "a" ) );
+    accumulator.contribute( "key", group );
+    group.add( attribute( "b" ) );
+    assertEquals( 1, accumulator.snapshot().size() );
+  }
+
+  @Test
+  public void testPublishAndLegacyGroup() throws Exception {
+    Map<String, Object> extensionDataMap = new HashMap<String, Object>();
+    assertNull( AnnotationAccumulator.find( extensionDataMap ) );
+
+    ModelAnnotation<CreateAttribute> legacy = attribute( "legacy" );
+    extensionDataMap.put( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS, new ModelAnnotationGroup( legacy ) );
+    AnnotationAccumulator accumulator = AnnotationAccumulator.get( extensionDataMap );
+    assertSame( accumulator, AnnotationAccumulator.get( extensionDataMap ) );
+    assertSame( accumulator, AnnotationAccumulator.find( extensionDataMap ) );
+
+    ModelAnnotation<CreateAttribute> a = attribute( "a" );
+    accumulator.contribute( "key", new ModelAnnotationGroup( a ) );
+    accumulator.publish( extensionDataMap );
+    ModelAnnotationGroup published =
+        (ModelAnnotationGroup) extensionDataMap.get( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS );
+    assertEquals( 2, published.size() );
+    assertSame( legacy, published.get( 0 ) );
+    assertSame( a, published.get( 1 ) );
+
+    accumulator.publish( extensionDataMap );
+    assertNotSame( published, extensionDataMap.get( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS ) );
+  }
+}
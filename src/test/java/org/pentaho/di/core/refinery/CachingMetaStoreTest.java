@@ -0,0 +1,195 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+package org.pentaho.di.core.refinery;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationManager;
+import org.pentaho.metastore.api.IMetaStore;
+import org.pentaho.metastore.api.IMetaStoreElement;
+import org.pentaho.metastore.api.IMetaStoreElementType;
+import org.pentaho.metastore.stores.memory.MemoryMetaStore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CachingMetaStoreTest {
+
+  private static final String NAMESPACE = "test";
+
+  private IMetaStore delegate;
+  private IMetaStoreElementType elementType;
+
+  @Before
+  public void setUp() throws Exception {
+    delegate = new MemoryMetaStore();
+    delegate.createNamespace( NAMESPACE );
+    elementType = delegate.newElementType( NAMESPACE );
+    elementType.setId( "type" );
+    elementType.setName( "type" );
+    delegate.createElementType( NAMESPACE, elementType );
+  }
+
+  private IMetaStoreElement newElement( IMetaStore metaStore, String name, String value ) throws Exception {
+    IMetaStoreElement element = metaStore.newElement( elementType, name, value );
+    element.setName( name );
+    return element;
+  }
+
+  @Test
+  public void testRepeatedReadsHitCache() throws Exception {
+    delegate.createElement( NAMESPACE, elementType, newElement( delegate, "one", "1" ) );
+    CachingMetaStore cache = new CachingMetaStore( delegate, 10, 60000L );
+
+    IMetaStoreElement first = cache.getElementByName( NAMESPACE, elementType, "one" );
+    IMetaStoreElement second = cache.getElementByName( NAMESPACE, elementType, "one" );
+    assertEquals( "1", first.getValue() );
+    assertEquals( "1", second.getValue() );
+    assertEquals( 1, cache.getMissCount() );
+    assertEquals( 1, cache.getHitCount() );
+
+    // misses are remembered too
+    assertNull( cache.getElementByName( NAMESPACE, elementType, "missing" ) );
+    assertNull( cache.getElementByName( NAMESPACE, elementType, "missing" ) );
+    assertEquals( 2, cache.getMissCount() );
+    assertEquals( 2, cache.getHitCount() );
+  }
+
+  @Test
+  public void testWritesGoThroughCache() throws Exception {
+    CachingMetaStore cache = new CachingMetaStore( delegate, 10, 60000L );
+    assertNull( cache.getElementByName( NAMESPACE, elementType, "one" ) );
+
+    IMetaStoreElement created = newElement( cache, "one", "1" );
+    cache.createElement( NAMESPACE, elementType, created );
+    assertEquals( "1", cache.getElementByName( NAMESPACE, elementType, "one" ).getValue() );
+    assertEquals( "1", delegate.getElementByName( NAMESPACE, elementType, "one" ).getValue() );
+
+    IMetaStoreElement updated = newElement( cache, "one", "2" );
+    cache.updateElement( NAMESPACE, elementType, "one", updated );
+    assertEquals( "2", cache.getElementByName( NAMESPACE, elementType, "one" ).getValue() );
+    assertEquals( "2", cache.getElement( NAMESPACE, elementType, "one" ).getValue() );
+    assertEquals( 3, cache.getHitCount() );
+    assertEquals( "2", delegate.getElementByName( NAMESPACE, elementType, "one" ).getValue() );
+
+    cache.deleteElement( NAMESPACE, elementType, "one" );
+    assertNull( cache.getElementByName( NAMESPACE, elementType, "one" ) );
+  }
+
+  @Test
+  public void testReadersGetCopies() throws Exception {
+    IMetaStoreElement element = newElement( delegate, "one", "1" );
+    element.addChild( delegate.newAttribute( "child", "a" ) );
+    delegate.createElement( NAMESPACE, elementType, element );
+    CachingMetaStore cache = new CachingMetaStore( delegate, 10, 60000L );
+
+    IMetaStoreElement first = cache.getElementByName( NAMESPACE, elementType, "one" );
+    first.setValue( "changed" );
+    first.getChild( "child" ).setValue( "changed" );
+    IMetaStoreElement second = cache.getElementByName( NAMESPACE, elementType, "one" );
+    assertNotSame( first, second );
+    assertEquals( "1", second.getValue() );
+    assertEquals( "a", second.getChild( "child" ).getValue() );
+    assertEquals( 1, cache.getHitCount() );
+
+    cache.getElements( NAMESPACE, elementType ).get( 0 ).setValue( "changed" );
+    assertEquals( "1", cache.getElements( NAMESPACE, elementType ).get( 0 ).getValue() );
+
+    // nor does the writer share its element with the cache
+    IMetaStoreElement written = newElement( cache, "two", "2" );
+    cache.createElement( NAMESPACE, elementType, written );
+    written.setValue( "changed" );
+    assertEquals( "2", cache.getElementByName( NAMESPACE, elementType, "two" ).getValue() );
+  }
+
+  @Test
+  public void testWrappersShareInvalidation() throws Exception {
+    IMetaStore reader = CachingMetaStore.wrap( delegate );
+    IMetaStore writer = CachingMetaStore.wrap( delegate );
+    assertNotSame( reader, writer );
+    assertSame( reader, CachingMetaStore.wrap( reader ) );
+    assertNull( CachingMetaStore.wrap( null ) );
+
+    writer.createElement( NAMESPACE, elementType, newElement( writer, "one", "1" ) );
+    assertEquals( "1", reader.getElementByName( NAMESPACE, elementType, "one" ).getValue() );
+    writer.updateElement( NAMESPACE, elementType, "one", newElement( writer, "one", "2" ) );
+    assertEquals( "2", reader.getElementByName( NAMESPACE, elementType, "one" ).getValue() );
+    assertEquals( 0, ( (CachingMetaStore) reader ).getMissCount() );
+  }
+
+  @Test
+  public void testEntriesExpire() throws Exception {
+    CachingMetaStore cache = new CachingMetaStore( delegate, 10, 0L );
+    delegate.createElement( NAMESPACE, elementType, newElement( delegate, "one", "1" ) );
+    assertEquals( "1", cache.getElementByName( NAMESPACE, elementType, "one" ).getValue() );
+
+    // written around the cache
+    delegate.updateElement( NAMESPACE, elementType, "one", newElement( delegate, "one", "2" ) );
+    assertEquals( "2", cache.getElementByName( NAMESPACE, elementType, "one" ).getValue() );
+    assertEquals( 0, cache.getHitCount() );
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() throws Exception {
+    CachingMetaStore cache = new CachingMetaStore( delegate, 2, 60000L );
+    for ( String name : new String[] { "a", "b", "c" } ) {
+      delegate.createElement( NAMESPACE, elementType, newElement( delegate, name, name ) );
+    }
+    cache.getElementByName( NAMESPACE, elementType, "a" );
+    cache.getElementByName( NAMESPACE, elementType, "b" );
+    cache.getElementByName( NAMESPACE, elementType, "a" );
+    cache.getElementByName( NAMESPACE, elementType, "c" );
+    assertEquals( 3, cache.getMissCount() );
+
+    cache.getElementByName( NAMESPACE, elementType, "a" );
+    assertEquals( 2, cache.getHitCount() );
+    cache.getElementByName( NAMESPACE, elementType, "b" );
+    assertEquals( 4, cache.getMissCount() );
+  }
+
+  @Test
+  public void testAnnotationGroupRoundTrip() throws Exception {
+    IMetaStore metaStore = new CachingMetaStore( new MemoryMetaStore(), 100, 60000L );
+    ModelAnnotationManager manager = new ModelAnnotationManager();
+    CreateAttribute createAttribute = new CreateAttribute();
+    createAttribute.setField( "f1" );
+    ModelAnnotationGroup group = new ModelAnnotationGroup( new ModelAnnotation<CreateAttribute>( createAttribute ) );
+    group.setName( "group" );
+    manager.createGroup( group, metaStore );
+
+    assertEquals( 1, manager.readGroup( "group", metaStore ).size() );
+    assertEquals( 1, manager.readGroup( "group", metaStore ).size() );
+    assertTrue( ( (CachingMetaStore) metaStore ).getHitCount() > 0 );
+
+    CreateAttribute another = new CreateAttribute();
+    another.setField( "f2" );
+    group.add( new ModelAnnotation<CreateAttribute>( another ) );
+    manager.updateGroup( group, metaStore );
+    assertEquals( 2, manager.readGroup( "group", metaStore ).size() );
+  }
+}
@@ -28,6 +28,7 @@ import org.mockito.ArgumentMatcher;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationManager;
 import org.pentaho.agilebi.modeler.models.annotations.data.ColumnMapping;
+import org.pentaho.agilebi.modeler.models.annotations.data.DataProvider;
 import org.pentaho.di.core.KettleClientEnvironment;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.row.RowMeta;
@@ -46,6 +47,7 @@ import org.pentaho.di.trans.steps.tableoutput.TableOutputData;
 import org.pentaho.di.trans.steps.tableoutput.TableOutputMeta;
 import org.pentaho.metastore.api.IMetaStore;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -265,6 +267,67 @@ public class DataProviderHelperTest {
     }
   }
 
+  @Test
+  public void testUnchangedProviderIsNotRewritten() throws Exception {
+    IMetaStore metaStore = mock( IMetaStore.class );
+    final DatabaseMeta dbMeta =
+        new DatabaseMeta( "dbmetaTest", "postgresql", "Native", "somehost", "db", "3001", "user", "pass" );
+    TableOutputMeta tableOutMeta = new TableOutputMeta();
+    tableOutMeta.setDefault();
+    tableOutMeta.setDatabaseMeta( dbMeta );
+    tableOutMeta.setTableName( "store" );
+    StepMetaDataCombi combi = new StepMetaDataCombi();
+    combi.stepname = "out1";
+    TableOutputData tableOutData = new TableOutputData();
+    tableOutData.insertRowMeta = getRowMeta( new ValueMetaInteger( "id" ), new ValueMetaString( "field1" ) );
+    combi.meta = tableOutMeta;
+    combi.stepMeta = new StepMeta( combi.stepname, tableOutMeta );
+    combi.data = tableOutData;
+    combi.step = mock( TableOutput.class );
+
+    final ModelAnnotationManager manager = mock( ModelAnnotationManager.class );
+    when( manager.storeDatabaseMeta( any( DatabaseMeta.class ), eq( metaStore ) ) ).thenReturn( dbMeta.getName() );
+    ModelAnnotationGroup group = new ModelAnnotationGroup();
+    group.setName( "mag" );
+    DataProviderHelper helper = new DataProviderHelper( metaStore ) {
+      protected ModelAnnotationManager getModelAnnotationManager() {
+        return manager;
+      };
+    };
+
+    helper.updateDataProvider( group, combi );
+    helper.updateDataProvider( group, combi );
+    verify( manager, times( 1 ) ).storeDatabaseMeta( any( DatabaseMeta.class ), any( IMetaStore.class ) );
+    verify( manager, times( 1 ) ).updateGroup( any( ModelAnnotationGroup.class ), any( IMetaStore.class ) );
+
+    // a copy of the group as stored
+    ModelAnnotationGroup stored = new ModelAnnotationGroup();
+    stored.setName( "mag" );
+    stored.setDataProviders( new ArrayList<DataProvider>( group.getDataProviders() ) );
+    helper.updateDataProvider( stored, combi );
+    verify( manager, times( 1 ) ).updateGroup( any( ModelAnnotationGroup.class ), any( IMetaStore.class ) );
+
+    // the group lost the provider
+    ModelAnnotationGroup edited = new ModelAnnotationGroup();
+    edited.setName( "mag" );
+    helper.updateDataProvider( edited, combi );
+    verify( manager, times( 2 ) ).updateGroup( any( ModelAnnotationGroup.class ), any( IMetaStore.class ) );
+    assertEquals( 1, edited.getDataProviders().size() );
+
+    // new column
+    tableOutData.insertRowMeta = getRowMeta(
+        new ValueMetaInteger( "id" ), new ValueMetaString( "field1" ), new ValueMetaNumber( "field2" ) );
+    helper.updateDataProvider( group, combi );
+    verify( manager, times( 3 ) ).updateGroup( any( ModelAnnotationGroup.class ), any( IMetaStore.class ) );
+    assertEquals( 3, group.getDataProviders().get( 0 ).getColumnMappings().size() );
+
+    // different connection
+    dbMeta.setHostname( "otherhost" );
+    helper.updateDataProvider( group, combi );
+    verify( manager, times( 4 ) ).storeDatabaseMeta( any( DatabaseMeta.class ), any( IMetaStore.class ) );
+    verify( manager, times( 4 ) ).updateGroup( any( ModelAnnotationGroup.class ), any( IMetaStore.class ) );
+  }
+
   @Test
   public void testOutputSteppingMapper() throws Exception {
     StepMetaDataCombi stepMetaDataCombi = new StepMetaDataCombi();
@@ -0,0 +1,106 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery;
+
+import org.junit.Test;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FieldIndexTest {
+
+  @Test
+  public void testExactAndIgnoreCaseLookups() throws Exception {
+    FieldIndex index = new FieldIndex( Arrays.asList( "Amount", "region", "AMOUNT" ) );
+    assertEquals( 0, index.indexOf( "Amount" ) );
+    assertEquals( 2, index.indexOf( "AMOUNT" ) );
+    assertEquals( -1, index.indexOf( "amount" ) );
+    assertEquals( 0, index.indexOfIgnoreCase( "amount" ) );
+    assertEquals( 1, index.indexOfIgnoreCase( "REGION" ) );
+    assertEquals( -1, index.indexOfIgnoreCase( "missing" ) );
+    assertTrue( index.contains( "region" ) );
+    assertFalse( index.contains( "Region" ) );
+    assertEquals( 3, index.size() );
+  }
+
+  @Test
+  public void testFirstOccurrenceWins() throws Exception {
+    FieldIndex index = new FieldIndex( Arrays.asList( "a", "b", "a", "B" ) );
+    assertEquals( 0, index.indexOf( "a" ) );
+    assertEquals( 3, index.indexOf( "B" ) );
+    assertEquals( 1, index.indexOfIgnoreCase( "B" ) );
+  }
+
+  @Test
+  public void testNulls() throws Exception {
+    FieldIndex index = new FieldIndex( Arrays.asList( null, "a" ) );
+    assertEquals( -1, index.indexOf( null ) );
+    assertEquals( -1, index.indexOfIgnoreCase( null ) );
+    assertEquals( 1, index.indexOf( "a" ) );
+    assertEquals( 0, new FieldIndex( null ).size() );
+    assertEquals( 0, FieldIndex.of( null ).size() );
+  }
+
+  @Test
+  public void testOfRowMeta() throws Exception {
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+    rowMeta.addValueMeta( new ValueMetaInteger( "count" ) );
+    FieldIndex index = FieldIndex.of( rowMeta );
+    assertEquals( 1, index.indexOf( "count" ) );
+    assertEquals( -1, index.indexOf( "Count" ) );
+    assertEquals( 1, index.indexOfIgnoreCase( "Count" ) );
+  }
+
+  @Test
+  public void testFoldCaseMatchesEqualsIgnoreCase() throws Exception {
+    String[][] pairs = {
+      { "abc", "ABC" }, { "\u0130", "i" }, { "\u0131", "I" }, { "\u00DF", "SS" }, { "\u03A3", "\u03C2" }, { "a", "b" } };
+    for ( String[] pair : pairs ) {
+      assertEquals( pair[ 0 ] + " ~ " + pair[ 1 ], pair[ 0 ].equalsIgnoreCase( pair[ 1 ] ),
+          FieldIndex.foldCase( pair[ 0 ] ).equals( FieldIndex.foldCase( pair[ 1 ] ) ) );
+    }
+  }
+
+  @Test
+  public void testWideRow() throws Exception {
+    List<String> names = new ArrayList<String>();
+    for ( int i = 0; i < 10000; i++ ) {
+      names.add( "Column_" + i );
+    }
+    FieldIndex index = new FieldIndex( names );
+    for ( int i = 0; i < 10000; i++ ) {
+      assertEquals( i, index.indexOf( "Column_" + i ) );
+      assertEquals( i, index.indexOfIgnoreCase( "COLUMN_" + i ) );
+    }
+    assertEquals( -1, index.indexOf( "Column_10000" ) );
+  }
+}
@@ -0,0 +1,172 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+package org.pentaho.di.core.refinery.extension;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.agilebi.modeler.models.annotations.data.DataProvider;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.refinery.DataProviderHelper;
+import org.pentaho.di.core.refinery.DataProviderHelper.PreparedDataProvider;
+import org.pentaho.di.job.Job;
+import org.pentaho.di.job.JobMeta;
+import org.pentaho.metastore.api.IMetaStore;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class DataProviderUpdateQueueTest {
+
+  private IMetaStore metaStore;
+  private DataProviderHelper helper;
+  private LogChannelInterface log;
+
+  @BeforeClass
+  public static void setUpClass() throws Exception {
+    KettleClientEnvironment.init();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    metaStore = mock( IMetaStore.class );
+    helper = mock( DataProviderHelper.class );
+    log = mock( LogChannelInterface.class );
+  }
+
+  private static ModelAnnotationGroup group( String name ) {
+    ModelAnnotationGroup group = new ModelAnnotationGroup();
+    group.setName( name );
+    group.setSharedDimension( true );
+    return group;
+  }
+
+  private static PreparedDataProvider provider( String stepName, String table ) {
+    DataProvider dataProvider = new DataProvider();
+    dataProvider.setName( stepName );
+    dataProvider.setTableName( table );
+    DatabaseMeta databaseMeta = new DatabaseMeta();
+    databaseMeta.setName( "db" );
+    return new PreparedDataProvider( dataProvider, databaseMeta );
+  }
+
+  @Test
+  @SuppressWarnings( "unchecked" )
+  public void testUpdatesOfOneGroupAreCoalesced() throws Exception {
+    DataProviderUpdateQueue queue = new DataProviderUpdateQueue( log, 60000L );
+    ModelAnnotationGroup first = group( "dim" );
+    ModelAnnotationGroup latest = group( "dim" );
+    PreparedDataProvider out1 = provider( "out1", "t1" );
+    PreparedDataProvider out2 = provider( "out2", "t2" );
+    PreparedDataProvider out1Again = provider( "out1", "t1" );
+    queue.submit( metaStore, helper, first, out1 );
+    queue.submit( metaStore, helper, first, out2 );
+    queue.submit( metaStore, helper, latest, out1Again );
+    queue.submit( metaStore, helper, group( "other" ), provider( "out3", "t3" ) );
+    assertEquals( 2, queue.getPendingCount() );
+    verify( helper, never() ).storeDataProviders( any( ModelAnnotationGroup.class ), anyList() );
+
+    assertEquals( 0, queue.flush() );
+    assertEquals( 0, queue.getPendingCount() );
+    ArgumentCaptor<List> providers = ArgumentCaptor.forClass( List.class );
+    verify( helper ).storeDataProviders( same( latest ), providers.capture() );
+    assertEquals( 2, providers.getValue().size() );
+    assertSame( out2, providers.getValue().get( 0 ) );
+    assertSame( out1Again, providers.getValue().get( 1 ) );
+    verify( helper, times( 2 ) ).storeDataProviders( any( ModelAnnotationGroup.class ), anyList() );
+
+    // nothing left to write
+    queue.flush();
+    verify( helper, times( 2 ) ).storeDataProviders( any( ModelAnnotationGroup.class ), anyList() );
+  }
+
+  @Test
+  public void testUpdatesAreWrittenInBackground() throws Exception {
+    DataProviderUpdateQueue queue = new DataProviderUpdateQueue( log, 10L );
+    queue.submit( metaStore, helper, group( "dim" ), provider( "out1", "t1" ) );
+    for ( int i = 0; i < 500 && queue.getPendingCount() > 0; i++ ) {
+      Thread.sleep( 10 );
+    }
+    // waits for a write in progress
+    queue.flush();
+    verify( helper ).storeDataProviders( any( ModelAnnotationGroup.class ), anyList() );
+  }
+
+  @Test
+  public void testFailuresAreLogged() throws Exception {
+    DataProviderUpdateQueue queue = new DataProviderUpdateQueue( log, 60000L );
+    KettleException error = new KettleException( "no metastore today" );
+    doThrow( error ).when( helper ).storeDataProviders( any( ModelAnnotationGroup.class ), anyList() );
+    queue.submit( metaStore, helper, group( "dim" ), provider( "out1", "t1" ) );
+    assertEquals( 1, queue.flush() );
+    verify( log ).logError( anyString(), same( error ) );
+  }
+
+  @Test
+  @SuppressWarnings( "unchecked" )
+  public void testFailureIsReportedOnce() throws Exception {
+    DataProviderUpdateQueue queue = new DataProviderUpdateQueue( log, 60000L );
+    DataProviderHelper failing = mock( DataProviderHelper.class );
+    doThrow( new KettleException( "no metastore today" ) )
+        .when( failing ).storeDataProviders( any( ModelAnnotationGroup.class ), anyList() );
+    queue.submit( metaStore, failing, group( "dim" ), provider( "out1", "t1" ) );
+    assertEquals( 1, queue.flush() );
+
+    // a later entry whose providers were stored does not fail for the earlier write
+    queue.submit( metaStore, helper, group( "dim" ), provider( "out2", "t2" ) );
+    assertEquals( 0, queue.flush() );
+    verify( helper ).storeDataProviders( any( ModelAnnotationGroup.class ), anyList() );
+    assertEquals( 0, queue.flush() );
+  }
+
+  @Test
+  public void testFlushedWhenJobEnds() throws Exception {
+    Job job = new Job( null, new JobMeta() );
+    DataProviderUpdateQueue queue = DataProviderUpdateQueue.get( job );
+    assertSame( queue, DataProviderUpdateQueue.get( job ) );
+    assertEquals( 0, DataProviderUpdateQueue.flush( null ) );
+
+    queue.submit( metaStore, helper, group( "dim" ), provider( "out1", "t1" ) );
+    job.fireJobFinishListeners();
+    verify( helper ).storeDataProviders( any( ModelAnnotationGroup.class ), anyList() );
+
+    queue.submit( metaStore, helper, group( "dim" ), provider( "out2", "t2" ) );
+    DataProviderUpdateQueue.flush( job.getExtensionDataMap() );
+    verify( helper, times( 2 ) ).storeDataProviders( any( ModelAnnotationGroup.class ), anyList() );
+  }
+}
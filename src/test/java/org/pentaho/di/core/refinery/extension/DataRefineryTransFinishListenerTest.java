@@ -22,6 +22,7 @@
 
 package org.pentaho.di.core.refinery.extension;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -404,7 +405,38 @@ public class DataRefineryTransFinishListenerTest {
         "\\s*Unable to auto-model because more than one step with the same name was found: cosmic output\\s*" ) );
   }
 
-  private void addModelEntry(
+  @Test
+  public void testBatchOutputStepsAreInExtensionMap() throws Exception {
+    DataRefineryTransFinishListener listener = new DataRefineryTransFinishListener();
+    StepMetaDataCombi salesOutput = new StepMetaDataCombi();
+    salesOutput.stepname = "sales output";
+    salesOutput.meta = new TableOutputMeta();
+    StepMetaDataCombi ordersOutput = new StepMetaDataCombi();
+    ordersOutput.stepname = "orders output";
+    ordersOutput.meta = new TableOutputMeta();
+    StepMetaDataCombi notAnOutput = new StepMetaDataCombi();
+    notAnOutput.stepname = "lookup output";
+    StepMetaDataCombi namedStep = new StepMetaDataCombi();
+    namedStep.stepname = "named step";
+    Trans trans = mock( Trans.class );
+    Job job = mock( Job.class );
+    JobMeta meta = new JobMeta();
+    addModelEntry( meta, "batch model", null ).setBatchModels( "* output=Model {step}; named step" );
+    when( job.getJobMeta() ).thenReturn( meta );
+    when( job.environmentSubstitute( "* output=Model {step}; named step" ) )
+        .thenReturn( "* output=Model {step}; named step" );
+    HashMap<String, Object> actualMap = new HashMap<String, Object>();
+    when( job.getExtensionDataMap() ).thenReturn( actualMap );
+    when( trans.getSteps() ).thenReturn( asList( salesOutput, ordersOutput, notAnOutput, namedStep ) );
+
+    listener.setBuildModelOutputStep( job, trans );
+    assertEquals( 3, actualMap.size() );
+    assertEquals( salesOutput, actualMap.get( JobEntryBuildModel.getBatchStepKey( "batch model", "sales output" ) ) );
+    assertEquals( ordersOutput, actualMap.get( JobEntryBuildModel.getBatchStepKey( "batch model", "orders output" ) ) );
+    assertEquals( namedStep, actualMap.get( JobEntryBuildModel.getBatchStepKey( "batch model", "named step" ) ) );
+  }
+
+  private JobEntryBuildModel addModelEntry(
       final JobMeta meta, final String modelStepName, final String outputStepName ) {
     final JobEntryCopy copy = new JobEntryCopy();
     JobEntryBuildModel jeBuildModel = new JobEntryBuildModel( modelStepName, "who cares" );
@@ -412,6 +444,7 @@ public class DataRefineryTransFinishListenerTest {
     jeBuildModel.setPluginId( JobEntryBuildModel.PLUGIN_ID );
     copy.setEntry( jeBuildModel );
     meta.addJobEntry( copy );
+    return jeBuildModel;
   }
 
 }
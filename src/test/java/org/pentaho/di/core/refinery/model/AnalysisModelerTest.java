@@ -38,6 +38,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.pentaho.di.core.row.ValueMetaInterface.*;
@@ -61,6 +62,14 @@ public class AnalysisModelerTest {
     assertEquals( expectedSchema.replaceAll( "\r", "" ), newSchema.replaceAll( "\r", "" ) );
   }
 
+  @Test
+  public void testModelNameIsEscaped() throws Exception {
+    String schema = IOUtils.toString( getClass().getResourceAsStream( "resources/testAnalysisSchema.xml" ) );
+    String newSchema = getAnalysisModeler().replaceTableAndSchemaNames( schema, "Sales & <Returns>" );
+    assertTrue( newSchema.contains( "<Schema name=\"Sales &amp; &lt;Returns" ) );
+    assertTrue( newSchema.contains( "<Cube name=\"Sales &amp; &lt;Returns" ) );
+  }
+
   @Test
   public void testSchemaWithMultipleTableNamesIsInvalid() throws Exception {
     String schema = IOUtils.toString( getClass().getResourceAsStream( "resources/multiTableAnalysisSchema.xml" ) );
@@ -0,0 +1,155 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.agilebi.modeler.ModelerException;
+import org.pentaho.agilebi.modeler.geo.GeoContext;
+import org.pentaho.agilebi.modeler.geo.GeoContextConfigProvider;
+import org.pentaho.agilebi.modeler.geo.GeoContextPropertiesProvider;
+
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class GeoContextCacheTest {
+
+  private GeoContextCache cache;
+  private Properties props;
+
+  @Before
+  public void setUp() throws Exception {
+    cache = new GeoContextCache();
+    props = new Properties();
+    InputStream input = getClass().getResourceAsStream( "/geoRoles.properties" );
+    try {
+      props.load( input );
+    } finally {
+      input.close();
+    }
+  }
+
+  private Properties copy( Properties props ) {
+    Properties copy = new Properties();
+    copy.putAll( props );
+    return copy;
+  }
+
+  @Test
+  public void testEqualConfigurationsShareContext() throws Exception {
+    GeoContext geoContext = cache.get( new GeoContextPropertiesProvider( props ) );
+    assertEquals( "Geography", geoContext.getDimensionName() );
+    GeoContext sameContext = cache.get( new GeoContextPropertiesProvider( copy( props ) ) );
+    assertEquals( geoContext.getDimensionName(), sameContext.getDimensionName() );
+    assertEquals( geoContext.size(), sameContext.size() );
+    assertEquals( 1, cache.size() );
+  }
+
+  @Test
+  public void testCallersGetCopies() throws Exception {
+    GeoContext geoContext = cache.get( new GeoContextPropertiesProvider( props ) );
+    GeoContext otherContext = cache.get( new GeoContextPropertiesProvider( props ) );
+    assertNotSame( geoContext, otherContext );
+    assertNotSame( geoContext.getGeoRole( 0 ), otherContext.getGeoRole( 0 ) );
+
+    geoContext.setDimensionName( "Location" );
+    assertEquals( "Geography", cache.get( new GeoContextPropertiesProvider( props ) ).getDimensionName() );
+  }
+
+  @Test
+  public void testChangedConfigurationBuildsContext() throws Exception {
+    cache.get( new GeoContextPropertiesProvider( props ) );
+    Properties changed = copy( props );
+    changed.setProperty( "geo.city.aliases", "city, town, village" );
+    cache.get( new GeoContextPropertiesProvider( changed ) );
+    assertEquals( 2, cache.size() );
+  }
+
+  @Test
+  public void testReloadedConfigurationDropsContexts() throws Exception {
+    cache.configurationLoaded( new GeoContextPropertiesProvider( props ) );
+    cache.get( new GeoContextPropertiesProvider( props ) );
+
+    // loading the same values again keeps them
+    cache.configurationLoaded( new GeoContextPropertiesProvider( copy( props ) ) );
+    assertEquals( 1, cache.size() );
+
+    Properties changed = copy( props );
+    changed.setProperty( "geo.dimension.name", "Location" );
+    cache.configurationLoaded( new GeoContextPropertiesProvider( changed ) );
+    assertEquals( 0, cache.size() );
+  }
+
+  @Test
+  public void testLoadedConfigurationIsFingerprintedOnce() throws Exception {
+    final GeoContextPropertiesProvider properties = new GeoContextPropertiesProvider( props );
+    final AtomicInteger reads = new AtomicInteger();
+    GeoContextConfigProvider config = new GeoContextConfigProvider() {
+      @Override
+      public String getDimensionName() throws ModelerException {
+        reads.incrementAndGet();
+        return properties.getDimensionName();
+      }
+
+      @Override
+      public String getRoles() throws ModelerException {
+        reads.incrementAndGet();
+        return properties.getRoles();
+      }
+
+      @Override
+      public String getRoleAliases( String roleName ) throws ModelerException {
+        reads.incrementAndGet();
+        return properties.getRoleAliases( roleName );
+      }
+
+      @Override
+      public String getRoleRequirements( String roleName ) throws ModelerException {
+        reads.incrementAndGet();
+        return properties.getRoleRequirements( roleName );
+      }
+    };
+    cache.configurationLoaded( config );
+    cache.get( config );
+    int readsToBuild = reads.get();
+
+    // later builds only look the context up
+    assertEquals( "Geography", cache.get( config ).getDimensionName() );
+    assertEquals( readsToBuild, reads.get() );
+    assertEquals( 1, cache.size() );
+  }
+
+  @Test
+  public void testSizeIsLimited() throws Exception {
+    for ( int i = 0; i < GeoContextCache.MAX_ENTRIES + 2; i++ ) {
+      Properties changed = copy( props );
+      changed.setProperty( "geo.dimension.name", "Geography " + i );
+      cache.get( new GeoContextPropertiesProvider( changed ) );
+    }
+    assertEquals( GeoContextCache.MAX_ENTRIES, cache.size() );
+  }
+}
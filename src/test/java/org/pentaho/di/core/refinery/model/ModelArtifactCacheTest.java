@@ -0,0 +1,149 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pentaho.agilebi.modeler.ModelerException;
+import org.pentaho.agilebi.modeler.geo.GeoContextConfigProvider;
+import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
+import org.pentaho.agilebi.modeler.models.annotations.CreateMeasure;
+import org.pentaho.agilebi.modeler.models.annotations.LinkDimension;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationManager;
+import org.pentaho.metadata.model.concept.types.AggregationType;
+import org.pentaho.metastore.api.IMetaStore;
+import org.pentaho.metastore.stores.memory.MemoryMetaStore;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ModelArtifactCacheTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testStoreAndRead() throws Exception {
+    File directory = new File( temporaryFolder.getRoot(), "cache" );
+    ModelArtifactCache cache = new ModelArtifactCache( directory, 10 );
+    assertNull( cache.get( "abc" ) );
+
+    cache.put( "abc", "<xmi/>" );
+    assertEquals( "<xmi/>", cache.get( "abc" ) );
+    cache.put( "abc", "<xmi>2</xmi>" );
+    assertEquals( "<xmi>2</xmi>", cache.get( "abc" ) );
+    assertEquals( 1, directory.list().length );
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() throws Exception {
+    File directory = temporaryFolder.getRoot();
+    ModelArtifactCache cache = new ModelArtifactCache( directory, 2 );
+    cache.put( "one", "1" );
+    cache.put( "two", "2" );
+    new File( directory, "one" + ModelArtifactCache.ARTIFACT_SUFFIX ).setLastModified( 2000000000000L );
+    new File( directory, "two" + ModelArtifactCache.ARTIFACT_SUFFIX ).setLastModified( 1000000000000L );
+
+    cache.put( "three", "3" );
+    assertEquals( "1", cache.get( "one" ) );
+    assertNull( cache.get( "two" ) );
+    assertEquals( "3", cache.get( "three" ) );
+  }
+
+  @Test
+  public void testKeyIgnoresAnnotationNames() throws Exception {
+    ModelAnnotation<CreateMeasure> measure = measure( AggregationType.SUM );
+    ModelAnnotation<CreateMeasure> renamed = measure( AggregationType.SUM );
+    renamed.setName( "other name" );
+    ModelAnnotation<CreateMeasure> average = measure( AggregationType.AVERAGE );
+
+    String key = keyOf( new ModelAnnotationGroup( measure ) );
+    assertEquals( 64, key.length() );
+    assertEquals( key, keyOf( new ModelAnnotationGroup( renamed ) ) );
+    assertFalse( key.equals( keyOf( new ModelAnnotationGroup( average ) ) ) );
+    assertFalse( key.equals( new ModelArtifactCache.Key().add( "model", "other model" )
+        .addAnnotations( new ModelAnnotationGroup( measure ) ).build() ) );
+  }
+
+  @Test
+  public void testKeyFollowsLinkedDimension() throws Exception {
+    IMetaStore metaStore = new MemoryMetaStore();
+    ModelAnnotationManager manager = new ModelAnnotationManager( true );
+    CreateAttribute attribute = new CreateAttribute();
+    attribute.setName( "Region" );
+    attribute.setDimension( "Geography" );
+    attribute.setHierarchy( "Geography" );
+    ModelAnnotationGroup sharedDimension =
+        new ModelAnnotationGroup( new ModelAnnotation<CreateAttribute>( attribute ) );
+    sharedDimension.setName( "geo" );
+    sharedDimension.setSharedDimension( true );
+    manager.createGroup( sharedDimension, metaStore );
+
+    LinkDimension linkDimension = new LinkDimension();
+    linkDimension.setName( "Geography" );
+    linkDimension.setSharedDimension( "geo" );
+    ModelAnnotationGroup group = new ModelAnnotationGroup( new ModelAnnotation<LinkDimension>( linkDimension ) );
+
+    String key = new ModelArtifactCache.Key().addLinkedDimensions( group, metaStore ).build();
+    assertEquals( key, new ModelArtifactCache.Key().addLinkedDimensions( group, metaStore ).build() );
+
+    attribute.setHierarchy( "Regions" );
+    manager.updateGroup( sharedDimension, metaStore );
+    assertFalse( key.equals( new ModelArtifactCache.Key().addLinkedDimensions( group, metaStore ).build() ) );
+  }
+
+  @Test
+  public void testKeyFollowsGeoConfiguration() throws Exception {
+    GeoContextConfigProvider config = mock( GeoContextConfigProvider.class );
+    when( config.getDimensionName() ).thenReturn( "Geography" );
+    when( config.getRoles() ).thenReturn( "country, state" );
+    when( config.getRoleAliases( "country" ) ).thenReturn( "country,ctry" );
+    when( config.getRoleAliases( "state" ) ).thenThrow( new ModelerException( "no aliases" ) );
+    String key = new ModelArtifactCache.Key().addGeoConfiguration( config ).build();
+
+    when( config.getRoleAliases( "country" ) ).thenReturn( "country,ctry,nation" );
+    assertFalse( key.equals( new ModelArtifactCache.Key().addGeoConfiguration( config ).build() ) );
+    assertEquals( new ModelArtifactCache.Key().addGeoConfiguration( null ).build(),
+        new ModelArtifactCache.Key().addGeoConfiguration( null ).build() );
+  }
+
+  private ModelAnnotation<CreateMeasure> measure( AggregationType aggregationType ) {
+    CreateMeasure measure = new CreateMeasure();
+    measure.setName( "Quantity" );
+    measure.setField( "QUANTITY" );
+    measure.setAggregateType( aggregationType );
+    return new ModelAnnotation<CreateMeasure>( measure );
+  }
+
+  private String keyOf( ModelAnnotationGroup group ) {
+    return new ModelArtifactCache.Key().add( "model", "model" ).addAnnotations( group ).build();
+  }
+}
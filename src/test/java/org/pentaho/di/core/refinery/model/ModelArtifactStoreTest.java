@@ -0,0 +1,138 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pentaho.di.job.Job;
+import org.pentaho.di.job.JobMeta;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ModelArtifactStoreTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testStoreAndOpen() throws Exception {
+    ModelArtifactStore store = new ModelArtifactStore( temporaryFolder.getRoot() );
+    String artifact = "<Schema name=\"Sales \u00e9t\u00e9\"/>";
+    String handle = store.store( artifact );
+    assertTrue( ModelArtifactStore.isHandle( handle ) );
+    assertTrue( handle.length() < 100 );
+
+    InputStream input = store.open( handle );
+    try {
+      assertEquals( artifact, IOUtils.toString( input, "UTF-8" ) );
+    } finally {
+      input.close();
+    }
+
+    store.clear();
+    assertEquals( 0, temporaryFolder.getRoot().list().length );
+  }
+
+  @Test
+  public void testPlainValuesAreNotHandles() throws Exception {
+    assertFalse( ModelArtifactStore.isHandle( null ) );
+    assertFalse( ModelArtifactStore.isHandle( "<xmi/>" ) );
+    InputStream input = ModelArtifactStore.openStream( "<xmi/>", "UTF-8" );
+    assertEquals( "<xmi/>", IOUtils.toString( input, "UTF-8" ) );
+  }
+
+  @Test
+  public void testHandlesOnlyNameStoredFiles() throws Exception {
+    File outside = temporaryFolder.newFile( "secret.artifact" );
+    ModelArtifactStore store = new ModelArtifactStore( temporaryFolder.newFolder( "store" ) );
+    try {
+      store.open( ModelArtifactStore.HANDLE_PREFIX + "../" + outside.getName() );
+      fail( "opened a file outside the store" );
+    } catch ( FileNotFoundException e ) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testJobStoresUsePrivateDirectories() throws Exception {
+    ModelArtifactStore store = new ModelArtifactStore();
+    ModelArtifactStore other = new ModelArtifactStore();
+    String handle = store.store( "<xmi/>" );
+    String otherHandle = other.store( "<xmi/>" );
+    File directory = new File( System.getProperty( "java.io.tmpdir" ),
+        handle.substring( ModelArtifactStore.HANDLE_PREFIX.length(), handle.lastIndexOf( '/' ) ) );
+    try {
+      assertTrue( directory.isDirectory() );
+      assertFalse( directory.equals( new File( System.getProperty( "java.io.tmpdir" ),
+          otherHandle.substring( ModelArtifactStore.HANDLE_PREFIX.length(), otherHandle.lastIndexOf( '/' ) ) ) ) );
+      if ( FileSystems.getDefault().supportedFileAttributeViews().contains( "posix" ) ) {
+        assertEquals( "rwx------",
+            PosixFilePermissions.toString( Files.getPosixFilePermissions( directory.toPath() ) ) );
+      }
+      // a store only opens its own handles
+      try {
+        other.open( handle );
+        fail( "opened the artifact of another store" );
+      } catch ( FileNotFoundException e ) {
+        // expected
+      }
+    } finally {
+      store.clear();
+      other.clear();
+    }
+    assertFalse( directory.exists() );
+  }
+
+  @Test
+  public void testFilesAreDeletedAtJobEnd() throws Exception {
+    Job job = new Job( null, new JobMeta() );
+    ModelArtifactStore store = ModelArtifactStore.get( job );
+    assertSame( store, ModelArtifactStore.get( job ) );
+
+    String handle = store.store( "<xmi/>" );
+    InputStream input = ModelArtifactStore.openStream( handle, "UTF-8" );
+    assertEquals( "<xmi/>", IOUtils.toString( input, "UTF-8" ) );
+    input.close();
+
+    job.fireJobFinishListeners();
+    try {
+      ModelArtifactStore.openStream( handle, "UTF-8" );
+      fail( "artifact outlived its job" );
+    } catch ( FileNotFoundException e ) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.refinery.model.ModelServerCatalog.Catalog;
+import org.pentaho.di.core.refinery.model.ModelServerFetcher.AuthorizationException;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+public class ModelServerCatalogTest {
+
+  private ModelServerFetcher fetcher;
+  private BiServerConnection connection;
+
+  @Before
+  public void setUp() throws Exception {
+    connection = connection( "admin", "password" );
+    fetcher = fetcher( connection );
+  }
+
+  private BiServerConnection connection( String user, String password ) {
+    BiServerConnection connection = new BiServerConnection();
+    connection.setUrl( "http://localhost:8080/pentaho/" );
+    connection.setUserId( user );
+    connection.setPassword( password );
+    return connection;
+  }
+
+  private ModelServerFetcher fetcher( BiServerConnection connection ) throws Exception {
+    ModelServerFetcher fetcher = mock( ModelServerFetcher.class );
+    when( fetcher.getBiServerConnection() ).thenReturn( connection );
+    when( fetcher.fetchDswList() ).thenReturn( asList( "sales.xmi" ) );
+    when( fetcher.fetchAnalysisList() ).thenReturn( asList( "inventory", "returns" ) );
+    return fetcher;
+  }
+
+  @Test
+  public void testFetchesBothListsOnce() throws Exception {
+    ModelServerCatalog catalogs = new ModelServerCatalog( 60000L );
+    Catalog catalog = catalogs.getCatalog( fetcher );
+    assertEquals( asList( "sales.xmi" ), catalog.getDswIds() );
+    assertEquals( asList( "inventory", "returns" ), catalog.getAnalysisIds() );
+    assertEquals( asList( "sales.xmi", "inventory", "returns" ), catalog.getDataSourceIds() );
+    assertTrue( catalog.contains( "returns" ) );
+    assertFalse( catalog.contains( "sales" ) );
+
+    // another fetcher for the same server and user
+    assertTrue( catalogs.getCatalog( fetcher( connection( "admin", "password" ) ) ).contains( "sales.xmi" ) );
+    verify( fetcher, times( 1 ) ).fetchDswList();
+    verify( fetcher, times( 1 ) ).fetchAnalysisList();
+  }
+
+  @Test
+  public void testUsersHaveTheirOwnCatalog() throws Exception {
+    ModelServerCatalog catalogs = new ModelServerCatalog( 60000L );
+    catalogs.getCatalog( fetcher );
+    ModelServerFetcher suzy = fetcher( connection( "suzy", "password" ) );
+    when( suzy.fetchAnalysisList() ).thenReturn( asList( "inventory" ) );
+    assertFalse( catalogs.getCatalog( suzy ).contains( "returns" ) );
+    ModelServerFetcher otherPassword = fetcher( connection( "admin", "other" ) );
+    catalogs.getCatalog( otherPassword );
+    verify( otherPassword ).fetchDswList();
+  }
+
+  @Test
+  public void testInvalidateAfterPublish() throws Exception {
+    ModelServerCatalog catalogs = new ModelServerCatalog( 60000L );
+    assertFalse( catalogs.getCatalog( fetcher ).contains( "new.xmi" ) );
+    when( fetcher.fetchDswList() ).thenReturn( asList( "sales.xmi", "new.xmi" ) );
+    assertFalse( catalogs.getCatalog( fetcher ).contains( "new.xmi" ) );
+
+    catalogs.invalidate( "http://localhost:8080/other/" );
+    assertFalse( catalogs.getCatalog( fetcher ).contains( "new.xmi" ) );
+    catalogs.invalidate( "http://localhost:8080/pentaho/" );
+    assertTrue( catalogs.getCatalog( fetcher ).contains( "new.xmi" ) );
+  }
+
+  @Test
+  public void testExpires() throws Exception {
+    ModelServerCatalog catalogs = new ModelServerCatalog( 1L );
+    catalogs.getCatalog( fetcher );
+    Thread.sleep( 20 );
+    catalogs.getCatalog( fetcher );
+    verify( fetcher, times( 2 ) ).fetchDswList();
+
+    catalogs = new ModelServerCatalog( 0L );
+    catalogs.getCatalog( fetcher );
+    catalogs.getCatalog( fetcher );
+    verify( fetcher, times( 4 ) ).fetchDswList();
+  }
+
+  @Test
+  public void testFailuresAreNotCached() throws Exception {
+    ModelServerCatalog catalogs = new ModelServerCatalog( 60000L );
+    when( fetcher.fetchAnalysisList() ).thenThrow( new AuthorizationException() );
+    try {
+      catalogs.getCatalog( fetcher );
+      fail( "no exception" );
+    } catch ( AuthorizationException e ) {
+      // thrown in the background, rethrown to the caller
+    }
+    ModelServerFetcher fixed = fetcher( connection );
+    assertTrue( catalogs.getCatalog( fixed ).contains( "returns" ) );
+  }
+
+  @Test
+  public void testExists() throws Exception {
+    ModelServerCatalog catalogs = new ModelServerCatalog( 60000L );
+    assertTrue( catalogs.exists( fetcher, "returns" ) );
+    assertFalse( catalogs.exists( fetcher, "new.xmi" ) );
+    verify( fetcher, times( 1 ) ).fetchDswList();
+    verify( fetcher, never() ).dataSourceExists( anyString() );
+  }
+
+  @Test
+  public void testExistsWithoutCachingStreamsTheLists() throws Exception {
+    ModelServerCatalog catalogs = new ModelServerCatalog( 0L );
+    when( fetcher.dataSourceExists( "returns" ) ).thenReturn( true );
+    assertTrue( catalogs.exists( fetcher, "returns" ) );
+    assertFalse( catalogs.exists( fetcher, "new.xmi" ) );
+    verify( fetcher, never() ).fetchDswList();
+    verify( fetcher, never() ).fetchAnalysisList();
+  }
+}
@@ -27,20 +27,25 @@ import static org.junit.Assert.*;
 import java.io.InputStream;
 import java.util.List;
 
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.pentaho.di.core.refinery.model.ModelServerFetcher.AuthorizationException;
 import org.pentaho.di.core.refinery.model.ModelServerFetcher.ServerException;
+import org.pentaho.di.core.refinery.publish.util.HttpDeadline;
 import org.pentaho.metadata.model.Domain;
 
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
+import com.sun.jersey.core.util.MultivaluedMapImpl;
 
 import static org.mockito.Mockito.*;
 
@@ -51,6 +56,9 @@ public class ModelServerFetcherTest {
   WebResource webResource;
   WebResource.Builder builder;
 
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
 
   @Before
   public void init() {
@@ -59,6 +67,8 @@ public class ModelServerFetcherTest {
     webResource = mock( WebResource.class );
     when( webResource.type( any( MediaType.class ) ) ).thenReturn( builder );
     when( webResource.type( any( String.class ) ) ).thenReturn( builder );
+    when( webResource.getRequestBuilder() ).thenReturn( builder );
+    when( builder.header( anyString(), any() ) ).thenReturn( builder );
     client = mock( Client.class );
     when( client.resource( any( String.class ) ) ).thenReturn( webResource );
   }
@@ -106,6 +116,31 @@ public class ModelServerFetcherTest {
     }
   }
 
+  @Test( expected = ServerException.class )
+  public void testFetchDswListMalformed() throws Exception {
+    mockResponse( 200, "<List><Item>One.xmi</List>" );
+    createModelServerFetcher().fetchDswList();
+  }
+
+  @Test
+  public void testDataSourceExists() throws Exception {
+    mockResponse( 200, "<List>\n<Item>One.xmi</Item>\n<Item>Two.xmi</Item>\n</List>" );
+    assertTrue( createModelServerFetcher().dataSourceExists( "One.xmi" ) );
+    // the rest of the list is not read
+    verify( client, times( 1 ) ).resource( "http://server:8081/webapp/plugin/data-access/api/datasource/dsw/ids" );
+    verify( client, never() ).resource( "http://server:8081/webapp/plugin/data-access/api/datasource/analysis/ids" );
+  }
+
+  @Test
+  public void testDataSourceDoesNotExist() throws Exception {
+    String payload = "<List>\n<Item>One.xmi</Item>\n</List>";
+    ClientResponse response = mockResponse( 200, payload );
+    when( response.getEntity( InputStream.class ) )
+        .thenReturn( IOUtils.toInputStream( payload, "UTF-8" ), IOUtils.toInputStream( payload, "UTF-8" ) );
+    assertFalse( createModelServerFetcher().dataSourceExists( "Two.xmi" ) );
+    verify( client, times( 1 ) ).resource( "http://server:8081/webapp/plugin/data-access/api/datasource/analysis/ids" );
+  }
+
   @Test
   public void testFetchAnalysisList() throws Exception {
     final String okPayload =
@@ -176,6 +211,63 @@ public class ModelServerFetcherTest {
     }
   }
 
+  @Test
+  public void testDownloadAnalysisFileRevalidatesCachedCopy() throws Exception {
+    ModelServerFetcher fetcher = createModelServerFetcher();
+    fetcher.setTemplateCache( new TemplateCache( temporaryFolder.getRoot(), 0 ) );
+    ClientResponse response = mockResponse( 200, "<Schema name=\"one\"/>" );
+    MultivaluedMapImpl headers = new MultivaluedMapImpl();
+    headers.putSingle( HttpHeaders.ETAG, "\"v1\"" );
+    when( response.getHeaders() ).thenReturn( headers );
+    assertEquals( "<Schema name=\"one\"/>", fetcher.downloadAnalysisFile( "SteelWheels" ) );
+
+    ClientResponse notModified = mock( ClientResponse.class );
+    when( notModified.getStatus() ).thenReturn( 304 );
+    when( builder.get( ClientResponse.class ) ).thenReturn( notModified );
+    assertEquals( "<Schema name=\"one\"/>", fetcher.downloadAnalysisFile( "SteelWheels" ) );
+    verify( builder ).header( HttpHeaders.IF_NONE_MATCH, "\"v1\"" );
+    verify( notModified, never() ).getEntity( InputStream.class );
+  }
+
+  @Test
+  public void testDownloadAnalysisFileUsesFreshCopyWithoutValidators() throws Exception {
+    ModelServerFetcher fetcher = createModelServerFetcher();
+    fetcher.setTemplateCache( new TemplateCache( temporaryFolder.getRoot(), 60000 ) );
+    mockResponse( 200, "<Schema name=\"one\"/>" );
+    assertEquals( "<Schema name=\"one\"/>", fetcher.downloadAnalysisFile( "SteelWheels" ) );
+    assertEquals( "<Schema name=\"one\"/>", fetcher.downloadAnalysisFile( "SteelWheels" ) );
+    verify( webResource, times( 1 ) ).get( ClientResponse.class );
+  }
+
+  @Test
+  public void testDownloadCachedDswFileReturnsCopies() throws Exception {
+    InputStream in = getClass().getResourceAsStream( "/Dsw Test.zip" );
+    try {
+      ModelServerFetcher fetcher = createModelServerFetcher();
+      fetcher.setTemplateCache( new TemplateCache( temporaryFolder.getRoot(), 60000 ) );
+      mockResponse( 200, in, "zip" );
+      Domain first = fetcher.downloadDswFile( "Dsw Test.xmi" );
+      first.setId( "changed" );
+      Domain second = fetcher.downloadDswFile( "Dsw Test.xmi" );
+      verify( webResource, times( 1 ) ).get( ClientResponse.class );
+      assertFalse( first == second );
+      assertFalse( "changed".equals( second.getId() ) );
+      assertEquals( "DswTest", second.getLogicalModels().get( 1 ).getProperty( "MondrianCatalogRef" ) );
+    } finally {
+      IOUtils.closeQuietly( in );
+    }
+  }
+
+
+  @Test
+  public void testCallsKeepToDeadline() throws Exception {
+    ModelServerFetcher fetcher = createModelServerFetcher();
+    HttpDeadline deadline = new HttpDeadline( 1000, 1000, 1000, null );
+    fetcher.setHttpDeadline( deadline );
+    mockResponse( 200, "<List><Item>One.xmi</Item></List>" );
+    fetcher.fetchDswList();
+    verify( webResource ).setProperty( HttpDeadline.PROPERTY, deadline );
+  }
 
   private ModelServerFetcher createModelServerFetcher() {
     return new MockFriendlyServerFetcher();
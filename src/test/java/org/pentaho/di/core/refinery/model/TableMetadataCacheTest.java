@@ -0,0 +1,130 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.junit.Test;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.logging.LoggingObjectInterface;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TableMetadataCacheTest {
+
+  @Test
+  public void testFieldsAreReadOnce() throws Exception {
+    CountingCache cache = new CountingCache( 60000L );
+    DatabaseMeta databaseMeta = getDatabaseMeta( "sales" );
+
+    RowMetaInterface fields = cache.getTableFields( null, databaseMeta, null, "orders" );
+    assertEquals( "orders", fields.getValueMeta( 0 ).getName() );
+    RowMetaInterface cached = cache.getTableFields( null, getDatabaseMeta( "sales" ), "", "orders" );
+    assertEquals( "orders", cached.getValueMeta( 0 ).getName() );
+    assertEquals( 1, cache.reads.size() );
+    assertFalse( fields == cached );
+
+    cache.getTableFields( null, databaseMeta, "public", "orders" );
+    cache.getTableFields( null, getDatabaseMeta( "other" ), null, "orders" );
+    cache.getTableFields( null, databaseMeta, null, "customers" );
+    assertEquals( 4, cache.reads.size() );
+  }
+
+  @Test
+  public void testCallersCannotChangeCachedFields() throws Exception {
+    CountingCache cache = new CountingCache( 60000L );
+    DatabaseMeta databaseMeta = getDatabaseMeta( "sales" );
+    cache.getTableFields( null, databaseMeta, null, "orders" ).addValueMeta( new ValueMetaString( "extra" ) );
+    assertEquals( 1, cache.getTableFields( null, databaseMeta, null, "orders" ).size() );
+  }
+
+  @Test
+  public void testInvalidate() throws Exception {
+    CountingCache cache = new CountingCache( 60000L );
+    DatabaseMeta databaseMeta = getDatabaseMeta( "sales" );
+    cache.getTableFields( null, databaseMeta, null, "orders" );
+    cache.getTableFields( null, databaseMeta, "public", "orders" );
+    cache.getTableFields( null, databaseMeta, null, "customers" );
+    cache.getTableFields( null, getDatabaseMeta( "other" ), null, "orders" );
+
+    cache.invalidate( databaseMeta, "ORDERS" );
+    assertEquals( 2, cache.size() );
+    cache.invalidate( null, "orders" );
+    cache.invalidate( databaseMeta, null );
+    assertEquals( 2, cache.size() );
+
+    cache.invalidateAll();
+    assertEquals( 0, cache.size() );
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    CountingCache cache = new CountingCache( 1L );
+    DatabaseMeta databaseMeta = getDatabaseMeta( "sales" );
+    cache.getTableFields( null, databaseMeta, null, "orders" );
+    Thread.sleep( 20 );
+    cache.getTableFields( null, databaseMeta, null, "orders" );
+    assertEquals( 2, cache.reads.size() );
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    CountingCache cache = new CountingCache( 0L );
+    DatabaseMeta databaseMeta = getDatabaseMeta( "sales" );
+    cache.getTableFields( null, databaseMeta, null, "orders" );
+    cache.getTableFields( null, databaseMeta, null, "orders" );
+    assertEquals( 2, cache.reads.size() );
+    assertEquals( 0, cache.size() );
+  }
+
+  private DatabaseMeta getDatabaseMeta( String name ) {
+    DatabaseMeta databaseMeta = mock( DatabaseMeta.class );
+    when( databaseMeta.getName() ).thenReturn( name );
+    return databaseMeta;
+  }
+
+  private static class CountingCache extends TableMetadataCache {
+    private final List<String> reads = new ArrayList<String>();
+
+    CountingCache( long maxAge ) {
+      super( maxAge );
+    }
+
+    @Override
+    RowMetaInterface readTableFields( LoggingObjectInterface parent, DatabaseMeta databaseMeta, String schema,
+        String table ) throws KettleDatabaseException {
+      reads.add( databaseMeta.getName() + "." + schema + "." + table );
+      RowMetaInterface fields = new RowMeta();
+      fields.addValueMeta( new ValueMetaString( table ) );
+      return fields;
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TemplateCacheTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testStoreAndRead() throws Exception {
+    File directory = new File( temporaryFolder.getRoot(), "cache" );
+    TemplateCache cache = new TemplateCache( directory, 1000 );
+    assertNull( cache.get( "abc" ) );
+
+    cache.put( "abc", new TemplateCache.Template( new byte[] { 1, 2 }, "application/zip", "\"v1\"", null, 42L ) );
+    TemplateCache.Template template = cache.get( "abc" );
+    assertArrayEquals( new byte[] { 1, 2 }, template.getContent() );
+    assertEquals( "application/zip", template.getContentType() );
+    assertEquals( "\"v1\"", template.getEtag() );
+    assertNull( template.getLastModified() );
+    assertEquals( 42L, template.getFetched() );
+    assertTrue( template.hasValidators() );
+
+    cache.put( "abc", new TemplateCache.Template( new byte[] { 3 }, null, null, null, 43L ) );
+    assertArrayEquals( new byte[] { 3 }, cache.get( "abc" ).getContent() );
+    assertFalse( cache.get( "abc" ).hasValidators() );
+    assertEquals( 1, directory.list().length );
+  }
+
+  @Test
+  public void testFreshness() throws Exception {
+    TemplateCache cache = new TemplateCache( temporaryFolder.getRoot(), 60000 );
+    long now = System.currentTimeMillis();
+    assertTrue( cache.isFresh( new TemplateCache.Template( new byte[ 0 ], null, null, null, now ) ) );
+    TemplateCache.Template old = new TemplateCache.Template( new byte[ 0 ], null, null, null, now - 120000 );
+    assertFalse( cache.isFresh( old ) );
+    assertTrue( cache.isFresh( old.revalidated() ) );
+  }
+
+  @Test
+  public void testKeyDependsOnServerUserAndPath() throws Exception {
+    BiServerConnection connection = new BiServerConnection();
+    connection.setUrl( "http://localhost:8080/pentaho/" );
+    connection.setUserId( "admin" );
+    String key = TemplateCache.getKey( connection, "dsw/Model.xmi/download" );
+    assertEquals( key, TemplateCache.getKey( connection, "dsw/Model.xmi/download" ) );
+    assertFalse( key.equals( TemplateCache.getKey( connection, "dsw/Other.xmi/download" ) ) );
+    connection.setUserId( "suzy" );
+    assertFalse( key.equals( TemplateCache.getKey( connection, "dsw/Model.xmi/download" ) ) );
+  }
+}
@@ -0,0 +1,149 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+import org.junit.Test;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.metastore.stores.memory.MemoryMetaStore;
+
+import javax.xml.bind.DatatypeConverter;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class DataProfilerTest {
+
+  private RowMeta getRowMeta() {
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    rowMeta.addValueMeta( new ValueMetaNumber( "amount" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "city" ) );
+    ValueMetaDate date = new ValueMetaDate( "day" );
+    date.setConversionMask( "yyyy-MM-dd" );
+    rowMeta.addValueMeta( date );
+    return rowMeta;
+  }
+
+  @Test
+  public void testProfilesFields() throws Exception {
+    DataProfiler profiler = new DataProfiler( getRowMeta() );
+    profiler.addRow( new Object[] { 3L, 1.5, "Orlando", new Date( 86400000L * 2 + 43200000L ) } );
+    profiler.addRow( new Object[] { 1L, null, "Boston", new Date( 86400000L * 3 + 43200000L ) } );
+    profiler.addRow( new Object[] { 2L, -4.0, "Orlando", null } );
+
+    DataProfile profile = profiler.getProfile( "sales" );
+    assertEquals( "sales", profile.getName() );
+    assertEquals( 3, profile.getRowCount() );
+
+    FieldProfile id = profile.getField( "id" );
+    assertEquals( 3, id.getDistinctCount() );
+    assertEquals( 0, id.getNullCount() );
+    assertEquals( "1", id.getMinimum() );
+    assertEquals( "3", id.getMaximum() );
+    assertEquals( "Integer", id.getType() );
+
+    FieldProfile amount = profile.getField( "amount" );
+    assertEquals( 2, amount.getDistinctCount() );
+    assertEquals( 1, amount.getNullCount() );
+
+    FieldProfile city = profile.getField( "city" );
+    assertEquals( 2, city.getDistinctCount() );
+    assertEquals( "Boston", city.getMinimum() );
+    assertEquals( "Orlando", city.getMaximum() );
+
+    FieldProfile day = profile.getField( "day" );
+    assertEquals( 1, day.getNullCount() );
+    assertEquals( "1970-01-03", day.getMinimum() );
+    assertEquals( "1970-01-04", day.getMaximum() );
+
+    assertEquals( new HyperLogLog().getRegisters().length,
+        DatatypeConverter.parseBase64Binary( city.getSketch() ).length );
+  }
+
+  @Test
+  public void testEmptyFieldHasNoRange() throws Exception {
+    DataProfiler profiler = new DataProfiler( getRowMeta() );
+    profiler.addRow( new Object[] { null, null, null, null } );
+    FieldProfile id = profiler.getProfile( "p" ).getField( "id" );
+    assertEquals( 1, id.getNullCount() );
+    assertEquals( 0, id.getDistinctCount() );
+    assertNull( id.getMinimum() );
+    assertNull( id.getMaximum() );
+  }
+
+  @Test
+  public void testMergeCopies() throws Exception {
+    DataProfiler copy1 = new DataProfiler( getRowMeta() );
+    DataProfiler copy2 = new DataProfiler( getRowMeta() );
+    copy1.addRow( new Object[] { 5L, 1.0, "b", null } );
+    copy2.addRow( new Object[] { 7L, 1.0, "a", null } );
+    copy2.addRow( new Object[] { 5L, 2.0, "c", null } );
+    copy1.merge( copy2 );
+
+    DataProfile profile = copy1.getProfile( "merged" );
+    assertEquals( 3, profile.getRowCount() );
+    assertEquals( 2, profile.getField( "id" ).getDistinctCount() );
+    assertEquals( "5", profile.getField( "id" ).getMinimum() );
+    assertEquals( "7", profile.getField( "id" ).getMaximum() );
+    assertEquals( "a", profile.getField( "city" ).getMinimum() );
+    assertEquals( "c", profile.getField( "city" ).getMaximum() );
+    assertEquals( 3, profile.getField( "day" ).getNullCount() );
+  }
+
+  @Test
+  public void testStoresInMetaStore() throws Exception {
+    DataProfiler profiler = new DataProfiler( getRowMeta() );
+    profiler.addRow( new Object[] { 1L, 2.0, "x", new Date( 0 ) } );
+    MemoryMetaStore metaStore = new MemoryMetaStore();
+    DataProfileManager manager = new DataProfileManager();
+    assertNull( manager.loadProfile( "group", metaStore ) );
+
+    manager.saveProfile( profiler.getProfile( "group" ), metaStore );
+    profiler.addRow( new Object[] { 2L, 2.0, "y", new Date( 0 ) } );
+    manager.saveProfile( profiler.getProfile( "group" ), metaStore );
+
+    DataProfile loaded = manager.loadProfile( "group", metaStore );
+    assertNotNull( loaded );
+    assertEquals( 2, loaded.getRowCount() );
+    assertEquals( 4, loaded.getFields().size() );
+    assertEquals( 2, loaded.getField( "city" ).getDistinctCount() );
+    assertEquals( "y", loaded.getField( "city" ).getMaximum() );
+
+    // the stored sketch restores the distinct count and merges with the sketch of another run
+    FieldProfile city = loaded.getField( "city" );
+    HyperLogLog sketch = new HyperLogLog( DatatypeConverter.parseBase64Binary( city.getSketch() ) );
+    assertEquals( city.getDistinctCount(), sketch.cardinality() );
+    DataProfiler nextRun = new DataProfiler( getRowMeta() );
+    nextRun.addRow( new Object[] { 3L, 2.0, "y", new Date( 0 ) } );
+    nextRun.addRow( new Object[] { 4L, 2.0, "z", new Date( 0 ) } );
+    sketch.merge( new HyperLogLog( DatatypeConverter.parseBase64Binary(
+        nextRun.getProfile( "group" ).getField( "city" ).getSketch() ) ) );
+    assertEquals( 3, sketch.cardinality() );
+  }
+}
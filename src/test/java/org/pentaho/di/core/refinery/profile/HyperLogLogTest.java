@@ -0,0 +1,80 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HyperLogLogTest {
+
+  @Test
+  public void testEstimatesWithinErrorBounds() throws Exception {
+    HyperLogLog hll = new HyperLogLog();
+    for ( long i = 0; i < 100000; i++ ) {
+      hll.offer( HyperLogLog.mix( i ) );
+      hll.offer( HyperLogLog.mix( i ) );
+    }
+    assertEquals( 100000, hll.cardinality(), 100000 * 0.05 );
+  }
+
+  @Test
+  public void testSmallCardinalities() throws Exception {
+    HyperLogLog hll = new HyperLogLog();
+    assertEquals( 0, hll.cardinality() );
+    for ( int i = 0; i < 10; i++ ) {
+      hll.offer( HyperLogLog.hash( "value" + ( i % 3 ) ) );
+    }
+    assertEquals( 3, hll.cardinality() );
+  }
+
+  @Test
+  public void testMergeEqualsUnion() throws Exception {
+    HyperLogLog left = new HyperLogLog();
+    HyperLogLog right = new HyperLogLog();
+    HyperLogLog all = new HyperLogLog();
+    for ( long i = 0; i < 50000; i++ ) {
+      long hash = HyperLogLog.mix( i );
+      ( i % 2 == 0 ? left : right ).offer( hash );
+      all.offer( hash );
+    }
+    left.merge( right );
+    assertEquals( all, left );
+    assertEquals( all.cardinality(), left.cardinality() );
+  }
+
+  @Test
+  public void testRegistersRoundTrip() throws Exception {
+    HyperLogLog hll = new HyperLogLog();
+    hll.offer( HyperLogLog.hash( new byte[] { 1, 2, 3 } ) );
+    HyperLogLog copy = new HyperLogLog( hll.getRegisters() );
+    assertEquals( hll, copy );
+    assertTrue( copy.cardinality() == 1 );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testRejectsWrongRegisterCount() throws Exception {
+    new HyperLogLog( new byte[ 10 ] );
+  }
+}
@@ -0,0 +1,89 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.agilebi;
+
+import org.junit.Test;
+import org.pentaho.database.model.IDatabaseType;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DatabaseTypeRegistryTest {
+
+  @Test
+  public void testTypesAreLoadedOnce() throws Exception {
+    final IDatabaseType oracle = databaseType( "ORACLE" );
+    final IDatabaseType mysql = databaseType( "MYSQL" );
+    final IDatabaseType otherOracle = databaseType( "ORACLE" );
+    final int[] loads = { 0 };
+    DatabaseTypeRegistry registry = new DatabaseTypeRegistry() {
+      @Override List<IDatabaseType> loadDatabaseTypes() {
+        loads[ 0 ]++;
+        return Arrays.asList( oracle, mysql, otherOracle );
+      }
+    };
+
+    assertSame( oracle, registry.getDatabaseType( "ORACLE" ) );
+    assertSame( mysql, registry.getDatabaseType( "MYSQL" ) );
+    assertNull( registry.getDatabaseType( "" ) );
+    assertNull( registry.getDatabaseType( null ) );
+    assertEquals( 1, loads[ 0 ] );
+  }
+
+  @Test
+  public void testFailedLoadIsRetried() throws Exception {
+    final IDatabaseType oracle = databaseType( "ORACLE" );
+    final int[] loads = { 0 };
+    DatabaseTypeRegistry registry = new DatabaseTypeRegistry() {
+      @Override List<IDatabaseType> loadDatabaseTypes() {
+        if ( loads[ 0 ]++ == 0 ) {
+          throw new IllegalStateException( "no dialects" );
+        }
+        return Arrays.asList( oracle );
+      }
+    };
+
+    assertNull( registry.getDatabaseType( "ORACLE" ) );
+    assertSame( oracle, registry.getDatabaseType( "ORACLE" ) );
+    assertEquals( 2, loads[ 0 ] );
+  }
+
+  @Test
+  public void testSharedRegistry() throws Exception {
+    assertEquals( "Oracle", DatabaseTypeRegistry.getInstance().getDatabaseType( "ORACLE" ).getName() );
+    assertSame( DatabaseTypeRegistry.getInstance().getDatabaseType( "ORACLE" ),
+        DatabaseTypeRegistry.getInstance().getDatabaseType( "ORACLE" ) );
+  }
+
+  private IDatabaseType databaseType( String shortName ) {
+    IDatabaseType databaseType = mock( IDatabaseType.class );
+    when( databaseType.getShortName() ).thenReturn( shortName );
+    return databaseType;
+  }
+}
@@ -265,6 +265,9 @@ public class ModelServerPublishTest {
     when( clientResponse.getStatus() ).thenReturn( 200 );
     success = modelServerPublishSpy.updateConnection( databaseConnection, false );
     assertTrue( success );
+
+    // every response gives its connection back, read or not
+    verify( clientResponse, times( 3 ) ).close();
   }
 
   @Test
@@ -0,0 +1,82 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import org.junit.Test;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionValidationCacheTest {
+
+  @Test
+  public void testValidConnectionIsRemembered() throws Exception {
+    ConnectionValidationCache cache = new ConnectionValidationCache( 60000L );
+    assertFalse( cache.isValid( getConnection( "admin", "password" ) ) );
+
+    cache.setValid( getConnection( "admin", "password" ) );
+    assertTrue( cache.isValid( getConnection( "admin", "password" ) ) );
+    assertFalse( cache.isValid( getConnection( "suzy", "password" ) ) );
+    assertFalse( cache.isValid( getConnection( "admin", "changed" ) ) );
+    assertFalse( cache.isValid( null ) );
+  }
+
+  @Test
+  public void testInvalidate() throws Exception {
+    ConnectionValidationCache cache = new ConnectionValidationCache( 60000L );
+    cache.setValid( getConnection( "admin", "password" ) );
+    cache.setValid( getConnection( "suzy", "password" ) );
+
+    cache.invalidate( getConnection( "admin", "password" ) );
+    assertFalse( cache.isValid( getConnection( "admin", "password" ) ) );
+    assertTrue( cache.isValid( getConnection( "suzy", "password" ) ) );
+
+    cache.invalidate( null );
+    cache.invalidateAll();
+    assertFalse( cache.isValid( getConnection( "suzy", "password" ) ) );
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    ConnectionValidationCache cache = new ConnectionValidationCache( 1L );
+    cache.setValid( getConnection( "admin", "password" ) );
+    Thread.sleep( 20 );
+    assertFalse( cache.isValid( getConnection( "admin", "password" ) ) );
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    ConnectionValidationCache cache = new ConnectionValidationCache( 0L );
+    cache.setValid( getConnection( "admin", "password" ) );
+    assertFalse( cache.isValid( getConnection( "admin", "password" ) ) );
+  }
+
+  private BiServerConnection getConnection( String user, String password ) {
+    BiServerConnection connection = new BiServerConnection();
+    connection.setUrl( "http://localhost:8080/pentaho/" );
+    connection.setUserId( user );
+    connection.setPassword( password );
+    return connection;
+  }
+}
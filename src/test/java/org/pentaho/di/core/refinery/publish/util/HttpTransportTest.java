@@ -0,0 +1,101 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.api.client.filter.HTTPBasicAuthFilter;
+import com.sun.jersey.client.apache.ApacheHttpClient;
+import com.sun.jersey.client.apache.ApacheHttpClientHandler;
+import org.apache.commons.httpclient.HttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HttpTransportTest {
+
+  private HttpTransport transport;
+
+  @Before
+  public void setUp() throws Exception {
+    transport = new HttpTransport( 2, 4, 1000L );
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    transport.shutdown();
+  }
+
+  @Test
+  public void testPoolLimits() throws Exception {
+    assertEquals( 2, transport.getConnectionManager().getParams().getDefaultMaxConnectionsPerHost() );
+    assertEquals( 4, transport.getConnectionManager().getParams().getMaxTotalConnections() );
+  }
+
+  @Test
+  public void testClientsAreReusedPerUser() throws Exception {
+    Client admin = transport.getClient( getConnection( "admin", "password" ), 2000, null );
+    assertSame( admin, transport.getClient( getConnection( "admin", "password" ), 2000, null ) );
+    assertTrue( admin != transport.getClient( getConnection( "suzy", "password" ), 2000, null ) );
+    assertTrue( admin != transport.getClient( getConnection( "admin", "changed" ), 2000, null ) );
+    assertTrue( admin != transport.getClient( getConnection( "admin", "password" ), null, null ) );
+    assertTrue( admin.getHeadHandler() instanceof HTTPBasicAuthFilter );
+  }
+
+  @Test
+  public void testClientsShareConnectionPool() throws Exception {
+    ApacheHttpClient anonymous = (ApacheHttpClient) transport.getClient( null, 2000, 1024 );
+    ApacheHttpClient admin = (ApacheHttpClient) transport.getClient( getConnection( "admin", "password" ), null, null );
+    assertTrue( anonymous.getHeadHandler() instanceof ApacheHttpClientHandler );
+    assertSame( transport.getConnectionManager(),
+        anonymous.getClientHandler().getHttpClient().getHttpConnectionManager() );
+    assertSame( transport.getConnectionManager(), admin.getClientHandler().getHttpClient().getHttpConnectionManager() );
+
+    ClientConfig config = anonymous.getClientHandler().getConfig();
+    assertEquals( 2000, config.getProperties().get( ClientConfig.PROPERTY_READ_TIMEOUT ) );
+    assertEquals( 1024, config.getProperties().get( ClientConfig.PROPERTY_CHUNKED_ENCODING_SIZE ) );
+    assertNull( admin.getClientHandler().getConfig().getProperties().get( ClientConfig.PROPERTY_READ_TIMEOUT ) );
+  }
+
+  @Test
+  public void testHttpClientsHaveOwnState() throws Exception {
+    HttpClient first = transport.getHttpClient();
+    HttpClient second = transport.getHttpClient();
+    assertSame( transport.getConnectionManager(), first.getHttpConnectionManager() );
+    assertTrue( first.getState() != second.getState() );
+  }
+
+  private BiServerConnection getConnection( String user, String password ) {
+    BiServerConnection connection = new BiServerConnection();
+    connection.setUrl( "http://localhost:8080/pentaho/" );
+    connection.setUserId( user );
+    connection.setPassword( password );
+    return connection;
+  }
+}
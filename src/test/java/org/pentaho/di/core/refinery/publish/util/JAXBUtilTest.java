@@ -29,6 +29,7 @@ import org.pentaho.database.model.DatabaseConnection;
 import java.util.UUID;
 
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 
 /**
  * @author Rowell Belen
@@ -65,4 +66,9 @@ public class JAXBUtilTest {
     assertNotNull( connection );
 
   }
+
+  @Test
+  public void testContextIsReused() throws Exception {
+    assertSame( JAXBUtils.getContext( DatabaseConnection.class ), JAXBUtils.getContext( DatabaseConnection.class ) );
+  }
 }
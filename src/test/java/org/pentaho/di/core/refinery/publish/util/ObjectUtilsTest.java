@@ -25,8 +25,21 @@ package org.pentaho.di.core.refinery.publish.util;
 import org.apache.commons.lang.StringUtils;
 import org.junit.Before;
 import org.junit.Test;
+import org.pentaho.agilebi.modeler.geo.GeoContext;
+import org.pentaho.agilebi.modeler.geo.GeoContextFactory;
+import org.pentaho.agilebi.modeler.geo.GeoContextPropertiesProvider;
+import org.pentaho.agilebi.modeler.models.annotations.CreateMeasure;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.core.refinery.publish.model.DataSourcePublishModel;
+import org.pentaho.metadata.model.concept.types.AggregationType;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
 
 import static org.junit.Assert.*;
 
@@ -79,4 +92,79 @@ public class ObjectUtilsTest {
 
     objectUtils.deepClone( null );
   }
+
+  @Test
+  public void testDeepCloneCopiesGraph() {
+    DataSourcePublishModel model = new DataSourcePublishModel();
+    model.setModelName( "logicalModel" );
+    model.setBiServerConnection( biServerConnection );
+
+    DataSourcePublishModel clone = ObjectUtils.deepClone( model );
+    assertFalse( clone == model );
+    assertFalse( clone.getBiServerConnection() == biServerConnection );
+    assertEquals( "logicalModel", clone.getModelName() );
+    assertEquals( "admin", clone.getBiServerConnection().getUserId() );
+    assertEquals( "http://localhost:8080/pentaho/", clone.getBiServerConnection().getUrl() );
+  }
+
+  @Test
+  public void testDeepCloneAnnotations() {
+    CreateMeasure measure = new CreateMeasure();
+    measure.setName( "Average Quantity" );
+    measure.setField( "QUANTITY" );
+    measure.setAggregateType( AggregationType.AVERAGE );
+    ModelAnnotationGroup group = new ModelAnnotationGroup( new ModelAnnotation<CreateMeasure>( measure ) );
+    group.setName( "sales" );
+
+    ModelAnnotationGroup clone = ObjectUtils.deepClone( group );
+    assertFalse( clone == group );
+    assertEquals( "sales", clone.getName() );
+    assertEquals( 1, clone.size() );
+    assertFalse( clone.get( 0 ) == group.get( 0 ) );
+    CreateMeasure measureClone = (CreateMeasure) clone.get( 0 ).getAnnotation();
+    assertFalse( measureClone == measure );
+    assertEquals( "Average Quantity", measureClone.getName() );
+    assertEquals( AggregationType.AVERAGE, measureClone.getAggregateType() );
+  }
+
+  @Test
+  public void testDeepCloneKeepsSharedReferences() {
+    List<BiServerConnection> connections = new ArrayList<BiServerConnection>();
+    connections.add( biServerConnection );
+    connections.add( biServerConnection );
+
+    List<BiServerConnection> clone = ObjectUtils.deepClone( connections );
+    assertEquals( 2, clone.size() );
+    assertTrue( clone.get( 0 ) == clone.get( 1 ) );
+    assertFalse( clone.get( 0 ) == biServerConnection );
+  }
+
+  @Test
+  public void testStructuralClonerCopiesGeoContext() throws Exception {
+    Properties props = new Properties();
+    InputStream input = getClass().getResourceAsStream( "/geoRoles.properties" );
+    try {
+      props.load( input );
+    } finally {
+      input.close();
+    }
+    GeoContext geoContext = GeoContextFactory.create( new GeoContextPropertiesProvider( props ) );
+
+    // copied field by field, without the round trip through XML
+    GeoContext clone = StructuralCloner.deepClone( geoContext );
+    assertFalse( clone == geoContext );
+    assertEquals( "Geography", clone.getDimensionName() );
+    assertEquals( geoContext.size(), clone.size() );
+    for ( int i = 0; i < geoContext.size(); i++ ) {
+      assertFalse( clone.getGeoRole( i ) == geoContext.getGeoRole( i ) );
+      assertEquals( geoContext.getGeoRole( i ).getClass(), clone.getGeoRole( i ).getClass() );
+      assertEquals( geoContext.getGeoRole( i ).getName(), clone.getGeoRole( i ).getName() );
+    }
+  }
+
+  @Test
+  public void testDeepCloneFallsBackForOtherTypes() {
+    List<String> names = Collections.singletonList( "default" );
+    assertEquals( names, ObjectUtils.deepClone( names ) );
+  }
 }
@@ -26,7 +26,7 @@ import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 import com.sun.jersey.api.client.filter.HTTPBasicAuthFilter;
-import com.sun.jersey.client.urlconnection.URLConnectionClientHandler;
+import com.sun.jersey.client.apache.ApacheHttpClientHandler;
 import com.sun.jersey.multipart.FormDataMultiPart;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.methods.GetMethod;
@@ -87,7 +87,7 @@ public class PublishRestUtilTest {
   @Test
   public void testGetAnonymousClient() {
     Client client = publishRestUtil.getAnonymousClient();
-    assertTrue( client.getHeadHandler() instanceof URLConnectionClientHandler );
+    assertTrue( client.getHeadHandler() instanceof ApacheHttpClientHandler );
   }
 
   @Test
@@ -0,0 +1,92 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.core.refinery.publish.util;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class StaxUtilsTest {
+
+  @Test
+  public void testReadItems() throws Exception {
+    String xml = "<List>\n"
+        + "<Item xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:type=\"xs:string\">One.xmi</Item>\n"
+        + "<Item/><!-- skipped -->\n"
+        + "<Item>Two &amp; <![CDATA[Three]]></Item>\n"
+        + "</List>";
+    assertEquals( Arrays.asList( "One.xmi", "Two & Three" ),
+        StaxUtils.readItems( IOUtils.toInputStream( xml, "UTF-8" ), "List", "Item" ) );
+    assertEquals( Collections.emptyList(),
+        StaxUtils.readItems( IOUtils.toInputStream( "<List>\n</List>", "UTF-8" ), "List", "Item" ) );
+    assertEquals( Collections.emptyList(),
+        StaxUtils.readItems( IOUtils.toInputStream( "<Map><Item>One</Item></Map>", "UTF-8" ), "List", "Item" ) );
+  }
+
+  @Test
+  public void testVisitItemsStops() throws Exception {
+    final List<String> visited = new ArrayList<String>();
+    // the malformed tail is never read
+    String xml = "<List><Item>One</Item><Item>Two</Item><Item>Three</Item><Item></List>";
+    assertFalse( StaxUtils.visitItems( IOUtils.toInputStream( xml, "UTF-8" ), "List", "Item",
+        new StaxUtils.ItemVisitor() {
+          @Override
+          public boolean visit( String item ) {
+            visited.add( item );
+            return !"Two".equals( item );
+          }
+        } ) );
+    assertEquals( Arrays.asList( "One", "Two" ), visited );
+  }
+
+  @Test( expected = XMLStreamException.class )
+  public void testReadItemsMalformed() throws Exception {
+    StaxUtils.readItems( IOUtils.toInputStream( "<List><Item>One.xmi</List>", "UTF-8" ), "List", "Item" );
+  }
+
+  @Test
+  public void testReadChildText() throws Exception {
+    String xml = "  <repository>"
+        + "  <id>PentahoEnterpriseRepository</id>\n"
+        + "  <repository_location_url>http&#x3a;&#x2f;&#x2f;farfaraway&#x3a;12345</repository_location_url>\n"
+        + "</repository>";
+    assertEquals( "PentahoEnterpriseRepository", StaxUtils.readChildText( xml, "id" ) );
+    assertEquals( "http://farfaraway:12345", StaxUtils.readChildText( xml, "repository_location_url" ) );
+    assertNull( StaxUtils.readChildText( xml, "repository" ) );
+  }
+
+  @Test( expected = XMLStreamException.class )
+  public void testNoExternalEntities() throws Exception {
+    StaxUtils.readChildText(
+        "<!DOCTYPE r [<!ENTITY e SYSTEM \"file:///etc/passwd\">]><r><id>&e;</id></r>", "id" );
+  }
+}
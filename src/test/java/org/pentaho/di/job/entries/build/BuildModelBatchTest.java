@@ -0,0 +1,101 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+
+package org.pentaho.di.job.entries.build;
+
+import org.junit.Test;
+import org.pentaho.di.core.Result;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BuildModelBatchTest {
+
+  @Test
+  public void testParse() {
+    List<BuildModelBatch.Item> items = BuildModelBatch.parse( " Sales = Sales Model ;\nOrders\r\n;*Output=All {step}" );
+    assertEquals( 3, items.size() );
+    assertEquals( "Sales", items.get( 0 ).getOutputStep() );
+    assertEquals( "Sales Model", items.get( 0 ).getModelName() );
+    assertEquals( "Orders", items.get( 1 ).getOutputStep() );
+    assertEquals( BuildModelBatch.STEP_PLACEHOLDER, items.get( 1 ).getModelName() );
+    assertTrue( items.get( 2 ).isPattern() );
+    assertFalse( items.get( 0 ).isPattern() );
+
+    assertTrue( BuildModelBatch.parse( null ).isEmpty() );
+    assertTrue( BuildModelBatch.parse( " ;\n=Model" ).isEmpty() );
+  }
+
+  @Test
+  public void testMatches() {
+    BuildModelBatch.Item pattern = new BuildModelBatch.Item( "Sales (?) *", "{step}" );
+    assertTrue( pattern.matches( "Sales (1) Output" ) );
+    assertTrue( pattern.matches( "Sales (2) " ) );
+    assertFalse( pattern.matches( "Sales (10) Output" ) );
+    assertFalse( pattern.matches( "Orders (1) Output" ) );
+    assertFalse( pattern.matches( null ) );
+    assertTrue( new BuildModelBatch.Item( "Sales", "{step}" ).matches( "Sales" ) );
+    assertFalse( new BuildModelBatch.Item( "Sales", "{step}" ).matches( "Sales Output" ) );
+  }
+
+  @Test
+  public void testResolve() {
+    List<BuildModelBatch.Item> items = BuildModelBatch.resolve(
+        BuildModelBatch.parse( "*Output=Model {step}; Sales Output=Sales; Orders Output=Sales; Missing" ),
+        asList( "Customer Output", "Orders Output", "Sales Output", "Lookup" ) );
+    assertEquals( 3, items.size() );
+    assertEquals( "Customer Output", items.get( 0 ).getOutputStep() );
+    assertEquals( "Model Customer Output", items.get( 0 ).getModelName() );
+    assertEquals( "Sales Output", items.get( 1 ).getOutputStep() );
+    assertEquals( "Sales", items.get( 1 ).getModelName() );
+    // a model name is only built once, and a step named in the batch is always built
+    assertEquals( "Missing", items.get( 2 ).getOutputStep() );
+    assertEquals( "Missing", items.get( 2 ).getModelName() );
+  }
+
+  @Test
+  public void testResultRows() throws Exception {
+    Result result = new Result();
+    assertFalse( BuildModelBatch.isBatchResult( result ) );
+    RowMeta otherRowMeta = new RowMeta();
+    otherRowMeta.addValueMeta( new ValueMetaString( "other" ) );
+    result.getRows().add( new RowMetaAndData( otherRowMeta, "value" ) );
+    assertFalse( BuildModelBatch.isBatchResult( result ) );
+    assertTrue( BuildModelBatch.getBuiltModels( result ).isEmpty() );
+
+    BuildModelBatch.addResult( result, new BuildModelBatch.Item( "Sales Output", "Sales" ), true, null );
+    BuildModelBatch.addResult( result, new BuildModelBatch.Item( "Orders Output", "Orders" ), false, "failed" );
+    assertTrue( BuildModelBatch.isBatchResult( result ) );
+    List<BuildModelBatch.Item> built = BuildModelBatch.getBuiltModels( result );
+    assertEquals( 1, built.size() );
+    assertEquals( "Sales Output", built.get( 0 ).getOutputStep() );
+    assertEquals( "Sales", built.get( 0 ).getModelName() );
+    assertEquals( "failed", result.getRows().get( 2 ).getString( BuildModelBatch.FIELD_MESSAGE, null ) );
+  }
+}
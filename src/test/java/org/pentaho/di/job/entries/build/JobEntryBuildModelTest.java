@@ -26,11 +26,15 @@ import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
 import org.pentaho.agilebi.modeler.models.annotations.CreateMeasure;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.agilebi.modeler.models.annotations.data.DataProvider;
+import org.pentaho.agilebi.modeler.util.TableModelerSource;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.KettleClientEnvironment;
 import org.pentaho.di.core.Props;
@@ -42,9 +46,15 @@ import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.plugins.PluginRegistry;
 import org.pentaho.di.core.plugins.StepPluginType;
+import org.pentaho.di.core.refinery.DataProviderHelper;
+import org.pentaho.di.core.refinery.DataProviderHelper.PreparedDataProvider;
+import org.pentaho.di.core.refinery.extension.DataProviderUpdateQueue;
 import org.pentaho.di.core.refinery.model.AnalysisModeler;
 import org.pentaho.di.core.refinery.model.DswModeler;
+import org.pentaho.di.core.refinery.model.ModelArtifactCache;
+import org.pentaho.di.core.refinery.model.ModelArtifactStore;
 import org.pentaho.di.core.refinery.model.ModelServerFetcher;
+import org.pentaho.di.core.refinery.model.TableMetadataCache;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.value.ValueMetaBigNumber;
@@ -64,9 +74,11 @@ import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.dataservice.DataServiceContext;
 import org.pentaho.di.trans.dataservice.serialization.DataServiceMetaStoreUtil;
 import org.pentaho.di.trans.step.StepMetaDataCombi;
+import org.pentaho.di.trans.step.StepMetaInterface;
 import org.pentaho.di.trans.steps.tableoutput.TableOutputData;
 import org.pentaho.di.trans.steps.tableoutput.TableOutputMeta;
 import org.pentaho.di.ui.job.entries.common.ConnectionValidator;
+import org.pentaho.metadata.automodel.PhysicalTableImporter;
 import org.pentaho.metadata.model.Domain;
 import org.pentaho.metadata.model.LogicalModel;
 import org.pentaho.metadata.model.concept.types.AggregationType;
@@ -80,6 +92,9 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.*;
@@ -100,6 +115,9 @@ public class JobEntryBuildModelTest {
   private ConnectionValidator connectionValidator;
   private ProvidesDatabaseConnectionInformation connectionInfo;
 
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   @BeforeClass
   public static void setUpBeforeClass() throws Exception {
     if ( !KettleClientEnvironment.isInitialized() ) {
@@ -385,6 +403,78 @@ public class JobEntryBuildModelTest {
     assertEquals( "myh2", job.getVariable( "JobEntryBuildModel.Mondrian.Datasource.Car Sales Analysis" ) );
   }
 
+  @Test
+  public void testBuildXmiReusesCachedModel() throws Exception {
+    File cacheDir = temporaryFolder.newFolder( "model-cache" );
+    buildJobEntry.setVariable( ModelArtifactCache.CACHE_ENABLED_VARIABLE, "Y" );
+    buildJobEntry.setVariable( ModelArtifactCache.CACHE_DIR_VARIABLE, cacheDir.getPath() );
+    DswModeler modeler = spy( new DswModeler() );
+    buildJobEntry.setModeler( modeler );
+
+    String xmi = buildJobEntry.buildXmi( null, "Sales Fact", "Car Sales Analysis" );
+    assertEquals( "miss", job.getVariable( "JobEntryBuildModel.XMI.Cache.Car Sales Analysis" ) );
+    assertEquals( 1, cacheDir.list().length );
+
+    assertEquals( xmi, buildJobEntry.buildXmi( null, "Sales Fact", "Car Sales Analysis" ) );
+    assertEquals( "hit", job.getVariable( "JobEntryBuildModel.XMI.Cache.Car Sales Analysis" ) );
+    verify( modeler, times( 1 ) ).createModel( anyString(), any( TableModelerSource.class ),
+        any( DatabaseMeta.class ), any( PhysicalTableImporter.ImportStrategy.class ),
+        any( ModelAnnotationGroup.class ), any( IMetaStore.class ) );
+
+    // a changed annotation is a different model
+    CreateMeasure sumQuantity = new CreateMeasure();
+    sumQuantity.setAggregateType( AggregationType.SUM );
+    sumQuantity.setName( "Average Quantity" );
+    sumQuantity.setField( "QUANTITY" );
+    job.getExtensionDataMap().put(
+        JobEntryBuildModel.KEY_MODEL_ANNOTATIONS,
+        new ModelAnnotationGroup( new ModelAnnotation<CreateMeasure>( sumQuantity ) ) );
+    assertFalse( xmi.equals( buildJobEntry.buildXmi( null, "Sales Fact", "Car Sales Analysis" ) ) );
+    assertEquals( "miss", job.getVariable( "JobEntryBuildModel.XMI.Cache.Car Sales Analysis" ) );
+    assertEquals( 2, cacheDir.list().length );
+
+    // so is a changed table column, although the output step did not change
+    Database db = new Database( null, databaseMeta );
+    db.connect();
+    try {
+      db.execStatement( "ALTER TABLE sales_test ALTER COLUMN Quantity INT;" );
+    } finally {
+      db.disconnect();
+    }
+    TableMetadataCache.getInstance().invalidate( databaseMeta, "sales_test" );
+    try {
+      buildJobEntry.buildXmi( null, "Sales Fact", "Car Sales Analysis" );
+      assertEquals( "miss", job.getVariable( "JobEntryBuildModel.XMI.Cache.Car Sales Analysis" ) );
+      assertEquals( 3, cacheDir.list().length );
+    } finally {
+      TableMetadataCache.getInstance().invalidate( databaseMeta, "sales_test" );
+    }
+  }
+
+  @Test
+  public void testLargeArtifactsLeaveVariables() throws Exception {
+    buildJobEntry.setVariable( ModelArtifactStore.SPILL_SIZE_VARIABLE, "10" );
+    assertEquals( "<xmi/>", buildJobEntry.storeArtifact( "<xmi/>" ) );
+    assertNull( buildJobEntry.storeArtifact( null ) );
+
+    String handle = buildJobEntry.storeArtifact( "<xmi>a larger model</xmi>" );
+    assertTrue( ModelArtifactStore.isHandle( handle ) );
+    InputStream input = ModelArtifactStore.openStream( handle, "UTF-8" );
+    try {
+      assertEquals( "<xmi>a larger model</xmi>", IOUtils.toString( input, "UTF-8" ) );
+    } finally {
+      input.close();
+    }
+    ModelArtifactStore.get( job ).clear();
+  }
+
+  @Test
+  public void testBuildXmiWithoutCache() throws Exception {
+    assertNull( buildJobEntry.getModelArtifactCache() );
+    buildJobEntry.buildXmi( null, "Sales Fact", "Car Sales Analysis" );
+    assertNull( job.getVariable( "JobEntryBuildModel.XMI.Cache.Car Sales Analysis" ) );
+  }
+
   @Test
   public void testBuildXmiShouldPassEmptySchemaNameWhenNull() throws Exception {
 
@@ -558,6 +648,111 @@ public class JobEntryBuildModelTest {
         .setVarAndLogBasic( "JobEntryBuildModel.Mondrian.Datasource.Car Sales Analysis", "myh2" );
   }
 
+  @Test
+  public void testExecuteBatch() throws Exception {
+    final CountDownLatch building = new CountDownLatch( 2 );
+    final AtomicBoolean concurrent = new AtomicBoolean( true );
+    JobEntryBuildModel batchEntry = new JobEntryBuildModel( "Batch Model", "Builds a batch of models" ) {
+      @Override public ProvidesDatabaseConnectionInformation getConnectionInfo() throws KettleException {
+        super.getConnectionInfo(); // fails for an output step without a connection
+        // the good models only go on once both are being built
+        building.countDown();
+        try {
+          if ( !building.await( 10, TimeUnit.SECONDS ) ) {
+            concurrent.set( false );
+          }
+        } catch ( InterruptedException e ) {
+          throw new KettleException( e );
+        }
+        return connectionInfo;
+      }
+    };
+    batchEntry.setModeler( new DswModeler() );
+    batchEntry.setParentJob( job );
+    batchEntry.setBatchModels( "Sales*=Model {step};\nBad Step" );
+    Object salesStep = job.getExtensionDataMap().get( JobEntryBuildModel.KEY_OUTPUT_STEP_PREFIX + "Build Model" );
+    job.getExtensionDataMap().put( JobEntryBuildModel.getBatchStepKey( "Batch Model", "Sales Copy" ), salesStep );
+    job.getExtensionDataMap().put( JobEntryBuildModel.getBatchStepKey( "Batch Model", "Sales Fact" ), salesStep );
+    StepMetaDataCombi badStep = new StepMetaDataCombi();
+    badStep.meta = mock( StepMetaInterface.class );
+    job.getExtensionDataMap().put( JobEntryBuildModel.getBatchStepKey( "Batch Model", "Bad Step" ), badStep );
+    assertTrue( batchEntry.isBatch() );
+
+    Result result = batchEntry.execute( new Result(), 0 );
+    assertTrue( concurrent.get() );
+    assertFalse( result.getResult() );
+    assertEquals( 1, result.getNrErrors() );
+    assertEquals( 3, result.getRows().size() );
+    assertEquals( "Model Sales Copy", result.getRows().get( 0 ).getString( BuildModelBatch.FIELD_MODEL_NAME, null ) );
+    assertTrue( result.getRows().get( 0 ).getBoolean( BuildModelBatch.FIELD_SUCCESS, false ) );
+    assertEquals( "Model Sales Fact", result.getRows().get( 1 ).getString( BuildModelBatch.FIELD_MODEL_NAME, null ) );
+    assertTrue( result.getRows().get( 1 ).getBoolean( BuildModelBatch.FIELD_SUCCESS, false ) );
+    assertEquals( "Bad Step", result.getRows().get( 2 ).getString( BuildModelBatch.FIELD_MODEL_NAME, null ) );
+    assertFalse( result.getRows().get( 2 ).getBoolean( BuildModelBatch.FIELD_SUCCESS, true ) );
+    assertNotNull( result.getRows().get( 2 ).getString( BuildModelBatch.FIELD_MESSAGE, null ) );
+
+    assertEquals( "true", job.getVariable( "JobEntryBuildModel.XMI.DSW.Model Sales Copy" ) );
+    assertEquals( "true", job.getVariable( "JobEntryBuildModel.XMI.DSW.Model Sales Fact" ) );
+    assertNull( job.getVariable( "JobEntryBuildModel.XMI.DSW.Bad Step" ) );
+    List<BuildModelBatch.Item> built = BuildModelBatch.getBuiltModels( result );
+    assertEquals( 2, built.size() );
+    assertEquals( "Sales Copy", built.get( 0 ).getOutputStep() );
+    assertEquals( "Sales Fact", built.get( 1 ).getOutputStep() );
+  }
+
+  @Test
+  public void testBatchEntriesShareNoState() throws Exception {
+    JobEntryBuildModel batchEntry = new JobEntryBuildModel( "Batch Model", "Builds a batch of models" );
+    batchEntry.setModeler( new DswModeler() );
+    batchEntry.setParentJob( job );
+    BiServerConnection connection = new BiServerConnection();
+    connection.setUrl( "http://localhost:8080/pentaho" );
+    batchEntry.setBiServerConnection( connection );
+    batchEntry.setVariable( "shared", "before" );
+
+    JobEntryBuildModel first = batchEntry.createBatchEntry( "Sales Fact", "Sales" );
+    JobEntryBuildModel second = batchEntry.createBatchEntry( "Orders Fact", "Orders" );
+    assertNotSame( first.getModeler(), second.getModeler() );
+    assertNotSame( batchEntry.getModeler(), first.getModeler() );
+    assertNotSame( first.getBiServerConnection(), second.getBiServerConnection() );
+    assertEquals( "http://localhost:8080/pentaho/", first.getBiServerConnection().getUrl() );
+    assertEquals( "before", first.getVariable( "shared" ) );
+
+    first.setVariable( "shared", "first" );
+    assertEquals( "before", second.getVariable( "shared" ) );
+    assertEquals( "before", batchEntry.getVariable( "shared" ) );
+    assertEquals( "Sales", first.getModelName() );
+    assertEquals( "Orders", second.getModelName() );
+  }
+
+  @Test
+  public void testFailedDataProviderUpdatesFailEntry() throws Exception {
+    DataProviderHelper helper = mock( DataProviderHelper.class );
+    doThrow( new KettleException( "no metastore today" ) )
+        .when( helper ).storeDataProviders( any( ModelAnnotationGroup.class ), anyList() );
+    ModelAnnotationGroup group = new ModelAnnotationGroup();
+    group.setName( "dim" );
+    group.setSharedDimension( true );
+    DataProvider dataProvider = new DataProvider();
+    dataProvider.setName( "out" );
+    DataProviderUpdateQueue.get( job ).submit( mock( IMetaStore.class ), helper, group,
+        new PreparedDataProvider( dataProvider, databaseMeta ) );
+
+    buildJobEntry.setModelName( "Car Sales Analysis" );
+    Result result = buildJobEntry.execute( new Result(), 0 );
+    assertFalse( result.getResult() );
+    assertEquals( 1, result.getNrErrors() );
+    assertNull( job.getVariable( "JobEntryBuildModel.XMI.DSW.Car Sales Analysis" ) );
+  }
+
+  @Test
+  public void testEmptyBatchIsError() throws Exception {
+    buildJobEntry.setBatchModels( "Nothing*" );
+    Result result = buildJobEntry.execute( new Result(), 0 );
+    assertFalse( result.getResult() );
+    assertEquals( 1, result.getNrErrors() );
+  }
+
   @Test
   public void testCanUseDataServiceForConnection() throws Exception {
     JobEntryTrans trans = new JobEntryTrans( "trans" ) {
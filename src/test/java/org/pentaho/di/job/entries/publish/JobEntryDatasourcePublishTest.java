@@ -29,6 +29,10 @@ import org.hamcrest.Description;
 import org.hamcrest.Matcher;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.pentaho.database.model.DatabaseAccessType;
 import org.pentaho.database.model.DatabaseConnection;
 import org.pentaho.di.core.KettleClientEnvironment;
@@ -38,14 +42,17 @@ import org.pentaho.di.core.database.DatabaseInterface;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.refinery.DataRefineryConfig;
+import org.pentaho.di.core.refinery.model.ModelArtifactStore;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.core.refinery.publish.agilebi.ModelServerPublish;
 import org.pentaho.di.core.refinery.publish.model.DataSourceAclModel;
 import org.pentaho.di.core.refinery.publish.model.DataSourcePublishModel;
+import org.pentaho.di.core.refinery.publish.util.HttpDeadline;
 import org.pentaho.di.core.refinery.publish.util.PublishRestUtil;
 import org.pentaho.di.job.Job;
 import org.pentaho.di.job.JobHopMeta;
 import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.job.entries.build.BuildModelBatch;
 import org.pentaho.di.job.entries.build.JobEntryBuildModel;
 import org.pentaho.di.job.entry.JobEntryCopy;
 import org.pentaho.di.job.entry.JobEntryInterface;
@@ -500,7 +507,7 @@ public class JobEntryDatasourcePublishTest {
     datasourcePublishSpy.setDataSourcePublishModel( model );
 
     doNothing().when( datasourcePublishSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
-        any( DatabaseMeta.class ), anyBoolean() );
+        any( DatabaseMeta.class ), anyBoolean(), any( DatabaseConnection.class ) );
     doNothing().when( datasourcePublishSpy ).publishMetadataXmi( anyString(), any( ModelServerPublish.class ),
         anyBoolean() );
     doNothing().when( datasourcePublishSpy ).publishMondrianSchema( anyString(), any( ModelServerPublish.class ),
@@ -509,7 +516,7 @@ public class JobEntryDatasourcePublishTest {
     datasourcePublishSpy.execute( result, 0 );
     verify( modelServerPublish ).setAclModel( argThat( matchesUser( "suzy" ) ) );
     verify( datasourcePublishSpy ).publishDatabaseMeta( any( ModelServerPublish.class ), any( DatabaseMeta.class ),
-        anyBoolean() );
+        anyBoolean(), any( DatabaseConnection.class ) );
 
     model.setAccessType( "role" );
     model.setUserOrRole( "" );
@@ -561,7 +568,7 @@ public class JobEntryDatasourcePublishTest {
     doNothing().when( datasourcePublishSpy ).deleteXMI( any( ModelServerPublish.class ), anyString(),
         anyString() );
     doNothing().when( datasourcePublishSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
-        any( DatabaseMeta.class ), anyBoolean() );
+        any( DatabaseMeta.class ), anyBoolean(), any( DatabaseConnection.class ) );
     doNothing().when( datasourcePublishSpy ).publishMetadataXmi( anyString(), any( ModelServerPublish.class ),
         anyBoolean() );
     doThrow( new KettleException() ).when( datasourcePublishSpy ).publishMondrianSchema( anyString(),
@@ -605,7 +612,7 @@ public class JobEntryDatasourcePublishTest {
     datasourcePublishSpy.setDataSourcePublishModel( model );
 
     doNothing().when( datasourcePublishSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
-        any( DatabaseMeta.class ), anyBoolean() );
+        any( DatabaseMeta.class ), anyBoolean(), any( DatabaseConnection.class ) );
     doNothing().when( datasourcePublishSpy ).publishMetadataXmi( anyString(), any( ModelServerPublish.class ),
         anyBoolean() );
     doNothing().when( datasourcePublishSpy ).publishMondrianSchema( anyString(), any( ModelServerPublish.class ),
@@ -616,10 +623,220 @@ public class JobEntryDatasourcePublishTest {
     datasourcePublishSpy.execute( result, 0 );
     verify( modelServerPublish ).setAclModel( argThat( matchesUser( "suzy" ) ) );
     verify( datasourcePublishSpy ).publishDatabaseMeta( any( ModelServerPublish.class ), any( DatabaseMeta.class ),
-        anyBoolean() );
+        anyBoolean(), any( DatabaseConnection.class ) );
     assertFalse( biServerConnection.getUrl().endsWith( "//" ) );
   }
 
+  private JobEntryDatasourcePublish getExecuteSpy() throws Exception {
+    JobEntryDatasourcePublish datasourcePublishSpy = spy( jobEntryDatasourcePublish );
+    when( datasourcePublishSpy.getParentJob() ).thenReturn( parentJob );
+    doNothing().when( datasourcePublishSpy ).logBasic( anyString() );
+    when( datasourcePublishSpy.getModelServerPublish() ).thenReturn( modelServerPublish );
+    when( datasourcePublishSpy
+        .getConnectionValidator( any( BiServerConnection.class ) ) ).thenReturn( connectionValidator );
+    doReturn( databaseMeta ).when( datasourcePublishSpy ).discoverDatabaseMeta( any( JobMeta.class ) );
+
+    DataSourcePublishModel model = new DataSourcePublishModel();
+    model.setModelName( "logicalModel" );
+    model.setBiServerConnection( biServerConnection );
+    model.setOverride( true );
+    datasourcePublishSpy.setDataSourcePublishModel( model );
+
+    doNothing().when( datasourcePublishSpy ).publishMetadataXmi( anyString(), any( ModelServerPublish.class ),
+        anyBoolean() );
+    doNothing().when( datasourcePublishSpy ).publishDswXmi( anyString(), any( ModelServerPublish.class ),
+        anyBoolean() );
+    doNothing().when( datasourcePublishSpy ).publishMondrianSchema( anyString(), any( ModelServerPublish.class ),
+        anyBoolean() );
+    doNothing().when( datasourcePublishSpy ).deleteDatabaseMeta( any( ModelServerPublish.class ),
+        any( DatabaseMeta.class ) );
+    doNothing().when( datasourcePublishSpy ).deleteXMI( any( ModelServerPublish.class ), anyString(),
+        anyString() );
+    return datasourcePublishSpy;
+  }
+
+  @Test
+  public void testExecuteChecksConnectionOnce() throws Exception {
+    JobEntryDatasourcePublish datasourcePublishSpy = getExecuteSpy();
+    DatabaseInterface databaseInterface = mock( DatabaseInterface.class );
+    when( databaseMeta.getDatabaseInterface() ).thenReturn( databaseInterface );
+    when( databaseInterface.getPluginId() ).thenReturn( "Oracle" );
+    when( modelServerPublish.connectionNameExists( anyString() ) ).thenReturn( databaseConnection );
+    when( modelServerPublish.publishDataSource( anyBoolean(), anyString() ) ).thenReturn( true );
+
+    Result executeResult = datasourcePublishSpy.execute( new Result( 0 ), 0 );
+    assertTrue( executeResult.getResult() );
+    verify( modelServerPublish, times( 1 ) ).connectionNameExists( anyString() );
+    verify( modelServerPublish ).publishDataSource( eq( true ), anyString() );
+    verify( datasourcePublishSpy ).publishMetadataXmi( eq( "logicalModel" ), same( modelServerPublish ), eq( true ) );
+    verify( datasourcePublishSpy ).publishMondrianSchema( eq( "logicalModel" ), same( modelServerPublish ),
+        eq( true ) );
+  }
+
+  @Test
+  public void testExecuteRollsBackMetadataWhenConnectionFails() throws Exception {
+    JobEntryDatasourcePublish datasourcePublishSpy = getExecuteSpy();
+    datasourcePublishSpy.getDataSourcePublishModel().setOverride( false );
+    doThrow( new KettleException( "connection" ) ).when( datasourcePublishSpy ).publishDatabaseMeta(
+        any( ModelServerPublish.class ), any( DatabaseMeta.class ), anyBoolean(), any( DatabaseConnection.class ) );
+
+    Result executeResult = datasourcePublishSpy.execute( new Result( 0 ), 0 );
+    assertFalse( executeResult.getResult() );
+    verify( datasourcePublishSpy ).publishMetadataXmi( anyString(), any( ModelServerPublish.class ), anyBoolean() );
+    verify( datasourcePublishSpy ).deleteXMI( any( ModelServerPublish.class ), eq( "logicalModel" ), anyString() );
+    verify( datasourcePublishSpy, never() ).deleteDatabaseMeta( any( ModelServerPublish.class ),
+        any( DatabaseMeta.class ) );
+    verify( datasourcePublishSpy, never() ).publishMondrianSchema( anyString(), any( ModelServerPublish.class ),
+        anyBoolean() );
+  }
+
+  @Test
+  public void testExecuteOverwritesMetadataOnlyAfterConnection() throws Exception {
+    JobEntryDatasourcePublish datasourcePublishSpy = getExecuteSpy();
+    doThrow( new KettleException( "connection" ) ).when( datasourcePublishSpy ).publishDatabaseMeta(
+        any( ModelServerPublish.class ), any( DatabaseMeta.class ), anyBoolean(), any( DatabaseConnection.class ) );
+
+    Result executeResult = datasourcePublishSpy.execute( new Result( 0 ), 0 );
+    assertFalse( executeResult.getResult() );
+    verify( datasourcePublishSpy, never() ).publishMetadataXmi( anyString(), any( ModelServerPublish.class ),
+        anyBoolean() );
+    verify( datasourcePublishSpy, never() ).deleteXMI( any( ModelServerPublish.class ), anyString(), anyString() );
+
+    doNothing().when( datasourcePublishSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
+        any( DatabaseMeta.class ), anyBoolean(), any( DatabaseConnection.class ) );
+    executeResult = datasourcePublishSpy.execute( new Result( 0 ), 0 );
+    assertTrue( executeResult.getResult() );
+    InOrder order = inOrder( datasourcePublishSpy );
+    order.verify( datasourcePublishSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
+        any( DatabaseMeta.class ), anyBoolean(), any( DatabaseConnection.class ) );
+    order.verify( datasourcePublishSpy ).publishMetadataXmi( anyString(), any( ModelServerPublish.class ),
+        eq( true ) );
+  }
+
+  @Test
+  public void testExecuteRollsBackConnectionWhenMetadataFails() throws Exception {
+    JobEntryDatasourcePublish datasourcePublishSpy = getExecuteSpy();
+    doNothing().when( datasourcePublishSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
+        any( DatabaseMeta.class ), anyBoolean(), any( DatabaseConnection.class ) );
+    doThrow( new KettleException( "metadata" ) ).when( datasourcePublishSpy ).publishMetadataXmi( anyString(),
+        any( ModelServerPublish.class ), anyBoolean() );
+
+    Result executeResult = datasourcePublishSpy.execute( new Result( 0 ), 0 );
+    assertFalse( executeResult.getResult() );
+    verify( datasourcePublishSpy ).deleteDatabaseMeta( any( ModelServerPublish.class ), any( DatabaseMeta.class ) );
+    verify( datasourcePublishSpy, never() ).deleteXMI( any( ModelServerPublish.class ), anyString(), anyString() );
+    verify( datasourcePublishSpy, never() ).publishMondrianSchema( anyString(), any( ModelServerPublish.class ),
+        anyBoolean() );
+  }
+
+  @Test
+  public void testExecutePublishesDswAfterConnection() throws Exception {
+    JobEntryDatasourcePublish datasourcePublishSpy = getExecuteSpy();
+    when( parentJob.getVariable( "JobEntryBuildModel.XMI.DSW.logicalModel" ) ).thenReturn( "true" );
+    doNothing().when( datasourcePublishSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
+        any( DatabaseMeta.class ), anyBoolean(), any( DatabaseConnection.class ) );
+
+    Result executeResult = datasourcePublishSpy.execute( new Result( 0 ), 0 );
+    assertTrue( executeResult.getResult() );
+    InOrder order = inOrder( datasourcePublishSpy );
+    order.verify( datasourcePublishSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
+        any( DatabaseMeta.class ), anyBoolean(), any( DatabaseConnection.class ) );
+    order.verify( datasourcePublishSpy ).publishDswXmi( anyString(), any( ModelServerPublish.class ), anyBoolean() );
+    order.verify( datasourcePublishSpy ).publishMondrianSchema( anyString(), any( ModelServerPublish.class ),
+        anyBoolean() );
+    verify( datasourcePublishSpy, never() ).publishMetadataXmi( anyString(), any( ModelServerPublish.class ),
+        anyBoolean() );
+  }
+
+  @Test
+  public void testExecuteBatchPublishesEachConnectionOnce() throws Exception {
+    JobEntryDatasourcePublish datasourcePublishSpy = getExecuteSpy();
+    datasourcePublishSpy.getDataSourcePublishModel().setModelName( null );
+    doReturn( databaseMeta ).when( datasourcePublishSpy ).discoverDatabaseMeta( any( JobMeta.class ), anyString(),
+        anyString() );
+    when( databaseMeta.getName() ).thenReturn( "sales db" );
+    doNothing().when( datasourcePublishSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
+        any( DatabaseMeta.class ), anyBoolean(), any( DatabaseConnection.class ) );
+    doThrow( new KettleException( "orders" ) ).when( datasourcePublishSpy ).publishMondrianSchema( eq( "Orders" ),
+        any( ModelServerPublish.class ), anyBoolean() );
+
+    Result built = new Result();
+    BuildModelBatch.addResult( built, new BuildModelBatch.Item( "Sales Output", "Sales" ), true, null );
+    BuildModelBatch.addResult( built, new BuildModelBatch.Item( "Orders Output", "Orders" ), true, null );
+    BuildModelBatch.addResult( built, new BuildModelBatch.Item( "Failed Output", "Failed" ), false, "failed" );
+
+    Result executeResult = datasourcePublishSpy.execute( built, 0 );
+    assertFalse( executeResult.getResult() );
+    assertEquals( 1, executeResult.getNrErrors() );
+    assertEquals( 3, executeResult.getRows().size() );
+    // the model that failed to build is still reported
+    assertEquals( "Failed", executeResult.getRows().get( 0 ).getString( BuildModelBatch.FIELD_MODEL_NAME, null ) );
+    assertFalse( executeResult.getRows().get( 0 ).getBoolean( BuildModelBatch.FIELD_SUCCESS, true ) );
+    assertEquals( "failed", executeResult.getRows().get( 0 ).getString( BuildModelBatch.FIELD_MESSAGE, null ) );
+    assertEquals( "Sales", executeResult.getRows().get( 1 ).getString( BuildModelBatch.FIELD_MODEL_NAME, null ) );
+    assertTrue( executeResult.getRows().get( 1 ).getBoolean( BuildModelBatch.FIELD_SUCCESS, false ) );
+    assertEquals( "Orders", executeResult.getRows().get( 2 ).getString( BuildModelBatch.FIELD_MODEL_NAME, null ) );
+    assertFalse( executeResult.getRows().get( 2 ).getBoolean( BuildModelBatch.FIELD_SUCCESS, true ) );
+
+    verify( datasourcePublishSpy, times( 1 ) ).publishDatabaseMeta( any( ModelServerPublish.class ),
+        same( databaseMeta ), eq( true ), any( DatabaseConnection.class ) );
+    verify( datasourcePublishSpy ).publishMetadataXmi( eq( "Sales" ), any( ModelServerPublish.class ), eq( true ) );
+    verify( datasourcePublishSpy ).publishMetadataXmi( eq( "Orders" ), any( ModelServerPublish.class ), eq( true ) );
+    verify( datasourcePublishSpy, never() ).publishMetadataXmi( eq( "Failed" ), any( ModelServerPublish.class ),
+        anyBoolean() );
+    verify( datasourcePublishSpy ).deleteXMI( any( ModelServerPublish.class ), eq( "Orders" ), anyString() );
+    verify( datasourcePublishSpy, never() ).deleteXMI( any( ModelServerPublish.class ), eq( "Sales" ), anyString() );
+    // the connection is still used by the published model
+    verify( datasourcePublishSpy, never() ).deleteDatabaseMeta( any( ModelServerPublish.class ),
+        any( DatabaseMeta.class ) );
+  }
+
+  @Test
+  public void testExecuteBatchRollsBackWhenStopped() throws Exception {
+    JobEntryDatasourcePublish datasourcePublishSpy = getExecuteSpy();
+    datasourcePublishSpy.getDataSourcePublishModel().setModelName( null );
+    doReturn( databaseMeta ).when( datasourcePublishSpy ).discoverDatabaseMeta( any( JobMeta.class ), anyString(),
+        anyString() );
+    when( databaseMeta.getName() ).thenReturn( "sales db" );
+    doNothing().when( datasourcePublishSpy ).publishDatabaseMeta( any( ModelServerPublish.class ),
+        any( DatabaseMeta.class ), anyBoolean(), any( DatabaseConnection.class ) );
+    doThrow( new KettleException( "stopped" ) ).when( datasourcePublishSpy ).publishMondrianSchema( anyString(),
+        any( ModelServerPublish.class ), anyBoolean() );
+    when( parentJob.isStopped() ).thenReturn( true );
+
+    Result built = new Result();
+    BuildModelBatch.addResult( built, new BuildModelBatch.Item( "Sales Output", "Sales" ), true, null );
+    BuildModelBatch.addResult( built, new BuildModelBatch.Item( "Orders Output", "Orders" ), true, null );
+
+    Result executeResult = datasourcePublishSpy.execute( built, 0 );
+    assertFalse( executeResult.getResult() );
+    verify( datasourcePublishSpy, times( 2 ) ).deleteXMI( any( ModelServerPublish.class ), anyString(),
+        anyString() );
+    verify( datasourcePublishSpy ).deleteDatabaseMeta( any( ModelServerPublish.class ), same( databaseMeta ) );
+    ArgumentCaptor<HttpDeadline> deadlines = ArgumentCaptor.forClass( HttpDeadline.class );
+    verify( modelServerPublish, atLeastOnce() ).setHttpDeadline( deadlines.capture() );
+    int uncancelled = 0;
+    for ( HttpDeadline deadline : deadlines.getAllValues() ) {
+      uncancelled += deadline.isCancelled() ? 0 : 1;
+    }
+    // both models and the connection are rolled back although the job was stopped
+    assertEquals( 3, uncancelled );
+  }
+
+  @Test
+  public void testExecuteBatchWithoutModelsIsError() throws Exception {
+    JobEntryDatasourcePublish datasourcePublishSpy = getExecuteSpy();
+    datasourcePublishSpy.getDataSourcePublishModel().setModelName( null );
+    Result built = new Result();
+    BuildModelBatch.addResult( built, new BuildModelBatch.Item( "Failed Output", "Failed" ), false, "failed" );
+
+    Result executeResult = datasourcePublishSpy.execute( built, 0 );
+    assertFalse( executeResult.getResult() );
+    assertEquals( 1, executeResult.getNrErrors() );
+    assertEquals( 1, executeResult.getRows().size() );
+    verify( connectionValidator, never() ).validateConnectionInRuntime();
+  }
+
   private Matcher<DataSourceAclModel> matchesUser( final String userName ) {
     return new BaseMatcher<DataSourceAclModel>() {
       @Override public boolean matches( final Object item ) {
@@ -859,6 +1076,31 @@ public class JobEntryDatasourcePublishTest {
     verify( modelServerPublish, times( 1 ) ).publishDsw( any( InputStream.class ), anyString() );
   }
 
+  @Test
+  public void testPublishDswXmiFromArtifactStore() throws Exception {
+    JobEntryDatasourcePublish datasourcePublishSpy = spy( jobEntryDatasourcePublish );
+    ModelArtifactStore store = new ModelArtifactStore();
+    final String xmiString = "<xmi>caf\u00e9</xmi>";
+    String handle = store.store( xmiString );
+    try {
+      when( datasourcePublishSpy.getParentJob() ).thenReturn( parentJob );
+      when( parentJob.getVariable( "JobEntryBuildModel.XMI.MyModel" ) ).thenReturn( handle );
+      final String[] uploaded = new String[1];
+      when( modelServerPublish.publishDsw( any( InputStream.class ), eq( "MyModel.xmi" ) ) ).thenAnswer(
+          new Answer<Integer>() {
+            @Override
+            public Integer answer( InvocationOnMock invocation ) throws Throwable {
+              uploaded[0] = IOUtils.toString( (InputStream) invocation.getArguments()[0], "UTF-8" );
+              return ModelServerPublish.PUBLISH_SUCCESS;
+            }
+          } );
+      datasourcePublishSpy.publishDswXmi( "MyModel", modelServerPublish, true );
+      assertEquals( xmiString, uploaded[0] );
+    } finally {
+      store.clear();
+    }
+  }
+
   @Test( expected = KettleException.class )
   public void testPublishMondrianSchema() throws Exception {
 
@@ -0,0 +1,184 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Community Edition Project: data-refinery-pdi-plugin
+ *
+ * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ *
+ * *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ********************************************************************************/
+package org.pentaho.di.trans.steps.annotation;
+
+import org.junit.Test;
+import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
+import org.pentaho.agilebi.modeler.models.annotations.CreateMeasure;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.trans.step.StepInjectionMetaEntry;
+import org.pentaho.metadata.model.concept.types.AggregationType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation.Type.CREATE_ATTRIBUTE;
+import static org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation.Type.CREATE_MEASURE;
+
+public class ModelAnnotationMetaInjectionTest {
+
+  private static StepInjectionMetaEntry find( List<StepInjectionMetaEntry> entries, String key ) {
+    for ( StepInjectionMetaEntry entry : entries ) {
+      if ( entry.getKey().equals( key ) ) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  private static StepInjectionMetaEntry entry( String key, String value ) {
+    return new StepInjectionMetaEntry( key, value, ValueMetaInterface.TYPE_STRING, key );
+  }
+
+  private static StepInjectionMetaEntry annotation( String name, String field, String type, String... properties ) {
+    StepInjectionMetaEntry annotation =
+        new StepInjectionMetaEntry( "ANNOTATION", ValueMetaInterface.TYPE_NONE, "ANNOTATION" );
+    annotation.getDetails().add( entry( "ANNOTATION_NAME", name ) );
+    annotation.getDetails().add( entry( "FIELD_NAME", field ) );
+    annotation.getDetails().add( entry( "ANNOTATION_TYPE", type ) );
+    for ( int i = 0; i < properties.length; i += 2 ) {
+      annotation.getDetails().add( entry( "PROPERTY_" + properties[i], properties[i + 1] ) );
+    }
+    return annotation;
+  }
+
+  @Test
+  public void testEntriesDescribeAnnotationList() throws Exception {
+    ModelAnnotationMeta meta = new ModelAnnotationMeta();
+    meta.setDefault();
+    List<StepInjectionMetaEntry> entries = meta.getStepMetaInjectionInterface().getStepInjectionMetadataEntries();
+
+    assertNotNull( find( entries, "CATEGORY" ) );
+    assertNotNull( find( entries, "TARGET_OUTPUT_STEP" ) );
+    StepInjectionMetaEntry annotations = find( entries, "ANNOTATIONS" );
+    assertEquals( 1, annotations.getDetails().size() );
+    List<StepInjectionMetaEntry> details = annotations.getDetails().get( 0 ).getDetails();
+    assertNotNull( find( details, "ANNOTATION_NAME" ) );
+    assertNotNull( find( details, "FIELD_NAME" ) );
+    assertNotNull( find( details, "ANNOTATION_TYPE" ) );
+    assertNotNull( find( details, "PROPERTY_aggregateType" ) );
+    assertNotNull( find( details, "PROPERTY_hierarchy" ) );
+  }
+
+  @Test
+  public void testInjectAnnotations() throws Exception {
+    CreateAttribute templateAttribute = new CreateAttribute();
+    templateAttribute.setField( "template" );
+    ModelAnnotationGroup template =
+        new ModelAnnotationGroup( new ModelAnnotation<CreateAttribute>( templateAttribute ) );
+    template.setName( "template" );
+    ModelAnnotationMeta meta = new ModelAnnotationMeta();
+    meta.setModelAnnotations( template );
+
+    List<StepInjectionMetaEntry> metadata = new ArrayList<StepInjectionMetaEntry>();
+    metadata.add( entry( "CATEGORY", "" ) );
+    metadata.add( entry( "TARGET_OUTPUT_STEP", "Table output" ) );
+    metadata.add( entry( "METADATA_ONLY", "Y" ) );
+    StepInjectionMetaEntry annotations =
+        new StepInjectionMetaEntry( "ANNOTATIONS", ValueMetaInterface.TYPE_NONE, "ANNOTATIONS" );
+    annotations.getDetails().add( annotation( "a1", "gender", "CREATE_ATTRIBUTE",
+        "name", "Gender", "hierarchy", "Customer" ) );
+    annotations.getDetails().add( annotation( "m1", "sales", "CREATE_MEASURE",
+        "name", "Total Sales", "aggregateType", "SUM" ) );
+    metadata.add( annotations );
+    meta.getStepMetaInjectionInterface().injectStepMetadataEntries( metadata );
+
+    assertEquals( "", meta.getModelAnnotationCategory() );
+    assertEquals( "Table output", meta.getTargetOutputStep() );
+    assertTrue( meta.isMetadataOnly() );
+    assertFalse( meta.isProfiling() );
+
+    ModelAnnotationGroup injected = meta.getModelAnnotations();
+    assertEquals( "template", injected.getName() );
+    assertEquals( 2, injected.size() );
+    assertEquals( "a1", injected.get( 0 ).getName() );
+    assertEquals( CREATE_ATTRIBUTE, injected.get( 0 ).getType() );
+    CreateAttribute attribute = (CreateAttribute) injected.get( 0 ).getAnnotation();
+    assertEquals( "gender", attribute.getField() );
+    assertEquals( "Gender", attribute.getName() );
+    assertEquals( "Customer", attribute.getHierarchy() );
+    assertEquals( CREATE_MEASURE, injected.get( 1 ).getType() );
+    CreateMeasure measure = (CreateMeasure) injected.get( 1 ).getAnnotation();
+    assertEquals( "sales", measure.getField() );
+    assertEquals( AggregationType.SUM, measure.getAggregateType() );
+
+    // the template group is left alone for the other copies of the template
+    assertEquals( 1, template.size() );
+  }
+
+  @Test
+  public void testInjectWithoutAnnotationsKeepsTemplate() throws Exception {
+    CreateAttribute templateAttribute = new CreateAttribute();
+    templateAttribute.setField( "template" );
+    ModelAnnotation<CreateAttribute> annotation = new ModelAnnotation<CreateAttribute>( templateAttribute );
+    ModelAnnotationGroup template = new ModelAnnotationGroup( annotation );
+    ModelAnnotationMeta meta = new ModelAnnotationMeta();
+    meta.setModelAnnotations( template );
+
+    List<StepInjectionMetaEntry> metadata = new ArrayList<StepInjectionMetaEntry>();
+    metadata.add( entry( "DESCRIPTION", "injected" ) );
+    meta.getStepMetaInjectionInterface().injectStepMetadataEntries( metadata );
+
+    assertEquals( "injected", meta.getModelAnnotations().getDescription() );
+    assertEquals( 1, meta.getModelAnnotations().size() );
+    assertSame( annotation, meta.getModelAnnotations().get( 0 ) );
+    assertNull( template.getDescription() );
+  }
+
+  @Test
+  public void testExtractRoundTrip() throws Exception {
+    CreateMeasure createMeasure = new CreateMeasure();
+    createMeasure.setField( "sales" );
+    createMeasure.setName( "Total Sales" );
+    createMeasure.setAggregateType( AggregationType.AVERAGE );
+    ModelAnnotation<CreateMeasure> measure = new ModelAnnotation<CreateMeasure>( createMeasure );
+    measure.setName( "m1" );
+    ModelAnnotationMeta meta = new ModelAnnotationMeta();
+    meta.setModelAnnotations( new ModelAnnotationGroup( measure ) );
+    meta.setModelAnnotationCategory( "category" );
+    meta.setProfiling( true );
+
+    List<StepInjectionMetaEntry> extracted = meta.getStepMetaInjectionInterface().extractStepMetadataEntries();
+    assertEquals( "category", find( extracted, "CATEGORY" ).getValue() );
+    assertEquals( "Y", find( extracted, "PROFILING" ).getValue() );
+
+    ModelAnnotationMeta copy = new ModelAnnotationMeta();
+    copy.setDefault();
+    copy.getStepMetaInjectionInterface().injectStepMetadataEntries( extracted );
+    assertEquals( "category", copy.getModelAnnotationCategory() );
+    assertTrue( copy.isProfiling() );
+    assertEquals( 1, copy.getModelAnnotations().size() );
+    assertEquals( "m1", copy.getModelAnnotations().get( 0 ).getName() );
+    CreateMeasure copied = (CreateMeasure) copy.getModelAnnotations().get( 0 ).getAnnotation();
+    assertEquals( "sales", copied.getField() );
+    assertEquals( "Total Sales", copied.getName() );
+    assertEquals( AggregationType.AVERAGE, copied.getAggregateType() );
+  }
+}
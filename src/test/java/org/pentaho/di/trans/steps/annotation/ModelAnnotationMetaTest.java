@@ -23,6 +23,7 @@
 package org.pentaho.di.trans.steps.annotation;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -30,6 +31,7 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.mockito.Matchers.any;
 
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
 import org.pentaho.agilebi.modeler.models.annotations.CreateDimensionKey;
@@ -50,6 +52,7 @@ import org.pentaho.di.core.KettleClientEnvironment;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.xml.XMLHandler;
+import org.pentaho.di.repository.ObjectId;
 import org.pentaho.di.repository.Repository;
 import org.pentaho.di.repository.StringObjectId;
 import org.pentaho.di.trans.Trans;
@@ -400,25 +403,22 @@ public class ModelAnnotationMetaTest {
     verify( rep ).saveStepAttribute( transId, stepId, "CATEGORY_NAME", null );
     verify( rep ).saveStepAttribute( transId, stepId, "TARGET_OUTPUT_STEP", null );
 
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "ANNOTATION_NAME", "12345" );
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "ANNOTATION_FIELD_NAME", "GenderField" );
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "ANNOTATION_TYPE", CREATE_ATTRIBUTE.toString() );
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "PROPERTY_VALUE_field", "GenderField" );
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "PROPERTY_VALUE_unique", "false" );
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "PROPERTY_VALUE_hierarchy", "Gender" );
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "PROPERTY_VALUE_name", "Gender" );
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "PROPERTY_VALUE_hidden", "false" );
-
-    verify( rep ).saveStepAttribute( transId, stepId, 1, "ANNOTATION_NAME", "54321" );
-    verify( rep ).saveStepAttribute( transId, stepId, 1, "ANNOTATION_FIELD_NAME", "sales" );
-    verify( rep ).saveStepAttribute( transId, stepId, 1, "ANNOTATION_TYPE", CREATE_MEASURE.toString() );
-    verify( rep ).saveStepAttribute( transId, stepId, 1, "PROPERTY_VALUE_field", "sales" );
-    verify( rep ).saveStepAttribute( transId, stepId, 1, "PROPERTY_VALUE_name", "Total Sales" );
-    verify( rep ).saveStepAttribute( transId, stepId, 1, "PROPERTY_VALUE_aggregateType", "SUM" );
-    verify( rep ).saveStepAttribute( transId, stepId, 1, "PROPERTY_VALUE_hidden", "false" );
-
-    verify( rep ).saveStepAttribute( transId, stepId, "SHARED_DIMENSION", false );
-    verify( rep ).saveStepAttribute( transId, stepId, "DESCRIPTION", "aDescription" );
+    ModelAnnotationGroup saved = verifySavedGroup( rep, transId, stepId );
+    assertEquals( 2, saved.size() );
+    assertEquals( "12345", saved.get( 0 ).getName() );
+    assertEquals( CREATE_ATTRIBUTE, saved.get( 0 ).getType() );
+    CreateAttribute savedAttribute = (CreateAttribute) saved.get( 0 ).getAnnotation();
+    assertEquals( "GenderField", savedAttribute.getField() );
+    assertEquals( "Gender", savedAttribute.getHierarchy() );
+    assertEquals( "Gender", savedAttribute.getName() );
+    assertEquals( "54321", saved.get( 1 ).getName() );
+    assertEquals( CREATE_MEASURE, saved.get( 1 ).getType() );
+    CreateMeasure savedMeasure = (CreateMeasure) saved.get( 1 ).getAnnotation();
+    assertEquals( "sales", savedMeasure.getField() );
+    assertEquals( "Total Sales", savedMeasure.getName() );
+    assertEquals( AggregationType.SUM, savedMeasure.getAggregateType() );
+    assertFalse( saved.isSharedDimension() );
+    assertEquals( "aDescription", saved.getDescription() );
     verifyNoMoreInteractions( rep );
   }
 
@@ -457,28 +457,111 @@ public class ModelAnnotationMetaTest {
     verify( rep ).saveStepAttribute( transId, stepId, "CATEGORY_NAME", null );
     verify( rep ).saveStepAttribute( transId, stepId, "TARGET_OUTPUT_STEP", null );
 
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "ANNOTATION_NAME", "12345" );
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "ANNOTATION_FIELD_NAME", "GenderField" );
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "ANNOTATION_TYPE", CREATE_ATTRIBUTE.toString() );
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "PROPERTY_VALUE_field", "GenderField" );
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "PROPERTY_VALUE_unique", "false" );
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "PROPERTY_VALUE_hierarchy", "Gender" );
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "PROPERTY_VALUE_name", "Gender" );
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "PROPERTY_VALUE_hidden", "false" );
-
-    verify( rep ).saveStepAttribute( transId, stepId, "SHARED_DIMENSION", true );
-    verify( rep ).saveStepAttribute( transId, stepId, "DESCRIPTION", "aDescription" );
-
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "DP_NAME", "sample" );
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "DP_SCHEMA_NAME", "sampleSchema" );
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "DP_TABLE_NAME", "salesTable" );
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "DP_DATABASE_META_NAME_REF", "ref" );
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "CM_NAME_0", "Gender" );
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "CM_COLUMN_NAME_0", "sex" );
-    verify( rep ).saveStepAttribute( transId, stepId, 0, "CM_DATA_TYPE_0", "STRING" );
-    verify( rep ).saveStepAttribute( transId, stepId, "CM_COUNT_0", 1 );
+    ModelAnnotationGroup saved = verifySavedGroup( rep, transId, stepId );
+    assertEquals( 1, saved.size() );
+    assertEquals( "12345", saved.get( 0 ).getName() );
+    assertEquals( "GenderField", saved.get( 0 ).getAnnotation().getField() );
+    assertTrue( saved.isSharedDimension() );
+    assertEquals( "aDescription", saved.getDescription() );
+    assertEquals( 1, saved.getDataProviders().size() );
+    DataProvider savedProvider = saved.getDataProviders().get( 0 );
+    assertEquals( "sample", savedProvider.getName() );
+    assertEquals( "sampleSchema", savedProvider.getSchemaName() );
+    assertEquals( "salesTable", savedProvider.getTableName() );
+    assertEquals( "ref", savedProvider.getDatabaseMetaNameRef() );
+    assertEquals( 1, savedProvider.getColumnMappings().size() );
+    assertEquals( "Gender", savedProvider.getColumnMappings().get( 0 ).getName() );
+    assertEquals( "sex", savedProvider.getColumnMappings().get( 0 ).getColumnName() );
+    assertEquals( DataType.STRING, savedProvider.getColumnMappings().get( 0 ).getColumnDataType() );
     verifyNoMoreInteractions( rep );
+  }
+
+  private ModelAnnotationGroup verifySavedGroup( Repository rep, ObjectId transId, ObjectId stepId )
+    throws Exception {
+    verify( rep ).saveStepAttribute( transId, stepId, "CATEGORY_NAME", null );
+    verify( rep ).saveStepAttribute( transId, stepId, "TARGET_OUTPUT_STEP", null );
+    verify( rep ).saveStepAttribute(
+        transId, stepId, "ANNOTATION_GROUP_VERSION", ModelAnnotationMeta.REP_FORMAT_VERSION );
+    ArgumentCaptor<String> encoded = ArgumentCaptor.forClass( String.class );
+    verify( rep ).saveStepAttribute( same( transId ), same( stepId ), eq( "ANNOTATION_GROUP" ), encoded.capture() );
+    return ModelAnnotationMeta.decodeModelAnnotationGroup( encoded.getValue() );
+  }
+
+  @Test
+  public void testRepRoundTripUsesOneAttribute() throws Exception {
+    ModelAnnotationGroup modelAnnotations = new ModelAnnotationGroup();
+    for ( int i = 0; i < 300; i++ ) {
+      CreateMeasure createMeasure = new CreateMeasure();
+      createMeasure.setName( "measure " + i );
+      createMeasure.setField( "field" + i );
+      createMeasure.setAggregateType( AggregationType.SUM );
+      modelAnnotations.add( new ModelAnnotation<CreateMeasure>( createMeasure ) );
+    }
+    List<DataProvider> dataProviders = new ArrayList<DataProvider>();
+    for ( int i = 0; i < 3; i++ ) {
+      DataProvider dataProvider = new DataProvider();
+      dataProvider.setName( "provider" + i );
+      List<ColumnMapping> columnMappings = new ArrayList<ColumnMapping>();
+      for ( int j = 0; j < 200; j++ ) {
+        ColumnMapping columnMapping = new ColumnMapping();
+        columnMapping.setName( "field" + j );
+        columnMapping.setColumnName( "column" + j );
+        columnMapping.setColumnDataType( DataType.NUMERIC );
+        columnMappings.add( columnMapping );
+      }
+      dataProvider.setColumnMappings( columnMappings );
+      dataProviders.add( dataProvider );
+    }
+    modelAnnotations.setDataProviders( dataProviders );
+    modelAnnotations.setSharedDimension( true );
+    ModelAnnotationMeta meta = new ModelAnnotationMeta();
+    meta.setModelAnnotations( modelAnnotations );
 
+    Repository rep = mock( Repository.class );
+    StringObjectId transId = new StringObjectId( "transId" );
+    StringObjectId stepId = new StringObjectId( "stepId" );
+    meta.saveRep( rep, metaStore, transId, stepId );
+    // category, target step, version and the group itself, instead of several thousand attributes
+    ArgumentCaptor<String> encoded = ArgumentCaptor.forClass( String.class );
+    verify( rep ).saveStepAttribute( same( transId ), same( stepId ), eq( "ANNOTATION_GROUP" ), encoded.capture() );
+    verify( rep ).saveStepAttribute(
+        transId, stepId, "ANNOTATION_GROUP_VERSION", ModelAnnotationMeta.REP_FORMAT_VERSION );
+    verify( rep ).saveStepAttribute( transId, stepId, "CATEGORY_NAME", null );
+    verify( rep ).saveStepAttribute( transId, stepId, "TARGET_OUTPUT_STEP", null );
+    verifyNoMoreInteractions( rep );
+
+    when( rep.getStepAttributeString( stepId, "ANNOTATION_GROUP" ) ).thenReturn( encoded.getValue() );
+    when( rep.getStepAttributeInteger( stepId, "ANNOTATION_GROUP_VERSION" ) )
+        .thenReturn( ModelAnnotationMeta.REP_FORMAT_VERSION );
+    ModelAnnotationMeta loaded = new ModelAnnotationMeta();
+    loaded.readRep( rep, metaStore, stepId, Collections.<DatabaseMeta>emptyList() );
+    verify( rep, never() ).countNrStepAttributes( any( ObjectId.class ), anyString() );
+
+    ModelAnnotationGroup loadedAnnotations = loaded.getModelAnnotations();
+    assertEquals( 300, loadedAnnotations.size() );
+    assertEquals( "measure 299", ( (CreateMeasure) loadedAnnotations.get( 299 ).getAnnotation() ).getName() );
+    assertNotNull( loadedAnnotations.get( 299 ).getName() );
+    assertTrue( loaded.isSharedDimension() );
+    assertEquals( 3, loadedAnnotations.getDataProviders().size() );
+    assertEquals( 200, loadedAnnotations.getDataProviders().get( 2 ).getColumnMappings().size() );
+    assertEquals( "column199",
+        loadedAnnotations.getDataProviders().get( 2 ).getColumnMappings().get( 199 ).getColumnName() );
+  }
+
+  @Test
+  public void testReadNewerRepFormatFails() throws Exception {
+    ModelAnnotationMeta meta = new ModelAnnotationMeta();
+    StringObjectId stepId = new StringObjectId( "stepId" );
+    Repository rep = mock( Repository.class );
+    when( rep.getStepAttributeString( stepId, "ANNOTATION_GROUP" ) ).thenReturn( "H4sIAAAAAAAAAAMAAAAAAAAAAAA=" );
+    when( rep.getStepAttributeInteger( stepId, "ANNOTATION_GROUP_VERSION" ) )
+        .thenReturn( ModelAnnotationMeta.REP_FORMAT_VERSION + 1 );
+    try {
+      meta.readRep( rep, metaStore, stepId, Collections.<DatabaseMeta>emptyList() );
+      fail( "should not read a newer format" );
+    } catch ( KettleException e ) {
+      assertTrue( e.getCause().getMessage().contains( "format 2" ) );
+    }
   }
 
   @Test
@@ -24,7 +24,10 @@ package org.pentaho.di.trans.steps.annotation;
 
 import junit.framework.Assert;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
@@ -34,20 +37,39 @@ import org.pentaho.agilebi.modeler.models.annotations.CreateMeasure;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationManager;
+import org.pentaho.di.core.KettleClientEnvironment;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.LogLevel;
+import org.pentaho.di.core.plugins.PluginRegistry;
+import org.pentaho.di.core.refinery.AnnotationAccumulator;
 import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.value.ValueMetaNumber;
 import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.variables.Variables;
 import org.pentaho.di.job.Job;
+import org.pentaho.di.job.JobMeta;
 import org.pentaho.di.job.entries.build.JobEntryBuildModel;
+import org.pentaho.di.trans.RowProducer;
 import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransHopMeta;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.steps.dummytrans.DummyTransMeta;
+import org.pentaho.di.trans.steps.injector.InjectorMeta;
 import org.pentaho.metadata.model.concept.types.AggregationType;
 import org.pentaho.metastore.api.IMetaStore;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 public class ModelAnnotationStepTest {
   @Test
   public void testPutsAnnotationGroupIntoTheExtensionMap() throws Exception {
@@ -73,12 +95,82 @@ public class ModelAnnotationStepTest {
     modelAnnotation.first = true;
 
     modelAnnotation.processRow( modelAnnotationMeta, stepDataInterface );
+    // a re-run of the same step replaces its earlier contribution
     actualAnnotations =
         (ModelAnnotationGroup) modelAnnotation.getExtensionDataMap().get( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS );
-    assertEquals( 3, actualAnnotations.size() );
+    assertEquals( 2, actualAnnotations.size() );
     assertSame( annotationMock1, actualAnnotations.get( 0 ) );
-    assertSame( annotationMock1, actualAnnotations.get( 1 ) );
-    assertSame( annotationMock2, actualAnnotations.get( 2 ) );
+    assertSame( annotationMock2, actualAnnotations.get( 1 ) );
+  }
+
+  @Test
+  public void testConcurrentCopiesAndTransformations() throws Exception {
+    KettleClientEnvironment.init();
+    final int transCount = 8;
+    final int copyCount = 16;
+    CreateAttribute common = new CreateAttribute();
+    common.setField( "common" );
+    ModelAnnotation<?> commonAnnotation = new ModelAnnotation<CreateAttribute>( common );
+
+    ModelAnnotationGroup expected = null;
+    for ( int round = 0; round < 5; round++ ) {
+      Job job = new Job( null, new JobMeta() );
+      final List<ModelAnnotationStep> steps = new ArrayList<ModelAnnotationStep>();
+      final List<ModelAnnotationMeta> metas = new ArrayList<ModelAnnotationMeta>();
+      for ( int t = 0; t < transCount; t++ ) {
+        CreateAttribute attribute = new CreateAttribute();
+        attribute.setField( "f" + t );
+        ModelAnnotationMeta meta = new ModelAnnotationMeta();
+        meta.setModelAnnotations(
+            new ModelAnnotationGroup( commonAnnotation, new ModelAnnotation<CreateAttribute>( attribute ) ) );
+        StepMeta stepMeta = new StepMeta( "annotate", meta );
+        TransMeta transMeta = new TransMeta();
+        transMeta.setName( "trans" + ( transCount - t ) );
+        transMeta.addStep( stepMeta );
+        Trans trans = new Trans( transMeta );
+        trans.setParentJob( job );
+        for ( int c = 0; c < copyCount; c++ ) {
+          steps.add( new ModelAnnotationStep( stepMeta, new ModelAnnotationData(), c, transMeta, trans ) {
+            @Override public Object[] getRow() throws KettleException {
+              return null;
+            }
+          } );
+          metas.add( meta );
+        }
+      }
+
+      final CountDownLatch start = new CountDownLatch( 1 );
+      ExecutorService executor = Executors.newFixedThreadPool( steps.size() );
+      List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+      for ( int i = 0; i < steps.size(); i++ ) {
+        final int index = i;
+        results.add( executor.submit( new Callable<Boolean>() {
+          @Override public Boolean call() throws Exception {
+            start.await();
+            return steps.get( index ).processRow( metas.get( index ), new ModelAnnotationData() );
+          }
+        } ) );
+      }
+      start.countDown();
+      for ( Future<Boolean> result : results ) {
+        assertFalse( result.get( 30, TimeUnit.SECONDS ) );
+      }
+      executor.shutdown();
+
+      ModelAnnotationGroup actual =
+          (ModelAnnotationGroup) job.getExtensionDataMap().get( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS );
+      assertEquals( transCount + 1, actual.size() );
+      assertSame( commonAnnotation, actual.get( 0 ) );
+      // contributions are ordered by transformation name, not by completion order
+      assertEquals( "f" + ( transCount - 1 ), actual.get( 1 ).getAnnotation().getField() );
+      if ( expected == null ) {
+        expected = actual;
+      } else {
+        for ( int i = 0; i < expected.size(); i++ ) {
+          assertEquals( expected.get( i ).getAnnotation().getField(), actual.get( i ).getAnnotation().getField() );
+        }
+      }
+    }
   }
 
   @Test
@@ -270,6 +362,68 @@ public class ModelAnnotationStepTest {
     }
   }
 
+  @Test
+  public void testMetadataOnlyStepLeavesRowPipeline() throws Exception {
+    KettleClientEnvironment.init();
+    PluginRegistry.init();
+
+    TransMeta transMeta = new TransMeta( Variables.getADefaultVariableSpace() );
+    StepMeta inStep = new StepMeta( "In", new InjectorMeta() );
+    transMeta.addStep( inStep );
+
+    CreateMeasure cm = new CreateMeasure();
+    cm.setField( "amount" );
+    ModelAnnotationMeta annotationMeta = new ModelAnnotationMeta();
+    annotationMeta.setDefault();
+    annotationMeta.setModelAnnotations( new ModelAnnotationGroup( new ModelAnnotation<CreateMeasure>( cm ) ) );
+    annotationMeta.setMetadataOnly( true );
+    StepMeta annotationStep = new StepMeta( "Annotating", annotationMeta );
+    transMeta.addStep( annotationStep );
+
+    StepMeta outStep = new StepMeta( "Out", new DummyTransMeta() );
+    transMeta.addStep( outStep );
+    transMeta.addTransHop( new TransHopMeta( inStep, annotationStep ) );
+    transMeta.addTransHop( new TransHopMeta( annotationStep, outStep ) );
+
+    Job job = new Job( null, new JobMeta() );
+    Trans trans = new Trans( transMeta );
+    trans.setParentJob( job );
+    trans.prepareExecution( null );
+
+    StepInterface annotating = trans.findStepInterface( "Annotating", 0 );
+    StepInterface out = trans.findStepInterface( "Out", 0 );
+    ModelAnnotationData data = (ModelAnnotationData) trans.getStepDataInterface( "Annotating", 0 );
+    assertEquals( 1, data.annotations.size() );
+    // taken out of the pipeline when the threads start, published when the transformation finished
+    assertFalse( data.elided );
+    assertNull( job.getExtensionDataMap().get( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS ) );
+
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaNumber( "amount" ) );
+    RowProducer producer = trans.addRowProducer( "In", 0 );
+    for ( int i = 0; i < 100; i++ ) {
+      producer.putRow( rowMeta, new Object[] { (double) i } );
+    }
+    producer.finished();
+    trans.startThreads();
+    assertTrue( data.elided );
+    assertTrue( annotating.getInputRowSets().isEmpty() );
+    assertTrue( annotating.getOutputRowSets().isEmpty() );
+    assertEquals( 1, out.getInputRowSets().size() );
+    assertEquals( "In", out.getInputRowSets().get( 0 ).getOriginStepName() );
+    trans.waitUntilFinished();
+
+    assertEquals( 0, trans.getErrors() );
+    assertEquals( 1,
+        ( (ModelAnnotationGroup) job.getExtensionDataMap().get( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS ) ).size() );
+    // meant for the steps downstream only
+    AnnotationAccumulator accumulator = AnnotationAccumulator.find( job.getExtensionDataMap() );
+    assertEquals( 1, accumulator.snapshot( "Out" ).size() );
+    assertEquals( 0, accumulator.snapshot( "In" ).size() );
+    assertEquals( 100, out.getLinesRead() );
+    assertEquals( 0, annotating.getLinesRead() );
+  }
+
   private ModelAnnotationStep createOneShotStep( StepDataInterface stepDataInterface, IMetaStore metaStore,
       final ModelAnnotationManager manager ) {
     StepMeta stepMeta = mock( StepMeta.class );
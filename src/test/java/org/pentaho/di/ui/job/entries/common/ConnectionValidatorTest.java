@@ -29,10 +29,12 @@ import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.gui.SpoonInterface;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.core.refinery.publish.model.DataSourcePublishModel;
+import org.pentaho.di.core.refinery.publish.util.ConnectionValidationCache;
 import org.pentaho.di.core.refinery.publish.util.PublishRestUtil;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 /**
@@ -56,6 +58,7 @@ public class ConnectionValidatorTest {
     connectionValidator = new ConnectionValidator();
     connectionValidator.setPublishRestUtil( publishRestUtil );
     connectionValidator.setConnection( model.getBiServerConnection() );
+    connectionValidator.setValidationCache( null );
   }
 
   @Test
@@ -153,7 +156,7 @@ public class ConnectionValidatorTest {
     when( spy.getSpoon() ).thenReturn( spoon );
     doReturn( true ).when( spy ).isPentahoServer();
     doReturn( true ).when( spy ).isUserInfoProvided();
-    doReturn( true ).when( spy ).canConnect();
+    doReturn( true ).when( spy ).hasPublishPermissions();
 
     spy.validateConnectionInDesignTime();
     verify( spy ).showInfo( anyString(), anyString() );
@@ -167,7 +170,7 @@ public class ConnectionValidatorTest {
     when( spy.getSpoon() ).thenReturn( spoon );
     doReturn( true ).when( spy ).isPentahoServer();
     doReturn( true ).when( spy ).isUserInfoProvided();
-    doReturn( false ).when( spy ).canConnect();
+    doReturn( false ).when( spy ).hasPublishPermissions();
     when( publishRestUtil.getLastHTTPStatus() ).thenReturn( 404 );
 
     spy.validateConnectionInDesignTime();
@@ -228,4 +231,53 @@ public class ConnectionValidatorTest {
 
     spy.validateConnectionInRuntime();
   }
+
+  @Test
+  public void testRuntimeValidationChecksServerOnce() throws KettleException {
+    BiServerConnection connection = model.getBiServerConnection();
+    when( publishRestUtil.isPentahoServer( connection ) ).thenReturn( true );
+    when( publishRestUtil.isUserInfoProvided( connection ) ).thenReturn( true );
+    when( publishRestUtil.canPublish( connection ) ).thenReturn( true );
+    when( publishRestUtil.canManageDatasources( connection ) ).thenReturn( true );
+
+    connectionValidator.validateConnectionInRuntime();
+    verify( publishRestUtil ).isPentahoServer( connection );
+    verify( publishRestUtil ).isUnauthenticatedUser( connection );
+  }
+
+  @Test
+  public void testRuntimeValidationIsCached() throws KettleException {
+    ConnectionValidationCache cache = mock( ConnectionValidationCache.class );
+    connectionValidator.setValidationCache( cache );
+    ConnectionValidator spy = spy( connectionValidator );
+    doReturn( true ).when( spy ).isPentahoServer();
+    doReturn( true ).when( spy ).isUserInfoProvided();
+    doReturn( true ).when( spy ).hasPublishPermissions();
+
+    spy.validateConnectionInRuntime();
+    verify( cache ).setValid( model.getBiServerConnection() );
+
+    when( cache.isValid( model.getBiServerConnection() ) ).thenReturn( true );
+    spy.validateConnectionInRuntime();
+    verify( spy, times( 1 ) ).isPentahoServer();
+    verify( spy, times( 1 ) ).hasPublishPermissions();
+  }
+
+  @Test
+  public void testFailedRuntimeValidationIsNotCached() throws KettleException {
+    ConnectionValidationCache cache = mock( ConnectionValidationCache.class );
+    connectionValidator.setValidationCache( cache );
+    ConnectionValidator spy = spy( connectionValidator );
+    doReturn( true ).when( spy ).isPentahoServer();
+    doReturn( true ).when( spy ).isUserInfoProvided();
+    doReturn( false ).when( spy ).hasPublishPermissions();
+
+    try {
+      spy.validateConnectionInRuntime();
+      fail();
+    } catch ( KettleException e ) {
+      // expected
+    }
+    verify( cache, never() ).setValid( any( BiServerConnection.class ) );
+  }
 }